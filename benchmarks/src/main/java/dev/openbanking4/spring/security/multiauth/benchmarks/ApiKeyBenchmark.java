@@ -0,0 +1,100 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.benchmarks;
+
+import dev.openbanking4.spring.security.multiauth.examples.commons.apikey.CachingApiKeyValidator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.userdetails.User;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The work example1 does for the 'key' header: validate the key, then copy the authorities of the user.
+ * The validator service answers immediately, so we only measure what happens in the app.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class ApiKeyBenchmark {
+
+	private static final String INVALID_API_KEY = "invalid-" + Tokens.API_KEY;
+
+	private CachingApiKeyValidator<User> validator;
+
+	@Setup
+	public void setup() {
+		validator = CachingApiKeyValidator.<User>builder()
+				.validatorService(apiKeys -> apiKeys.stream()
+						.filter(apiKey -> !apiKey.startsWith("invalid-"))
+						.collect(Collectors.toMap(Function.identity(), ApiKeyBenchmark::bob)))
+				.batching(50, Duration.ofMillis(5))
+				.build();
+		validator.validate(Tokens.API_KEY);
+		validator.validate(INVALID_API_KEY);
+	}
+
+	@TearDown
+	public void tearDown() {
+		validator.close();
+	}
+
+	/**
+	 * What example1 did before the validator: the mocked service built the user on every request
+	 */
+	@Benchmark
+	public Set<GrantedAuthority> userPerRequest() {
+		return new HashSet<>(bob(Tokens.API_KEY).getAuthorities());
+	}
+
+	@Benchmark
+	public Set<GrantedAuthority> cachedValidKey() {
+		return new HashSet<>(validator.validate(Tokens.API_KEY).getAuthorities());
+	}
+
+	@Benchmark
+	public User cachedInvalidKey() {
+		return validator.validate(INVALID_API_KEY);
+	}
+
+	private static User bob(String apiKey) {
+		return new User("bob", "", Stream.of(new SimpleGrantedAuthority("repo-42")).collect(Collectors.toSet()));
+	}
+}
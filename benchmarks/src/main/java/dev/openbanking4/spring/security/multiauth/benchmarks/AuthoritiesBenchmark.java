@@ -0,0 +1,93 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.benchmarks;
+
+import dev.openbanking4.spring.security.multiauth.examples.commons.authorities.AuthoritySetInterner;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * The authorities of a request, built from the 'group' claim of the SSO cookie or copied from the API key user, vs the
+ * interned sets. Run with '-prof gc': the interned sets don't allocate once the groups were seen.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class AuthoritiesBenchmark {
+
+	@Param({"2", "200"})
+	private int groupCount;
+
+	private final AuthoritySetInterner interner = new AuthoritySetInterner(10_000);
+	private List<Object> groupClaim;
+	private Collection<GrantedAuthority> userAuthorities;
+
+	@Setup
+	public void setup() {
+		groupClaim = new ArrayList<>(groupCount);
+		userAuthorities = new HashSet<>();
+		for (int i = 0; i < groupCount; i++) {
+			groupClaim.add("group-" + i);
+			userAuthorities.add(new SimpleGrantedAuthority("group-" + i));
+		}
+	}
+
+	@Benchmark
+	public Set<GrantedAuthority> groupClaimToNewSet() {
+		return groupClaim.stream().map(g -> new SimpleGrantedAuthority((String) g)).collect(Collectors.toSet());
+	}
+
+	@Benchmark
+	public Set<GrantedAuthority> groupClaimInterned() {
+		return interner.fromNames(groupClaim);
+	}
+
+	@Benchmark
+	public Set<GrantedAuthority> userAuthoritiesCopy() {
+		return new HashSet<>(userAuthorities);
+	}
+
+	@Benchmark
+	public Set<GrantedAuthority> userAuthoritiesInterned() {
+		return interner.of(userAuthorities);
+	}
+}
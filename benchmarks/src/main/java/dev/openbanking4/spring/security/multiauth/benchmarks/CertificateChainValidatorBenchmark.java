@@ -0,0 +1,102 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.benchmarks;
+
+import dev.openbanking4.spring.security.multiauth.examples.commons.x509.CertificateChainValidator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.InputStream;
+import java.security.KeyStore;
+import java.security.cert.CertPathValidator;
+import java.security.cert.CertificateFactory;
+import java.security.cert.PKIXCertPathValidatorResult;
+import java.security.cert.PKIXParameters;
+import java.security.cert.X509Certificate;
+import java.util.List;
+
+/**
+ * Validates the chain of the client certificate against the trust store of example2, as example2 does for the
+ * certificates forwarded in the 'x-cert' header.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class CertificateChainValidatorBenchmark {
+
+	private KeyStore trustStore;
+	private X509Certificate[] chain;
+	private CertificateChainValidator validator;
+
+	@Setup
+	public void setup() throws Exception {
+		trustStore = KeyStore.getInstance("PKCS12");
+		try (InputStream in = getClass().getResourceAsStream("/keystores/truststore.jks")) {
+			trustStore.load(in, "changeit".toCharArray());
+		}
+		chain = new X509Certificate[]{ClientCredentials.alice().certificate};
+		validator = CertificateChainValidator.builder()
+				.trustStore(trustStore)
+				.build()
+				.start();
+		if (!validator.isValid(chain)) {
+			throw new IllegalStateException("The chain of alice should be valid");
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		validator.close();
+	}
+
+	/**
+	 * The trust anchors are read from the trust store and the chain is validated on every request
+	 */
+	@Benchmark
+	public PKIXCertPathValidatorResult pkixEveryRequest() throws Exception {
+		return (PKIXCertPathValidatorResult) CertPathValidator.getInstance("PKIX").validate(
+				CertificateFactory.getInstance("X.509").generateCertPath(List.of(chain)),
+				newPkixParameters());
+	}
+
+	@Benchmark
+	public boolean certificateChainValidator() {
+		return validator.isValid(chain);
+	}
+
+	private PKIXParameters newPkixParameters() throws Exception {
+		PKIXParameters parameters = new PKIXParameters(trustStore);
+		parameters.setRevocationEnabled(false);
+		return parameters;
+	}
+}
@@ -0,0 +1,104 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.benchmarks;
+
+import dev.openbanking4.spring.security.multiauth.examples.commons.x509.CertificateChainCache;
+import org.bouncycastle.asn1.x500.RDN;
+import org.bouncycastle.asn1.x500.style.BCStyle;
+import org.bouncycastle.asn1.x500.style.IETFUtils;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateHolder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+
+/**
+ * The work example2 does for the 'x-cert' header: parse the PEM chain forwarded by the gateway, and read the CN of
+ * the client certificate. Compares doing it on every request with the certificate chain cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class CertificateHeaderBenchmark {
+
+	/**
+	 * Gateways forward the PEM as it is, or URL encoded like nginx '$ssl_client_escaped_cert'
+	 */
+	@Param({"pem", "url-encoded"})
+	public String format;
+
+	private String header;
+	private CertificateChainCache cache;
+
+	@Setup
+	public void setup() throws Exception {
+		String pem = ClientCredentials.alice().certificatePem;
+		header = "pem".equals(format) ? pem : URLEncoder.encode(pem, StandardCharsets.UTF_8).replace("+", "%20");
+		cache = new CertificateChainCache(10_000, Duration.ofHours(1), CertificateHeaderBenchmark::commonName);
+	}
+
+	@Benchmark
+	public String parseEveryRequest() throws CertificateException {
+		String pem = header.indexOf('%') >= 0
+				? URLDecoder.decode(header.replace("+", "%2B"), StandardCharsets.UTF_8)
+				: header;
+		X509Certificate certificate = (X509Certificate) CertificateFactory.getInstance("X.509")
+				.generateCertificate(new ByteArrayInputStream(pem.getBytes(StandardCharsets.US_ASCII)));
+		return commonName(certificate);
+	}
+
+	@Benchmark
+	public String certificateChainCache() throws CertificateException {
+		return cache.username(cache.parse(header));
+	}
+
+	/**
+	 * Same as the username collector of example2
+	 */
+	private static String commonName(X509Certificate certificate) {
+		try {
+			RDN cn = new JcaX509CertificateHolder(certificate).getSubject().getRDNs(BCStyle.CN)[0];
+			return IETFUtils.valueToString(cn.getFirst().getValue());
+		} catch (CertificateEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.benchmarks;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.MACSigner;
+import com.nimbusds.jose.util.Base64URL;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import net.minidev.json.JSONObject;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.openssl.jcajce.JcaPEMWriter;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * A client certificate for 'alice' and an access token bound to it.
+ *
+ * The certificate of the examples tests is expired, and the examples don't cache what they parse from expired
+ * certificates: we generate a valid one so the benchmarks measure the usual case. It is issued by the example CA,
+ * whose key is in the keystore of example2, so its chain is valid for the trust store of example2.
+ */
+final class ClientCredentials {
+
+	private static final String CA_ALIAS = "spring-security-multi-auth-example-ca";
+	private static final char[] PASSWORD = "changeit".toCharArray();
+
+	final X509Certificate certificate;
+	final String certificatePem;
+	final String accessToken;
+
+	private ClientCredentials(X509Certificate certificate, String certificatePem, String accessToken) {
+		this.certificate = certificate;
+		this.certificatePem = certificatePem;
+		this.accessToken = accessToken;
+	}
+
+	static ClientCredentials alice() throws Exception {
+		KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+		generator.initialize(2048);
+		KeyPair keyPair = generator.generateKeyPair();
+		KeyStore keyStore = KeyStore.getInstance("PKCS12");
+		try (InputStream in = ClientCredentials.class.getResourceAsStream("/keystores/keystore.jks")) {
+			keyStore.load(in, PASSWORD);
+		}
+		X509Certificate ca = (X509Certificate) keyStore.getCertificate(CA_ALIAS);
+		Instant now = Instant.now();
+		X509Certificate certificate = new JcaX509CertificateConverter().getCertificate(
+				new JcaX509v3CertificateBuilder(ca, BigInteger.valueOf(now.toEpochMilli()),
+						Date.from(now.minus(Duration.ofMinutes(1))), Date.from(now.plus(Duration.ofDays(1))),
+						new X500Name("CN=alice,OU=Spring-security-multi-auth-example,O=OpenBanking4.dev"),
+						keyPair.getPublic())
+						.build(new JcaContentSignerBuilder("SHA256withRSA")
+								.build((PrivateKey) keyStore.getKey(CA_ALIAS, PASSWORD))));
+
+		StringWriter pem = new StringWriter();
+		try (JcaPEMWriter writer = new JcaPEMWriter(pem)) {
+			writer.writeObject(certificate);
+		}
+		return new ClientCredentials(certificate, pem.toString(), accessTokenBoundTo(certificate));
+	}
+
+	private static String accessTokenBoundTo(X509Certificate certificate) throws Exception {
+		JSONObject cnf = new JSONObject();
+		cnf.put("x5t#S256", Base64URL.encode(MessageDigest.getInstance("SHA-256").digest(certificate.getEncoded()))
+				.toString());
+		SignedJWT accessToken = new SignedJWT(new JWSHeader(JWSAlgorithm.HS256), new JWTClaimsSet.Builder()
+				.claim("scope", List.of("accounts", "payments"))
+				.claim("cnf", cnf)
+				.build());
+		accessToken.sign(new MACSigner(Tokens.HMAC_SECRET));
+		return accessToken.serialize();
+	}
+}
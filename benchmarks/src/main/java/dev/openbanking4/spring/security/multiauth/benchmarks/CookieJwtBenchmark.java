@@ -0,0 +1,86 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.benchmarks;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jwt.JWT;
+import dev.openbanking4.spring.security.multiauth.examples.commons.jwt.JWSVerifierRegistry;
+import dev.openbanking4.spring.security.multiauth.examples.commons.jwt.VerifiedJWT;
+import dev.openbanking4.spring.security.multiauth.examples.commons.jwt.VerifiedTokenCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+import java.text.ParseException;
+import java.time.Duration;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * The work example1 does for the 'SSO' cookie: verify the signature, parse the claims and map the 'group' claim to
+ * authorities. Compares doing it on every request with the verified token cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class CookieJwtBenchmark {
+
+	private JWSVerifierRegistry registry;
+	private VerifiedTokenCache cache;
+
+	@Setup
+	public void setup() throws JOSEException {
+		registry = JWSVerifierRegistry.hmac(JWSAlgorithm.HS256, Tokens.HMAC_SECRET);
+		cache = new VerifiedTokenCache(10_000, Duration.ofMinutes(5));
+	}
+
+	@Benchmark
+	public Set<GrantedAuthority> verifyEveryRequest() throws ParseException, JOSEException {
+		return authorities(verify(Tokens.SSO_COOKIE));
+	}
+
+	@Benchmark
+	public Set<GrantedAuthority> verifiedTokenCache() throws ParseException, JOSEException {
+		return authorities(cache.getOrVerify(Tokens.SSO_COOKIE, this::verify));
+	}
+
+	private JWT verify(String tokenSerialised) throws ParseException, JOSEException {
+		return VerifiedJWT.verify(tokenSerialised, registry);
+	}
+
+	private static Set<GrantedAuthority> authorities(JWT token) throws ParseException {
+		return token.getJWTClaimsSet().getStringListClaim("group").stream()
+				.map(SimpleGrantedAuthority::new).collect(Collectors.toSet());
+	}
+}
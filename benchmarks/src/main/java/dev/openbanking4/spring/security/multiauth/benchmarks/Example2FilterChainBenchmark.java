@@ -0,0 +1,87 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.benchmarks;
+
+import dev.openbanking4.spring.security.multiauth.MultiAuthSpringSecurityClientCertAndAccessToken;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+
+/**
+ * A '/whoAmI' request through the whole filter chain of example2, including the collectors and the JSON response.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class Example2FilterChainBenchmark {
+
+	@Param({"anonymous", "cert-and-token"})
+	public String credentials;
+
+	private ConfigurableApplicationContext context;
+	private MockMvc mockMvc;
+	private ClientCredentials alice;
+
+	@Setup
+	public void setup() throws Exception {
+		alice = ClientCredentials.alice();
+		context = ExampleApplications.start(MultiAuthSpringSecurityClientCertAndAccessToken.class);
+		mockMvc = ExampleApplications.mockMvc(context);
+		String expectedUsername = "cert-and-token".equals(credentials) ? "alice" : "anonymous";
+		String response = whoAmI().getResponse().getContentAsString();
+		if (!response.contains("\"username\":\"" + expectedUsername + "\"")) {
+			throw new IllegalStateException("Unexpected response for '" + credentials + "': " + response);
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		context.close();
+	}
+
+	@Benchmark
+	public MvcResult whoAmI() throws Exception {
+		MockHttpServletRequestBuilder request = get("/whoAmI");
+		if ("cert-and-token".equals(credentials)) {
+			request.header("x-cert", alice.certificatePem)
+					.header("Authorization", "Bearer " + alice.accessToken);
+		}
+		return mockMvc.perform(request).andReturn();
+	}
+}
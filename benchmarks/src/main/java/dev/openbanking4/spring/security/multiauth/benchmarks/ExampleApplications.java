@@ -0,0 +1,90 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.benchmarks;
+
+import org.springframework.boot.Banner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.context.TypeExcludeFilter;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.type.classreading.MetadataReader;
+import org.springframework.core.type.classreading.MetadataReaderFactory;
+import org.springframework.mock.web.MockServletContext;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+import org.springframework.web.context.support.GenericWebApplicationContext;
+
+import javax.servlet.Filter;
+
+/**
+ * Starts an example app without web server, so the benchmarks can send requests through its filter chain with
+ * MockMvc, the same way the examples tests do.
+ */
+final class ExampleApplications {
+
+	private ExampleApplications() {
+	}
+
+	static ConfigurableApplicationContext start(Class<?> application) {
+		SpringApplication springApplication = new SpringApplication(application);
+		springApplication.setApplicationContextClass(GenericWebApplicationContext.class);
+		springApplication.setBannerMode(Banner.Mode.OFF);
+		springApplication.addInitializers(context -> {
+			((GenericWebApplicationContext) context).setServletContext(new MockServletContext());
+			context.getBeanFactory().registerSingleton("otherExamplesExcludeFilter",
+					new OtherExamplesExcludeFilter(application));
+		});
+		// The examples log each request at trace level, which would be what we measure. The benchmarks replay the same
+		// credentials as fast as they can, from the same address: the rate limits would reject them.
+		return springApplication.run("--logging.level.dev.openbanking4=WARN",
+				"--rate-limit.api-key.requests-per-second=0",
+				"--rate-limit.client-cert.requests-per-second=0",
+				"--rate-limit.client-ip-failures.per-second=0");
+	}
+
+	static MockMvc mockMvc(ConfigurableApplicationContext context) {
+		return MockMvcBuilders.webAppContextSetup((WebApplicationContext) context)
+				.addFilters(context.getBean("springSecurityFilterChain", Filter.class))
+				.build();
+	}
+
+	/**
+	 * All the examples are in the same package: when starting one of them, the component scan must skip the others.
+	 */
+	private static class OtherExamplesExcludeFilter extends TypeExcludeFilter {
+
+		private final Class<?> application;
+
+		OtherExamplesExcludeFilter(Class<?> application) {
+			this.application = application;
+		}
+
+		@Override
+		public boolean match(MetadataReader metadataReader, MetadataReaderFactory metadataReaderFactory) {
+			String className = metadataReader.getClassMetadata().getClassName();
+			String packageName = application.getPackageName();
+			return className.startsWith(packageName + ".")
+					&& className.indexOf('.', packageName.length() + 1) < 0
+					&& !className.equals(application.getName())
+					&& !className.startsWith(application.getName() + "$");
+		}
+	}
+}
@@ -0,0 +1,69 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.benchmarks;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSObject;
+import com.nimbusds.jose.crypto.MACVerifier;
+import dev.openbanking4.spring.security.multiauth.examples.commons.jwt.JWSVerifierRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.text.ParseException;
+
+/**
+ * Compares building a new MACVerifier for every request with the verifiers shared through the registry.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class JWSVerifierBenchmark {
+
+	private JWSVerifierRegistry registry;
+
+	@Setup
+	public void setup() throws JOSEException {
+		registry = JWSVerifierRegistry.hmac(JWSAlgorithm.HS256, Tokens.HMAC_SECRET);
+	}
+
+	@Benchmark
+	public boolean newVerifierPerRequest() throws ParseException, JOSEException {
+		JWSObject jwsObject = JWSObject.parse(Tokens.SSO_COOKIE);
+		return jwsObject.verify(new MACVerifier(Tokens.HMAC_SECRET));
+	}
+
+	@Benchmark
+	public boolean sharedVerifierRegistry() throws ParseException, JOSEException {
+		return registry.verify(JWSObject.parse(Tokens.SSO_COOKIE));
+	}
+}
@@ -0,0 +1,86 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.benchmarks;
+
+import dev.openbanking4.spring.security.multiauth.configurers.collectors.AuthenticationCollector;
+import dev.openbanking4.spring.security.multiauth.examples.commons.metrics.MeteredCollector;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.Authentication;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * The overhead of the collector metrics. Run with '-prof gc': the metered collector must not allocate more than the
+ * collector it wraps.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class MeteredCollectorBenchmark {
+
+	private final HttpServletRequest request = new MockHttpServletRequest("GET", "/whoAmI");
+	private AuthenticationCollector collector;
+	private AuthenticationCollector meteredCollector;
+
+	@Setup
+	public void setup() {
+		Authentication bob = new TestingAuthenticationToken("bob", "");
+		collector = new AuthenticationCollector() {
+			@Override
+			public String collectorName() {
+				return "API-Key";
+			}
+
+			@Override
+			public Authentication collectAuthentication(HttpServletRequest request) {
+				return bob;
+			}
+		};
+		meteredCollector = MeteredCollector.ofAuthentication(collector,
+				new PrometheusMeterRegistry(PrometheusConfig.DEFAULT));
+	}
+
+	@Benchmark
+	public Authentication collector() {
+		return collector.collectAuthentication(request);
+	}
+
+	@Benchmark
+	public Authentication meteredCollector() {
+		return meteredCollector.collectAuthentication(request);
+	}
+}
@@ -0,0 +1,82 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.benchmarks;
+
+import com.nimbusds.jwt.JWT;
+import com.nimbusds.jwt.JWTParser;
+import dev.openbanking4.spring.security.multiauth.examples.commons.x509.CertificateThumbprintCache;
+import dev.openbanking4.spring.security.multiauth.examples.commons.x509.TokenBindingVerifier;
+import net.minidev.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.MessageDigest;
+import java.security.cert.X509Certificate;
+
+/**
+ * Checks that the access token is bound to the client certificate, as example2 does on every request with a token.
+ * The token is parsed in each invocation, like in the app, so the claims are never already decoded.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class TokenBindingBenchmark {
+
+	private String accessToken;
+	private X509Certificate[] chain;
+	private TokenBindingVerifier verifier;
+
+	@Setup
+	public void setup() throws Exception {
+		ClientCredentials alice = ClientCredentials.alice();
+		accessToken = alice.accessToken;
+		chain = new X509Certificate[]{alice.certificate};
+		verifier = new TokenBindingVerifier(new CertificateThumbprintCache(10_000));
+	}
+
+	/**
+	 * The thumbprint is computed on every request
+	 */
+	@Benchmark
+	public boolean digestEveryRequest() throws Exception {
+		JSONObject cnf = JWTParser.parse(accessToken).getJWTClaimsSet().getJSONObjectClaim("cnf");
+		byte[] sha256 = MessageDigest.getInstance("SHA-256").digest(chain[0].getEncoded());
+		return CertificateThumbprintCache.matches(cnf.getAsString("x5t#S256"), sha256);
+	}
+
+	@Benchmark
+	public JWT tokenBindingVerifier() throws Exception {
+		JWT jwt = JWTParser.parse(accessToken);
+		verifier.verify(jwt, chain);
+		return jwt;
+	}
+}
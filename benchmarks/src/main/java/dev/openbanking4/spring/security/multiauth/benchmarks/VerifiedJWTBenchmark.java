@@ -0,0 +1,93 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.benchmarks;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSObject;
+import com.nimbusds.jwt.JWT;
+import com.nimbusds.jwt.JWTParser;
+import dev.openbanking4.spring.security.multiauth.examples.commons.jwt.JWSVerifierRegistry;
+import dev.openbanking4.spring.security.multiauth.examples.commons.jwt.VerifiedJWT;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.text.ParseException;
+
+/**
+ * The 'SSO' cookie of example1, verified then read for its 'group' claim: parsing the token twice, as the examples used
+ * to, vs {@link VerifiedJWT}. The 'cached' benchmarks read the claims of a token that was already verified, as the
+ * requests served by the verified token cache do.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class VerifiedJWTBenchmark {
+
+	private JWSVerifierRegistry registry;
+	private JWT cachedDoubleParsedToken;
+	private JWT cachedVerifiedToken;
+
+	@Setup
+	public void setup() throws ParseException, JOSEException {
+		registry = JWSVerifierRegistry.hmac(JWSAlgorithm.HS256, Tokens.HMAC_SECRET);
+		cachedDoubleParsedToken = doubleParse(Tokens.SSO_COOKIE);
+		cachedVerifiedToken = VerifiedJWT.verify(Tokens.SSO_COOKIE, registry);
+	}
+
+	@Benchmark
+	public Object doubleParse() throws ParseException, JOSEException {
+		return doubleParse(Tokens.SSO_COOKIE).getJWTClaimsSet().getClaim("group");
+	}
+
+	@Benchmark
+	public Object verifiedJWT() throws ParseException, JOSEException {
+		return VerifiedJWT.verify(Tokens.SSO_COOKIE, registry).getJWTClaimsSet().getClaim("group");
+	}
+
+	@Benchmark
+	public Object cachedDoubleParsedToken() throws ParseException {
+		return cachedDoubleParsedToken.getJWTClaimsSet().getClaim("group");
+	}
+
+	@Benchmark
+	public Object cachedVerifiedJWT() throws ParseException {
+		return cachedVerifiedToken.getJWTClaimsSet().getClaim("group");
+	}
+
+	private JWT doubleParse(String tokenSerialised) throws ParseException, JOSEException {
+		if (!registry.verify(JWSObject.parse(tokenSerialised))) {
+			throw new JOSEException("Invalid signature for the SSO cookie");
+		}
+		return JWTParser.parse(tokenSerialised);
+	}
+}
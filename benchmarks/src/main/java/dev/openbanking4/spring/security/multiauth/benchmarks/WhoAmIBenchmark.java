@@ -0,0 +1,104 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.openbanking4.spring.security.multiauth.examples.commons.authorities.AuthoritySetInterner;
+import dev.openbanking4.spring.security.multiauth.examples.commons.json.PrincipalJsonWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.userdetails.User;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The '/whoAmI' response: the {@link User} principal serialized by reflection with the object mapper, like the
+ * endpoint used to do, vs streamed by the {@link PrincipalJsonWriter} with the authority array rendered once.
+ * Run with '-prof gc' to compare the allocations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class WhoAmIBenchmark {
+
+	@Param({"2", "200"})
+	private int groupCount;
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	private final PrincipalJsonWriter principalJsonWriter =
+			new PrincipalJsonWriter(new AuthoritySetInterner(10_000), 10_000);
+	private Authentication authentication;
+
+	@State(Scope.Thread)
+	public static class Response {
+		final ByteArrayOutputStream body = new ByteArrayOutputStream(16 * 1024);
+	}
+
+	@Setup
+	public void setup() throws IOException {
+		List<GrantedAuthority> authorities = new ArrayList<>(groupCount);
+		for (int i = 0; i < groupCount; i++) {
+			authorities.add(new SimpleGrantedAuthority("group-" + i));
+		}
+		User user = new User("alice", "", authorities);
+		authentication = new UsernamePasswordAuthenticationToken(user, null, user.getAuthorities());
+
+		String reflective = objectMapper.writeValueAsString(authentication.getPrincipal());
+		String streamed = new String(principalJsonWriter.toJson(authentication));
+		if (!reflective.contains("\"password\"") || streamed.contains("\"password\"")
+				|| !streamed.startsWith("{\"username\":\"alice\",\"authorities\":[{\"authority\":\"group-0\"}")) {
+			throw new IllegalStateException("Unexpected responses: " + reflective + " / " + streamed);
+		}
+	}
+
+	@Benchmark
+	public int reflective(Response response) throws IOException {
+		response.body.reset();
+		objectMapper.writeValue(response.body, authentication.getPrincipal());
+		return response.body.size();
+	}
+
+	@Benchmark
+	public int streamed(Response response) throws IOException {
+		response.body.reset();
+		principalJsonWriter.write(authentication, response.body);
+		return response.body.size();
+	}
+}
@@ -20,27 +20,51 @@
  */
 package dev.openbanking4.spring.security.multiauth;
 
-import com.nimbusds.jose.JWSObject;
-import com.nimbusds.jose.JWSVerifier;
-import com.nimbusds.jose.crypto.MACVerifier;
-import com.nimbusds.jwt.JWTParser;
-import dev.openbanking4.spring.security.multiauth.configurers.MultiAuthenticationCollectorConfigurer;
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
 import dev.openbanking4.spring.security.multiauth.configurers.collectors.APIKeyCollector;
 import dev.openbanking4.spring.security.multiauth.configurers.collectors.CustomJwtCookieCollector;
 import dev.openbanking4.spring.security.multiauth.configurers.collectors.StaticUserCollector;
+import dev.openbanking4.spring.security.multiauth.examples.commons.apikey.CachingApiKeyValidator;
+import dev.openbanking4.spring.security.multiauth.examples.commons.authorities.AuthoritySetInterner;
+import dev.openbanking4.spring.security.multiauth.examples.commons.cache.AuthenticationResultCache;
+import dev.openbanking4.spring.security.multiauth.examples.commons.cache.CredentialExpiry;
+import dev.openbanking4.spring.security.multiauth.examples.commons.cache.SharedAuthenticationStore;
+import dev.openbanking4.spring.security.multiauth.examples.commons.dispatch.CollectorDispatcher;
+import dev.openbanking4.spring.security.multiauth.examples.commons.dispatch.RequestSignal;
+import dev.openbanking4.spring.security.multiauth.examples.commons.json.PrincipalJsonWriter;
+import dev.openbanking4.spring.security.multiauth.examples.commons.jwt.JWSVerifierRegistry;
+import dev.openbanking4.spring.security.multiauth.examples.commons.jwt.VerifiedJWT;
+import dev.openbanking4.spring.security.multiauth.examples.commons.jwt.VerifiedTokenCache;
+import dev.openbanking4.spring.security.multiauth.examples.commons.metrics.CollectorCacheMetrics;
+import dev.openbanking4.spring.security.multiauth.examples.commons.metrics.MeteredMultiAuthenticationCollectorConfigurer;
+import dev.openbanking4.spring.security.multiauth.examples.commons.ratelimit.RateLimitFilter;
+import dev.openbanking4.spring.security.multiauth.examples.commons.ratelimit.RequestKeys;
+import dev.openbanking4.spring.security.multiauth.examples.commons.threads.VirtualThreadsTomcatCustomizer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.MediaType;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.WebSecurityConfigurerAdapter;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.userdetails.User;
+import org.springframework.security.web.context.SecurityContextPersistenceFilter;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RestController;
 
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
 import java.security.Principal;
-import java.util.HashSet;
+import java.time.Duration;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -52,69 +76,203 @@ public class MultiAuthSpringSecurityCookieAndAPIToken {
 		SpringApplication.run(MultiAuthSpringSecurityCookieAndAPIToken.class, args);
 	}
 
+	private final PrincipalJsonWriter principalJsonWriter;
+
+	/**
+	 * @param authoritySetInterner the one of the collectors, so the authorities are rendered once per interned set
+	 */
+	public MultiAuthSpringSecurityCookieAndAPIToken(AuthoritySetInterner authoritySetInterner) {
+		this.principalJsonWriter = new PrincipalJsonWriter(authoritySetInterner, 10_000);
+	}
+
 	/**
 	 * A Rest endpoint that returns the identity and authorisation of the user
 	 * @param principal injected by Spring security, this is what we are interested to visualise
-	 * @return the principal in JSON
+	 * @param response the username and the authorities of the principal are streamed in it, in JSON
 	 */
-	@GetMapping("/whoAmI")
-	public Object whoAmI(Principal principal) {
-		return ((Authentication) principal).getPrincipal();
+	@GetMapping(value = "/whoAmI", produces = MediaType.APPLICATION_JSON_VALUE)
+	public void whoAmI(Principal principal, HttpServletResponse response) throws IOException {
+		response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+		principalJsonWriter.write((Authentication) principal, response.getOutputStream());
+	}
+
+	/**
+	 * The users share a few sets of groups, we build each set once. Static, as this class needs it to be built.
+	 */
+	@Bean
+	public static AuthoritySetInterner authoritySetInterner() {
+		return new AuthoritySetInterner(10_000);
+	}
+
+	/**
+	 * The verifiers are built once and shared by all the requests.
+	 * Note: JWT cookies expected to be signed with HMAC with "Qt5y2isMydGwVuREoIomK9Ei70EoFQKH0GpcbtJ4" as a secret
+	 */
+	@Bean
+	public JWSVerifierRegistry jwsVerifierRegistry() throws JOSEException {
+		return JWSVerifierRegistry.hmac(JWSAlgorithm.HS256, "Qt5y2isMydGwVuREoIomK9Ei70EoFQKH0GpcbtJ4");
+	}
+
+	/**
+	 * Valid API keys are remembered for 5 minutes and invalid ones for 10 seconds, concurrent requests with the same
+	 * key share one call to the API key validator service, and the keys are sent to the service in batches.
+	 * @param simulatedLatency added to the mocked API key validator service, to simulate a remote call
+	 */
+	@Bean
+	public CachingApiKeyValidator<User> apiKeyValidator(
+			@Value("${api-key.simulated-latency:0ms}") Duration simulatedLatency) {
+		return CachingApiKeyValidator.<User>builder()
+				.validatorService(apiKeys -> {
+					//Here call the API key validator service. We will mock the response and build the
+					//user manually
+					if (!simulatedLatency.isZero()) {
+						Thread.sleep(simulatedLatency.toMillis());
+					}
+					return apiKeys.stream().collect(Collectors.toMap(Function.identity(), apiKey -> new User("bob", "",
+							Stream.of(new SimpleGrantedAuthority("repo-42")).collect(Collectors.toSet()))));
+				})
+				.positiveTtl(Duration.ofMinutes(5))
+				.negativeTtl(Duration.ofSeconds(10))
+				.batching(50, Duration.ofMillis(5))
+				.build();
+	}
+
+	/**
+	 * Opt-in: process the requests, and so run the collectors, on virtual threads instead of the Tomcat thread pool.
+	 * Needs Java 21 or later, see the 'virtual-threads' maven profile.
+	 */
+	@Bean
+	@ConditionalOnProperty(name = "virtual-threads.enabled", havingValue = "true")
+	public VirtualThreadsTomcatCustomizer virtualThreadsTomcatCustomizer() {
+		return new VirtualThreadsTomcatCustomizer();
 	}
 
 
 	@Configuration
 	static class MultiAuthWebSecurityConfigurerAdapter extends WebSecurityConfigurerAdapter {
 
+		private static final RequestSignal SSO_COOKIE = RequestSignal.cookie("SSO");
+		private static final RequestSignal API_KEY = RequestSignal.header("key");
+
+		/**
+		 * Browsers send the same SSO cookie on every request, we only verify a given cookie once
+		 */
+		private final VerifiedTokenCache ssoTokenCache = new VerifiedTokenCache(10_000, Duration.ofMinutes(5));
+		private final AuthoritySetInterner authoritySetInterner;
+		/**
+		 * Browsers only send the cookie and API clients only the key: each request only runs the collector of the
+		 * credential it carries
+		 */
+		private final CollectorDispatcher collectorDispatcher = new CollectorDispatcher();
+		private final JWSVerifierRegistry jwsVerifierRegistry;
+		private final CachingApiKeyValidator<User> apiKeyValidator;
+		private final MeterRegistry meterRegistry;
+		/**
+		 * The authentications collected for a cookie or an API key, until the cookie expires or for 5 minutes
+		 */
+		private final AuthenticationResultCache authenticationResultCache;
+		/**
+		 * A client over its budget, or which sent too many invalid credentials, is rejected before its cookie or API
+		 * key is verified
+		 */
+		private final RateLimitFilter rateLimitFilter;
+
+		/**
+		 * @param meterRegistry the actuator registry, exposed on '/actuator/prometheus'. The test slices don't have
+		 *                      one, the metrics are then kept in memory only.
+		 * @param sharedAuthenticationStore declare one to share the collected authentications between the replicas
+		 */
+		MultiAuthWebSecurityConfigurerAdapter(JWSVerifierRegistry jwsVerifierRegistry,
+											  CachingApiKeyValidator<User> apiKeyValidator,
+											  AuthoritySetInterner authoritySetInterner,
+											  ObjectProvider<MeterRegistry> meterRegistry,
+											  ObjectProvider<SharedAuthenticationStore> sharedAuthenticationStore,
+											  @Value("${rate-limit.maximum-keys:100000}") long rateLimitMaximumKeys,
+											  @Value("${rate-limit.client-ip.requests-per-second:0}") long clientIpRate,
+											  @Value("${rate-limit.client-ip.burst:0}") int clientIpBurst,
+											  @Value("${rate-limit.client-ip-failures.per-second:0}") long clientIpFailureRate,
+											  @Value("${rate-limit.client-ip-failures.burst:0}") int clientIpFailureBurst,
+											  @Value("${rate-limit.api-key.requests-per-second:100}") long apiKeyRate,
+											  @Value("${rate-limit.api-key.burst:200}") int apiKeyBurst) {
+			this.jwsVerifierRegistry = jwsVerifierRegistry;
+			this.apiKeyValidator = apiKeyValidator;
+			this.authoritySetInterner = authoritySetInterner;
+			this.meterRegistry = meterRegistry.getIfAvailable(SimpleMeterRegistry::new);
+			this.authenticationResultCache = AuthenticationResultCache.builder()
+					.signals(SSO_COOKIE, API_KEY)
+					.maximumSize(10_000)
+					.ttl(Duration.ofMinutes(5))
+					.sharedStore(sharedAuthenticationStore.getIfAvailable())
+					.meterRegistry(this.meterRegistry)
+					.build();
+			CollectorCacheMetrics.monitor(this.meterRegistry, "Cookie-SSO", "verified-tokens", ssoTokenCache,
+					VerifiedTokenCache::hitCount, VerifiedTokenCache::missCount);
+			CollectorCacheMetrics.monitor(this.meterRegistry, "API-Key", "api-keys", apiKeyValidator,
+					CachingApiKeyValidator::hitCount, CachingApiKeyValidator::missCount);
+			this.rateLimitFilter = RateLimitFilter.builder()
+					.maximumKeys(rateLimitMaximumKeys)
+					.meterRegistry(this.meterRegistry)
+					.limit("client-ip", RequestKeys.clientIp(), clientIpRate, clientIpBurst)
+					.limit("api-key", RequestKeys.headerFingerprint("key"), apiKeyRate, apiKeyBurst)
+					.failureLimit("client-ip-failures", RequestKeys.clientIp(), clientIpFailureRate,
+							clientIpFailureBurst)
+					.build();
+		}
+
 		@Override
 		protected void configure(HttpSecurity http) throws Exception {
 			http
+				.addFilterBefore(rateLimitFilter, SecurityContextPersistenceFilter.class)
 				.authorizeRequests()
 				.anyRequest()
 				.permitAll()
 				.and()
-				.apply(new MultiAuthenticationCollectorConfigurer<HttpSecurity>()
+				/**
+				 * Each collector is timed, tagged by collector name and outcome
+				 */
+				.apply(new MeteredMultiAuthenticationCollectorConfigurer<HttpSecurity>(meterRegistry)
 					/**
 					 * Authentication & authorisation via a cookie 'SSO'
 					 * The authorities are extracted from the 'group' claim
 					 * The username is extracted from the 'sub' claim
 					 * Note: JWT cookies expected to be signed with HMAC with "Qt5y2isMydGwVuREoIomK9Ei70EoFQKH0GpcbtJ4" as a secret
+					 * An invalid cookie is charged to the failure budget of the client.
 					 */
-					.collector(CustomJwtCookieCollector.builder()
-							.collectorName("Cookie-SSO")
-							.authoritiesCollector(token -> token.getJWTClaimsSet().getStringListClaim("group").stream()
-									.map(g -> new SimpleGrantedAuthority(g)).collect(Collectors.toSet()))
-							.tokenValidator(tokenSerialised -> {
-								JWSObject jwsObject = JWSObject.parse(tokenSerialised);
-								JWSVerifier verifier = new MACVerifier("Qt5y2isMydGwVuREoIomK9Ei70EoFQKH0GpcbtJ4");
-								jwsObject.verify(verifier);
-								return JWTParser.parse(tokenSerialised);
-							})
-							.cookieName("SSO")
-							.build()
-					)
+					.collector(collectorDispatcher.when(SSO_COOKIE, RateLimitFilter.chargingFailures(
+							authenticationResultCache.cached(
+							CustomJwtCookieCollector.builder()
+								.collectorName("Cookie-SSO")
+								.authoritiesCollector(token -> authoritySetInterner.fromNames(
+										token.getJWTClaimsSet().getStringListClaim("group")))
+								.tokenValidator(tokenSerialised -> ssoTokenCache.getOrVerify(tokenSerialised,
+										t -> VerifiedJWT.verify(t, jwsVerifierRegistry)))
+								.cookieName("SSO")
+								.build(),
+							CredentialExpiry.jwt(SSO_COOKIE)
+					))))
 
 					/**
 					 * Authentication via an API key
-					 * The username and authorities are extracted by calling your API key service
+					 * The username and authorities are extracted by calling your API key service, through the cache.
+					 * API keys don't expire by themselves: the authentication is kept as long as the valid key.
+					 * An invalid key is charged to the failure budget of the client.
 					 */
-					.collector(APIKeyCollector.<User>builder()
-							.collectorName("API-Key")
-							.apiKeyExtractor(req -> req.getHeader("key"))
-							.apiKeyValidator(apiKey -> {
-								//Here call the API key validator service. We will mock the response and build the
-								//user manually
-								return new User("bob", "",
-										Stream.of(new SimpleGrantedAuthority("repo-42")).collect(Collectors.toSet()));
-							})
-							.usernameCollector(User::getUsername)
-							.authoritiesCollector(user -> new HashSet<>(user.getAuthorities()))
-							.build()
-					)
+					.collector(collectorDispatcher.when(API_KEY, RateLimitFilter.chargingFailures(
+							authenticationResultCache.cached(
+							APIKeyCollector.<User>builder()
+								.collectorName("API-Key")
+								.apiKeyExtractor(req -> req.getHeader("key"))
+								.apiKeyValidator(apiKeyValidator::validate)
+								.usernameCollector(User::getUsername)
+								.authoritiesCollector(user -> authoritySetInterner.of(user.getAuthorities()))
+								.build(),
+							CredentialExpiry.none()
+					))))
 
 					/**
 					 * Static authentication
-					 * If no authentication was possible with the previous collector, we default to the anonymous user
+					 * If no authentication was possible with the previous collector, we default to the anonymous user.
+					 * Not dispatched, it runs for every request without credentials.
 					 */
 					.collectorForAuthentication(StaticUserCollector.builder()
 							.collectorName("StaticUser-anonymous")
@@ -21,41 +21,72 @@
 package dev.openbanking4.spring.security.multiauth;
 
 import com.nimbusds.jose.JOSEException;
-import com.nimbusds.jose.JWSObject;
-import com.nimbusds.jose.JWSVerifier;
-import com.nimbusds.jose.crypto.MACVerifier;
+import com.nimbusds.jose.JWSAlgorithm;
 import com.nimbusds.jwt.JWT;
-import com.nimbusds.jwt.JWTParser;
-import dev.openbanking4.spring.security.multiauth.configurers.MultiAuthenticationCollectorConfigurer;
 import dev.openbanking4.spring.security.multiauth.configurers.collectors.StatelessAccessTokenCollector;
 import dev.openbanking4.spring.security.multiauth.configurers.collectors.StaticUserCollector;
 import dev.openbanking4.spring.security.multiauth.configurers.collectors.X509Collector;
-import dev.openbanking4.spring.security.multiauth.model.CertificateHeaderFormat;
+import dev.openbanking4.spring.security.multiauth.examples.commons.authorities.AuthoritySetInterner;
+import dev.openbanking4.spring.security.multiauth.examples.commons.cache.AuthenticationResultCache;
+import dev.openbanking4.spring.security.multiauth.examples.commons.cache.CredentialExpiry;
+import dev.openbanking4.spring.security.multiauth.examples.commons.cache.SharedAuthenticationStore;
+import dev.openbanking4.spring.security.multiauth.examples.commons.dispatch.CollectorDispatcher;
+import dev.openbanking4.spring.security.multiauth.examples.commons.dispatch.RequestSignal;
+import dev.openbanking4.spring.security.multiauth.examples.commons.json.PrincipalJsonWriter;
+import dev.openbanking4.spring.security.multiauth.examples.commons.jwt.JWKSKeySource;
+import dev.openbanking4.spring.security.multiauth.examples.commons.jwt.JWSVerifierRegistry;
+import dev.openbanking4.spring.security.multiauth.examples.commons.jwt.JWSVerifierSource;
+import dev.openbanking4.spring.security.multiauth.examples.commons.jwt.VerifiedJWT;
+import dev.openbanking4.spring.security.multiauth.examples.commons.metrics.CollectorCacheMetrics;
+import dev.openbanking4.spring.security.multiauth.examples.commons.metrics.MeteredMultiAuthenticationCollectorConfigurer;
+import dev.openbanking4.spring.security.multiauth.examples.commons.ratelimit.RateLimitFilter;
+import dev.openbanking4.spring.security.multiauth.examples.commons.ratelimit.RequestKeys;
+import dev.openbanking4.spring.security.multiauth.examples.commons.threads.VirtualThreadsTomcatCustomizer;
+import dev.openbanking4.spring.security.multiauth.examples.commons.tls.TlsHandshakeMetrics;
+import dev.openbanking4.spring.security.multiauth.examples.commons.tls.TlsTuningCustomizer;
+import dev.openbanking4.spring.security.multiauth.examples.commons.x509.CertificateChainCache;
+import dev.openbanking4.spring.security.multiauth.examples.commons.x509.CertificateChainValidator;
+import dev.openbanking4.spring.security.multiauth.examples.commons.x509.CertificateHeaderFilter;
+import dev.openbanking4.spring.security.multiauth.examples.commons.x509.CertificateThumbprintCache;
+import dev.openbanking4.spring.security.multiauth.examples.commons.x509.TokenBindingVerifier;
 import dev.openbanking4.spring.security.multiauth.model.authentication.X509Authentication;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import lombok.extern.slf4j.Slf4j;
-import net.minidev.json.JSONObject;
 import org.bouncycastle.asn1.x500.RDN;
 import org.bouncycastle.asn1.x500.X500Name;
 import org.bouncycastle.asn1.x500.style.BCStyle;
 import org.bouncycastle.asn1.x500.style.IETFUtils;
 import org.bouncycastle.cert.jcajce.JcaX509CertificateHolder;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.core.io.Resource;
+import org.springframework.http.MediaType;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.WebSecurityConfigurerAdapter;
 import org.springframework.security.core.Authentication;
+import org.springframework.security.web.context.SecurityContextPersistenceFilter;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RestController;
 
-import javax.xml.bind.DatatypeConverter;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
 import java.security.Principal;
 import java.security.cert.CertificateEncodingException;
-import java.security.cert.X509Certificate;
 import java.text.ParseException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.stream.Collectors;
 
 @SpringBootApplication
 @RestController
@@ -66,68 +97,258 @@ public class MultiAuthSpringSecurityClientCertAndAccessToken {
 		SpringApplication.run(MultiAuthSpringSecurityClientCertAndAccessToken.class, args);
 	}
 
+	private final PrincipalJsonWriter principalJsonWriter =
+			new PrincipalJsonWriter(new AuthoritySetInterner(10_000), 10_000);
+
 	/**
 	 * A Rest endpoint that returns the identity and authorisation of the user
 	 * @param principal injected by Spring security, this is what we are interested to visualise
-	 * @return the principal in JSON
+	 * @param response the username and the authorities of the principal are streamed in it, in JSON
+	 */
+	@GetMapping(value = "/whoAmI", produces = MediaType.APPLICATION_JSON_VALUE)
+	public void whoAmI(Principal principal, HttpServletResponse response) throws IOException {
+		response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+		principalJsonWriter.write((Authentication) principal, response.getOutputStream());
+	}
+
+	/**
+	 * The verifiers are built once and shared by all the requests.
+	 * If 'access-token.jwk-set-uri' is set, the keys are the ones of the AS JWK_URI, kept in memory and refreshed in
+	 * the background.
+	 * Note: For simplification, by default the access token is signed with HMAC, using the secret
+	 * 'Qt5y2isMydGwVuREoIomK9Ei70EoFQKH0GpcbtJ4'.
+	 */
+	@Bean
+	public JWSVerifierSource accessTokenVerifierSource(@Value("${access-token.jwk-set-uri:}") String jwkSetUri)
+			throws JOSEException, IOException, ParseException {
+		if (jwkSetUri.isEmpty()) {
+			return JWSVerifierRegistry.hmac(JWSAlgorithm.HS256, "Qt5y2isMydGwVuREoIomK9Ei70EoFQKH0GpcbtJ4");
+		}
+		return JWKSKeySource.builder()
+				.jwkSetUrl(new URL(jwkSetUri))
+				.build()
+				.start();
+	}
+
+
+	/**
+	 * The chains forwarded by the gateway, parsed once per client. The username is the CN of the client certificate.
+	 */
+	@Bean
+	public CertificateChainCache certificateChainCache() {
+		return new CertificateChainCache(10_000, Duration.ofHours(1), certificate -> {
+			try {
+				X500Name x500name = new JcaX509CertificateHolder(certificate).getSubject();
+				RDN cn = x500name.getRDNs(BCStyle.CN)[0];
+				return IETFUtils.valueToString(cn.getFirst().getValue());
+			} catch (CertificateEncodingException e) {
+				log.warn("Couldn't read CN from subject {}", certificate.getSubjectDN(), e);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * The chains forwarded by the gateway are validated against the CAs of 'trust-store.path', once per chain, and
+	 * optionally against the CRL files of 'trust-store.crl-files'.
+	 */
+	@Bean
+	@ConditionalOnProperty(name = "trust-store.validate-forwarded-chains", havingValue = "true", matchIfMissing = true)
+	public CertificateChainValidator certificateChainValidator(@Value("${trust-store.path}") Resource trustStorePath,
+			@Value("${trust-store.password}") String trustStorePassword,
+			@Value("${trust-store.crl-files:}") String[] crlFiles,
+			@Value("${trust-store.crl-reload-interval:5m}") Duration crlReloadInterval,
+			@Value("${trust-store.invalid-chain-ttl:1m}") Duration invalidChainTtl)
+			throws IOException, GeneralSecurityException {
+		KeyStore trustStore = KeyStore.getInstance(KeyStore.getDefaultType());
+		try (InputStream in = trustStorePath.getInputStream()) {
+			trustStore.load(in, trustStorePassword.toCharArray());
+		}
+		return CertificateChainValidator.builder()
+				.trustStore(trustStore)
+				.crlFiles(Arrays.stream(crlFiles).map(Paths::get).collect(Collectors.toList()))
+				.crlReloadInterval(crlReloadInterval)
+				.negativeTtl(invalidChainTtl)
+				.build()
+				.start();
+	}
+
+	/**
+	 * Opt-in: process the requests, and so run the collectors, on virtual threads instead of the Tomcat thread pool.
+	 * Needs Java 21 or later, see the 'virtual-threads' maven profile.
+	 */
+	@Bean
+	@ConditionalOnProperty(name = "virtual-threads.enabled", havingValue = "true")
+	public VirtualThreadsTomcatCustomizer virtualThreadsTomcatCustomizer() {
+		return new VirtualThreadsTomcatCustomizer();
+	}
+
+	/**
+	 * The clients coming back resume their TLS session, and skip the key exchange and the client certificate
+	 * validation. The handshakes are exposed as the 'tls_handshakes_*' metrics.
 	 */
-	@GetMapping("/whoAmI")
-	public Object whoAmI(Principal principal) {
-		return ((Authentication) principal).getPrincipal();
+	@Bean
+	public TlsTuningCustomizer tlsTuningCustomizer(@Value("${tls.engine:JSSE}") TlsTuningCustomizer.Engine engine,
+			@Value("${tls.session-cache-size:20000}") int sessionCacheSize,
+			@Value("${tls.session-timeout:1h}") Duration sessionTimeout,
+			@Value("${tls.session-tickets:true}") boolean sessionTickets) {
+		return new TlsTuningCustomizer(engine, sessionCacheSize, sessionTimeout, sessionTickets);
 	}
 
+	@Bean
+	public TlsHandshakeMetrics tlsHandshakeMetrics() {
+		return TlsHandshakeMetrics.get();
+	}
 
 	@Configuration
 	static class MultiAuthWebSecurityConfigurerAdapter extends WebSecurityConfigurerAdapter {
 
+		private static final RequestSignal ACCESS_TOKEN = RequestSignal.header("Authorization");
+
+		private final JWSVerifierSource accessTokenVerifierSource;
+		private final CertificateChainCache certificateChainCache;
+		/**
+		 * Null if the chains forwarded by the gateway are trusted without validation
+		 */
+		private final CertificateChainValidator certificateChainValidator;
+		/**
+		 * The same TPP certificates come again and again, we compute their thumbprint only once
+		 */
+		private final CertificateThumbprintCache thumbprintCache = new CertificateThumbprintCache(10_000);
+		private final TokenBindingVerifier tokenBindingVerifier = new TokenBindingVerifier(thumbprintCache);
+		/**
+		 * Keyed by the thumbprint of the certificate, for the result cache
+		 */
+		private final RequestSignal clientCertificate = RequestSignal.clientCertificate(thumbprintCache);
+		private final MeterRegistry meterRegistry;
+		/**
+		 * Each request only runs the collectors of the credentials it carries
+		 */
+		private final CollectorDispatcher collectorDispatcher = new CollectorDispatcher();
+		/**
+		 * The authentications collected for a certificate and an access token, until one of them expires or for
+		 * 5 minutes, or until the CRLs change
+		 */
+		private final AuthenticationResultCache authenticationResultCache;
+		/**
+		 * A client over its budget, or which sent too many invalid credentials, is rejected before its certificate
+		 * chain is parsed
+		 */
+		private final RateLimitFilter rateLimitFilter;
+
+		/**
+		 * @param meterRegistry the actuator registry, exposed on '/actuator/prometheus'. The test slices don't have
+		 *                      one, the metrics are then kept in memory only.
+		 * @param sharedAuthenticationStore declare one to share the collected authentications between the replicas
+		 */
+		MultiAuthWebSecurityConfigurerAdapter(JWSVerifierSource accessTokenVerifierSource,
+				CertificateChainCache certificateChainCache,
+				ObjectProvider<CertificateChainValidator> certificateChainValidator,
+				ObjectProvider<MeterRegistry> meterRegistry,
+				ObjectProvider<SharedAuthenticationStore> sharedAuthenticationStore,
+				@Value("${rate-limit.maximum-keys:100000}") long rateLimitMaximumKeys,
+				@Value("${rate-limit.client-ip.requests-per-second:0}") long clientIpRate,
+				@Value("${rate-limit.client-ip.burst:0}") int clientIpBurst,
+				@Value("${rate-limit.client-ip-failures.per-second:0}") long clientIpFailureRate,
+				@Value("${rate-limit.client-ip-failures.burst:0}") int clientIpFailureBurst,
+				@Value("${rate-limit.client-cert.requests-per-second:1000}") long clientCertRate,
+				@Value("${rate-limit.client-cert.burst:2000}") int clientCertBurst) {
+			this.accessTokenVerifierSource = accessTokenVerifierSource;
+			this.certificateChainCache = certificateChainCache;
+			this.certificateChainValidator = certificateChainValidator.getIfAvailable();
+			this.meterRegistry = meterRegistry.getIfAvailable(SimpleMeterRegistry::new);
+			this.authenticationResultCache = AuthenticationResultCache.builder()
+					.signals(clientCertificate, ACCESS_TOKEN)
+					.keyVersion(this.certificateChainValidator != null
+							? this.certificateChainValidator::getCrlVersion
+							: null)
+					.maximumSize(10_000)
+					.ttl(Duration.ofMinutes(5))
+					.sharedStore(sharedAuthenticationStore.getIfAvailable())
+					.meterRegistry(this.meterRegistry)
+					.build();
+			// The certificate chain cache is a MeterBinder bean, with its own 'x509.chain.*' metrics
+			CollectorCacheMetrics.monitor(this.meterRegistry, "stateless-access-token", "certificate-thumbprints",
+					thumbprintCache, CertificateThumbprintCache::hitCount, CertificateThumbprintCache::missCount);
+			if (this.certificateChainValidator != null) {
+				CollectorCacheMetrics.monitor(this.meterRegistry, "x509-cert", "certificate-paths",
+						this.certificateChainValidator, CertificateChainValidator::hitCount,
+						CertificateChainValidator::missCount);
+			}
+			this.rateLimitFilter = RateLimitFilter.builder()
+					.maximumKeys(rateLimitMaximumKeys)
+					.meterRegistry(this.meterRegistry)
+					.limit("client-ip", RequestKeys.clientIp(), clientIpRate, clientIpBurst)
+					.limit("client-cert", RequestKeys.headerFingerprint("x-cert"), clientCertRate, clientCertBurst)
+					.failureLimit("client-ip-failures", RequestKeys.clientIp(), clientIpFailureRate,
+							clientIpFailureBurst)
+					.build();
+		}
+
 		@Override
 		protected void configure(HttpSecurity http) throws Exception {
 			http
+				.addFilterBefore(new CertificateHeaderFilter("x-cert", certificateChainCache),
+						SecurityContextPersistenceFilter.class)
+				.addFilterBefore(rateLimitFilter, CertificateHeaderFilter.class)
 				.authorizeRequests()
 				.anyRequest()
 				.permitAll()
 				.and()
-				.apply(new MultiAuthenticationCollectorConfigurer<HttpSecurity>()
+				/**
+				 * Each collector is timed, tagged by collector name and outcome
+				 */
+				.apply(new MeteredMultiAuthenticationCollectorConfigurer<HttpSecurity>(meterRegistry)
 					/**
 					 * Authentication via a certificate
 					 * The username is the certificate subject.
 					 * We don't expect this app to do the SSL termination, therefore we will trust the header x-cert
-					 * populated by the gateway
+					 * populated by the gateway. The header is parsed by the CertificateHeaderFilter, which keeps
+					 * the parsed chains of the clients we already saw.
+					 * The chain must still lead to a CA of the trust store, unless the validation is disabled.
+					 * A header that can't be parsed, or a chain that isn't valid, is charged to the failure budget of
+					 * the client.
 					 */
-					.collectorForAuthentication(X509Collector.x509Builder()
-							.collectorName("x509-cert")
-							.usernameCollector(certificatesChain -> {
-								try {
-									X500Name x500name = new JcaX509CertificateHolder(certificatesChain[0]).getSubject();
-									RDN cn = x500name.getRDNs(BCStyle.CN)[0];
-									return IETFUtils.valueToString(cn.getFirst().getValue());
-								} catch (CertificateEncodingException e) {
-									log.warn("Couldn't read CN from subject {}", certificatesChain[0].getSubjectDN(), e);
-									return null;
-								}
-							})
-							.collectFromHeader(CertificateHeaderFormat.PEM)
-							.headerName("x-cert")
-							.build()
-					)
+					.collectorForAuthentication(collectorDispatcher.whenAuthentication(clientCertificate,
+							RateLimitFilter.chargingAuthenticationFailures(
+							authenticationResultCache.cachedAuthentication(
+								X509Collector.x509Builder()
+									.collectorName("x509-cert")
+									.usernameCollector(chain -> certificateChainValidator == null
+											|| certificateChainValidator.isValid(chain)
+											? certificateChainCache.username(chain)
+											: null)
+									.build(),
+								CredentialExpiry.clientCertificate()
+					))))
 
 					/**
 					 * Authorization via an access token
 					 * The authorities are extracted from the 'scope' claim
+					 * An invalid token, or one bound to another certificate, is charged to the failure budget of the
+					 * client.
 					 */
-					.collectorForAuthorzation(StatelessAccessTokenCollector.builder()
-							.collectorName("stateless-access-token")
-							.tokenValidator((tokenSerialised, currentAuthentication) -> {
-								JWT jwt = verifyJwtSignature(tokenSerialised);
-								verifyTokenBinding(jwt, currentAuthentication);
-								return jwt;
-							})
-							.build()
-					)
+					.collectorForAuthorzation(collectorDispatcher.whenAuthorization(ACCESS_TOKEN,
+							RateLimitFilter.chargingAuthorizationFailures(
+							authenticationResultCache.cachedAuthorization(
+								StatelessAccessTokenCollector.builder()
+									.collectorName("stateless-access-token")
+									.tokenValidator((tokenSerialised, currentAuthentication) -> {
+										JWT jwt = VerifiedJWT.verify(tokenSerialised, accessTokenVerifierSource);
+										tokenBindingVerifier.verify(jwt, currentAuthentication instanceof X509Authentication
+												? ((X509Authentication) currentAuthentication).getCertificateChain()
+												: null);
+										return jwt;
+									})
+									.build(),
+								CredentialExpiry.earliest(CredentialExpiry.jwt(ACCESS_TOKEN),
+										CredentialExpiry.clientCertificate())
+					))))
 
 					/**
 					 * Static authentication
-					 * If no authentication was possible with the previous collector, we default to the anonymous user
+					 * If no authentication was possible with the previous collector, we default to the anonymous user.
+					 * Not dispatched, it runs for every request without credentials.
 					 */
 					.collectorForAuthentication(StaticUserCollector.builder()
 							.collectorName("StaticUser-anonymous")
@@ -137,50 +358,4 @@ public class MultiAuthSpringSecurityClientCertAndAccessToken {
 			;
 		}
 	}
-
-	/**
-	 * Note: For simplification, the access token is signed with HMAC, using the secret
-	 * 'Qt5y2isMydGwVuREoIomK9Ei70EoFQKH0GpcbtJ4'. In a real scenario, we would have called the JWK_URI of the AS
-	 */
-	private static JWT verifyJwtSignature(String tokenSerialised) throws ParseException, JOSEException {
-		JWSObject jwsObject = JWSObject.parse(tokenSerialised);
-		JWSVerifier verifier = new MACVerifier("Qt5y2isMydGwVuREoIomK9Ei70EoFQKH0GpcbtJ4");
-		jwsObject.verify(verifier);
-		return JWTParser.parse(tokenSerialised);
-	}
-
-	private static void verifyTokenBinding(JWT accessToken, Authentication currentAuthentication) throws ParseException {
-		JSONObject cnf = accessToken.getJWTClaimsSet().getJSONObjectClaim("cnf");
-		if (cnf != null) {
-			// We need to verify the token binding
-			String certificateThumbprint = cnf.getAsString("x5t#S256");
-			if (certificateThumbprint == null) {
-				throw new BadCredentialsException("Claim 'x5t#S256' is not defined but cnf present. Access token format is invalid.");
-			}
-			if (!(currentAuthentication instanceof X509Authentication)) {
-				throw new BadCredentialsException("Request not authenticated with a client cert");
-			}
-			X509Authentication x509Authentication = (X509Authentication) currentAuthentication;
-			String clientCertThumbprint;
-			try {
-				clientCertThumbprint = getThumbprint(x509Authentication.getCertificateChain()[0]);
-			} catch (NoSuchAlgorithmException | CertificateEncodingException e) {
-				throw new RuntimeException("Can't compute thumbprint of client certificate", e);
-			}
-			if (!certificateThumbprint.equals(clientCertThumbprint)) {
-				throw new BadCredentialsException("The thumbprint from the client certificate '"
-						+ clientCertThumbprint + "' doesn't match the one specify in the access token '" + certificateThumbprint + "'");
-			}
-		}
-	}
-
-	private static String getThumbprint(X509Certificate cert)
-			throws NoSuchAlgorithmException, CertificateEncodingException {
-		MessageDigest md = MessageDigest.getInstance("SHA-1");
-		byte[] der = cert.getEncoded();
-		md.update(der);
-		byte[] digest = md.digest();
-		String digestHex = DatatypeConverter.printHexBinary(digest);
-		return digestHex.toLowerCase();
-	}
 }
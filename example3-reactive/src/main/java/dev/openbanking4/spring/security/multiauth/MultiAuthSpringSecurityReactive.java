@@ -0,0 +1,262 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jwt.JWT;
+import dev.openbanking4.spring.security.multiauth.examples.commons.apikey.CachingApiKeyValidator;
+import dev.openbanking4.spring.security.multiauth.examples.commons.authorities.AuthoritySetInterner;
+import dev.openbanking4.spring.security.multiauth.examples.commons.json.PrincipalJsonWriter;
+import dev.openbanking4.spring.security.multiauth.examples.commons.jwt.JWKSKeySource;
+import dev.openbanking4.spring.security.multiauth.examples.commons.jwt.JWSVerifierRegistry;
+import dev.openbanking4.spring.security.multiauth.examples.commons.jwt.JWSVerifierSource;
+import dev.openbanking4.spring.security.multiauth.examples.commons.jwt.VerifiedJWT;
+import dev.openbanking4.spring.security.multiauth.examples.commons.jwt.VerifiedTokenCache;
+import dev.openbanking4.spring.security.multiauth.examples.commons.x509.CertificateChainCache;
+import dev.openbanking4.spring.security.multiauth.examples.commons.x509.CertificateThumbprintCache;
+import dev.openbanking4.spring.security.multiauth.examples.commons.x509.TokenBindingVerifier;
+import dev.openbanking4.spring.security.multiauth.reactive.MultiAuthenticationWebFilter;
+import dev.openbanking4.spring.security.multiauth.reactive.collectors.APIKeyCollector;
+import dev.openbanking4.spring.security.multiauth.reactive.collectors.JwtCookieCollector;
+import dev.openbanking4.spring.security.multiauth.reactive.collectors.StatelessAccessTokenCollector;
+import dev.openbanking4.spring.security.multiauth.reactive.collectors.StaticUserCollector;
+import dev.openbanking4.spring.security.multiauth.reactive.collectors.X509HeaderCollector;
+import lombok.extern.slf4j.Slf4j;
+import org.bouncycastle.asn1.x500.RDN;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x500.style.BCStyle;
+import org.bouncycastle.asn1.x500.style.IETFUtils;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateHolder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.annotation.Bean;
+import org.springframework.http.MediaType;
+import org.springframework.security.config.annotation.web.reactive.EnableWebFluxSecurity;
+import org.springframework.security.config.web.server.SecurityWebFiltersOrder;
+import org.springframework.security.config.web.server.ServerHttpSecurity;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.web.server.SecurityWebFilterChain;
+import org.springframework.security.web.server.context.NoOpServerSecurityContextRepository;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.net.URL;
+import java.security.Principal;
+import java.security.cert.CertificateEncodingException;
+import java.text.ParseException;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The collectors of example 1 and example 2, in a reactive app running on Netty.
+ * The collectors return a {@link Mono}, so a slow credential check, like a call to the API key validator service,
+ * doesn't hold a thread while it waits.
+ */
+@SpringBootApplication
+@EnableWebFluxSecurity
+@RestController
+@Slf4j
+public class MultiAuthSpringSecurityReactive {
+
+	public static void main(String[] args) {
+		SpringApplication.run(MultiAuthSpringSecurityReactive.class, args);
+	}
+
+	private final PrincipalJsonWriter principalJsonWriter =
+			new PrincipalJsonWriter(new AuthoritySetInterner(10_000), 10_000);
+
+	/**
+	 * A Rest endpoint that returns the identity and authorisation of the user
+	 * @param principal injected by Spring security, this is what we are interested to visualise
+	 * @return the username and the authorities of the principal in JSON
+	 */
+	@GetMapping(value = "/whoAmI", produces = MediaType.APPLICATION_JSON_VALUE)
+	public Mono<byte[]> whoAmI(Mono<Principal> principal) {
+		return principal.map(p -> principalJsonWriter.toJson((Authentication) p));
+	}
+
+	/**
+	 * Same as example 2: if 'access-token.jwk-set-uri' is set, the keys are the ones of the AS JWK_URI, kept in memory
+	 * and refreshed in the background.
+	 * Note: For simplification, by default the access token is signed with HMAC, using the secret
+	 * 'Qt5y2isMydGwVuREoIomK9Ei70EoFQKH0GpcbtJ4'.
+	 */
+	@Bean
+	public JWSVerifierSource accessTokenVerifierSource(@Value("${access-token.jwk-set-uri:}") String jwkSetUri)
+			throws JOSEException, IOException, ParseException {
+		if (jwkSetUri.isEmpty()) {
+			return JWSVerifierRegistry.hmac(JWSAlgorithm.HS256, "Qt5y2isMydGwVuREoIomK9Ei70EoFQKH0GpcbtJ4");
+		}
+		return JWKSKeySource.builder()
+				.jwkSetUrl(new URL(jwkSetUri))
+				.build()
+				.start();
+	}
+
+	/**
+	 * Same as example 2: the chains forwarded by the gateway, parsed once per client. The username is the CN of the
+	 * client certificate.
+	 */
+	@Bean
+	public CertificateChainCache certificateChainCache() {
+		return new CertificateChainCache(10_000, Duration.ofHours(1), certificate -> {
+			try {
+				X500Name x500name = new JcaX509CertificateHolder(certificate).getSubject();
+				RDN cn = x500name.getRDNs(BCStyle.CN)[0];
+				return IETFUtils.valueToString(cn.getFirst().getValue());
+			} catch (CertificateEncodingException e) {
+				log.warn("Couldn't read CN from subject {}", certificate.getSubjectDN(), e);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Same as example 1. The collector uses the asynchronous API of the validator, so a request waiting for the API key
+	 * validator service doesn't hold a Netty thread.
+	 * @param simulatedLatency added to the mocked API key validator service, to simulate a remote call
+	 */
+	@Bean
+	public CachingApiKeyValidator<User> apiKeyValidator(
+			@Value("${api-key.simulated-latency:0ms}") Duration simulatedLatency) {
+		return CachingApiKeyValidator.<User>builder()
+				.validatorService(apiKeys -> {
+					//Here call the API key validator service. We will mock the response and build the
+					//user manually
+					if (!simulatedLatency.isZero()) {
+						Thread.sleep(simulatedLatency.toMillis());
+					}
+					return apiKeys.stream().collect(Collectors.toMap(Function.identity(), apiKey -> new User("bob", "",
+							Stream.of(new SimpleGrantedAuthority("repo-42")).collect(Collectors.toSet()))));
+				})
+				.positiveTtl(Duration.ofMinutes(5))
+				.negativeTtl(Duration.ofSeconds(10))
+				.batching(50, Duration.ofMillis(5))
+				.build();
+	}
+
+	@Bean
+	public SecurityWebFilterChain securityWebFilterChain(ServerHttpSecurity http,
+			JWSVerifierSource accessTokenVerifierSource, CertificateChainCache certificateChainCache,
+			CachingApiKeyValidator<User> apiKeyValidator) throws JOSEException {
+		/**
+		 * Note: JWT cookies expected to be signed with HMAC with "Qt5y2isMydGwVuREoIomK9Ei70EoFQKH0GpcbtJ4" as a secret
+		 */
+		JWSVerifierRegistry ssoVerifierRegistry = JWSVerifierRegistry.hmac(JWSAlgorithm.HS256,
+				"Qt5y2isMydGwVuREoIomK9Ei70EoFQKH0GpcbtJ4");
+		VerifiedTokenCache ssoTokenCache = new VerifiedTokenCache(10_000, Duration.ofMinutes(5));
+		TokenBindingVerifier tokenBindingVerifier = new TokenBindingVerifier(new CertificateThumbprintCache(10_000));
+		// The JWK set is kept in memory, but an unknown kid waits for a refresh: it can't happen on a Netty thread
+		Scheduler accessTokenScheduler = accessTokenVerifierSource instanceof JWKSKeySource
+				? Schedulers.boundedElastic()
+				: Schedulers.immediate();
+
+		MultiAuthenticationWebFilter multiAuthenticationWebFilter = MultiAuthenticationWebFilter.builder()
+				/**
+				 * Authentication & authorisation via a cookie 'SSO', like example 1
+				 * The authorities are extracted from the 'group' claim
+				 * The username is extracted from the 'sub' claim
+				 */
+				.collector(JwtCookieCollector.builder()
+						.collectorName("Cookie-SSO")
+						.authoritiesCollector(token -> token.getJWTClaimsSet().getStringListClaim("group").stream()
+								.map(g -> new SimpleGrantedAuthority(g)).collect(Collectors.toSet()))
+						.tokenValidator(tokenSerialised -> Mono.fromCallable(() -> ssoTokenCache.getOrVerify(tokenSerialised,
+								t -> VerifiedJWT.verify(t, ssoVerifierRegistry))))
+						.cookieName("SSO")
+						.build()
+				)
+
+				/**
+				 * Authentication via an API key, like example 1
+				 * The username and authorities are extracted by calling your API key service, through the cache
+				 */
+				.collector(APIKeyCollector.<User>builder()
+						.collectorName("API-Key")
+						.apiKeyExtractor(req -> req.getHeaders().getFirst("key"))
+						.apiKeyValidator(apiKey -> Mono.fromFuture(apiKeyValidator.validateAsync(apiKey))
+								.flatMap(Mono::justOrEmpty))
+						.usernameCollector(User::getUsername)
+						.authoritiesCollector(user -> new HashSet<>(user.getAuthorities()))
+						.build()
+				)
+
+				/**
+				 * Authentication via a certificate, like example 2
+				 * We trust the header x-cert populated by the gateway.
+				 */
+				.collectorForAuthentication(X509HeaderCollector.builder()
+						.collectorName("x509-cert")
+						.headerName("x-cert")
+						.certificateChainCache(certificateChainCache)
+						.usernameCollector(certificateChainCache::username)
+						.build()
+				)
+
+				/**
+				 * Authorization via an access token, bound to the client certificate, like example 2
+				 * The authorities are extracted from the 'scope' claim
+				 */
+				.collectorForAuthorization(StatelessAccessTokenCollector.builder()
+						.collectorName("stateless-access-token")
+						.tokenValidator((tokenSerialised, currentAuthentication) -> Mono.fromCallable(() -> {
+							JWT jwt = VerifiedJWT.verify(tokenSerialised, accessTokenVerifierSource);
+							tokenBindingVerifier.verify(jwt, currentAuthentication.getCertificateChain());
+							return jwt;
+						}).subscribeOn(accessTokenScheduler))
+						.build()
+				)
+
+				/**
+				 * Static authentication
+				 * If no authentication was possible with the previous collector, we default to the anonymous user
+				 */
+				.collectorForAuthentication(StaticUserCollector.builder()
+						.collectorName("StaticUser-anonymous")
+						.usernameCollector(() -> "anonymous")
+						.build())
+				.build();
+
+		return http
+				.securityContextRepository(NoOpServerSecurityContextRepository.getInstance())
+				.httpBasic().disable()
+				.formLogin().disable()
+				.csrf().disable()
+				.logout().disable()
+				.addFilterAt(multiAuthenticationWebFilter, SecurityWebFiltersOrder.AUTHENTICATION)
+				.authorizeExchange()
+				.anyExchange()
+				.permitAll()
+				.and()
+				.build();
+	}
+}
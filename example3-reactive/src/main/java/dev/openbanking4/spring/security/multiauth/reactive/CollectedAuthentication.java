@@ -0,0 +1,94 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.reactive;
+
+import org.springframework.security.authentication.AbstractAuthenticationToken;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.userdetails.User;
+
+import java.security.cert.X509Certificate;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The authentication built by the reactive collectors. The principal is a {@link User}, like with the servlet
+ * examples, so '/whoAmI' returns the same JSON.
+ */
+public class CollectedAuthentication extends AbstractAuthenticationToken {
+
+	private final String collectorName;
+	private final User principal;
+	private final X509Certificate[] certificateChain;
+
+	public CollectedAuthentication(String collectorName, String username,
+			Collection<? extends GrantedAuthority> authorities) {
+		this(collectorName, username, authorities, null);
+	}
+
+	/**
+	 * @param certificateChain the client certificate chain, if the user was authenticated with a certificate
+	 */
+	public CollectedAuthentication(String collectorName, String username,
+			Collection<? extends GrantedAuthority> authorities, X509Certificate[] certificateChain) {
+		super(authorities);
+		this.collectorName = collectorName;
+		this.principal = new User(username, "", authorities);
+		this.certificateChain = certificateChain;
+		setAuthenticated(true);
+	}
+
+	/**
+	 * @return the name of the collector that authenticated the user
+	 */
+	public String getCollectorName() {
+		return collectorName;
+	}
+
+	/**
+	 * @return the client certificate chain, or null if the user wasn't authenticated with a certificate
+	 */
+	public X509Certificate[] getCertificateChain() {
+		return certificateChain;
+	}
+
+	/**
+	 * @return a copy of this authentication, with the new authorities added to the current ones
+	 */
+	public CollectedAuthentication withAuthorities(Collection<? extends GrantedAuthority> authorities) {
+		if (authorities.isEmpty()) {
+			return this;
+		}
+		Set<GrantedAuthority> allAuthorities = new HashSet<>(getAuthorities());
+		allAuthorities.addAll(authorities);
+		return new CollectedAuthentication(collectorName, principal.getUsername(), allAuthorities, certificateChain);
+	}
+
+	@Override
+	public Object getCredentials() {
+		return "";
+	}
+
+	@Override
+	public User getPrincipal() {
+		return principal;
+	}
+}
@@ -0,0 +1,128 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.reactive;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.core.AuthenticationException;
+import org.springframework.security.core.context.ReactiveSecurityContextHolder;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * The reactive equivalent of the filter set up by the MultiAuthenticationCollectorConfigurer:
+ * <ul>
+ *     <li>the authentication collectors are tried in order, the first one that identifies the user wins</li>
+ *     <li>then each authorisation collector adds the authorities granted by its credential</li>
+ * </ul>
+ * An invalid credential for an authentication collector is ignored, so the next collector is tried. An invalid
+ * credential for an authorisation collector rejects the request with a 401.
+ *
+ * The collectors return a {@link Mono}, so a slow collector doesn't hold a thread while it waits.
+ */
+@Slf4j
+public class MultiAuthenticationWebFilter implements WebFilter {
+
+	private final List<ReactiveAuthenticationCollector> authenticationCollectors;
+	private final List<ReactiveAuthorizationCollector> authorizationCollectors;
+
+	private MultiAuthenticationWebFilter(Builder builder) {
+		this.authenticationCollectors = List.copyOf(builder.authenticationCollectors);
+		this.authorizationCollectors = List.copyOf(builder.authorizationCollectors);
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	@Override
+	public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+		return authenticate(exchange)
+				.flatMap(authentication -> authorise(exchange, authentication))
+				.map(Optional::of)
+				.defaultIfEmpty(Optional.empty())
+				.onErrorResume(AuthenticationException.class, e -> unauthorised(exchange, e).then(Mono.empty()))
+				.flatMap(authentication -> authentication
+						.map(a -> chain.filter(exchange).subscriberContext(ReactiveSecurityContextHolder.withAuthentication(a)))
+						.orElseGet(() -> chain.filter(exchange)));
+	}
+
+	private Mono<CollectedAuthentication> authenticate(ServerWebExchange exchange) {
+		return Flux.fromIterable(authenticationCollectors)
+				.concatMap(collector -> collector.collectAuthentication(exchange)
+						.onErrorResume(e -> {
+							log.debug("Collector '{}' couldn't authenticate the request", collector.collectorName(), e);
+							return Mono.empty();
+						}))
+				.next()
+				.doOnNext(authentication -> log.trace("Authenticated '{}' with collector '{}'", authentication.getName(),
+						authentication.getCollectorName()));
+	}
+
+	private Mono<CollectedAuthentication> authorise(ServerWebExchange exchange, CollectedAuthentication authentication) {
+		Mono<CollectedAuthentication> result = Mono.just(authentication);
+		for (ReactiveAuthorizationCollector collector : authorizationCollectors) {
+			result = result.flatMap(current -> collector.collectAuthorisation(exchange, current));
+		}
+		return result;
+	}
+
+	private Mono<Void> unauthorised(ServerWebExchange exchange, AuthenticationException e) {
+		log.debug("Request rejected: {}", e.getMessage());
+		exchange.getResponse().setStatusCode(HttpStatus.UNAUTHORIZED);
+		return exchange.getResponse().setComplete();
+	}
+
+	public static class Builder {
+		private final List<ReactiveAuthenticationCollector> authenticationCollectors = new ArrayList<>();
+		private final List<ReactiveAuthorizationCollector> authorizationCollectors = new ArrayList<>();
+
+		/**
+		 * Use this collector for both the authentication and the authorisation
+		 */
+		public Builder collector(ReactiveAuthCollector collector) {
+			authenticationCollectors.add(collector);
+			authorizationCollectors.add(collector);
+			return this;
+		}
+
+		public Builder collectorForAuthentication(ReactiveAuthenticationCollector collector) {
+			authenticationCollectors.add(collector);
+			return this;
+		}
+
+		public Builder collectorForAuthorization(ReactiveAuthorizationCollector collector) {
+			authorizationCollectors.add(collector);
+			return this;
+		}
+
+		public MultiAuthenticationWebFilter build() {
+			return new MultiAuthenticationWebFilter(this);
+		}
+	}
+}
@@ -0,0 +1,39 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.reactive;
+
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+
+/**
+ * Adds the authorities granted by a credential of the request to the current authentication.
+ */
+public interface ReactiveAuthorizationCollector {
+
+	String collectorName();
+
+	/**
+	 * @return the current authentication with the new authorities, or the current authentication unchanged if the
+	 * request doesn't contain this kind of credential. Never empty.
+	 */
+	Mono<CollectedAuthentication> collectAuthorisation(ServerWebExchange exchange,
+			CollectedAuthentication currentAuthentication);
+}
@@ -0,0 +1,137 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.reactive.collectors;
+
+import dev.openbanking4.spring.security.multiauth.reactive.CollectedAuthentication;
+import dev.openbanking4.spring.security.multiauth.reactive.ReactiveAuthCollector;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Authentication and authorisation via an API key
+ * @param <T> what the API key validator returns for a valid key
+ */
+@Slf4j
+public class APIKeyCollector<T> implements ReactiveAuthCollector {
+
+	private final String collectorName;
+	private final Function<ServerHttpRequest, String> apiKeyExtractor;
+	private final Function<String, Mono<T>> apiKeyValidator;
+	private final Function<T, String> usernameCollector;
+	private final Function<T, Set<GrantedAuthority>> authoritiesCollector;
+
+	private APIKeyCollector(Builder<T> builder) {
+		this.collectorName = builder.collectorName;
+		this.apiKeyExtractor = builder.apiKeyExtractor;
+		this.apiKeyValidator = builder.apiKeyValidator;
+		this.usernameCollector = builder.usernameCollector;
+		this.authoritiesCollector = builder.authoritiesCollector;
+	}
+
+	public static <T> Builder<T> builder() {
+		return new Builder<>();
+	}
+
+	@Override
+	public String collectorName() {
+		return collectorName;
+	}
+
+	@Override
+	public Mono<CollectedAuthentication> collectAuthentication(ServerWebExchange exchange) {
+		String apiKey = apiKeyExtractor.apply(exchange.getRequest());
+		if (apiKey == null) {
+			return Mono.empty();
+		}
+		return apiKeyValidator.apply(apiKey)
+				.map(user -> new CollectedAuthentication(collectorName, usernameCollector.apply(user),
+						authoritiesCollector.apply(user)));
+	}
+
+	@Override
+	public Mono<CollectedAuthentication> collectAuthorisation(ServerWebExchange exchange,
+			CollectedAuthentication currentAuthentication) {
+		if (collectorName.equals(currentAuthentication.getCollectorName())) {
+			// The authorities were collected with the authentication
+			return Mono.just(currentAuthentication);
+		}
+		String apiKey = apiKeyExtractor.apply(exchange.getRequest());
+		if (apiKey == null) {
+			return Mono.just(currentAuthentication);
+		}
+		return apiKeyValidator.apply(apiKey)
+				.map(user -> currentAuthentication.withAuthorities(authoritiesCollector.apply(user)))
+				.onErrorResume(e -> {
+					log.debug("Ignoring API key that couldn't be validated", e);
+					return Mono.just(currentAuthentication);
+				})
+				.defaultIfEmpty(currentAuthentication);
+	}
+
+	public static class Builder<T> {
+		private String collectorName = "API-Key";
+		private Function<ServerHttpRequest, String> apiKeyExtractor;
+		private Function<String, Mono<T>> apiKeyValidator;
+		private Function<T, String> usernameCollector;
+		private Function<T, Set<GrantedAuthority>> authoritiesCollector = user -> Set.of();
+
+		public Builder<T> collectorName(String collectorName) {
+			this.collectorName = collectorName;
+			return this;
+		}
+
+		public Builder<T> apiKeyExtractor(Function<ServerHttpRequest, String> apiKeyExtractor) {
+			this.apiKeyExtractor = apiKeyExtractor;
+			return this;
+		}
+
+		/**
+		 * @param apiKeyValidator returns the user of the API key, or empty if the key is invalid
+		 */
+		public Builder<T> apiKeyValidator(Function<String, Mono<T>> apiKeyValidator) {
+			this.apiKeyValidator = apiKeyValidator;
+			return this;
+		}
+
+		public Builder<T> usernameCollector(Function<T, String> usernameCollector) {
+			this.usernameCollector = usernameCollector;
+			return this;
+		}
+
+		public Builder<T> authoritiesCollector(Function<T, Set<GrantedAuthority>> authoritiesCollector) {
+			this.authoritiesCollector = authoritiesCollector;
+			return this;
+		}
+
+		public APIKeyCollector<T> build() {
+			if (apiKeyExtractor == null || apiKeyValidator == null || usernameCollector == null) {
+				throw new IllegalArgumentException("The API key extractor, validator and username collector are mandatory");
+			}
+			return new APIKeyCollector<>(this);
+		}
+	}
+}
@@ -0,0 +1,151 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.reactive.collectors;
+
+import com.nimbusds.jwt.JWT;
+import dev.openbanking4.spring.security.multiauth.reactive.CollectedAuthentication;
+import dev.openbanking4.spring.security.multiauth.reactive.ReactiveAuthCollector;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpCookie;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+
+import java.text.ParseException;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Authentication and authorisation via a JWT cookie. The username is the 'sub' claim.
+ */
+@Slf4j
+public class JwtCookieCollector implements ReactiveAuthCollector {
+
+	private final String collectorName;
+	private final String cookieName;
+	private final Function<String, Mono<JWT>> tokenValidator;
+	private final AuthoritiesCollector authoritiesCollector;
+
+	private JwtCookieCollector(Builder builder) {
+		this.collectorName = builder.collectorName;
+		this.cookieName = builder.cookieName;
+		this.tokenValidator = builder.tokenValidator;
+		this.authoritiesCollector = builder.authoritiesCollector;
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	@Override
+	public String collectorName() {
+		return collectorName;
+	}
+
+	@Override
+	public Mono<CollectedAuthentication> collectAuthentication(ServerWebExchange exchange) {
+		HttpCookie cookie = exchange.getRequest().getCookies().getFirst(cookieName);
+		if (cookie == null) {
+			return Mono.empty();
+		}
+		return tokenValidator.apply(cookie.getValue())
+				.map(jwt -> new CollectedAuthentication(collectorName, subject(jwt), authorities(jwt)));
+	}
+
+	@Override
+	public Mono<CollectedAuthentication> collectAuthorisation(ServerWebExchange exchange,
+			CollectedAuthentication currentAuthentication) {
+		if (collectorName.equals(currentAuthentication.getCollectorName())) {
+			// The authorities were collected with the authentication
+			return Mono.just(currentAuthentication);
+		}
+		HttpCookie cookie = exchange.getRequest().getCookies().getFirst(cookieName);
+		if (cookie == null) {
+			return Mono.just(currentAuthentication);
+		}
+		return tokenValidator.apply(cookie.getValue())
+				.map(jwt -> currentAuthentication.withAuthorities(authorities(jwt)))
+				.onErrorResume(e -> {
+					log.debug("Ignoring invalid cookie '{}'", cookieName, e);
+					return Mono.just(currentAuthentication);
+				})
+				.defaultIfEmpty(currentAuthentication);
+	}
+
+	private String subject(JWT jwt) {
+		try {
+			return jwt.getJWTClaimsSet().getSubject();
+		} catch (ParseException e) {
+			throw new BadCredentialsException("Can't read the claims of cookie '" + cookieName + "'", e);
+		}
+	}
+
+	private Set<GrantedAuthority> authorities(JWT jwt) {
+		try {
+			return authoritiesCollector.getAuthorities(jwt);
+		} catch (ParseException e) {
+			throw new BadCredentialsException("Can't read the authorities of cookie '" + cookieName + "'", e);
+		}
+	}
+
+	@FunctionalInterface
+	public interface AuthoritiesCollector {
+		Set<GrantedAuthority> getAuthorities(JWT token) throws ParseException;
+	}
+
+	public static class Builder {
+		private String collectorName = "Cookie-JWT";
+		private String cookieName;
+		private Function<String, Mono<JWT>> tokenValidator;
+		private AuthoritiesCollector authoritiesCollector = token -> Set.of();
+
+		public Builder collectorName(String collectorName) {
+			this.collectorName = collectorName;
+			return this;
+		}
+
+		public Builder cookieName(String cookieName) {
+			this.cookieName = cookieName;
+			return this;
+		}
+
+		/**
+		 * @param tokenValidator returns the JWT if the serialised token is valid, or an error
+		 */
+		public Builder tokenValidator(Function<String, Mono<JWT>> tokenValidator) {
+			this.tokenValidator = tokenValidator;
+			return this;
+		}
+
+		public Builder authoritiesCollector(AuthoritiesCollector authoritiesCollector) {
+			this.authoritiesCollector = authoritiesCollector;
+			return this;
+		}
+
+		public JwtCookieCollector build() {
+			if (cookieName == null || tokenValidator == null) {
+				throw new IllegalArgumentException("The cookie name and the token validator are mandatory");
+			}
+			return new JwtCookieCollector(this);
+		}
+	}
+}
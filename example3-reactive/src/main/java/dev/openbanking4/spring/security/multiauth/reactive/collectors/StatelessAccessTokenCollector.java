@@ -0,0 +1,121 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.reactive.collectors;
+
+import com.nimbusds.jwt.JWT;
+import dev.openbanking4.spring.security.multiauth.model.granttypes.ScopeGrantType;
+import dev.openbanking4.spring.security.multiauth.reactive.CollectedAuthentication;
+import dev.openbanking4.spring.security.multiauth.reactive.ReactiveAuthorizationCollector;
+import org.springframework.http.HttpHeaders;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.core.AuthenticationException;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+
+import java.text.ParseException;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Authorisation via a stateless access token, sent as a bearer token.
+ * The authorities are the scopes of the 'scope' claim. An invalid access token rejects the request.
+ */
+public class StatelessAccessTokenCollector implements ReactiveAuthorizationCollector {
+
+	private static final String BEARER_PREFIX = "Bearer ";
+
+	private final String collectorName;
+	private final TokenValidator tokenValidator;
+
+	private StatelessAccessTokenCollector(Builder builder) {
+		this.collectorName = builder.collectorName;
+		this.tokenValidator = builder.tokenValidator;
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	@Override
+	public String collectorName() {
+		return collectorName;
+	}
+
+	@Override
+	public Mono<CollectedAuthentication> collectAuthorisation(ServerWebExchange exchange,
+			CollectedAuthentication currentAuthentication) {
+		String authorization = exchange.getRequest().getHeaders().getFirst(HttpHeaders.AUTHORIZATION);
+		if (authorization == null || !authorization.regionMatches(true, 0, BEARER_PREFIX, 0, BEARER_PREFIX.length())) {
+			return Mono.just(currentAuthentication);
+		}
+		String tokenSerialised = authorization.substring(BEARER_PREFIX.length()).trim();
+		return tokenValidator.validate(tokenSerialised, currentAuthentication)
+				.map(jwt -> currentAuthentication.withAuthorities(scopes(jwt)))
+				.onErrorMap(e -> !(e instanceof AuthenticationException),
+						e -> new BadCredentialsException("Invalid access token", e))
+				.switchIfEmpty(Mono.error(() -> new BadCredentialsException("Invalid access token")));
+	}
+
+	private static Set<GrantedAuthority> scopes(JWT jwt) {
+		List<String> scopes;
+		try {
+			scopes = jwt.getJWTClaimsSet().getStringListClaim("scope");
+		} catch (ParseException e) {
+			throw new BadCredentialsException("Can't read the 'scope' claim of the access token", e);
+		}
+		if (scopes == null) {
+			return Set.of();
+		}
+		return scopes.stream().map(ScopeGrantType::new).collect(Collectors.toSet());
+	}
+
+	@FunctionalInterface
+	public interface TokenValidator {
+		/**
+		 * @return the JWT if the access token is valid for the current authentication, or an error
+		 */
+		Mono<JWT> validate(String tokenSerialised, CollectedAuthentication currentAuthentication);
+	}
+
+	public static class Builder {
+		private String collectorName = "stateless-access-token";
+		private TokenValidator tokenValidator;
+
+		public Builder collectorName(String collectorName) {
+			this.collectorName = collectorName;
+			return this;
+		}
+
+		public Builder tokenValidator(TokenValidator tokenValidator) {
+			this.tokenValidator = tokenValidator;
+			return this;
+		}
+
+		public StatelessAccessTokenCollector build() {
+			if (tokenValidator == null) {
+				throw new IllegalArgumentException("The token validator is mandatory");
+			}
+			return new StatelessAccessTokenCollector(this);
+		}
+	}
+}
@@ -0,0 +1,79 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.reactive.collectors;
+
+import dev.openbanking4.spring.security.multiauth.reactive.CollectedAuthentication;
+import dev.openbanking4.spring.security.multiauth.reactive.ReactiveAuthenticationCollector;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Authenticates every request as the same user, typically the anonymous user as the last collector
+ */
+public class StaticUserCollector implements ReactiveAuthenticationCollector {
+
+	private final String collectorName;
+	private final Supplier<String> usernameCollector;
+
+	private StaticUserCollector(Builder builder) {
+		this.collectorName = builder.collectorName;
+		this.usernameCollector = builder.usernameCollector;
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	@Override
+	public String collectorName() {
+		return collectorName;
+	}
+
+	@Override
+	public Mono<CollectedAuthentication> collectAuthentication(ServerWebExchange exchange) {
+		return Mono.fromSupplier(() -> new CollectedAuthentication(collectorName, usernameCollector.get(), Set.of()));
+	}
+
+	public static class Builder {
+		private String collectorName = "StaticUser";
+		private Supplier<String> usernameCollector;
+
+		public Builder collectorName(String collectorName) {
+			this.collectorName = collectorName;
+			return this;
+		}
+
+		public Builder usernameCollector(Supplier<String> usernameCollector) {
+			this.usernameCollector = usernameCollector;
+			return this;
+		}
+
+		public StaticUserCollector build() {
+			if (usernameCollector == null) {
+				throw new IllegalArgumentException("The username collector is mandatory");
+			}
+			return new StaticUserCollector(this);
+		}
+	}
+}
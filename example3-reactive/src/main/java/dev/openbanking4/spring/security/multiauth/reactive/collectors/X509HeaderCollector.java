@@ -0,0 +1,109 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.reactive.collectors;
+
+import dev.openbanking4.spring.security.multiauth.examples.commons.x509.CertificateChainCache;
+import dev.openbanking4.spring.security.multiauth.reactive.CollectedAuthentication;
+import dev.openbanking4.spring.security.multiauth.reactive.ReactiveAuthenticationCollector;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+
+import java.security.cert.X509Certificate;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Authentication via the client certificate chain forwarded by the gateway in a header.
+ * The chains are parsed by the {@link CertificateChainCache}, so a client we already saw costs a map lookup.
+ */
+public class X509HeaderCollector implements ReactiveAuthenticationCollector {
+
+	private final String collectorName;
+	private final String headerName;
+	private final CertificateChainCache certificateChainCache;
+	private final Function<X509Certificate[], String> usernameCollector;
+
+	private X509HeaderCollector(Builder builder) {
+		this.collectorName = builder.collectorName;
+		this.headerName = builder.headerName;
+		this.certificateChainCache = builder.certificateChainCache;
+		this.usernameCollector = builder.usernameCollector;
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	@Override
+	public String collectorName() {
+		return collectorName;
+	}
+
+	@Override
+	public Mono<CollectedAuthentication> collectAuthentication(ServerWebExchange exchange) {
+		String headerValue = exchange.getRequest().getHeaders().getFirst(headerName);
+		if (headerValue == null || headerValue.isEmpty()) {
+			return Mono.empty();
+		}
+		return Mono.fromCallable(() -> {
+			X509Certificate[] chain = certificateChainCache.parse(headerValue);
+			String username = usernameCollector.apply(chain);
+			if (username == null) {
+				return null;
+			}
+			return new CollectedAuthentication(collectorName, username, Set.of(), chain);
+		});
+	}
+
+	public static class Builder {
+		private String collectorName = "x509-cert";
+		private String headerName = "x-cert";
+		private CertificateChainCache certificateChainCache;
+		private Function<X509Certificate[], String> usernameCollector;
+
+		public Builder collectorName(String collectorName) {
+			this.collectorName = collectorName;
+			return this;
+		}
+
+		public Builder headerName(String headerName) {
+			this.headerName = headerName;
+			return this;
+		}
+
+		public Builder certificateChainCache(CertificateChainCache certificateChainCache) {
+			this.certificateChainCache = certificateChainCache;
+			return this;
+		}
+
+		public Builder usernameCollector(Function<X509Certificate[], String> usernameCollector) {
+			this.usernameCollector = usernameCollector;
+			return this;
+		}
+
+		public X509HeaderCollector build() {
+			if (certificateChainCache == null || usernameCollector == null) {
+				throw new IllegalArgumentException("The certificate chain cache and the username collector are mandatory");
+			}
+			return new X509HeaderCollector(this);
+		}
+	}
+}
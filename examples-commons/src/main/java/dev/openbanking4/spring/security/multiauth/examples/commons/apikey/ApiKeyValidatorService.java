@@ -0,0 +1,38 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.examples.commons.apikey;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The remote service that knows the API keys, i.e. your API key management service
+ * @param <T> what the service returns for a valid API key, typically the user owning it
+ */
+@FunctionalInterface
+public interface ApiKeyValidatorService<T> {
+
+	/**
+	 * Validate a batch of API keys in one call
+	 * @return the valid API keys with their user. Invalid keys are absent from the map.
+	 */
+	Map<String, T> validate(Set<String> apiKeys) throws Exception;
+}
@@ -0,0 +1,330 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.examples.commons.apikey;
+
+import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Validates API keys through the {@link ApiKeyValidatorService}, with as few calls to the service as possible:
+ * <ul>
+ *     <li>valid keys are remembered for a while</li>
+ *     <li>invalid keys are remembered for a shorter time, so a flood of invalid keys doesn't reach the service</li>
+ *     <li>requests for a key that is already being validated wait for the same call</li>
+ *     <li>optionally, the keys to validate are grouped into batches</li>
+ * </ul>
+ * The cache uses a frequency-based admission policy, so a flood of random keys doesn't evict the keys of the regular
+ * clients.
+ * @param <T> what the service returns for a valid API key
+ */
+@Slf4j
+public class CachingApiKeyValidator<T> implements Closeable {
+
+	/**
+	 * The calls to the service block on I/O, more threads than cores are needed to keep them in flight
+	 */
+	private static final int DEFAULT_THREADS = Math.max(4, 4 * Runtime.getRuntime().availableProcessors());
+
+	private final ApiKeyValidatorService<T> validatorService;
+	private final Duration timeout;
+	private final AsyncLoadingCache<String, Optional<T>> cache;
+	private final Batcher batcher;
+	private final ExecutorService ownedExecutor;
+	private final LongAdder serviceCalls = new LongAdder();
+
+	private CachingApiKeyValidator(Builder<T> builder) {
+		this.validatorService = builder.validatorService;
+		this.timeout = builder.timeout;
+		this.ownedExecutor = builder.executor == null
+				? Executors.newFixedThreadPool(DEFAULT_THREADS, r -> {
+					Thread thread = new Thread(r, "api-key-validator");
+					thread.setDaemon(true);
+					return thread;
+				})
+				: null;
+		Executor serviceExecutor = builder.executor != null ? builder.executor : ownedExecutor;
+		this.batcher = builder.maxBatchSize > 1
+				? new Batcher(builder.maxBatchSize, builder.maxBatchDelay, serviceExecutor)
+				: null;
+		this.cache = Caffeine.newBuilder()
+				.maximumSize(builder.maximumSize)
+				.expireAfter(new PositiveOrNegativeTtl<T>(builder.positiveTtl.toNanos(), builder.negativeTtl.toNanos()))
+				.executor(serviceExecutor)
+				.recordStats()
+				.buildAsync((apiKey, executor) -> batcher != null
+						? batcher.submit(apiKey)
+						: CompletableFuture.supplyAsync(() -> validateWithService(apiKey), executor));
+	}
+
+	public static <T> Builder<T> builder() {
+		return new Builder<>();
+	}
+
+	/**
+	 * @return the user of this API key, or empty if the key is invalid
+	 */
+	public CompletableFuture<Optional<T>> validateAsync(String apiKey) {
+		return cache.get(apiKey);
+	}
+
+	/**
+	 * Blocking version of {@link #validateAsync(String)}, for the servlet collectors
+	 * @return the user of this API key, or null if the key is invalid or couldn't be validated in time
+	 */
+	public T validate(String apiKey) {
+		try {
+			return validateAsync(apiKey).get(timeout.toMillis(), TimeUnit.MILLISECONDS).orElse(null);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		} catch (ExecutionException | TimeoutException e) {
+			log.warn("Couldn't validate the API key", e);
+			return null;
+		}
+	}
+
+	/**
+	 * @return how many times the API key validator service was called
+	 */
+	public long getServiceCallCount() {
+		return serviceCalls.sum();
+	}
+
+	public long hitCount() {
+		return cache.synchronous().stats().hitCount();
+	}
+
+	public long missCount() {
+		return cache.synchronous().stats().missCount();
+	}
+
+	/**
+	 * Stops the batcher, and the executor if it's the default one. An executor given to the builder is left running.
+	 */
+	@Override
+	public void close() {
+		if (batcher != null) {
+			batcher.scheduler.shutdownNow();
+		}
+		if (ownedExecutor != null) {
+			ownedExecutor.shutdownNow();
+		}
+	}
+
+	private Optional<T> validateWithService(String apiKey) {
+		return Optional.ofNullable(validateWithService(Collections.singleton(apiKey)).get(apiKey));
+	}
+
+	private Map<String, T> validateWithService(Set<String> apiKeys) {
+		serviceCalls.increment();
+		try {
+			Map<String, T> validKeys = validatorService.validate(apiKeys);
+			// No map, no valid key
+			return validKeys != null ? validKeys : Collections.emptyMap();
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IllegalStateException("The API key validator service failed", e);
+		}
+	}
+
+	/**
+	 * Groups the keys to validate, until the batch is full or the oldest key waited for the max delay
+	 */
+	private class Batcher {
+
+		private final int maxBatchSize;
+		private final long maxBatchDelayNanos;
+		private final Executor executor;
+		private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "api-key-batcher");
+			thread.setDaemon(true);
+			return thread;
+		});
+		private Batch pending = new Batch();
+
+		Batcher(int maxBatchSize, Duration maxBatchDelay, Executor executor) {
+			this.maxBatchSize = maxBatchSize;
+			this.maxBatchDelayNanos = maxBatchDelay.toNanos();
+			this.executor = executor;
+		}
+
+		CompletableFuture<Optional<T>> submit(String apiKey) {
+			CompletableFuture<Optional<T>> result;
+			Batch batch;
+			boolean full;
+			synchronized (this) {
+				batch = pending;
+				result = batch.results.get(apiKey);
+				if (result != null) {
+					return result;
+				}
+				result = new CompletableFuture<>();
+				batch.results.put(apiKey, result);
+				full = batch.results.size() >= maxBatchSize;
+				if (full) {
+					pending = new Batch();
+				} else if (batch.results.size() == 1) {
+					scheduler.schedule(() -> executor.execute(() -> flush(batch)), maxBatchDelayNanos,
+							TimeUnit.NANOSECONDS);
+				}
+			}
+			if (full) {
+				executor.execute(() -> flush(batch));
+			}
+			return result;
+		}
+
+		private void flush(Batch batch) {
+			synchronized (this) {
+				if (batch.flushed) {
+					// Already flushed because it was full
+					return;
+				}
+				batch.flushed = true;
+				if (pending == batch) {
+					pending = new Batch();
+				}
+			}
+			try {
+				Map<String, T> validKeys = validateWithService(Collections.unmodifiableSet(batch.results.keySet()));
+				batch.results.forEach((apiKey, result) -> result.complete(Optional.ofNullable(validKeys.get(apiKey))));
+			} catch (RuntimeException e) {
+				batch.results.values().forEach(result -> result.completeExceptionally(e));
+			}
+		}
+	}
+
+	/**
+	 * Guarded by the batcher lock until flushed
+	 */
+	private class Batch {
+		private final Map<String, CompletableFuture<Optional<T>>> results = new HashMap<>();
+		private boolean flushed;
+	}
+
+	private static class PositiveOrNegativeTtl<T> implements Expiry<String, Optional<T>> {
+
+		private final long positiveTtlNanos;
+		private final long negativeTtlNanos;
+
+		PositiveOrNegativeTtl(long positiveTtlNanos, long negativeTtlNanos) {
+			this.positiveTtlNanos = positiveTtlNanos;
+			this.negativeTtlNanos = negativeTtlNanos;
+		}
+
+		@Override
+		public long expireAfterCreate(String apiKey, Optional<T> user, long currentTime) {
+			return user.isPresent() ? positiveTtlNanos : negativeTtlNanos;
+		}
+
+		@Override
+		public long expireAfterUpdate(String apiKey, Optional<T> user, long currentTime, long currentDuration) {
+			return expireAfterCreate(apiKey, user, currentTime);
+		}
+
+		@Override
+		public long expireAfterRead(String apiKey, Optional<T> user, long currentTime, long currentDuration) {
+			return currentDuration;
+		}
+	}
+
+	public static class Builder<T> {
+		private ApiKeyValidatorService<T> validatorService;
+		private long maximumSize = 10_000;
+		private Duration positiveTtl = Duration.ofMinutes(5);
+		private Duration negativeTtl = Duration.ofSeconds(10);
+		private Duration timeout = Duration.ofSeconds(2);
+		private int maxBatchSize = 1;
+		private Duration maxBatchDelay = Duration.ofMillis(5);
+		private Executor executor;
+
+		public Builder<T> validatorService(ApiKeyValidatorService<T> validatorService) {
+			this.validatorService = validatorService;
+			return this;
+		}
+
+		public Builder<T> maximumSize(long maximumSize) {
+			this.maximumSize = maximumSize;
+			return this;
+		}
+
+		public Builder<T> positiveTtl(Duration positiveTtl) {
+			this.positiveTtl = positiveTtl;
+			return this;
+		}
+
+		public Builder<T> negativeTtl(Duration negativeTtl) {
+			this.negativeTtl = negativeTtl;
+			return this;
+		}
+
+		public Builder<T> timeout(Duration timeout) {
+			this.timeout = timeout;
+			return this;
+		}
+
+		/**
+		 * Group the keys to validate in batches of up to maxBatchSize keys, waiting at most maxBatchDelay.
+		 * By default, each key is validated with its own call.
+		 */
+		public Builder<T> batching(int maxBatchSize, Duration maxBatchDelay) {
+			this.maxBatchSize = maxBatchSize;
+			this.maxBatchDelay = maxBatchDelay;
+			return this;
+		}
+
+		/**
+		 * Where the service is called. By default, a pool of daemon threads owned by the validator, shut down by
+		 * {@link CachingApiKeyValidator#close()}.
+		 */
+		public Builder<T> executor(Executor executor) {
+			this.executor = executor;
+			return this;
+		}
+
+		public CachingApiKeyValidator<T> build() {
+			if (validatorService == null) {
+				throw new IllegalArgumentException("The API key validator service is mandatory");
+			}
+			return new CachingApiKeyValidator<>(this);
+		}
+	}
+}
@@ -0,0 +1,175 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.examples.commons.authorities;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Shares the authority sets between the requests: the same groups come again and again, in the claims of the tokens
+ * or from the API key service, we build their set once.
+ *
+ * The sets are immutable and compute their hash code once. A list of groups is canonicalised, sorted and without
+ * duplicates, so the same groups in another order give the same set. The authorities themselves are shared by all the
+ * sets. The memory is bounded by the maximum number of sets and authorities kept.
+ */
+public class AuthoritySetInterner {
+
+	private final Cache<List<?>, Set<GrantedAuthority>> setsByNames;
+	private final Cache<Collection<? extends GrantedAuthority>, Set<GrantedAuthority>> setsByCollection;
+	private final Cache<String, GrantedAuthority> authorities;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	/**
+	 * @param maximumSize how many sets we keep, and how many distinct authorities
+	 */
+	public AuthoritySetInterner(long maximumSize) {
+		this.setsByNames = Caffeine.newBuilder().maximumSize(maximumSize).build();
+		this.setsByCollection = Caffeine.newBuilder().maximumSize(maximumSize).weakKeys().build();
+		this.authorities = Caffeine.newBuilder().maximumSize(maximumSize).build();
+	}
+
+	/**
+	 * @param names the authority names, like the 'group' claim. The list is looked up as it is, without copy, and only
+	 *              copied the first time we see it. The entries that aren't strings are ignored, and null is no names.
+	 */
+	public Set<GrantedAuthority> fromNames(List<?> names) {
+		if (names == null) {
+			names = List.of();
+		}
+		Set<GrantedAuthority> set = setsByNames.getIfPresent(names);
+		if (set != null) {
+			hits.increment();
+			return set;
+		}
+		misses.increment();
+		List<String> canonicalNames = canonicalise(names);
+		set = setsByNames.get(canonicalNames, key -> newSet(canonicalNames));
+		setsByNames.put(List.copyOf(toStrings(names)), set);
+		return set;
+	}
+
+	/**
+	 * @param authorities a collection of authorities that doesn't change, like the ones of a cached user. It's
+	 *                    remembered by identity, as long as it's in use. A set that is already interned is returned
+	 *                    as it is.
+	 */
+	@SuppressWarnings("unchecked")
+	public Set<GrantedAuthority> of(Collection<? extends GrantedAuthority> authorities) {
+		if (authorities instanceof InternedAuthoritySet) {
+			hits.increment();
+			return (Set<GrantedAuthority>) authorities;
+		}
+		Set<GrantedAuthority> set = setsByCollection.getIfPresent(authorities);
+		if (set != null) {
+			hits.increment();
+			return set;
+		}
+		List<String> names = new ArrayList<>(authorities.size());
+		for (GrantedAuthority authority : authorities) {
+			names.add(authority.getAuthority());
+		}
+		set = fromNames(names);
+		setsByCollection.put(authorities, set);
+		return set;
+	}
+
+	public long hitCount() {
+		return hits.sum();
+	}
+
+	public long missCount() {
+		return misses.sum();
+	}
+
+	private Set<GrantedAuthority> newSet(List<String> canonicalNames) {
+		List<GrantedAuthority> elements = new ArrayList<>(canonicalNames.size());
+		for (String name : canonicalNames) {
+			elements.add(authorities.get(name, SimpleGrantedAuthority::new));
+		}
+		return new InternedAuthoritySet(Set.copyOf(elements));
+	}
+
+	private static List<String> canonicalise(List<?> names) {
+		return List.copyOf(new TreeSet<>(toStrings(names)));
+	}
+
+	private static List<String> toStrings(List<?> names) {
+		List<String> strings = new ArrayList<>(names.size());
+		for (Object name : names) {
+			if (name instanceof String) {
+				strings.add((String) name);
+			}
+		}
+		return strings;
+	}
+
+	/**
+	 * An immutable set, which computes its hash code once
+	 */
+	private static final class InternedAuthoritySet extends AbstractSet<GrantedAuthority> {
+
+		private final Set<GrantedAuthority> authorities;
+		private final int hashCode;
+
+		InternedAuthoritySet(Set<GrantedAuthority> authorities) {
+			this.authorities = authorities;
+			this.hashCode = authorities.hashCode();
+		}
+
+		@Override
+		public Iterator<GrantedAuthority> iterator() {
+			return authorities.iterator();
+		}
+
+		@Override
+		public int size() {
+			return authorities.size();
+		}
+
+		@Override
+		public boolean contains(Object o) {
+			return authorities.contains(o);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o == this || super.equals(o);
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+	}
+}
@@ -0,0 +1,413 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.examples.commons.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.nimbusds.jose.util.Base64URL;
+import dev.openbanking4.spring.security.multiauth.configurers.collectors.AuthCollector;
+import dev.openbanking4.spring.security.multiauth.configurers.collectors.AuthenticationCollector;
+import dev.openbanking4.spring.security.multiauth.configurers.collectors.AuthorizationCollector;
+import dev.openbanking4.spring.security.multiauth.examples.commons.dispatch.RequestSignal;
+import dev.openbanking4.spring.security.multiauth.examples.commons.metrics.CollectorCacheMetrics;
+import dev.openbanking4.spring.security.multiauth.model.authentication.X509Authentication;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.security.core.Authentication;
+
+import javax.servlet.http.HttpServletRequest;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Remembers the authentications collected for the credentials of a request: the same cookie, API key or certificate
+ * and access token come again and again, there is no need to collect them each time.
+ *
+ * The entries are keyed by the SHA-256 of all the credentials of the request, computed once per request. The
+ * authorisations depend on the authentication too: their key also has the SHA-256 of the current authentication, its
+ * type, name and credentials, or certificate chain, so an authorisation is never replayed on top of another one.
+ * There are two tiers:
+ * <ul>
+ *     <li>an in-process cache, bounded in size, with the W-TinyLFU eviction of Caffeine</li>
+ *     <li>optionally, a {@link SharedAuthenticationStore} shared by the replicas of the app</li>
+ * </ul>
+ * An entry expires when the first of the credentials it was collected from expires, or after the TTL. Failures and
+ * requests without credentials for the collector are never cached. What the credentials are checked against, like the
+ * CRLs of the client certificates, can be part of the key too, so the entries are forgotten when it changes.
+ *
+ * The cached authentications are shared by the requests, they must not be modified.
+ */
+@Slf4j
+public class AuthenticationResultCache {
+
+	private static final AtomicInteger INSTANCES = new AtomicInteger();
+	private static final ThreadLocal<MessageDigest> SHA_256 = ThreadLocal.withInitial(() -> {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is not supported by this JVM", e);
+		}
+	});
+
+	private final String keyAttribute = AuthenticationResultCache.class.getName() + ".key." + INSTANCES.incrementAndGet();
+	private final List<RequestSignal> signals;
+	private final Supplier<String> keyVersion;
+	private final Cache<String, CachedAuthentication> localCache;
+	private final SharedAuthenticationStore sharedStore;
+	private final Duration ttl;
+	private final Clock clock;
+	private final MeterRegistry meterRegistry;
+
+	private AuthenticationResultCache(Builder builder) {
+		this.signals = builder.signals;
+		this.keyVersion = builder.keyVersion;
+		this.sharedStore = builder.sharedStore;
+		this.ttl = builder.ttl;
+		this.clock = builder.clock;
+		this.meterRegistry = builder.meterRegistry;
+		this.localCache = Caffeine.newBuilder()
+				.maximumSize(builder.maximumSize)
+				.expireAfter(new ExpireAtCredentialExpiry(clock))
+				.build();
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	/**
+	 * @param credentialExpiry when the credentials read by this collector expire
+	 */
+	public AuthCollector cached(AuthCollector collector, CredentialExpiry credentialExpiry) {
+		return new CachingCollector(collector.collectorName(), collector, collector, credentialExpiry);
+	}
+
+	public AuthenticationCollector cachedAuthentication(AuthenticationCollector collector,
+			CredentialExpiry credentialExpiry) {
+		return new CachingCollector(collector.collectorName(), collector, null, credentialExpiry);
+	}
+
+	public AuthorizationCollector cachedAuthorization(AuthorizationCollector collector,
+			CredentialExpiry credentialExpiry) {
+		return new CachingCollector(collector.collectorName(), null, collector, credentialExpiry);
+	}
+
+	public long estimatedSize() {
+		return localCache.estimatedSize();
+	}
+
+	/**
+	 * @return the SHA-256 of the credentials of the request, or null if it has none
+	 */
+	String credentialKey(HttpServletRequest request) {
+		Object key = request.getAttribute(keyAttribute);
+		if (key == null) {
+			key = computeCredentialKey(request);
+			request.setAttribute(keyAttribute, key);
+		}
+		return key == NoCredentials.INSTANCE ? null : (String) key;
+	}
+
+	private Object computeCredentialKey(HttpServletRequest request) {
+		MessageDigest sha256 = SHA_256.get();
+		boolean hasCredentials = false;
+		for (RequestSignal signal : signals) {
+			String value = signal.value(request);
+			if (value != null) {
+				hasCredentials = true;
+				sha256.update(signal.toString().getBytes(StandardCharsets.UTF_8));
+				sha256.update((byte) 0);
+				sha256.update(value.getBytes(StandardCharsets.UTF_8));
+				sha256.update((byte) 0);
+			}
+		}
+		if (keyVersion != null) {
+			String version = keyVersion.get();
+			sha256.update(String.valueOf(version).getBytes(StandardCharsets.UTF_8));
+		}
+		byte[] digest = sha256.digest();
+		return hasCredentials ? Base64URL.encode(digest).toString() : NoCredentials.INSTANCE;
+	}
+
+	/**
+	 * @return the SHA-256 of the identity of the authentication, or null if its credentials can't be told apart
+	 */
+	static String authenticationKey(Authentication authentication) {
+		if (authentication == null) {
+			return "none";
+		}
+		MessageDigest sha256 = SHA_256.get();
+		sha256.update(authentication.getClass().getName().getBytes(StandardCharsets.UTF_8));
+		sha256.update((byte) 0);
+		sha256.update(String.valueOf(authentication.getName()).getBytes(StandardCharsets.UTF_8));
+		sha256.update((byte) 0);
+		sha256.update((byte) (authentication.isAuthenticated() ? 1 : 0));
+		Object credentials = authentication instanceof X509Authentication
+				? ((X509Authentication) authentication).getCertificateChain()
+				: authentication.getCredentials();
+		try {
+			if (credentials instanceof X509Certificate) {
+				sha256.update(((X509Certificate) credentials).getEncoded());
+			} else if (credentials instanceof X509Certificate[]) {
+				for (X509Certificate certificate : (X509Certificate[]) credentials) {
+					sha256.update(certificate.getEncoded());
+					sha256.update((byte) 0);
+				}
+			} else if (credentials instanceof CharSequence) {
+				sha256.update(credentials.toString().getBytes(StandardCharsets.UTF_8));
+			} else if (credentials != null) {
+				sha256.reset();
+				return null;
+			}
+		} catch (CertificateEncodingException e) {
+			sha256.reset();
+			return null;
+		}
+		return Base64URL.encode(sha256.digest()).toString();
+	}
+
+	private CachedAuthentication lookup(String key) {
+		CachedAuthentication cached = localCache.getIfPresent(key);
+		if (cached != null && !cached.isExpired(clock.millis())) {
+			return cached;
+		}
+		if (sharedStore == null) {
+			return null;
+		}
+		try {
+			cached = sharedStore.get(key);
+		} catch (RuntimeException e) {
+			log.warn("Couldn't read the shared authentication store", e);
+			return null;
+		}
+		if (cached != null && !cached.isExpired(clock.millis())) {
+			localCache.put(key, cached);
+			return cached;
+		}
+		return null;
+	}
+
+	private void store(String key, Authentication authentication, Instant credentialExpiresAt) {
+		Instant expiresAt = clock.instant().plus(ttl);
+		if (credentialExpiresAt != null && credentialExpiresAt.isBefore(expiresAt)) {
+			expiresAt = credentialExpiresAt;
+		}
+		CachedAuthentication cached = new CachedAuthentication(authentication, expiresAt);
+		if (cached.isExpired(clock.millis())) {
+			return;
+		}
+		localCache.put(key, cached);
+		if (sharedStore != null) {
+			try {
+				sharedStore.put(key, cached);
+			} catch (RuntimeException e) {
+				log.warn("Couldn't write to the shared authentication store", e);
+			}
+		}
+	}
+
+	/**
+	 * Marks the requests without credentials, as a request attribute can't be null
+	 */
+	private enum NoCredentials {
+		INSTANCE
+	}
+
+	private class CachingCollector implements AuthCollector {
+
+		private final String collectorName;
+		private final AuthenticationCollector authenticationCollector;
+		private final AuthorizationCollector authorizationCollector;
+		private final CredentialExpiry credentialExpiry;
+		private final LongAdder hits = new LongAdder();
+		private final LongAdder misses = new LongAdder();
+
+		CachingCollector(String collectorName, AuthenticationCollector authenticationCollector,
+				AuthorizationCollector authorizationCollector, CredentialExpiry credentialExpiry) {
+			this.collectorName = collectorName;
+			this.authenticationCollector = authenticationCollector;
+			this.authorizationCollector = authorizationCollector;
+			this.credentialExpiry = credentialExpiry;
+			if (meterRegistry != null) {
+				CollectorCacheMetrics.monitor(meterRegistry, collectorName, "authentication-results", this,
+						c -> c.hits.sum(), c -> c.misses.sum());
+			}
+		}
+
+		@Override
+		public String collectorName() {
+			return collectorName;
+		}
+
+		@Override
+		public Authentication collectAuthentication(HttpServletRequest request) {
+			if (authenticationCollector == null) {
+				throw new IllegalStateException("Collector '" + collectorName + "' is only registered for authorisation");
+			}
+			return collect(request, collectorName + ":authentication:",
+					() -> authenticationCollector.collectAuthentication(request), null);
+		}
+
+		@Override
+		public Authentication collectAuthorisation(HttpServletRequest request, Authentication currentAuthentication) {
+			if (authorizationCollector == null) {
+				throw new IllegalStateException("Collector '" + collectorName + "' is only registered for authentication");
+			}
+			String authenticationKey = authenticationKey(currentAuthentication);
+			if (authenticationKey == null) {
+				return authorizationCollector.collectAuthorisation(request, currentAuthentication);
+			}
+			return collect(request, collectorName + ":authorisation:" + authenticationKey + ":",
+					() -> authorizationCollector.collectAuthorisation(request, currentAuthentication),
+					currentAuthentication);
+		}
+
+		private Authentication collect(HttpServletRequest request, String keyPrefix, Supplier<Authentication> collector,
+				Authentication currentAuthentication) {
+			String credentialKey = credentialKey(request);
+			if (credentialKey == null) {
+				return collector.get();
+			}
+			String key = keyPrefix + credentialKey;
+			CachedAuthentication cached = lookup(key);
+			if (cached != null) {
+				hits.increment();
+				return cached.getAuthentication();
+			}
+			misses.increment();
+			Authentication authentication = collector.get();
+			if (authentication != null && authentication != currentAuthentication) {
+				store(key, authentication, credentialExpiry.expiresAt(request));
+			}
+			return authentication;
+		}
+	}
+
+	private static class ExpireAtCredentialExpiry implements Expiry<String, CachedAuthentication> {
+
+		private final Clock clock;
+
+		ExpireAtCredentialExpiry(Clock clock) {
+			this.clock = clock;
+		}
+
+		@Override
+		public long expireAfterCreate(String key, CachedAuthentication cached, long currentTime) {
+			long untilExpiry = cached.getExpiresAt().toEpochMilli() - clock.millis();
+			return Math.max(0, TimeUnit.MILLISECONDS.toNanos(untilExpiry));
+		}
+
+		@Override
+		public long expireAfterUpdate(String key, CachedAuthentication cached, long currentTime,
+				long currentDuration) {
+			return expireAfterCreate(key, cached, currentTime);
+		}
+
+		@Override
+		public long expireAfterRead(String key, CachedAuthentication cached, long currentTime, long currentDuration) {
+			return currentDuration;
+		}
+	}
+
+	public static class Builder {
+		private List<RequestSignal> signals = new ArrayList<>();
+		private Supplier<String> keyVersion;
+		private long maximumSize = 10_000;
+		private Duration ttl = Duration.ofMinutes(5);
+		private SharedAuthenticationStore sharedStore;
+		private MeterRegistry meterRegistry;
+		private Clock clock = Clock.systemUTC();
+
+		/**
+		 * The credentials the collectors read: the same values give the same authentications
+		 */
+		public Builder signals(RequestSignal... signals) {
+			this.signals = new ArrayList<>(Arrays.asList(signals));
+			return this;
+		}
+
+		/**
+		 * Part of the key of the entries, so they are no longer used once it changes, like the version of the CRLs
+		 * the client certificates are checked against. It's read once per request. It must be the same for all the
+		 * replicas sharing a store.
+		 */
+		public Builder keyVersion(Supplier<String> keyVersion) {
+			this.keyVersion = keyVersion;
+			return this;
+		}
+
+		public Builder maximumSize(long maximumSize) {
+			this.maximumSize = maximumSize;
+			return this;
+		}
+
+		/**
+		 * How long an authentication is kept at most, even if the credentials are still valid. It's also the time it
+		 * takes for a revoked credential to be refused.
+		 */
+		public Builder ttl(Duration ttl) {
+			this.ttl = ttl;
+			return this;
+		}
+
+		/**
+		 * The tier shared by the replicas. By default, the authentications are only cached in-process.
+		 */
+		public Builder sharedStore(SharedAuthenticationStore sharedStore) {
+			this.sharedStore = sharedStore;
+			return this;
+		}
+
+		/**
+		 * To expose the hits and misses of each collector
+		 */
+		public Builder meterRegistry(MeterRegistry meterRegistry) {
+			this.meterRegistry = meterRegistry;
+			return this;
+		}
+
+		public Builder clock(Clock clock) {
+			this.clock = clock;
+			return this;
+		}
+
+		public AuthenticationResultCache build() {
+			if (signals.isEmpty()) {
+				throw new IllegalArgumentException("The signals holding the credentials are mandatory");
+			}
+			return new AuthenticationResultCache(this);
+		}
+	}
+}
@@ -0,0 +1,54 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.examples.commons.cache;
+
+import org.springframework.security.core.Authentication;
+
+import java.io.Serializable;
+import java.time.Instant;
+
+/**
+ * An authentication collected for some credentials, valid until the first of them expires
+ */
+public final class CachedAuthentication implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final Authentication authentication;
+	private final Instant expiresAt;
+
+	public CachedAuthentication(Authentication authentication, Instant expiresAt) {
+		this.authentication = authentication;
+		this.expiresAt = expiresAt;
+	}
+
+	public Authentication getAuthentication() {
+		return authentication;
+	}
+
+	public Instant getExpiresAt() {
+		return expiresAt;
+	}
+
+	public boolean isExpired(long nowMillis) {
+		return expiresAt.toEpochMilli() <= nowMillis;
+	}
+}
@@ -0,0 +1,104 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.examples.commons.cache;
+
+import com.nimbusds.jwt.JWTParser;
+import dev.openbanking4.spring.security.multiauth.examples.commons.dispatch.RequestSignal;
+import dev.openbanking4.spring.security.multiauth.examples.commons.x509.CertificateHeaderFilter;
+
+import javax.servlet.http.HttpServletRequest;
+import java.security.cert.X509Certificate;
+import java.text.ParseException;
+import java.time.Instant;
+import java.util.Date;
+
+/**
+ * When the credential of a request expires, so the authentication collected from it is no longer cached.
+ * It's only called once the collector accepted the credential.
+ */
+@FunctionalInterface
+public interface CredentialExpiry {
+
+	/**
+	 * @return when the credential expires, or null if it doesn't expire by itself
+	 */
+	Instant expiresAt(HttpServletRequest request);
+
+	static CredentialExpiry none() {
+		return request -> null;
+	}
+
+	/**
+	 * The 'exp' claim of a JWT, in a cookie or a header. A 'Bearer ' prefix is ignored.
+	 */
+	static CredentialExpiry jwt(RequestSignal signal) {
+		return request -> {
+			String token = signal.value(request);
+			if (token == null) {
+				return null;
+			}
+			if (token.startsWith("Bearer ")) {
+				token = token.substring("Bearer ".length());
+			}
+			try {
+				Date expirationTime = JWTParser.parse(token).getJWTClaimsSet().getExpirationTime();
+				return expirationTime != null ? expirationTime.toInstant() : null;
+			} catch (ParseException e) {
+				// Don't cache what we can't read
+				return Instant.EPOCH;
+			}
+		};
+	}
+
+	/**
+	 * The earliest 'notAfter' of the client certificate chain
+	 */
+	static CredentialExpiry clientCertificate() {
+		return request -> {
+			X509Certificate[] chain =
+					(X509Certificate[]) request.getAttribute(CertificateHeaderFilter.CERTIFICATES_ATTRIBUTE);
+			if (chain == null) {
+				return null;
+			}
+			Instant notAfter = null;
+			for (X509Certificate certificate : chain) {
+				Instant certificateNotAfter = certificate.getNotAfter().toInstant();
+				if (notAfter == null || certificateNotAfter.isBefore(notAfter)) {
+					notAfter = certificateNotAfter;
+				}
+			}
+			return notAfter;
+		};
+	}
+
+	static CredentialExpiry earliest(CredentialExpiry... expiries) {
+		return request -> {
+			Instant earliest = null;
+			for (CredentialExpiry expiry : expiries) {
+				Instant expiresAt = expiry.expiresAt(request);
+				if (expiresAt != null && (earliest == null || expiresAt.isBefore(earliest))) {
+					earliest = expiresAt;
+				}
+			}
+			return earliest;
+		};
+	}
+}
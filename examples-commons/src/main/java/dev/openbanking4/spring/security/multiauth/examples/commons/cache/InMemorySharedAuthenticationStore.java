@@ -0,0 +1,101 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.examples.commons.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.time.Clock;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A stand-in for a distributed store, for the tests and a single replica. Like a remote store, it keeps the entries
+ * serialized: each get returns a new copy, and what can't be serialized fails.
+ */
+public class InMemorySharedAuthenticationStore implements SharedAuthenticationStore {
+
+	private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+	private final Clock clock;
+
+	public InMemorySharedAuthenticationStore() {
+		this(Clock.systemUTC());
+	}
+
+	public InMemorySharedAuthenticationStore(Clock clock) {
+		this.clock = clock;
+	}
+
+	@Override
+	public CachedAuthentication get(String key) {
+		Entry entry = entries.get(key);
+		if (entry == null) {
+			return null;
+		}
+		if (entry.expiresAtMillis <= clock.millis()) {
+			entries.remove(key, entry);
+			return null;
+		}
+		return deserialize(entry.serialized);
+	}
+
+	@Override
+	public void put(String key, CachedAuthentication cachedAuthentication) {
+		entries.put(key, new Entry(serialize(cachedAuthentication), cachedAuthentication.getExpiresAt().toEpochMilli()));
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	private static byte[] serialize(CachedAuthentication cachedAuthentication) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(cachedAuthentication);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Can't serialize the authentication", e);
+		}
+		return bytes.toByteArray();
+	}
+
+	private static CachedAuthentication deserialize(byte[] serialized) {
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialized))) {
+			return (CachedAuthentication) in.readObject();
+		} catch (IOException e) {
+			throw new UncheckedIOException("Can't deserialize the authentication", e);
+		} catch (ClassNotFoundException e) {
+			throw new IllegalStateException("Can't deserialize the authentication", e);
+		}
+	}
+
+	private static class Entry {
+		private final byte[] serialized;
+		private final long expiresAtMillis;
+
+		Entry(byte[] serialized, long expiresAtMillis) {
+			this.serialized = serialized;
+			this.expiresAtMillis = expiresAtMillis;
+		}
+	}
+}
@@ -0,0 +1,38 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.examples.commons.cache;
+
+/**
+ * The tier of the {@link AuthenticationResultCache} shared by the replicas of the app, like a Redis or a Hazelcast
+ * map. Credentials seen by one replica are then already collected for the others.
+ *
+ * The store must drop an entry at its expiry time. The authentications are serializable, like the Spring security
+ * ones.
+ */
+public interface SharedAuthenticationStore {
+
+	/**
+	 * @return the entry for this key, or null if there is none or it expired
+	 */
+	CachedAuthentication get(String key);
+
+	void put(String key, CachedAuthentication cachedAuthentication);
+}
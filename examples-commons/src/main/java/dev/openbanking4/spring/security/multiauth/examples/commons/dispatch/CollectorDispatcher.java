@@ -0,0 +1,223 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.examples.commons.dispatch;
+
+import dev.openbanking4.spring.security.multiauth.configurers.collectors.AuthCollector;
+import dev.openbanking4.spring.security.multiauth.configurers.collectors.AuthenticationCollector;
+import dev.openbanking4.spring.security.multiauth.configurers.collectors.AuthorizationCollector;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.security.core.Authentication;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Predicate;
+
+/**
+ * Runs a collector only if the request carries the credential it needs.
+ *
+ * The collectors are still called in their declared order, but the request is inspected once: the first collector
+ * checks which signals are present, and picks the plan for this combination of signals. The plans are built once per
+ * combination. A collector that isn't in the plan returns straight away, as it would without its credential, so a
+ * request without credentials goes straight to the collectors registered without dispatch, like the anonymous one.
+ *
+ * The collectors must be registered before the first request.
+ */
+@Slf4j
+public class CollectorDispatcher {
+
+	private static final int MAX_SIGNALS = 8;
+	private static final AtomicInteger INSTANCES = new AtomicInteger();
+
+	private final String planAttribute = CollectorDispatcher.class.getName() + ".plan." + INSTANCES.incrementAndGet();
+	private final List<RequestSignal> signals = new ArrayList<>();
+	private final List<Integer> collectorSignals = new ArrayList<>();
+	private volatile AtomicReferenceArray<Plan> plans;
+
+	public AuthCollector when(RequestSignal signal, AuthCollector collector) {
+		return new DispatchingCollector(collector.collectorName(), collector, collector, register(signal));
+	}
+
+	public AuthenticationCollector whenAuthentication(RequestSignal signal, AuthenticationCollector collector) {
+		return new DispatchingCollector(collector.collectorName(), collector, null, register(signal));
+	}
+
+	public AuthorizationCollector whenAuthorization(RequestSignal signal, AuthorizationCollector collector) {
+		return new DispatchingCollector(collector.collectorName(), null, collector, register(signal));
+	}
+
+	/**
+	 * Tells a collector that rejected the credentials from one that had none to read, for the metrics
+	 * @return if the request carries the credential of this collector, or null if it isn't a dispatched collector
+	 */
+	public static Predicate<HttpServletRequest> credentialPresence(Object collector) {
+		if (!(collector instanceof DispatchingCollector)) {
+			return null;
+		}
+		DispatchingCollector dispatchingCollector = (DispatchingCollector) collector;
+		return request -> dispatchingCollector.dispatcher().plan(request).runs(dispatchingCollector.index);
+	}
+
+	/**
+	 * @return the plan for the signals of this request, computed by the first collector of the request
+	 */
+	Plan plan(HttpServletRequest request) {
+		Plan plan = (Plan) request.getAttribute(planAttribute);
+		if (plan == null) {
+			plan = planFor(signals(request));
+			request.setAttribute(planAttribute, plan);
+		}
+		return plan;
+	}
+
+	private int signals(HttpServletRequest request) {
+		int presentSignals = 0;
+		for (int i = 0; i < signals.size(); i++) {
+			if (signals.get(i).isPresent(request)) {
+				presentSignals |= 1 << i;
+			}
+		}
+		return presentSignals;
+	}
+
+	private Plan planFor(int presentSignals) {
+		AtomicReferenceArray<Plan> plans = this.plans;
+		if (plans == null) {
+			synchronized (this) {
+				if (this.plans == null) {
+					this.plans = new AtomicReferenceArray<>(1 << signals.size());
+				}
+				plans = this.plans;
+			}
+		}
+		Plan plan = plans.get(presentSignals);
+		if (plan == null) {
+			long collectors = 0;
+			for (int i = 0; i < collectorSignals.size(); i++) {
+				if ((presentSignals & collectorSignals.get(i)) != 0) {
+					collectors |= 1L << i;
+				}
+			}
+			plan = new Plan(collectors);
+			plans.compareAndSet(presentSignals, null, plan);
+			log.debug("Plan for signals {}: {}", describe(presentSignals), plan);
+		}
+		return plan;
+	}
+
+	private synchronized int register(RequestSignal signal) {
+		if (plans != null) {
+			throw new IllegalStateException("The collectors must be registered before the first request");
+		}
+		int signalIndex = signals.indexOf(signal);
+		if (signalIndex < 0) {
+			if (signals.size() == MAX_SIGNALS) {
+				throw new IllegalStateException("A dispatcher supports up to " + MAX_SIGNALS + " signals");
+			}
+			signals.add(signal);
+			signalIndex = signals.size() - 1;
+		}
+		if (collectorSignals.size() == Long.SIZE) {
+			throw new IllegalStateException("A dispatcher supports up to " + Long.SIZE + " collectors");
+		}
+		collectorSignals.add(1 << signalIndex);
+		return collectorSignals.size() - 1;
+	}
+
+	private String describe(int presentSignals) {
+		List<RequestSignal> present = new ArrayList<>();
+		for (int i = 0; i < signals.size(); i++) {
+			if ((presentSignals & 1 << i) != 0) {
+				present.add(signals.get(i));
+			}
+		}
+		return present.toString();
+	}
+
+	/**
+	 * The collectors to run for a combination of signals, as a bit per collector
+	 */
+	static final class Plan {
+		private final long collectors;
+
+		Plan(long collectors) {
+			this.collectors = collectors;
+		}
+
+		boolean runs(int collectorIndex) {
+			return (collectors & 1L << collectorIndex) != 0;
+		}
+
+		@Override
+		public String toString() {
+			return "collectors " + Long.toBinaryString(collectors);
+		}
+	}
+
+	private class DispatchingCollector implements AuthCollector {
+
+		private final String collectorName;
+		private final AuthenticationCollector authenticationCollector;
+		private final AuthorizationCollector authorizationCollector;
+		private final int index;
+
+		DispatchingCollector(String collectorName, AuthenticationCollector authenticationCollector,
+				AuthorizationCollector authorizationCollector, int index) {
+			this.collectorName = collectorName;
+			this.authenticationCollector = authenticationCollector;
+			this.authorizationCollector = authorizationCollector;
+			this.index = index;
+		}
+
+		CollectorDispatcher dispatcher() {
+			return CollectorDispatcher.this;
+		}
+
+		@Override
+		public String collectorName() {
+			return collectorName;
+		}
+
+		@Override
+		public Authentication collectAuthentication(HttpServletRequest request) {
+			if (authenticationCollector == null) {
+				throw new IllegalStateException("Collector '" + collectorName + "' is only registered for authorisation");
+			}
+			if (!plan(request).runs(index)) {
+				return null;
+			}
+			return authenticationCollector.collectAuthentication(request);
+		}
+
+		@Override
+		public Authentication collectAuthorisation(HttpServletRequest request, Authentication currentAuthentication) {
+			if (authorizationCollector == null) {
+				throw new IllegalStateException("Collector '" + collectorName + "' is only registered for authentication");
+			}
+			if (!plan(request).runs(index)) {
+				return currentAuthentication;
+			}
+			return authorizationCollector.collectAuthorisation(request, currentAuthentication);
+		}
+	}
+}
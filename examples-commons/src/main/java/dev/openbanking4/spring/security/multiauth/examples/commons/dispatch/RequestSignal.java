@@ -0,0 +1,145 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.examples.commons.dispatch;
+
+import com.nimbusds.jose.util.Base64URL;
+import dev.openbanking4.spring.security.multiauth.examples.commons.x509.CertificateHeaderFilter;
+import dev.openbanking4.spring.security.multiauth.examples.commons.x509.CertificateThumbprintCache;
+
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * A credential a request may carry, like a cookie or a header. The collector needing it has nothing to do when it's
+ * missing.
+ */
+public final class RequestSignal {
+
+	private static final ThreadLocal<MessageDigest> SHA_256 = ThreadLocal.withInitial(() -> {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is not supported by this JVM", e);
+		}
+	});
+
+	private final String name;
+	private final Predicate<HttpServletRequest> presence;
+	private final Function<HttpServletRequest, String> value;
+
+	private RequestSignal(String name, Predicate<HttpServletRequest> presence, Function<HttpServletRequest, String> value) {
+		this.name = name;
+		this.presence = presence;
+		this.value = value;
+	}
+
+	public static RequestSignal cookie(String cookieName) {
+		Function<HttpServletRequest, String> value = request -> {
+			Cookie[] cookies = request.getCookies();
+			if (cookies != null) {
+				for (Cookie cookie : cookies) {
+					if (cookieName.equals(cookie.getName())) {
+						return cookie.getValue();
+					}
+				}
+			}
+			return null;
+		};
+		return new RequestSignal("Cookie: " + cookieName, request -> value.apply(request) != null, value);
+	}
+
+	public static RequestSignal header(String headerName) {
+		return new RequestSignal(headerName, request -> request.getHeader(headerName) != null,
+				request -> request.getHeader(headerName));
+	}
+
+	/**
+	 * A client certificate, from the TLS connection or from the header parsed by the {@link CertificateHeaderFilter}.
+	 * Its value is the SHA-256 thumbprint of the certificate, computed for each request.
+	 */
+	public static RequestSignal clientCertificate() {
+		return clientCertificate(certificate -> SHA_256.get().digest(certificate.getEncoded()));
+	}
+
+	/**
+	 * The same, with the thumbprint of the certificates we already saw taken from the cache
+	 */
+	public static RequestSignal clientCertificate(CertificateThumbprintCache thumbprintCache) {
+		return clientCertificate(thumbprintCache::sha256Thumbprint);
+	}
+
+	private static RequestSignal clientCertificate(Thumbprint thumbprint) {
+		return new RequestSignal("client certificate",
+				request -> request.getAttribute(CertificateHeaderFilter.CERTIFICATES_ATTRIBUTE) != null,
+				request -> {
+					X509Certificate[] chain =
+							(X509Certificate[]) request.getAttribute(CertificateHeaderFilter.CERTIFICATES_ATTRIBUTE);
+					if (chain == null || chain.length == 0) {
+						return null;
+					}
+					try {
+						return Base64URL.encode(thumbprint.sha256(chain[0])).toString();
+					} catch (CertificateEncodingException e) {
+						throw new IllegalStateException("Can't encode the client certificate", e);
+					}
+				});
+	}
+
+	boolean isPresent(HttpServletRequest request) {
+		return presence.test(request);
+	}
+
+	/**
+	 * @return the credential itself, like the cookie value or the thumbprint of the client certificate, or null if missing
+	 */
+	public String value(HttpServletRequest request) {
+		return value.apply(request);
+	}
+
+	/**
+	 * Signals with the same name are the same, so the request is checked once for them
+	 */
+	@Override
+	public boolean equals(Object o) {
+		return o instanceof RequestSignal && name.equals(((RequestSignal) o).name);
+	}
+
+	@Override
+	public int hashCode() {
+		return name.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+
+	@FunctionalInterface
+	private interface Thumbprint {
+		byte[] sha256(X509Certificate certificate) throws CertificateEncodingException;
+	}
+}
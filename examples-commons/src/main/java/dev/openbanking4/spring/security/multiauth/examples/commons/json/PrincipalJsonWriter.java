@@ -0,0 +1,166 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.examples.commons.json;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import dev.openbanking4.spring.security.multiauth.examples.commons.authorities.AuthoritySetInterner;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.userdetails.UserDetails;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Writes the '/whoAmI' response: the username and the authorities of the principal, and nothing else. The password
+ * and the account flags of a {@link UserDetails} are never written.
+ *
+ * The JSON is streamed with a {@link JsonGenerator}, without reflection. The same authority sets come again and
+ * again, so their JSON array is rendered once per interned set and then written as it is. Give it the interner of the
+ * collectors: the authorities of a cached authentication are then found by identity, without reading their names.
+ */
+public class PrincipalJsonWriter {
+
+	private static final SerializableString USERNAME = new SerializedString("username");
+	private static final SerializableString AUTHORITIES = new SerializedString("authorities");
+	private static final SerializableString NO_AUTHORITIES = new SerializedString("[]");
+
+	private final JsonFactory jsonFactory = new JsonFactory()
+			.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+	private final AuthoritySetInterner authoritySetInterner;
+	private final Cache<Set<GrantedAuthority>, SerializableString> renderedAuthorities;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	/**
+	 * @param authoritySetInterner gives the canonical set of the authorities of the principal, the one the collectors
+	 *                             intern their authorities into
+	 * @param maximumSize how many rendered authority arrays we keep
+	 */
+	public PrincipalJsonWriter(AuthoritySetInterner authoritySetInterner, long maximumSize) {
+		this.authoritySetInterner = authoritySetInterner;
+		// Keyed by the identity of the interned set, and forgotten with it
+		this.renderedAuthorities = Caffeine.newBuilder()
+				.maximumSize(maximumSize)
+				.weakKeys()
+				.build();
+	}
+
+	/**
+	 * @param authentication the authentication of the request
+	 * @param out where to write the JSON, in UTF-8. It isn't closed.
+	 */
+	public void write(Authentication authentication, OutputStream out) throws IOException {
+		try (JsonGenerator generator = jsonFactory.createGenerator(out, JsonEncoding.UTF8)) {
+			generator.writeStartObject();
+			generator.writeFieldName(USERNAME);
+			generator.writeString(username(authentication));
+			generator.writeFieldName(AUTHORITIES);
+			generator.writeRawValue(authorities(authentication));
+			generator.writeEndObject();
+		}
+	}
+
+	/**
+	 * For the reactive example, which writes the body as a whole
+	 * @return the JSON in UTF-8
+	 */
+	public byte[] toJson(Authentication authentication) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+		try {
+			write(authentication, out);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return out.toByteArray();
+	}
+
+	public long hitCount() {
+		return hits.sum();
+	}
+
+	public long missCount() {
+		return misses.sum();
+	}
+
+	private static String username(Authentication authentication) {
+		Object principal = authentication.getPrincipal();
+		if (principal instanceof UserDetails) {
+			return ((UserDetails) principal).getUsername();
+		}
+		return authentication.getName();
+	}
+
+	private SerializableString authorities(Authentication authentication) throws IOException {
+		Object principal = authentication.getPrincipal();
+		Collection<? extends GrantedAuthority> authorities = principal instanceof UserDetails
+				? ((UserDetails) principal).getAuthorities()
+				: authentication.getAuthorities();
+		if (authorities == null || authorities.isEmpty()) {
+			return NO_AUTHORITIES;
+		}
+		// The principal copies its authorities: the copy is looked up by identity, and by names the first time only
+		Set<GrantedAuthority> set = authoritySetInterner.of(authorities);
+		SerializableString rendered = renderedAuthorities.getIfPresent(set);
+		if (rendered != null) {
+			hits.increment();
+			return rendered;
+		}
+		misses.increment();
+		rendered = render(set);
+		renderedAuthorities.put(set, rendered);
+		return rendered;
+	}
+
+	private SerializableString render(Set<GrantedAuthority> authorities) throws IOException {
+		List<String> names = new ArrayList<>(authorities.size());
+		for (GrantedAuthority authority : authorities) {
+			names.add(authority.getAuthority());
+		}
+		Collections.sort(names);
+		StringWriter json = new StringWriter();
+		try (JsonGenerator generator = jsonFactory.createGenerator(json)) {
+			generator.writeStartArray();
+			for (String name : names) {
+				generator.writeStartObject();
+				generator.writeStringField("authority", name);
+				generator.writeEndObject();
+			}
+			generator.writeEndArray();
+		}
+		return new SerializedString(json.toString());
+	}
+}
@@ -0,0 +1,256 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.examples.commons.jwt;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.JWSVerifier;
+import com.nimbusds.jose.crypto.ECDSAVerifier;
+import com.nimbusds.jose.crypto.MACVerifier;
+import com.nimbusds.jose.crypto.RSASSAVerifier;
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.KeyUse;
+import com.nimbusds.jose.jwk.OctetSequenceKey;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.source.RemoteJWKSet;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URL;
+import java.text.ParseException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Verifiers built from the JWK set of the authorisation server, kept in memory and refreshed in the background.
+ *
+ * The request threads never download the JWK set when the 'kid' is known: the keys are refreshed on a schedule and
+ * swapped in the registry once downloaded, so the current keys keep being served while a refresh is in flight.
+ * A token with an unknown 'kid' (i.e. the AS just rotated its keys) triggers a refresh that the request waits for.
+ * Concurrent misses share the same refresh, and on-demand refreshes are rate limited so tokens with a random 'kid'
+ * can't be used to hammer the JWK_URI.
+ */
+@Slf4j
+public class JWKSKeySource implements JWSVerifierSource, Closeable {
+
+	private final URL jwkSetUrl;
+	private final Duration refreshInterval;
+	private final Duration minTimeBetweenOnDemandRefresh;
+	private final Duration unknownKidTimeout;
+	private final int connectTimeoutMs;
+	private final int readTimeoutMs;
+
+	private final JWSVerifierRegistry registry = new JWSVerifierRegistry(JWSVerifierRegistry.KeySet.builder().build());
+	private final AtomicReference<CompletableFuture<JWSVerifierRegistry.KeySet>> refreshInFlight = new AtomicReference<>();
+	private final AtomicLong lastRefreshStartNanos = new AtomicLong(System.nanoTime() - TimeUnit.DAYS.toNanos(1));
+	private final AtomicLong refreshCount = new AtomicLong();
+	private final ScheduledExecutorService scheduler;
+
+	private JWKSKeySource(Builder builder) {
+		this.jwkSetUrl = builder.jwkSetUrl;
+		this.refreshInterval = builder.refreshInterval;
+		this.minTimeBetweenOnDemandRefresh = builder.minTimeBetweenOnDemandRefresh;
+		this.unknownKidTimeout = builder.unknownKidTimeout;
+		this.connectTimeoutMs = (int) builder.connectTimeout.toMillis();
+		this.readTimeoutMs = (int) builder.readTimeout.toMillis();
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "jwks-refresh");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	/**
+	 * Load the keys a first time and schedule the background refresh.
+	 * We fail fast if the JWK set can't be loaded at startup.
+	 */
+	public JWKSKeySource start() throws IOException, ParseException {
+		registry.rotate(load());
+		scheduler.scheduleWithFixedDelay(() -> refresh(), refreshInterval.toMillis(), refreshInterval.toMillis(),
+				TimeUnit.MILLISECONDS);
+		return this;
+	}
+
+	@Override
+	public JWSVerifier getVerifier(JWSHeader header) throws JOSEException {
+		JWSVerifier verifier = registry.findVerifier(header);
+		if (verifier != null) {
+			return verifier;
+		}
+		if (header.getKeyID() == null) {
+			throw new JOSEException("No kid in the JWS header, can't pick a key from the JWK set " + jwkSetUrl);
+		}
+		CompletableFuture<JWSVerifierRegistry.KeySet> pendingRefresh = refreshInFlight.get();
+		if (pendingRefresh == null) {
+			if (System.nanoTime() - lastRefreshStartNanos.get() < minTimeBetweenOnDemandRefresh.toNanos()) {
+				// A refresh may have completed since our first lookup
+				verifier = registry.findVerifier(header);
+				if (verifier != null) {
+					return verifier;
+				}
+				throw new JOSEException("Unknown kid '" + header.getKeyID() + "' for JWK set " + jwkSetUrl);
+			}
+			pendingRefresh = refresh();
+		}
+		try {
+			pendingRefresh.get(unknownKidTimeout.toMillis(), TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new JOSEException("Interrupted while refreshing the JWK set " + jwkSetUrl, e);
+		} catch (ExecutionException | TimeoutException e) {
+			throw new JOSEException("Couldn't refresh the JWK set " + jwkSetUrl, e);
+		}
+		return registry.getVerifier(header);
+	}
+
+	/**
+	 * Refresh the keys in the background. If a refresh is already in flight, the caller gets the same one.
+	 */
+	public CompletableFuture<JWSVerifierRegistry.KeySet> refresh() {
+		CompletableFuture<JWSVerifierRegistry.KeySet> newRefresh = new CompletableFuture<>();
+		CompletableFuture<JWSVerifierRegistry.KeySet> current = refreshInFlight.compareAndExchange(null, newRefresh);
+		if (current != null) {
+			return current;
+		}
+		lastRefreshStartNanos.set(System.nanoTime());
+		try {
+			scheduler.execute(() -> {
+				try {
+					JWSVerifierRegistry.KeySet keySet = load();
+					registry.rotate(keySet);
+					refreshInFlight.set(null);
+					newRefresh.complete(keySet);
+				} catch (Exception e) {
+					log.warn("Couldn't refresh the JWK set {}, we keep using the current keys", jwkSetUrl, e);
+					refreshInFlight.set(null);
+					newRefresh.completeExceptionally(e);
+				}
+			});
+		} catch (RuntimeException e) {
+			refreshInFlight.set(null);
+			newRefresh.completeExceptionally(e);
+		}
+		return newRefresh;
+	}
+
+	/**
+	 * @return how many times the JWK set was downloaded
+	 */
+	public long getRefreshCount() {
+		return refreshCount.get();
+	}
+
+	@Override
+	public void close() {
+		scheduler.shutdownNow();
+	}
+
+	private JWSVerifierRegistry.KeySet load() throws IOException, ParseException {
+		JWKSet jwkSet = JWKSet.load(jwkSetUrl, connectTimeoutMs, readTimeoutMs, RemoteJWKSet.DEFAULT_HTTP_SIZE_LIMIT);
+		refreshCount.incrementAndGet();
+		JWSVerifierRegistry.KeySet.Builder keySet = JWSVerifierRegistry.KeySet.builder();
+		for (JWK jwk : jwkSet.getKeys()) {
+			if (jwk.getKeyID() == null || (jwk.getKeyUse() != null && !KeyUse.SIGNATURE.equals(jwk.getKeyUse()))) {
+				continue;
+			}
+			try {
+				keySet.verifier(jwk.getKeyID(), toVerifier(jwk));
+			} catch (JOSEException e) {
+				log.warn("Ignoring key '{}' of the JWK set {}", jwk.getKeyID(), jwkSetUrl, e);
+			}
+		}
+		log.debug("Loaded JWK set {}", jwkSetUrl);
+		return keySet.build();
+	}
+
+	private static JWSVerifier toVerifier(JWK jwk) throws JOSEException {
+		if (jwk instanceof RSAKey) {
+			return new RSASSAVerifier((RSAKey) jwk);
+		}
+		if (jwk instanceof ECKey) {
+			return new ECDSAVerifier((ECKey) jwk);
+		}
+		if (jwk instanceof OctetSequenceKey) {
+			return new MACVerifier((OctetSequenceKey) jwk);
+		}
+		throw new JOSEException("Unsupported key type " + jwk.getKeyType());
+	}
+
+	public static class Builder {
+		private URL jwkSetUrl;
+		private Duration refreshInterval = Duration.ofMinutes(5);
+		private Duration minTimeBetweenOnDemandRefresh = Duration.ofSeconds(30);
+		private Duration unknownKidTimeout = Duration.ofSeconds(2);
+		private Duration connectTimeout = Duration.ofSeconds(1);
+		private Duration readTimeout = Duration.ofSeconds(2);
+
+		public Builder jwkSetUrl(URL jwkSetUrl) {
+			this.jwkSetUrl = jwkSetUrl;
+			return this;
+		}
+
+		public Builder refreshInterval(Duration refreshInterval) {
+			this.refreshInterval = refreshInterval;
+			return this;
+		}
+
+		public Builder minTimeBetweenOnDemandRefresh(Duration minTimeBetweenOnDemandRefresh) {
+			this.minTimeBetweenOnDemandRefresh = minTimeBetweenOnDemandRefresh;
+			return this;
+		}
+
+		public Builder unknownKidTimeout(Duration unknownKidTimeout) {
+			this.unknownKidTimeout = unknownKidTimeout;
+			return this;
+		}
+
+		public Builder connectTimeout(Duration connectTimeout) {
+			this.connectTimeout = connectTimeout;
+			return this;
+		}
+
+		public Builder readTimeout(Duration readTimeout) {
+			this.readTimeout = readTimeout;
+			return this;
+		}
+
+		public JWKSKeySource build() {
+			if (jwkSetUrl == null) {
+				throw new IllegalArgumentException("The JWK set URL is mandatory");
+			}
+			return new JWKSKeySource(this);
+		}
+	}
+}
@@ -0,0 +1,133 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.examples.commons.jwt;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.JWSVerifier;
+import com.nimbusds.jose.crypto.MACVerifier;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Holds the JWS verifiers of the application, built once at startup and shared by all the request threads.
+ *
+ * Verifiers are looked up by the 'kid' of the JWS header, or by algorithm when the token doesn't specify a 'kid'.
+ * The nimbus verifiers are thread-safe, so the same instance is used concurrently. Keys are rotated by swapping the
+ * whole key set atomically: a request sees either the old or the new key set, never a mix of both.
+ */
+public class JWSVerifierRegistry implements JWSVerifierSource {
+
+	private final AtomicReference<KeySet> keySet;
+
+	public JWSVerifierRegistry(KeySet keySet) {
+		this.keySet = new AtomicReference<>(keySet);
+	}
+
+	/**
+	 * Registry with a single HMAC secret, used for any token signed with the given algorithm
+	 */
+	public static JWSVerifierRegistry hmac(JWSAlgorithm algorithm, String secret) throws JOSEException {
+		return new JWSVerifierRegistry(KeySet.builder()
+				.defaultVerifier(algorithm, new MACVerifier(secret))
+				.build());
+	}
+
+	@Override
+	public JWSVerifier getVerifier(JWSHeader header) throws JOSEException {
+		JWSVerifier verifier = findVerifier(header);
+		if (verifier == null) {
+			throw new JOSEException("No verifier registered for kid '" + header.getKeyID() + "' and algorithm '"
+					+ header.getAlgorithm() + "'");
+		}
+		return verifier;
+	}
+
+	/**
+	 * @return the verifier for this 'kid', or for the algorithm if the header has no 'kid'. Null if there is none.
+	 */
+	public JWSVerifier findVerifier(JWSHeader header) {
+		KeySet current = keySet.get();
+		return header.getKeyID() != null
+				? current.verifiersByKid.get(header.getKeyID())
+				: current.defaultVerifiersByAlgorithm.get(header.getAlgorithm());
+	}
+
+	/**
+	 * Replace the current key set. Requests in flight finish with the key set they already picked up.
+	 */
+	public void rotate(KeySet newKeySet) {
+		keySet.set(newKeySet);
+	}
+
+	public KeySet getKeySet() {
+		return keySet.get();
+	}
+
+	/**
+	 * An immutable snapshot of the verifiers
+	 */
+	public static class KeySet {
+
+		private final Map<String, JWSVerifier> verifiersByKid;
+		private final Map<JWSAlgorithm, JWSVerifier> defaultVerifiersByAlgorithm;
+
+		private KeySet(Map<String, JWSVerifier> verifiersByKid, Map<JWSAlgorithm, JWSVerifier> defaultVerifiersByAlgorithm) {
+			this.verifiersByKid = Collections.unmodifiableMap(new HashMap<>(verifiersByKid));
+			this.defaultVerifiersByAlgorithm = Collections.unmodifiableMap(new HashMap<>(defaultVerifiersByAlgorithm));
+		}
+
+		public static Builder builder() {
+			return new Builder();
+		}
+
+		public Map<String, JWSVerifier> getVerifiersByKid() {
+			return verifiersByKid;
+		}
+
+		public Map<JWSAlgorithm, JWSVerifier> getDefaultVerifiersByAlgorithm() {
+			return defaultVerifiersByAlgorithm;
+		}
+
+		public static class Builder {
+			private final Map<String, JWSVerifier> verifiersByKid = new HashMap<>();
+			private final Map<JWSAlgorithm, JWSVerifier> defaultVerifiersByAlgorithm = new HashMap<>();
+
+			public Builder verifier(String kid, JWSVerifier verifier) {
+				verifiersByKid.put(kid, verifier);
+				return this;
+			}
+
+			public Builder defaultVerifier(JWSAlgorithm algorithm, JWSVerifier verifier) {
+				defaultVerifiersByAlgorithm.put(algorithm, verifier);
+				return this;
+			}
+
+			public KeySet build() {
+				return new KeySet(verifiersByKid, defaultVerifiersByAlgorithm);
+			}
+		}
+	}
+}
@@ -0,0 +1,46 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.examples.commons.jwt;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.JWSObject;
+import com.nimbusds.jose.JWSVerifier;
+
+/**
+ * Where the token validators get the verifier matching a JWS header from
+ */
+public interface JWSVerifierSource {
+
+	/**
+	 * @throws JOSEException if no verifier is known for this 'kid' or algorithm
+	 */
+	JWSVerifier getVerifier(JWSHeader header) throws JOSEException;
+
+	/**
+	 * Verify the signature of the JWS object with the verifier matching its header
+	 * @return true if the signature is valid
+	 * @throws JOSEException if no verifier is known for this 'kid' or algorithm
+	 */
+	default boolean verify(JWSObject jwsObject) throws JOSEException {
+		return jwsObject.verify(getVerifier(jwsObject.getHeader()));
+	}
+}
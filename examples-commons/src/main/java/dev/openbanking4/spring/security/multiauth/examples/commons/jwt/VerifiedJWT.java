@@ -0,0 +1,110 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.examples.commons.jwt;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.JWSObject;
+import com.nimbusds.jose.util.Base64URL;
+import com.nimbusds.jwt.JWT;
+import com.nimbusds.jwt.JWTClaimsSet;
+import net.minidev.json.JSONObject;
+
+import java.text.ParseException;
+
+/**
+ * A signed JWT whose signature was verified, parsed once from its compact serialisation.
+ *
+ * The usual path parses the token twice, with {@link JWSObject#parse(String)} to verify it and with
+ * {@link com.nimbusds.jwt.JWTParser} to return the JWT, whose {@link #getJWTClaimsSet()} then decodes the payload again
+ * on every call. Here the header is parsed once for the verification, and the payload is only decoded the first time a
+ * claim is read, then kept: the collectors only read a claim or two, and the verified tokens are cached and read by
+ * many requests.
+ */
+public final class VerifiedJWT implements JWT {
+
+	private static final long serialVersionUID = 1L;
+
+	private final JWSObject jwsObject;
+	private transient volatile JWTClaimsSet claimsSet;
+
+	private VerifiedJWT(JWSObject jwsObject) {
+		this.jwsObject = jwsObject;
+	}
+
+	/**
+	 * Parse the token and verify its signature with the verifier matching its header
+	 * @return the verified token, its claims are not decoded yet
+	 * @throws ParseException if the token is not a JWS
+	 * @throws JOSEException if the signature is invalid, or no verifier is known for this 'kid' or algorithm
+	 */
+	public static VerifiedJWT verify(String tokenSerialised, JWSVerifierSource verifierSource)
+			throws ParseException, JOSEException {
+		JWSObject jwsObject = JWSObject.parse(tokenSerialised);
+		if (!verifierSource.verify(jwsObject)) {
+			throw new JOSEException("Invalid signature for the JWT with 'kid' " + jwsObject.getHeader().getKeyID());
+		}
+		return new VerifiedJWT(jwsObject);
+	}
+
+	@Override
+	public JWSHeader getHeader() {
+		return jwsObject.getHeader();
+	}
+
+	/**
+	 * @return the claims, decoded from the payload on the first call only
+	 * @throws ParseException if the payload is not a valid claims set
+	 */
+	@Override
+	public JWTClaimsSet getJWTClaimsSet() throws ParseException {
+		JWTClaimsSet claims = claimsSet;
+		if (claims == null) {
+			// Decoding twice under contention gives the same claims, no need for a lock
+			JSONObject json = jwsObject.getPayload().toJSONObject();
+			if (json == null) {
+				throw new ParseException("The payload of the JWT is not a valid JSON object", 0);
+			}
+			claims = JWTClaimsSet.parse(json);
+			claimsSet = claims;
+		}
+		return claims;
+	}
+
+	boolean isClaimsSetDecoded() {
+		return claimsSet != null;
+	}
+
+	@Override
+	public Base64URL[] getParsedParts() {
+		return jwsObject.getParsedParts();
+	}
+
+	@Override
+	public String getParsedString() {
+		return jwsObject.getParsedString();
+	}
+
+	@Override
+	public String serialize() {
+		return jwsObject.serialize();
+	}
+}
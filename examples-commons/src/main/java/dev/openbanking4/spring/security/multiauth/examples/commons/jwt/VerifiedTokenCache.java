@@ -0,0 +1,167 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.examples.commons.jwt;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.Ticker;
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.util.Base64URL;
+import com.nimbusds.jwt.JWT;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.ParseException;
+import java.time.Duration;
+import java.util.Date;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded cache of JWTs that already went through signature verification.
+ *
+ * The same SSO cookie is sent again and again by a browser, so we only parse and verify a given token once. Entries
+ * are keyed by the SHA-256 of the serialised token, expire at the 'exp' claim or after the TTL (whichever comes first)
+ * and are evicted by size when the cache is full.
+ */
+public class VerifiedTokenCache {
+
+	private static final ThreadLocal<MessageDigest> SHA_256 = ThreadLocal.withInitial(() -> {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is not supported by this JVM", e);
+		}
+	});
+
+	private final Cache<String, JWT> cache;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	public VerifiedTokenCache(long maximumSize, Duration ttl) {
+		this(maximumSize, ttl, Ticker.systemTicker());
+	}
+
+	VerifiedTokenCache(long maximumSize, Duration ttl, Ticker ticker) {
+		this.cache = Caffeine.newBuilder()
+				.maximumSize(maximumSize)
+				.ticker(ticker)
+				.expireAfter(new ExpireAtTokenExpiryOrTtl(ttl.toNanos()))
+				.build();
+	}
+
+	/**
+	 * Returns the verified JWT for this serialised token, calling the verifier only if the token is not cached yet.
+	 * A token that fails verification is never cached.
+	 */
+	public JWT getOrVerify(String tokenSerialised, TokenVerifier verifier) throws ParseException, JOSEException {
+		String key = digest(tokenSerialised);
+		JWT jwt = cache.getIfPresent(key);
+		if (jwt != null) {
+			hits.increment();
+			return jwt;
+		}
+		misses.increment();
+		try {
+			return cache.get(key, k -> {
+				try {
+					return verifier.verify(tokenSerialised);
+				} catch (ParseException | JOSEException e) {
+					throw new CompletionException(e);
+				}
+			});
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof ParseException) {
+				throw (ParseException) e.getCause();
+			}
+			if (e.getCause() instanceof JOSEException) {
+				throw (JOSEException) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	public long hitCount() {
+		return hits.sum();
+	}
+
+	public long missCount() {
+		return misses.sum();
+	}
+
+	public long estimatedSize() {
+		return cache.estimatedSize();
+	}
+
+	public void invalidateAll() {
+		cache.invalidateAll();
+	}
+
+	private static String digest(String tokenSerialised) {
+		MessageDigest sha256 = SHA_256.get();
+		return Base64URL.encode(sha256.digest(tokenSerialised.getBytes(StandardCharsets.US_ASCII))).toString();
+	}
+
+	/**
+	 * Parses and verifies a serialised token, returning the JWT only if its signature is valid.
+	 */
+	@FunctionalInterface
+	public interface TokenVerifier {
+		JWT verify(String tokenSerialised) throws ParseException, JOSEException;
+	}
+
+	private static class ExpireAtTokenExpiryOrTtl implements Expiry<String, JWT> {
+
+		private final long ttlNanos;
+
+		ExpireAtTokenExpiryOrTtl(long ttlNanos) {
+			this.ttlNanos = ttlNanos;
+		}
+
+		@Override
+		public long expireAfterCreate(String key, JWT jwt, long currentTime) {
+			Date expirationTime;
+			try {
+				expirationTime = jwt.getJWTClaimsSet().getExpirationTime();
+			} catch (ParseException e) {
+				return 0;
+			}
+			if (expirationTime == null) {
+				return ttlNanos;
+			}
+			long untilExpiry = TimeUnit.MILLISECONDS.toNanos(expirationTime.getTime() - System.currentTimeMillis());
+			return Math.max(0, Math.min(ttlNanos, untilExpiry));
+		}
+
+		@Override
+		public long expireAfterUpdate(String key, JWT jwt, long currentTime, long currentDuration) {
+			return currentDuration;
+		}
+
+		@Override
+		public long expireAfterRead(String key, JWT jwt, long currentTime, long currentDuration) {
+			return currentDuration;
+		}
+	}
+}
@@ -0,0 +1,59 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.examples.commons.metrics;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+
+import java.util.function.ToLongFunction;
+
+/**
+ * Exposes the hits, misses and hit ratio of a cache used by a collector, tagged by collector name like the
+ * {@link MeteredCollector} timers. The counts are read when the metrics are scraped.
+ */
+public final class CollectorCacheMetrics {
+
+	private CollectorCacheMetrics() {
+	}
+
+	public static <C> void monitor(MeterRegistry registry, String collectorName, String cacheName, C cache,
+			ToLongFunction<C> hitCount, ToLongFunction<C> missCount) {
+		Tags tags = Tags.of("collectorName", collectorName, "cache", cacheName);
+		FunctionCounter.builder(MeteredCollector.METER_NAME + ".cache.hits", cache, c -> hitCount.applyAsLong(c))
+				.description("Lookups found in the cache of the collector")
+				.tags(tags)
+				.register(registry);
+		FunctionCounter.builder(MeteredCollector.METER_NAME + ".cache.misses", cache, c -> missCount.applyAsLong(c))
+				.description("Lookups not found in the cache of the collector")
+				.tags(tags)
+				.register(registry);
+		Gauge.builder(MeteredCollector.METER_NAME + ".cache.hit.ratio", cache, c -> {
+					long hits = hitCount.applyAsLong(c);
+					long total = hits + missCount.applyAsLong(c);
+					return total == 0 ? 0 : (double) hits / total;
+				})
+				.description("Ratio of the lookups found in the cache of the collector")
+				.tags(tags)
+				.register(registry);
+	}
+}
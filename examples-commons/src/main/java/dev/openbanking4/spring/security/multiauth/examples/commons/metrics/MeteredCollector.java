@@ -0,0 +1,162 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.examples.commons.metrics;
+
+import dev.openbanking4.spring.security.multiauth.configurers.collectors.AuthCollector;
+import dev.openbanking4.spring.security.multiauth.configurers.collectors.AuthenticationCollector;
+import dev.openbanking4.spring.security.multiauth.configurers.collectors.AuthorizationCollector;
+import dev.openbanking4.spring.security.multiauth.examples.commons.dispatch.CollectorDispatcher;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.security.core.Authentication;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Times a collector, with one timer per outcome, tagged by collector name:
+ * <ul>
+ *     <li>success: the collector returned an authentication</li>
+ *     <li>skip: the request had nothing for this collector</li>
+ *     <li>rejected: the request had the credential of this collector, but no authentication came back, like for a
+ *     certificate chain that isn't trusted</li>
+ *     <li>failure: the collector threw, for example for an invalid token</li>
+ * </ul>
+ * The count of each timer is the counter of the outcome. Whether the credential was there is only known for the
+ * collectors of a {@link CollectorDispatcher}: the others have no 'rejected' outcome, it counts as a skip.
+ *
+ * The timers are registered when the collector is wrapped: recording a request only reads the clock and updates a
+ * timer, nothing is allocated.
+ */
+public class MeteredCollector implements AuthCollector {
+
+	public static final String METER_NAME = "multiauth.collector";
+
+	private final String collectorName;
+	private final AuthenticationCollector authenticationCollector;
+	private final AuthorizationCollector authorizationCollector;
+	private final Predicate<HttpServletRequest> credentialPresence;
+	private final OutcomeTimers authenticationTimers;
+	private final OutcomeTimers authorisationTimers;
+
+	private MeteredCollector(String collectorName, AuthenticationCollector authenticationCollector,
+			AuthorizationCollector authorizationCollector, MeterRegistry registry) {
+		this.collectorName = collectorName;
+		this.authenticationCollector = authenticationCollector;
+		this.authorizationCollector = authorizationCollector;
+		this.credentialPresence = CollectorDispatcher.credentialPresence(
+				authenticationCollector != null ? authenticationCollector : authorizationCollector);
+		this.authenticationTimers = authenticationCollector != null
+				? new OutcomeTimers(registry, collectorName, "authentication")
+				: null;
+		this.authorisationTimers = authorizationCollector != null
+				? new OutcomeTimers(registry, collectorName, "authorisation")
+				: null;
+	}
+
+	public static MeteredCollector of(AuthCollector collector, MeterRegistry registry) {
+		return new MeteredCollector(collector.collectorName(), collector, collector, registry);
+	}
+
+	public static MeteredCollector ofAuthentication(AuthenticationCollector collector, MeterRegistry registry) {
+		return new MeteredCollector(collector.collectorName(), collector, null, registry);
+	}
+
+	public static MeteredCollector ofAuthorization(AuthorizationCollector collector, MeterRegistry registry) {
+		return new MeteredCollector(collector.collectorName(), null, collector, registry);
+	}
+
+	@Override
+	public String collectorName() {
+		return collectorName;
+	}
+
+	@Override
+	public Authentication collectAuthentication(HttpServletRequest request) {
+		if (authenticationCollector == null) {
+			throw new IllegalStateException("Collector '" + collectorName + "' is only registered for authorisation");
+		}
+		long start = System.nanoTime();
+		Authentication authentication;
+		try {
+			authentication = authenticationCollector.collectAuthentication(request);
+		} catch (RuntimeException | Error e) {
+			authenticationTimers.failure.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+			throw e;
+		}
+		(authentication != null ? authenticationTimers.success : withoutResult(authenticationTimers, request))
+				.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+		return authentication;
+	}
+
+	/**
+	 * An authorisation collector that has nothing to add returns the current authentication, or null
+	 */
+	@Override
+	public Authentication collectAuthorisation(HttpServletRequest request, Authentication currentAuthentication) {
+		if (authorizationCollector == null) {
+			throw new IllegalStateException("Collector '" + collectorName + "' is only registered for authentication");
+		}
+		long start = System.nanoTime();
+		Authentication authentication;
+		try {
+			authentication = authorizationCollector.collectAuthorisation(request, currentAuthentication);
+		} catch (RuntimeException | Error e) {
+			authorisationTimers.failure.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+			throw e;
+		}
+		boolean withoutResult = authentication == null || authentication == currentAuthentication;
+		(withoutResult ? withoutResult(authorisationTimers, request) : authorisationTimers.success)
+				.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+		return authentication;
+	}
+
+	/**
+	 * Like {@code RateLimitFilter.chargingFailures}, nothing coming back although the credential was there is a rejection
+	 */
+	private Timer withoutResult(OutcomeTimers timers, HttpServletRequest request) {
+		return credentialPresence != null && credentialPresence.test(request) ? timers.rejected : timers.skip;
+	}
+
+	private static class OutcomeTimers {
+		private final Timer success;
+		private final Timer skip;
+		private final Timer rejected;
+		private final Timer failure;
+
+		OutcomeTimers(MeterRegistry registry, String collectorName, String phase) {
+			this.success = timer(registry, collectorName, phase, "success");
+			this.skip = timer(registry, collectorName, phase, "skip");
+			this.rejected = timer(registry, collectorName, phase, "rejected");
+			this.failure = timer(registry, collectorName, phase, "failure");
+		}
+
+		private static Timer timer(MeterRegistry registry, String collectorName, String phase, String outcome) {
+			return Timer.builder(METER_NAME)
+					.description("Time spent in the multi-auth collectors")
+					.tag("collectorName", collectorName)
+					.tag("phase", phase)
+					.tag("outcome", outcome)
+					.register(registry);
+		}
+	}
+}
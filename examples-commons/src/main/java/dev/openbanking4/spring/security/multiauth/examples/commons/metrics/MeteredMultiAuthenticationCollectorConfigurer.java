@@ -0,0 +1,56 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.examples.commons.metrics;
+
+import dev.openbanking4.spring.security.multiauth.configurers.MultiAuthenticationCollectorConfigurer;
+import dev.openbanking4.spring.security.multiauth.configurers.collectors.AuthCollector;
+import dev.openbanking4.spring.security.multiauth.configurers.collectors.AuthenticationCollector;
+import dev.openbanking4.spring.security.multiauth.configurers.collectors.AuthorizationCollector;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.security.config.annotation.web.HttpSecurityBuilder;
+
+/**
+ * A {@link MultiAuthenticationCollectorConfigurer} that wraps every collector in a {@link MeteredCollector}
+ */
+public class MeteredMultiAuthenticationCollectorConfigurer<H extends HttpSecurityBuilder<H>>
+		extends MultiAuthenticationCollectorConfigurer<H> {
+
+	private final MeterRegistry meterRegistry;
+
+	public MeteredMultiAuthenticationCollectorConfigurer(MeterRegistry meterRegistry) {
+		this.meterRegistry = meterRegistry;
+	}
+
+	@Override
+	public MultiAuthenticationCollectorConfigurer<H> collector(AuthCollector collector) {
+		return super.collector(MeteredCollector.of(collector, meterRegistry));
+	}
+
+	@Override
+	public MultiAuthenticationCollectorConfigurer<H> collectorForAuthentication(AuthenticationCollector collector) {
+		return super.collectorForAuthentication(MeteredCollector.ofAuthentication(collector, meterRegistry));
+	}
+
+	@Override
+	public MultiAuthenticationCollectorConfigurer<H> collectorForAuthorzation(AuthorizationCollector collector) {
+		return super.collectorForAuthorzation(MeteredCollector.ofAuthorization(collector, meterRegistry));
+	}
+}
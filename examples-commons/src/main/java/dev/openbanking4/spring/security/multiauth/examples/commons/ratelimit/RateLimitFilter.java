@@ -0,0 +1,311 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.examples.commons.ratelimit;
+
+import dev.openbanking4.spring.security.multiauth.configurers.collectors.AuthCollector;
+import dev.openbanking4.spring.security.multiauth.configurers.collectors.AuthenticationCollector;
+import dev.openbanking4.spring.security.multiauth.configurers.collectors.AuthorizationCollector;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.core.Authentication;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Checks the budget of the request before its credentials are parsed or verified: a client over its budget gets a 429
+ * straight away, without running the certificate header filter or the collectors. A flood of invalid credentials
+ * then costs a hash and a read per request, instead of a parse and a signature check.
+ *
+ * Each limit has its own key, like the client IP or the fingerprint of the API key. A request without this key, like
+ * a request without API key, isn't limited by it. There are two kinds of limits:
+ * <ul>
+ *     <li>request limits: each request takes a token of its key</li>
+ *     <li>failure limits: each credential that is rejected takes a token of the key of the request, see
+ *     {@link #chargeFailure}. A key without token left is rejected, whatever credentials it sends.</li>
+ * </ul>
+ * A client sending new invalid credentials on every request gets a new bucket for each of them in the limits keyed by
+ * credential: the failure limits, keyed by client, are the ones that stop it.
+ */
+public class RateLimitFilter extends OncePerRequestFilter {
+
+	private static final String FILTER_ATTRIBUTE = RateLimitFilter.class.getName();
+
+	private final List<Limit> limits;
+	private final List<Limit> failureLimits;
+
+	private RateLimitFilter(List<Limit> limits, List<Limit> failureLimits) {
+		this.limits = limits;
+		this.failureLimits = failureLimits;
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	/**
+	 * @return the limiter of this name, or null if it's not configured
+	 */
+	public TokenBucketLimiter<String> limiter(String name) {
+		for (Limit limit : limits) {
+			if (limit.name.equals(name)) {
+				return limit.limiter;
+			}
+		}
+		for (Limit limit : failureLimits) {
+			if (limit.name.equals(name)) {
+				return limit.limiter;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * A credential of the request was rejected: charge the failure limits of the filter the request went through, if
+	 * any.
+	 */
+	public static void chargeFailure(HttpServletRequest request) {
+		Object filter = request.getAttribute(FILTER_ATTRIBUTE);
+		if (filter instanceof RateLimitFilter) {
+			for (Limit limit : ((RateLimitFilter) filter).failureLimits) {
+				String key = limit.key.apply(request);
+				if (key != null) {
+					limit.limiter.take(key);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Charges the failure limits when the collector rejects the credential of the request, by returning nothing or
+	 * throwing. It must only be called for the requests carrying its credential, like the collectors of a
+	 * {@link dev.openbanking4.spring.security.multiauth.examples.commons.dispatch.CollectorDispatcher}.
+	 * The credential is verified by the authentication, so only its failures are charged.
+	 */
+	public static AuthCollector chargingFailures(AuthCollector collector) {
+		return new FailureChargingCollector(collector.collectorName(), collector, collector);
+	}
+
+	public static AuthenticationCollector chargingAuthenticationFailures(AuthenticationCollector collector) {
+		return new FailureChargingCollector(collector.collectorName(), collector, null);
+	}
+
+	/**
+	 * An authorisation that throws, or has nothing to add to the current authentication, is charged
+	 */
+	public static AuthorizationCollector chargingAuthorizationFailures(AuthorizationCollector collector) {
+		return new FailureChargingCollector(collector.collectorName(), null, collector);
+	}
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+			throws ServletException, IOException {
+		for (Limit limit : failureLimits) {
+			String key = limit.key.apply(request);
+			if (key != null && !limit.limiter.hasToken(key)) {
+				reject(response);
+				return;
+			}
+		}
+		for (Limit limit : limits) {
+			String key = limit.key.apply(request);
+			if (key != null && !limit.limiter.tryAcquire(key)) {
+				reject(response);
+				return;
+			}
+		}
+		if (!failureLimits.isEmpty()) {
+			request.setAttribute(FILTER_ATTRIBUTE, this);
+		}
+		filterChain.doFilter(request, response);
+	}
+
+	/**
+	 * No body and no error page, the rejection must stay cheap
+	 */
+	private static void reject(HttpServletResponse response) {
+		response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+	}
+
+	private static class Limit {
+		private final String name;
+		private final Function<HttpServletRequest, String> key;
+		private final TokenBucketLimiter<String> limiter;
+
+		Limit(String name, Function<HttpServletRequest, String> key, TokenBucketLimiter<String> limiter) {
+			this.name = name;
+			this.key = key;
+			this.limiter = limiter;
+		}
+	}
+
+	private static class FailureChargingCollector implements AuthCollector {
+
+		private final String collectorName;
+		private final AuthenticationCollector authenticationCollector;
+		private final AuthorizationCollector authorizationCollector;
+
+		FailureChargingCollector(String collectorName, AuthenticationCollector authenticationCollector,
+				AuthorizationCollector authorizationCollector) {
+			this.collectorName = collectorName;
+			this.authenticationCollector = authenticationCollector;
+			this.authorizationCollector = authorizationCollector;
+		}
+
+		@Override
+		public String collectorName() {
+			return collectorName;
+		}
+
+		@Override
+		public Authentication collectAuthentication(HttpServletRequest request) {
+			if (authenticationCollector == null) {
+				throw new IllegalStateException("Collector '" + collectorName + "' is only registered for authorisation");
+			}
+			Authentication authentication;
+			try {
+				authentication = authenticationCollector.collectAuthentication(request);
+			} catch (RuntimeException e) {
+				chargeFailure(request);
+				throw e;
+			}
+			if (authentication == null) {
+				chargeFailure(request);
+			}
+			return authentication;
+		}
+
+		@Override
+		public Authentication collectAuthorisation(HttpServletRequest request, Authentication currentAuthentication) {
+			if (authorizationCollector == null) {
+				throw new IllegalStateException("Collector '" + collectorName + "' is only registered for authentication");
+			}
+			if (authenticationCollector != null) {
+				// The authentication verified the credential, and was charged if it was rejected
+				return authorizationCollector.collectAuthorisation(request, currentAuthentication);
+			}
+			Authentication authentication;
+			try {
+				authentication = authorizationCollector.collectAuthorisation(request, currentAuthentication);
+			} catch (RuntimeException e) {
+				chargeFailure(request);
+				throw e;
+			}
+			if (authentication == null || authentication == currentAuthentication) {
+				chargeFailure(request);
+			}
+			return authentication;
+		}
+	}
+
+	public static class Builder {
+		private final List<Budget> budgets = new ArrayList<>();
+		private final List<Budget> failureBudgets = new ArrayList<>();
+		private long maximumKeys = 100_000;
+		private MeterRegistry meterRegistry;
+
+		/**
+		 * @param maximumKeys how many buckets each limit keeps
+		 */
+		public Builder maximumKeys(long maximumKeys) {
+			this.maximumKeys = maximumKeys;
+			return this;
+		}
+
+		/**
+		 * Optional, to expose the 'ratelimit.*' metrics of the limits
+		 */
+		public Builder meterRegistry(MeterRegistry meterRegistry) {
+			this.meterRegistry = meterRegistry;
+			return this;
+		}
+
+		/**
+		 * @param name the 'limiter' tag of the metrics
+		 * @param key the key of the request, see {@link RequestKeys}
+		 * @param requestsPerSecond the budget of each key, 0 to not add this limit
+		 * @param burst how many requests a key can send at once
+		 */
+		public Builder limit(String name, Function<HttpServletRequest, String> key, long requestsPerSecond, int burst) {
+			if (requestsPerSecond > 0) {
+				budgets.add(new Budget(name, key, requestsPerSecond, burst));
+			}
+			return this;
+		}
+
+		/**
+		 * @param name the 'limiter' tag of the metrics
+		 * @param key the client of the request, like {@link RequestKeys#clientIp()}
+		 * @param failuresPerSecond the rejected credentials each key can send, 0 to not add this limit
+		 * @param burst how many rejected credentials a key can send at once
+		 */
+		public Builder failureLimit(String name, Function<HttpServletRequest, String> key, long failuresPerSecond,
+				int burst) {
+			if (failuresPerSecond > 0) {
+				failureBudgets.add(new Budget(name, key, failuresPerSecond, burst));
+			}
+			return this;
+		}
+
+		public RateLimitFilter build() {
+			return new RateLimitFilter(limits(budgets), limits(failureBudgets));
+		}
+
+		private List<Limit> limits(List<Budget> budgets) {
+			List<Limit> limits = new ArrayList<>(budgets.size());
+			for (Budget budget : budgets) {
+				TokenBucketLimiter<String> limiter = TokenBucketLimiter.builder()
+						.name(budget.name)
+						.rate(budget.perSecond, Duration.ofSeconds(1))
+						.burst(budget.burst)
+						.maximumSize(maximumKeys)
+						.build();
+				if (meterRegistry != null) {
+					limiter.bindTo(meterRegistry);
+				}
+				limits.add(new Limit(budget.name, budget.key, limiter));
+			}
+			return List.copyOf(limits);
+		}
+
+		private static class Budget {
+			private final String name;
+			private final Function<HttpServletRequest, String> key;
+			private final long perSecond;
+			private final int burst;
+
+			Budget(String name, Function<HttpServletRequest, String> key, long perSecond, int burst) {
+				this.name = name;
+				this.key = key;
+				this.perSecond = perSecond;
+				this.burst = burst;
+			}
+		}
+	}
+}
@@ -0,0 +1,71 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.examples.commons.ratelimit;
+
+import javax.servlet.http.HttpServletRequest;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.function.Function;
+
+/**
+ * The keys of the {@link RateLimitFilter}. They are read from the request as it is, before any credential is parsed.
+ */
+public final class RequestKeys {
+
+	private static final ThreadLocal<MessageDigest> SHA_256 = ThreadLocal.withInitial(() -> {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is not supported by this JVM", e);
+		}
+	});
+
+	private RequestKeys() {
+	}
+
+	/**
+	 * The remote address. Behind a gateway, it's the client IP only if Tomcat resolves the 'X-Forwarded-For' header
+	 * of the trusted proxies, with 'server.forward-headers-strategy: native'. Otherwise all the clients share the
+	 * budget of the gateway.
+	 */
+	public static Function<HttpServletRequest, String> clientIp() {
+		return HttpServletRequest::getRemoteAddr;
+	}
+
+	/**
+	 * The SHA-256 of a header, like the API key or the PEM chain of the 'x-cert' header. The keys kept in memory are
+	 * the same size whatever the header, and the credentials themselves aren't kept.
+	 * @return null if the request doesn't have the header
+	 */
+	public static Function<HttpServletRequest, String> headerFingerprint(String headerName) {
+		return request -> {
+			String value = request.getHeader(headerName);
+			return value == null || value.isEmpty() ? null : fingerprint(value);
+		};
+	}
+
+	static String fingerprint(String value) {
+		byte[] sha256 = SHA_256.get().digest(value.getBytes(StandardCharsets.UTF_8));
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(sha256);
+	}
+}
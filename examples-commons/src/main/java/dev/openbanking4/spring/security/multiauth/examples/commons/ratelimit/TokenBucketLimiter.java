@@ -0,0 +1,301 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.examples.commons.ratelimit;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * A token bucket per key, like a client IP or a credential fingerprint.
+ *
+ * A bucket is a single {@link AtomicLong}: the time at which it will be full again. Taking a token is a read and a
+ * compare-and-set, without lock, and a key over its budget is rejected with a read only. The buckets are spread over
+ * stripes, each one bounded to its share of the maximum size.
+ *
+ * A bucket that is full again is idle: forgetting it doesn't change anything, the next request of its key gets a new
+ * full bucket. When a stripe is full, its idle buckets are evicted. The buckets still refilling are never evicted, so a
+ * flood of new keys can't reset the budget of a key that is throttled: if there is still no room, the new keys share
+ * the overflow bucket of the stripe.
+ *
+ * A budget can also be charged after the fact, like the credentials of a client that were rejected: the requests
+ * check that the key {@link #hasToken has a token left}, and only the failures {@link #take take one}.
+ */
+public class TokenBucketLimiter<K> implements MeterBinder {
+
+	private final String name;
+	private final long intervalNanos;
+	private final long toleranceNanos;
+	private final int stripeCapacity;
+	private final LongSupplier ticker;
+	private final Stripe<K>[] stripes;
+	private final int stripeMask;
+
+	private final LongAdder allowed = new LongAdder();
+	private final LongAdder rejected = new LongAdder();
+	private final LongAdder evicted = new LongAdder();
+
+	@SuppressWarnings("unchecked")
+	private TokenBucketLimiter(Builder builder) {
+		this.name = builder.name;
+		this.intervalNanos = Math.max(1, builder.period.toNanos() / builder.permits);
+		this.toleranceNanos = intervalNanos * builder.burst;
+		this.ticker = builder.ticker;
+		int stripeCount = 1;
+		while (stripeCount < builder.stripes) {
+			stripeCount <<= 1;
+		}
+		this.stripeCapacity = (int) Math.max(1, builder.maximumSize / stripeCount);
+		this.stripes = new Stripe[stripeCount];
+		for (int i = 0; i < stripeCount; i++) {
+			stripes[i] = new Stripe<>(ticker.getAsLong());
+		}
+		this.stripeMask = stripeCount - 1;
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	/**
+	 * @return true if the key had a token left, which is taken
+	 */
+	public boolean tryAcquire(K key) {
+		long now = ticker.getAsLong();
+		AtomicLong bucket = bucket(key, now);
+		for (;;) {
+			long fullAt = bucket.get();
+			long next = Math.max(fullAt, now) + intervalNanos;
+			if (next - now > toleranceNanos) {
+				rejected.increment();
+				return false;
+			}
+			if (bucket.compareAndSet(fullAt, next)) {
+				allowed.increment();
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Counted as allowed or rejected, like {@link #tryAcquire}. A key without bucket has a full one.
+	 * @return true if the key has a token left, which is not taken
+	 */
+	public boolean hasToken(K key) {
+		long now = ticker.getAsLong();
+		Stripe<K> stripe = stripe(key);
+		AtomicLong bucket = stripe.buckets.get(key);
+		if (bucket == null && stripe.buckets.size() >= stripeCapacity) {
+			bucket = stripe.overflow;
+		}
+		if (bucket != null && Math.max(bucket.get(), now) + intervalNanos - now > toleranceNanos) {
+			rejected.increment();
+			return false;
+		}
+		allowed.increment();
+		return true;
+	}
+
+	/**
+	 * Takes a token of the key, if it has one left. It isn't counted: the request was already let through.
+	 */
+	public void take(K key) {
+		long now = ticker.getAsLong();
+		AtomicLong bucket = bucket(key, now);
+		for (;;) {
+			long fullAt = bucket.get();
+			long next = Math.max(fullAt, now) + intervalNanos;
+			if (next - now > toleranceNanos || bucket.compareAndSet(fullAt, next)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * @return how many buckets are kept, not counting the overflow buckets
+	 */
+	public long size() {
+		long size = 0;
+		for (Stripe<K> stripe : stripes) {
+			size += stripe.buckets.size();
+		}
+		return size;
+	}
+
+	public long allowedCount() {
+		return allowed.sum();
+	}
+
+	public long rejectedCount() {
+		return rejected.sum();
+	}
+
+	public long evictionCount() {
+		return evicted.sum();
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		FunctionCounter.builder("ratelimit.requests", allowed, LongAdder::sum)
+				.tag("limiter", name)
+				.tag("outcome", "allowed")
+				.description("Requests which had a token left")
+				.register(registry);
+		FunctionCounter.builder("ratelimit.requests", rejected, LongAdder::sum)
+				.tag("limiter", name)
+				.tag("outcome", "rejected")
+				.description("Requests rejected because their key was over its budget")
+				.register(registry);
+		FunctionCounter.builder("ratelimit.buckets.evicted", evicted, LongAdder::sum)
+				.tag("limiter", name)
+				.description("Idle buckets evicted to make room for new keys")
+				.register(registry);
+		Gauge.builder("ratelimit.buckets", this, TokenBucketLimiter::size)
+				.tag("limiter", name)
+				.description("Buckets kept in memory")
+				.register(registry);
+	}
+
+	private Stripe<K> stripe(K key) {
+		int hash = key.hashCode();
+		return stripes[(hash ^ (hash >>> 16)) & stripeMask];
+	}
+
+	private AtomicLong bucket(K key, long now) {
+		Stripe<K> stripe = stripe(key);
+		AtomicLong bucket = stripe.buckets.get(key);
+		if (bucket != null) {
+			return bucket;
+		}
+		if (stripe.buckets.size() >= stripeCapacity && !evictIdle(stripe, now)) {
+			return stripe.overflow;
+		}
+		// A new bucket is full
+		return stripe.buckets.computeIfAbsent(key, k -> new AtomicLong(now));
+	}
+
+	/**
+	 * Sweeping a stripe is linear in its size, so it's done by one thread at a time, at most once per interval of
+	 * the limiter: under a flood of new keys, the requests go to the overflow bucket in between.
+	 * A request of an evicted key taking a token at the same time may lose it, it was idle and full anyway.
+	 * @return true if there is room in the stripe now
+	 */
+	private boolean evictIdle(Stripe<K> stripe, long now) {
+		if (now - stripe.nextSweep < 0 || !stripe.sweeping.compareAndSet(false, true)) {
+			return false;
+		}
+		try {
+			int before = stripe.buckets.size();
+			stripe.buckets.values().removeIf(bucket -> bucket.get() - now <= 0);
+			evicted.add(before - stripe.buckets.size());
+			stripe.nextSweep = now + intervalNanos;
+		} finally {
+			stripe.sweeping.set(false);
+		}
+		return stripe.buckets.size() < stripeCapacity;
+	}
+
+	private static class Stripe<K> {
+		private final ConcurrentHashMap<K, AtomicLong> buckets = new ConcurrentHashMap<>();
+		private final AtomicLong overflow;
+		private final AtomicBoolean sweeping = new AtomicBoolean();
+		private volatile long nextSweep;
+
+		Stripe(long now) {
+			this.overflow = new AtomicLong(now);
+			this.nextSweep = now;
+		}
+	}
+
+	public static class Builder {
+		private String name = "default";
+		private long permits;
+		private Duration period;
+		private int burst = 1;
+		private long maximumSize = 100_000;
+		private int stripes = 4 * Runtime.getRuntime().availableProcessors();
+		private LongSupplier ticker = System::nanoTime;
+
+		/**
+		 * @param name the 'limiter' tag of the metrics
+		 */
+		public Builder name(String name) {
+			this.name = name;
+			return this;
+		}
+
+		/**
+		 * The budget of each key: permits per period, once its burst is spent
+		 */
+		public Builder rate(long permits, Duration period) {
+			this.permits = permits;
+			this.period = period;
+			return this;
+		}
+
+		/**
+		 * @param burst how many tokens a full bucket holds
+		 */
+		public Builder burst(int burst) {
+			this.burst = burst;
+			return this;
+		}
+
+		/**
+		 * @param maximumSize how many buckets we keep, about: it's shared between the stripes
+		 */
+		public Builder maximumSize(long maximumSize) {
+			this.maximumSize = maximumSize;
+			return this;
+		}
+
+		public Builder stripes(int stripes) {
+			this.stripes = stripes;
+			return this;
+		}
+
+		/**
+		 * For the tests
+		 */
+		public Builder ticker(LongSupplier ticker) {
+			this.ticker = ticker;
+			return this;
+		}
+
+		public <K> TokenBucketLimiter<K> build() {
+			if (permits <= 0 || period == null || period.isNegative() || period.isZero()) {
+				throw new IllegalArgumentException("The rate must be a positive number of permits per period");
+			}
+			if (burst < 1 || maximumSize < 1 || stripes < 1) {
+				throw new IllegalArgumentException("The burst, maximum size and stripes must be positive");
+			}
+			return new TokenBucketLimiter<>(this);
+		}
+	}
+}
@@ -0,0 +1,61 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.examples.commons.threads;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs the Tomcat request processing, and so the whole security filter chain, on virtual threads instead of the Tomcat
+ * thread pool. A collector waiting on a remote service then parks a cheap virtual thread, and the number of requests
+ * in flight is no longer capped by 'server.tomcat.max-threads'.
+ *
+ * Virtual threads need Java 21 or later at runtime. The examples are still built for Java 11, so the executor is
+ * created through reflection.
+ */
+@Slf4j
+public class VirtualThreadsTomcatCustomizer implements WebServerFactoryCustomizer<TomcatServletWebServerFactory> {
+
+	@Override
+	public void customize(TomcatServletWebServerFactory factory) {
+		ExecutorService executor = newVirtualThreadPerTaskExecutor();
+		log.info("Tomcat requests are processed on virtual threads");
+		factory.addProtocolHandlerCustomizers(protocolHandler -> protocolHandler.setExecutor(executor));
+	}
+
+	/**
+	 * @return an executor starting a new virtual thread for each task
+	 * @throws IllegalStateException if this JVM doesn't support virtual threads
+	 */
+	public static ExecutorService newVirtualThreadPerTaskExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (NoSuchMethodException e) {
+			throw new IllegalStateException("Virtual threads need Java 21 or later, this JVM is " + Runtime.version(), e);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("Couldn't create the virtual thread executor", e);
+		}
+	}
+}
@@ -0,0 +1,301 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.examples.commons.tls;
+
+import org.apache.tomcat.util.net.SSLUtil;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSession;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.function.BiFunction;
+
+/**
+ * Delegates to the SSL engine of the connection, and records its handshakes in the {@link TlsHandshakeMetrics}.
+ *
+ * Tomcat creates the engine once it has read the client hello, so the handshake is timed from the creation of the
+ * engine, or from {@link #beginHandshake()} for a renegotiation, until the engine reports it finished. Whether it was
+ * resumed is read from the server hello flight by a {@link ServerHelloInspector}: the session of a resumed handshake
+ * can be a copy, and its creation time a millisecond of the wall clock, neither tells it apart.
+ */
+class HandshakeTimingSSLEngine extends SSLEngine implements SSLUtil.ProtocolInfo {
+
+	private final SSLEngine delegate;
+	private final TlsHandshakeMetrics metrics;
+	private final ServerHelloInspector serverHelloInspector = new ServerHelloInspector();
+	private long handshakeStartNanos;
+	private boolean handshaking;
+
+	HandshakeTimingSSLEngine(SSLEngine delegate, TlsHandshakeMetrics metrics) {
+		super(delegate.getPeerHost(), delegate.getPeerPort());
+		this.delegate = delegate;
+		this.metrics = metrics;
+		startHandshake();
+	}
+
+	@Override
+	public SSLEngineResult wrap(ByteBuffer src, ByteBuffer dst) throws SSLException {
+		int from = dst.position();
+		try {
+			return handshakeProgress(inspect(delegate.wrap(src, dst), dst, from));
+		} catch (SSLException e) {
+			throw handshakeFailure(e);
+		}
+	}
+
+	@Override
+	public SSLEngineResult wrap(ByteBuffer[] srcs, ByteBuffer dst) throws SSLException {
+		int from = dst.position();
+		try {
+			return handshakeProgress(inspect(delegate.wrap(srcs, dst), dst, from));
+		} catch (SSLException e) {
+			throw handshakeFailure(e);
+		}
+	}
+
+	@Override
+	public SSLEngineResult wrap(ByteBuffer[] srcs, int offset, int length, ByteBuffer dst) throws SSLException {
+		int from = dst.position();
+		try {
+			return handshakeProgress(inspect(delegate.wrap(srcs, offset, length, dst), dst, from));
+		} catch (SSLException e) {
+			throw handshakeFailure(e);
+		}
+	}
+
+	@Override
+	public SSLEngineResult unwrap(ByteBuffer src, ByteBuffer dst) throws SSLException {
+		try {
+			return handshakeProgress(delegate.unwrap(src, dst));
+		} catch (SSLException e) {
+			throw handshakeFailure(e);
+		}
+	}
+
+	@Override
+	public SSLEngineResult unwrap(ByteBuffer src, ByteBuffer[] dsts) throws SSLException {
+		try {
+			return handshakeProgress(delegate.unwrap(src, dsts));
+		} catch (SSLException e) {
+			throw handshakeFailure(e);
+		}
+	}
+
+	@Override
+	public SSLEngineResult unwrap(ByteBuffer src, ByteBuffer[] dsts, int offset, int length) throws SSLException {
+		try {
+			return handshakeProgress(delegate.unwrap(src, dsts, offset, length));
+		} catch (SSLException e) {
+			throw handshakeFailure(e);
+		}
+	}
+
+	@Override
+	public void beginHandshake() throws SSLException {
+		if (!handshaking) {
+			startHandshake();
+		}
+		delegate.beginHandshake();
+	}
+
+	@Override
+	public String getNegotiatedProtocol() {
+		if (delegate instanceof SSLUtil.ProtocolInfo) {
+			return ((SSLUtil.ProtocolInfo) delegate).getNegotiatedProtocol();
+		}
+		return delegate.getApplicationProtocol();
+	}
+
+	private void startHandshake() {
+		handshakeStartNanos = System.nanoTime();
+		serverHelloInspector.reset();
+		handshaking = true;
+	}
+
+	private SSLEngineResult inspect(SSLEngineResult result, ByteBuffer dst, int from) {
+		if (handshaking && result.bytesProduced() > 0
+				&& serverHelloInspector.getHandshake() == ServerHelloInspector.Handshake.UNKNOWN) {
+			serverHelloInspector.inspect(dst, from, from + result.bytesProduced());
+		}
+		return result;
+	}
+
+	private SSLEngineResult handshakeProgress(SSLEngineResult result) {
+		if (handshaking && result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.FINISHED) {
+			handshaking = false;
+			// A flight it can't read counts as a full handshake, the expensive one
+			boolean resumed = serverHelloInspector.getHandshake() == ServerHelloInspector.Handshake.RESUMED;
+			metrics.recordHandshake(resumed, System.nanoTime() - handshakeStartNanos);
+		}
+		return result;
+	}
+
+	private SSLException handshakeFailure(SSLException e) {
+		if (handshaking) {
+			handshaking = false;
+			metrics.recordFailedHandshake();
+		}
+		return e;
+	}
+
+	@Override
+	public Runnable getDelegatedTask() {
+		return delegate.getDelegatedTask();
+	}
+
+	@Override
+	public void closeInbound() throws SSLException {
+		delegate.closeInbound();
+	}
+
+	@Override
+	public boolean isInboundDone() {
+		return delegate.isInboundDone();
+	}
+
+	@Override
+	public void closeOutbound() {
+		delegate.closeOutbound();
+	}
+
+	@Override
+	public boolean isOutboundDone() {
+		return delegate.isOutboundDone();
+	}
+
+	@Override
+	public String[] getSupportedCipherSuites() {
+		return delegate.getSupportedCipherSuites();
+	}
+
+	@Override
+	public String[] getEnabledCipherSuites() {
+		return delegate.getEnabledCipherSuites();
+	}
+
+	@Override
+	public void setEnabledCipherSuites(String[] suites) {
+		delegate.setEnabledCipherSuites(suites);
+	}
+
+	@Override
+	public String[] getSupportedProtocols() {
+		return delegate.getSupportedProtocols();
+	}
+
+	@Override
+	public String[] getEnabledProtocols() {
+		return delegate.getEnabledProtocols();
+	}
+
+	@Override
+	public void setEnabledProtocols(String[] protocols) {
+		delegate.setEnabledProtocols(protocols);
+	}
+
+	@Override
+	public SSLSession getSession() {
+		return delegate.getSession();
+	}
+
+	@Override
+	public SSLSession getHandshakeSession() {
+		return delegate.getHandshakeSession();
+	}
+
+	@Override
+	public SSLEngineResult.HandshakeStatus getHandshakeStatus() {
+		return delegate.getHandshakeStatus();
+	}
+
+	@Override
+	public void setUseClientMode(boolean mode) {
+		delegate.setUseClientMode(mode);
+	}
+
+	@Override
+	public boolean getUseClientMode() {
+		return delegate.getUseClientMode();
+	}
+
+	@Override
+	public void setNeedClientAuth(boolean need) {
+		delegate.setNeedClientAuth(need);
+	}
+
+	@Override
+	public boolean getNeedClientAuth() {
+		return delegate.getNeedClientAuth();
+	}
+
+	@Override
+	public void setWantClientAuth(boolean want) {
+		delegate.setWantClientAuth(want);
+	}
+
+	@Override
+	public boolean getWantClientAuth() {
+		return delegate.getWantClientAuth();
+	}
+
+	@Override
+	public void setEnableSessionCreation(boolean flag) {
+		delegate.setEnableSessionCreation(flag);
+	}
+
+	@Override
+	public boolean getEnableSessionCreation() {
+		return delegate.getEnableSessionCreation();
+	}
+
+	@Override
+	public SSLParameters getSSLParameters() {
+		return delegate.getSSLParameters();
+	}
+
+	@Override
+	public void setSSLParameters(SSLParameters params) {
+		delegate.setSSLParameters(params);
+	}
+
+	@Override
+	public String getApplicationProtocol() {
+		return delegate.getApplicationProtocol();
+	}
+
+	@Override
+	public String getHandshakeApplicationProtocol() {
+		return delegate.getHandshakeApplicationProtocol();
+	}
+
+	@Override
+	public void setHandshakeApplicationProtocolSelector(BiFunction<SSLEngine, List<String>, String> selector) {
+		delegate.setHandshakeApplicationProtocolSelector(selector);
+	}
+
+	@Override
+	public BiFunction<SSLEngine, List<String>, String> getHandshakeApplicationProtocolSelector() {
+		return delegate.getHandshakeApplicationProtocolSelector();
+	}
+}
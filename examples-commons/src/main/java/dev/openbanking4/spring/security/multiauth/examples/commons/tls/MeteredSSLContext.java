@@ -0,0 +1,87 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.examples.commons.tls;
+
+import org.apache.tomcat.util.net.SSLContext;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLServerSocketFactory;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.TrustManager;
+import java.security.KeyManagementException;
+import java.security.SecureRandom;
+import java.security.cert.X509Certificate;
+
+/**
+ * The Tomcat SSL context of a connector, whose engines record their handshakes
+ */
+class MeteredSSLContext implements SSLContext {
+
+	private final SSLContext delegate;
+	private final TlsHandshakeMetrics metrics;
+
+	MeteredSSLContext(SSLContext delegate, TlsHandshakeMetrics metrics) {
+		this.delegate = delegate;
+		this.metrics = metrics;
+	}
+
+	@Override
+	public SSLEngine createSSLEngine() {
+		return new HandshakeTimingSSLEngine(delegate.createSSLEngine(), metrics);
+	}
+
+	@Override
+	public void init(KeyManager[] kms, TrustManager[] tms, SecureRandom sr) throws KeyManagementException {
+		delegate.init(kms, tms, sr);
+	}
+
+	@Override
+	public void destroy() {
+		delegate.destroy();
+	}
+
+	@Override
+	public SSLSessionContext getServerSessionContext() {
+		return delegate.getServerSessionContext();
+	}
+
+	@Override
+	public SSLServerSocketFactory getServerSocketFactory() {
+		return delegate.getServerSocketFactory();
+	}
+
+	@Override
+	public SSLParameters getSupportedSSLParameters() {
+		return delegate.getSupportedSSLParameters();
+	}
+
+	@Override
+	public X509Certificate[] getCertificateChain(String alias) {
+		return delegate.getCertificateChain(alias);
+	}
+
+	@Override
+	public X509Certificate[] getAcceptedIssuers() {
+		return delegate.getAcceptedIssuers();
+	}
+}
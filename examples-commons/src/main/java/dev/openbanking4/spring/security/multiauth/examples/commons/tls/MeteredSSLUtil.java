@@ -0,0 +1,73 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.examples.commons.tls;
+
+import org.apache.tomcat.util.net.SSLContext;
+import org.apache.tomcat.util.net.SSLUtil;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.TrustManager;
+import java.util.List;
+
+/**
+ * Builds the SSL contexts of a connector like the SSL util it wraps, with engines recording their handshakes
+ */
+class MeteredSSLUtil implements SSLUtil {
+
+	private final SSLUtil delegate;
+	private final TlsHandshakeMetrics metrics;
+
+	MeteredSSLUtil(SSLUtil delegate, TlsHandshakeMetrics metrics) {
+		this.delegate = delegate;
+		this.metrics = metrics;
+	}
+
+	@Override
+	public SSLContext createSSLContext(List<String> negotiableProtocols) throws Exception {
+		return new MeteredSSLContext(delegate.createSSLContext(negotiableProtocols), metrics);
+	}
+
+	@Override
+	public KeyManager[] getKeyManagers() throws Exception {
+		return delegate.getKeyManagers();
+	}
+
+	@Override
+	public TrustManager[] getTrustManagers() throws Exception {
+		return delegate.getTrustManagers();
+	}
+
+	@Override
+	public void configureSessionContext(SSLSessionContext sslSessionContext) {
+		delegate.configureSessionContext(sslSessionContext);
+	}
+
+	@Override
+	public String[] getEnabledProtocols() {
+		return delegate.getEnabledProtocols();
+	}
+
+	@Override
+	public String[] getEnabledCiphers() {
+		return delegate.getEnabledCiphers();
+	}
+}
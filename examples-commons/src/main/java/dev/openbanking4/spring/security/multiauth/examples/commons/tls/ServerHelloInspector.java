@@ -0,0 +1,168 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.examples.commons.tls;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Tells a resumed handshake from a full one by the first flight of the server, which is in clear in all the TLS
+ * versions, instead of comparing clocks:
+ * <ul>
+ *     <li>TLS 1.3: the server hello has a 'pre_shared_key' extension if, and only if, the server accepted a session
+ *     ticket or a cached session (RFC 8446 4.2.11)</li>
+ *     <li>TLS 1.2 and before: after the server hello, a full handshake goes on with the certificate and the key
+ *     exchange, an abbreviated one with a change cipher spec (RFC 5246 7.3, RFC 5077 3.1)</li>
+ * </ul>
+ * It's fed the records wrapped by the server engine, until it can tell. A hello retry request is skipped, the server
+ * hello that follows decides.
+ */
+final class ServerHelloInspector {
+
+	enum Handshake {
+		UNKNOWN, FULL, RESUMED
+	}
+
+	private static final int CHANGE_CIPHER_SPEC = 20;
+	private static final int HANDSHAKE = 22;
+	private static final int SERVER_HELLO = 2;
+	private static final int NEW_SESSION_TICKET = 4;
+	private static final int SUPPORTED_VERSIONS = 43;
+	private static final int PRE_SHARED_KEY = 41;
+	private static final int TLS_1_3 = 0x0304;
+	/**
+	 * The random of a hello retry request, RFC 8446 4.1.3
+	 */
+	private static final byte[] HELLO_RETRY_REQUEST = {
+			(byte) 0xCF, 0x21, (byte) 0xAD, 0x74, (byte) 0xE5, (byte) 0x9A, 0x61, 0x11,
+			(byte) 0xBE, 0x1D, (byte) 0x8C, 0x02, 0x1E, 0x65, (byte) 0xB8, (byte) 0x91,
+			(byte) 0xC2, (byte) 0xA2, 0x11, 0x16, 0x7A, (byte) 0xBB, (byte) 0x8C, 0x5E,
+			0x07, (byte) 0x9E, 0x09, (byte) 0xE2, (byte) 0xC8, (byte) 0xA8, 0x33, (byte) 0x9C};
+
+	private Handshake handshake = Handshake.UNKNOWN;
+	private boolean tls12ServerHelloSeen;
+
+	/**
+	 * For a renegotiation
+	 */
+	void reset() {
+		handshake = Handshake.UNKNOWN;
+		tls12ServerHelloSeen = false;
+	}
+
+	Handshake getHandshake() {
+		return handshake;
+	}
+
+	/**
+	 * @param records the buffer the engine wrapped into. Its position and limit are left as they are.
+	 * @param from the index of the first record wrapped
+	 * @param to the index after the last one
+	 */
+	Handshake inspect(ByteBuffer records, int from, int to) {
+		int record = from;
+		while (handshake == Handshake.UNKNOWN && record + 5 <= to) {
+			int contentType = u8(records, record);
+			int recordEnd = Math.min(record + 5 + u16(records, record + 3), to);
+			if (contentType == CHANGE_CIPHER_SPEC && tls12ServerHelloSeen) {
+				handshake = Handshake.RESUMED;
+			} else if (contentType == HANDSHAKE) {
+				inspectMessages(records, record + 5, recordEnd);
+			}
+			record = recordEnd;
+		}
+		return handshake;
+	}
+
+	private void inspectMessages(ByteBuffer records, int from, int to) {
+		int message = from;
+		while (handshake == Handshake.UNKNOWN && message + 4 <= to) {
+			int messageType = u8(records, message);
+			int messageEnd = message + 4 + u24(records, message + 1);
+			if (!tls12ServerHelloSeen) {
+				if (messageType == SERVER_HELLO && messageEnd <= to) {
+					inspectServerHello(records, message + 4, messageEnd);
+				}
+			} else if (messageType != NEW_SESSION_TICKET) {
+				// The certificate, the key exchange or the certificate request: only a full handshake sends them
+				handshake = Handshake.FULL;
+			}
+			message = messageEnd;
+		}
+	}
+
+	private void inspectServerHello(ByteBuffer records, int from, int to) {
+		// legacy_version, random, legacy_session_id, cipher_suite, legacy_compression_method
+		int random = from + 2;
+		int sessionId = random + 32;
+		if (sessionId + 1 > to) {
+			return;
+		}
+		if (isHelloRetryRequest(records, random)) {
+			return;
+		}
+		int extensions = sessionId + 1 + u8(records, sessionId) + 2 + 1;
+		boolean tls13 = false;
+		boolean preSharedKey = false;
+		if (extensions + 2 <= to) {
+			int extension = extensions + 2;
+			int extensionsEnd = Math.min(extension + u16(records, extensions), to);
+			while (extension + 4 <= extensionsEnd) {
+				int extensionType = u16(records, extension);
+				int extensionLength = u16(records, extension + 2);
+				if (extension + 4 + extensionLength > extensionsEnd) {
+					break;
+				}
+				if (extensionType == SUPPORTED_VERSIONS && extensionLength == 2) {
+					tls13 = u16(records, extension + 4) == TLS_1_3;
+				} else if (extensionType == PRE_SHARED_KEY) {
+					preSharedKey = true;
+				}
+				extension += 4 + extensionLength;
+			}
+		}
+		if (tls13) {
+			handshake = preSharedKey ? Handshake.RESUMED : Handshake.FULL;
+		} else {
+			tls12ServerHelloSeen = true;
+		}
+	}
+
+	private static boolean isHelloRetryRequest(ByteBuffer records, int random) {
+		for (int i = 0; i < HELLO_RETRY_REQUEST.length; i++) {
+			if (records.get(random + i) != HELLO_RETRY_REQUEST[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int u8(ByteBuffer records, int index) {
+		return records.get(index) & 0xFF;
+	}
+
+	private static int u16(ByteBuffer records, int index) {
+		return u8(records, index) << 8 | u8(records, index + 1);
+	}
+
+	private static int u24(ByteBuffer records, int index) {
+		return u8(records, index) << 16 | u16(records, index + 1);
+	}
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.examples.commons.tls;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts and times the TLS handshakes of the server: full handshakes, resumed ones, and the ones that failed.
+ *
+ * A full handshake does the key exchange and validates the client certificate chain. A resumed handshake re-uses a
+ * session from the session cache or a session ticket, and skips both.
+ *
+ * Tomcat creates its SSL implementation from a class name, so the handshakes are recorded in this one instance for
+ * the whole JVM, see {@link #get()}.
+ */
+public class TlsHandshakeMetrics implements MeterBinder {
+
+	private static final TlsHandshakeMetrics INSTANCE = new TlsHandshakeMetrics();
+
+	private final LongAdder fullHandshakes = new LongAdder();
+	private final LongAdder fullHandshakeNanos = new LongAdder();
+	private final LongAdder resumedHandshakes = new LongAdder();
+	private final LongAdder resumedHandshakeNanos = new LongAdder();
+	private final LongAdder failedHandshakes = new LongAdder();
+
+	TlsHandshakeMetrics() {
+	}
+
+	/**
+	 * @return the handshakes of the servers using {@link MeteredJSSEImplementation} or
+	 * {@link MeteredOpenSSLImplementation}
+	 */
+	public static TlsHandshakeMetrics get() {
+		return INSTANCE;
+	}
+
+	void recordHandshake(boolean resumed, long durationNanos) {
+		if (resumed) {
+			resumedHandshakes.increment();
+			resumedHandshakeNanos.add(durationNanos);
+		} else {
+			fullHandshakes.increment();
+			fullHandshakeNanos.add(durationNanos);
+		}
+	}
+
+	void recordFailedHandshake() {
+		failedHandshakes.increment();
+	}
+
+	public long getFullHandshakeCount() {
+		return fullHandshakes.sum();
+	}
+
+	public long getFullHandshakeNanos() {
+		return fullHandshakeNanos.sum();
+	}
+
+	public long getResumedHandshakeCount() {
+		return resumedHandshakes.sum();
+	}
+
+	public long getResumedHandshakeNanos() {
+		return resumedHandshakeNanos.sum();
+	}
+
+	public long getFailedHandshakeCount() {
+		return failedHandshakes.sum();
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		FunctionTimer.builder("tls.handshakes", this, TlsHandshakeMetrics::getFullHandshakeCount,
+						TlsHandshakeMetrics::getFullHandshakeNanos, TimeUnit.NANOSECONDS)
+				.tag("type", "full")
+				.description("Full TLS handshakes, with key exchange and client certificate validation")
+				.register(registry);
+		FunctionTimer.builder("tls.handshakes", this, TlsHandshakeMetrics::getResumedHandshakeCount,
+						TlsHandshakeMetrics::getResumedHandshakeNanos, TimeUnit.NANOSECONDS)
+				.tag("type", "resumed")
+				.description("TLS handshakes resuming a cached session or a session ticket")
+				.register(registry);
+		FunctionCounter.builder("tls.handshakes.failed", failedHandshakes, LongAdder::sum)
+				.description("TLS handshakes that failed, like a client certificate that isn't trusted")
+				.register(registry);
+	}
+}
@@ -0,0 +1,121 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.examples.commons.tls;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.catalina.connector.Connector;
+import org.apache.catalina.core.AprLifecycleListener;
+import org.apache.coyote.ProtocolHandler;
+import org.apache.coyote.http11.AbstractHttp11JsseProtocol;
+import org.apache.tomcat.util.net.SSLHostConfig;
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
+
+import java.time.Duration;
+
+/**
+ * Tunes the TLS of the Tomcat connector, so the clients coming back resume their session instead of doing a full
+ * handshake, with its key exchange and client certificate validation:
+ * <ul>
+ *     <li>the size and timeout of the server session cache</li>
+ *     <li>session tickets, so the session state is kept by the client instead of the server cache</li>
+ *     <li>the TLS engine: JSSE, or OpenSSL through tomcat-native when its library is installed</li>
+ * </ul>
+ * The handshakes are recorded in {@link TlsHandshakeMetrics#get()}.
+ *
+ * With JSSE, the session tickets are a JVM-wide setting: '-Djdk.tls.server.enableSessionTicketExtension', enabled by
+ * default from Java 13.
+ */
+@Slf4j
+public class TlsTuningCustomizer implements WebServerFactoryCustomizer<TomcatServletWebServerFactory> {
+
+	public enum Engine {
+		JSSE,
+		OPENSSL
+	}
+
+	private static final String JSSE_SESSION_TICKETS_PROPERTY = "jdk.tls.server.enableSessionTicketExtension";
+
+	private final Engine engine;
+	private final int sessionCacheSize;
+	private final Duration sessionTimeout;
+	private final boolean sessionTickets;
+
+	/**
+	 * @param engine the TLS engine, JSSE is used instead of OpenSSL if tomcat-native is not available
+	 * @param sessionCacheSize how many sessions the server keeps, 0 for no limit
+	 * @param sessionTimeout how long a session can be resumed
+	 * @param sessionTickets whether the clients can resume their session with a session ticket
+	 */
+	public TlsTuningCustomizer(Engine engine, int sessionCacheSize, Duration sessionTimeout, boolean sessionTickets) {
+		if (sessionCacheSize < 0) {
+			throw new IllegalArgumentException("The session cache size can't be negative: " + sessionCacheSize);
+		}
+		if (sessionTimeout.isNegative()) {
+			throw new IllegalArgumentException("The session timeout can't be negative: " + sessionTimeout);
+		}
+		this.engine = engine;
+		this.sessionCacheSize = sessionCacheSize;
+		this.sessionTimeout = sessionTimeout;
+		this.sessionTickets = sessionTickets;
+	}
+
+	@Override
+	public void customize(TomcatServletWebServerFactory factory) {
+		Engine actualEngine = actualEngine();
+		log.info("TLS engine {}, session cache of {} sessions for {}, session tickets {}", actualEngine,
+				sessionCacheSize, sessionTimeout, sessionTickets ? "enabled" : "disabled");
+		factory.addConnectorCustomizers(connector -> customize(connector, actualEngine));
+	}
+
+	private void customize(Connector connector, Engine actualEngine) {
+		ProtocolHandler protocolHandler = connector.getProtocolHandler();
+		if (!(protocolHandler instanceof AbstractHttp11JsseProtocol)) {
+			log.warn("The TLS of the {} protocol can't be tuned", protocolHandler.getClass().getSimpleName());
+			return;
+		}
+		((AbstractHttp11JsseProtocol<?>) protocolHandler).setSslImplementationName(actualEngine == Engine.OPENSSL
+				? MeteredOpenSSLImplementation.class.getName()
+				: MeteredJSSEImplementation.class.getName());
+		for (SSLHostConfig sslHostConfig : connector.findSslHostConfigs()) {
+			sslHostConfig.setSessionCacheSize(sessionCacheSize);
+			sslHostConfig.setSessionTimeout((int) sessionTimeout.getSeconds());
+			sslHostConfig.setDisableSessionTickets(!sessionTickets);
+		}
+	}
+
+	private Engine actualEngine() {
+		if (engine == Engine.OPENSSL) {
+			// Creating the listener is what allows the tomcat-native library to be loaded
+			new AprLifecycleListener();
+			if (AprLifecycleListener.isAprAvailable()) {
+				return Engine.OPENSSL;
+			}
+			log.warn("The tomcat-native library is not available, the TLS engine is JSSE instead of OpenSSL");
+		}
+		if (sessionTickets != Boolean.parseBoolean(System.getProperty(JSSE_SESSION_TICKETS_PROPERTY,
+				String.valueOf(Runtime.version().feature() >= 13)))) {
+			log.warn("With JSSE, the session tickets are {} by the JVM option '-D{}'",
+					sessionTickets ? "disabled" : "enabled", JSSE_SESSION_TICKETS_PROPERTY);
+		}
+		return Engine.JSSE;
+	}
+}
@@ -0,0 +1,202 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.examples.commons.x509;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import java.io.ByteArrayInputStream;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Parses the PEM certificate chains forwarded by the gateway, and remembers them.
+ *
+ * Most of the traffic comes from a small set of clients, so the same header value comes again and again. We keep the
+ * parsed chain, and the username extracted from it, until the earliest 'notAfter' of the chain, or the TTL.
+ */
+public class CertificateChainCache implements MeterBinder {
+
+	private final Cache<String, X509Certificate[]> chains;
+	private final Cache<X509Certificate, String> usernames;
+	private final Function<X509Certificate, String> usernameExtractor;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder parseCount = new LongAdder();
+	private final LongAdder parseTimeNanos = new LongAdder();
+
+	/**
+	 * @param maximumSize how many chains we keep in memory
+	 * @param ttl the maximum time a chain stays in memory, even if its certificates are still valid
+	 * @param usernameExtractor how to get the username from the client certificate
+	 */
+	public CertificateChainCache(long maximumSize, Duration ttl, Function<X509Certificate, String> usernameExtractor) {
+		ExpireAtNotAfterOrTtl expiry = new ExpireAtNotAfterOrTtl(ttl.toNanos());
+		this.chains = Caffeine.newBuilder()
+				.maximumSize(maximumSize)
+				.expireAfter(expiry.forChains())
+				.build();
+		this.usernames = Caffeine.newBuilder()
+				.maximumSize(maximumSize)
+				.expireAfter(expiry.forCertificates())
+				.build();
+		this.usernameExtractor = usernameExtractor;
+	}
+
+	/**
+	 * @param headerValue the PEM chain, URL encoded or not
+	 * @return the parsed chain, the client certificate first. The array is shared, it must not be modified.
+	 * @throws CertificateException if the header isn't a PEM chain, or has no certificate
+	 */
+	public X509Certificate[] parse(String headerValue) throws CertificateException {
+		X509Certificate[] chain = chains.getIfPresent(headerValue);
+		if (chain != null) {
+			hits.increment();
+			return chain;
+		}
+		misses.increment();
+		long start = System.nanoTime();
+		try {
+			chain = parsePem(headerValue);
+		} finally {
+			parseCount.increment();
+			parseTimeNanos.add(System.nanoTime() - start);
+		}
+		chains.put(headerValue, chain);
+		return chain;
+	}
+
+	/**
+	 * @return the username of the client certificate of this chain, extracted once per certificate
+	 */
+	public String username(X509Certificate[] chain) {
+		return usernames.get(chain[0], usernameExtractor);
+	}
+
+	public long hitCount() {
+		return hits.sum();
+	}
+
+	public long missCount() {
+		return misses.sum();
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		FunctionCounter.builder("x509.chain.cache.hits", hits, LongAdder::sum)
+				.description("Certificate chains found in the cache")
+				.register(registry);
+		FunctionCounter.builder("x509.chain.cache.misses", misses, LongAdder::sum)
+				.description("Certificate chains that had to be parsed")
+				.register(registry);
+		Gauge.builder("x509.chain.cache.hit.ratio", this, c -> {
+					long h = c.hits.sum();
+					long total = h + c.misses.sum();
+					return total == 0 ? 0 : (double) h / total;
+				})
+				.description("Ratio of certificate chains found in the cache")
+				.register(registry);
+		FunctionTimer.builder("x509.chain.parse", this, c -> c.parseCount.sum(), c -> c.parseTimeNanos.sum(),
+						TimeUnit.NANOSECONDS)
+				.description("Time spent parsing the PEM certificate chains")
+				.register(registry);
+	}
+
+	private static X509Certificate[] parsePem(String headerValue) throws CertificateException {
+		String pem = headerValue;
+		if (pem.indexOf('%') >= 0) {
+			// '+' is a valid base64 character, not an encoded space
+			pem = URLDecoder.decode(pem.replace("+", "%2B"), StandardCharsets.UTF_8);
+		}
+		X509Certificate[] chain = CertificateFactory.getInstance("X.509")
+				.generateCertificates(new ByteArrayInputStream(pem.getBytes(StandardCharsets.US_ASCII)))
+				.stream()
+				.map(X509Certificate.class::cast)
+				.toArray(X509Certificate[]::new);
+		if (chain.length == 0) {
+			throw new CertificateException("No certificate in the header");
+		}
+		return chain;
+	}
+
+	private static class ExpireAtNotAfterOrTtl {
+
+		private final long ttlNanos;
+
+		ExpireAtNotAfterOrTtl(long ttlNanos) {
+			this.ttlNanos = ttlNanos;
+		}
+
+		Expiry<String, X509Certificate[]> forChains() {
+			return new FixedExpiry<String, X509Certificate[]>() {
+				@Override
+				public long expireAfterCreate(String key, X509Certificate[] chain, long currentTime) {
+					long notAfter = Long.MAX_VALUE;
+					for (X509Certificate certificate : chain) {
+						notAfter = Math.min(notAfter, certificate.getNotAfter().getTime());
+					}
+					return untilNotAfterOrTtl(notAfter);
+				}
+			};
+		}
+
+		Expiry<X509Certificate, String> forCertificates() {
+			return new FixedExpiry<X509Certificate, String>() {
+				@Override
+				public long expireAfterCreate(X509Certificate certificate, String username, long currentTime) {
+					return untilNotAfterOrTtl(certificate.getNotAfter().getTime());
+				}
+			};
+		}
+
+		private long untilNotAfterOrTtl(long notAfterMillis) {
+			long untilNotAfter = TimeUnit.MILLISECONDS.toNanos(notAfterMillis - System.currentTimeMillis());
+			return Math.max(0, Math.min(ttlNanos, untilNotAfter));
+		}
+	}
+
+	private abstract static class FixedExpiry<K, V> implements Expiry<K, V> {
+
+		@Override
+		public long expireAfterUpdate(K key, V value, long currentTime, long currentDuration) {
+			return currentDuration;
+		}
+
+		@Override
+		public long expireAfterRead(K key, V value, long currentTime, long currentDuration) {
+			return currentDuration;
+		}
+	}
+}
@@ -0,0 +1,490 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.examples.commons.x509;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CRL;
+import java.security.cert.CertPathValidator;
+import java.security.cert.CertPathValidatorException;
+import java.security.cert.CertStore;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.CollectionCertStoreParameters;
+import java.security.cert.PKIXParameters;
+import java.security.cert.PKIXRevocationChecker;
+import java.security.cert.TrustAnchor;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Validates the certificate chains of the clients against the CAs of a trust store, and remembers the outcome.
+ *
+ * The trust anchors are loaded once, into PKIX parameters that are never modified after they are built, so all the
+ * request threads share them. The outcome of a chain is kept per SHA-256 fingerprint of the chain: a valid chain until
+ * the earliest 'notAfter' of its certificates below the trust anchor, or the TTL, an invalid one for the shorter
+ * negative TTL. A failure that may not last, like a certificate not yet valid or an error of the validator, is not
+ * kept.
+ *
+ * Optionally, the certificates are checked against local CRL files, reloaded in the background when they change. A CA
+ * without a CRL file isn't checked for revocation. When the CRLs change, the outcomes we remembered are forgotten: an
+ * outcome is only used with the CRLs it was computed with. The caches of what was authenticated with a certificate
+ * should be keyed by the {@link #getCrlVersion() version of the CRLs} too.
+ */
+@Slf4j
+public class CertificateChainValidator implements Closeable {
+
+	private static final ThreadLocal<MessageDigest> SHA_256 = ThreadLocal.withInitial(() -> {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is not supported by this JVM", e);
+		}
+	});
+
+	/**
+	 * The reasons a chain may become valid without changing, they are not remembered
+	 */
+	private static final Set<CertPathValidatorException.Reason> TRANSIENT_FAILURES = Set.of(
+			CertPathValidatorException.BasicReason.NOT_YET_VALID,
+			CertPathValidatorException.BasicReason.UNDETERMINED_REVOCATION_STATUS);
+
+	private final Set<TrustAnchor> trustAnchors;
+	private final Set<X509Certificate> trustedCertificates;
+	private final List<Path> crlFiles;
+	private final Duration crlReloadInterval;
+	private final Cache<ChainFingerprint, Outcome> outcomes;
+	private final ScheduledExecutorService scheduler;
+
+	private volatile PKIXParameters pkixParameters;
+	private volatile String crlVersion;
+	private List<FileVersion> crlVersions = Collections.emptyList();
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final AtomicLong crlLoadCount = new AtomicLong();
+
+	private CertificateChainValidator(Builder builder) {
+		this.trustAnchors = builder.trustAnchors;
+		this.trustedCertificates = builder.trustedCertificates;
+		this.crlFiles = builder.crlFiles;
+		this.crlReloadInterval = builder.crlReloadInterval;
+		this.outcomes = Caffeine.newBuilder()
+				.maximumSize(builder.maximumSize)
+				.expireAfter(new ValidUntilNotAfterOrTtl(builder.ttl.toNanos(), builder.negativeTtl.toNanos()))
+				.build();
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "crl-reload");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	/**
+	 * Load the CRLs a first time and schedule their reload.
+	 * We fail fast if a CRL file can't be loaded at startup.
+	 */
+	public CertificateChainValidator start() throws IOException, GeneralSecurityException {
+		List<FileVersion> versions = versionsOf(crlFiles);
+		useCrls(loadCrls());
+		crlVersions = versions;
+		crlLoadCount.incrementAndGet();
+		if (!crlFiles.isEmpty()) {
+			scheduler.scheduleWithFixedDelay(this::reloadCrlsIfChanged, crlReloadInterval.toMillis(),
+					crlReloadInterval.toMillis(), TimeUnit.MILLISECONDS);
+		}
+		return this;
+	}
+
+	/**
+	 * @param chain the client certificate first, with or without the CA certificates we trust
+	 * @return true if the chain leads to a trusted CA, and its certificates are not expired nor revoked
+	 */
+	public boolean isValid(X509Certificate[] chain) {
+		if (chain == null || chain.length == 0) {
+			return false;
+		}
+		ChainFingerprint fingerprint;
+		try {
+			fingerprint = ChainFingerprint.of(chain);
+		} catch (CertificateEncodingException e) {
+			log.debug("Couldn't encode the certificate chain of {}", chain[0].getSubjectX500Principal(), e);
+			return false;
+		}
+		PKIXParameters parameters = pkixParameters;
+		Outcome outcome = outcomes.getIfPresent(fingerprint);
+		if (outcome != null && outcome.parameters == parameters) {
+			hits.increment();
+			return outcome.valid;
+		}
+		misses.increment();
+		outcome = validate(chain, parameters);
+		// Unless the CRLs were reloaded while we were validating
+		if (outcome.cacheable && parameters == pkixParameters) {
+			outcomes.put(fingerprint, outcome);
+		}
+		return outcome.valid;
+	}
+
+	/**
+	 * Reload the CRL files if one of them changed since they were loaded.
+	 * On failure, we keep using the CRLs we have.
+	 * @return true if the CRLs were reloaded
+	 */
+	public synchronized boolean reloadCrlsIfChanged() {
+		try {
+			List<FileVersion> versions = versionsOf(crlFiles);
+			if (versions.equals(crlVersions)) {
+				return false;
+			}
+			useCrls(loadCrls());
+			crlVersions = versions;
+			outcomes.invalidateAll();
+			crlLoadCount.incrementAndGet();
+			log.info("Reloaded the CRLs {}", crlFiles);
+			return true;
+		} catch (IOException | GeneralSecurityException | RuntimeException e) {
+			log.warn("Couldn't reload the CRLs {}, we keep using the current ones", crlFiles, e);
+			return false;
+		}
+	}
+
+	public long hitCount() {
+		return hits.sum();
+	}
+
+	public long missCount() {
+		return misses.sum();
+	}
+
+	/**
+	 * @return the SHA-256 of the CRL files currently used, the same for all the replicas loading the same files
+	 */
+	public String getCrlVersion() {
+		return crlVersion;
+	}
+
+	/**
+	 * @return how many times the CRL files were loaded
+	 */
+	public long getCrlLoadCount() {
+		return crlLoadCount.get();
+	}
+
+	@Override
+	public void close() {
+		scheduler.shutdownNow();
+	}
+
+	private Outcome validate(X509Certificate[] chain, PKIXParameters parameters) {
+		List<X509Certificate> path = new ArrayList<>(Arrays.asList(chain));
+		// The path ends before the trust anchor: the validity of a trusted CA certificate is not checked
+		while (path.size() > 1 && trustedCertificates.contains(path.get(path.size() - 1))) {
+			path.remove(path.size() - 1);
+		}
+		try {
+			CertPathValidator.getInstance("PKIX").validate(
+					CertificateFactory.getInstance("X.509").generateCertPath(path), parameters);
+		} catch (CertPathValidatorException e) {
+			log.debug("Invalid certificate chain for {}: {}", chain[0].getSubjectX500Principal(), e.getMessage());
+			return new Outcome(false, Long.MAX_VALUE, parameters, !TRANSIENT_FAILURES.contains(e.getReason()));
+		} catch (GeneralSecurityException e) {
+			log.warn("Couldn't validate the certificate chain of {}", chain[0].getSubjectX500Principal(), e);
+			return new Outcome(false, Long.MAX_VALUE, parameters, false);
+		}
+		long earliestNotAfter = Long.MAX_VALUE;
+		for (X509Certificate certificate : path) {
+			earliestNotAfter = Math.min(earliestNotAfter, certificate.getNotAfter().getTime());
+		}
+		return new Outcome(true, earliestNotAfter, parameters, true);
+	}
+
+	private LoadedCrls loadCrls() throws IOException, GeneralSecurityException {
+		List<CRL> crls = new ArrayList<>();
+		MessageDigest sha256 = SHA_256.get();
+		CertificateFactory certificateFactory = CertificateFactory.getInstance("X.509");
+		for (Path crlFile : crlFiles) {
+			byte[] content = Files.readAllBytes(crlFile);
+			crls.addAll(certificateFactory.generateCRLs(new ByteArrayInputStream(content)));
+			sha256.update(content);
+		}
+		return new LoadedCrls(crls, Base64.getUrlEncoder().withoutPadding().encodeToString(sha256.digest()));
+	}
+
+	/**
+	 * The parameters first: whoever sees the new version validates with the new CRLs
+	 */
+	private void useCrls(LoadedCrls loadedCrls) throws GeneralSecurityException {
+		pkixParameters = newPkixParameters(loadedCrls.crls);
+		crlVersion = loadedCrls.version;
+	}
+
+	private PKIXParameters newPkixParameters(List<CRL> crls) throws GeneralSecurityException {
+		PKIXParameters parameters = new PKIXParameters(trustAnchors);
+		if (crls.isEmpty()) {
+			parameters.setRevocationEnabled(false);
+			return parameters;
+		}
+		parameters.addCertStore(CertStore.getInstance("Collection", new CollectionCertStoreParameters(crls)));
+		PKIXRevocationChecker revocationChecker = (PKIXRevocationChecker) CertPathValidator.getInstance("PKIX")
+				.getRevocationChecker();
+		revocationChecker.setOptions(EnumSet.of(PKIXRevocationChecker.Option.PREFER_CRLS,
+				PKIXRevocationChecker.Option.NO_FALLBACK, PKIXRevocationChecker.Option.SOFT_FAIL));
+		parameters.addCertPathChecker(revocationChecker);
+		parameters.setRevocationEnabled(true);
+		return parameters;
+	}
+
+	private static List<FileVersion> versionsOf(List<Path> files) throws IOException {
+		List<FileVersion> versions = new ArrayList<>(files.size());
+		for (Path file : files) {
+			versions.add(new FileVersion(Files.getLastModifiedTime(file).toMillis(), Files.size(file)));
+		}
+		return versions;
+	}
+
+	private static final class ChainFingerprint {
+		private final byte[] sha256;
+		private final int hashCode;
+
+		private ChainFingerprint(byte[] sha256) {
+			this.sha256 = sha256;
+			this.hashCode = Arrays.hashCode(sha256);
+		}
+
+		/**
+		 * The DER encodings are self-delimited, so their concatenation identifies the chain
+		 */
+		static ChainFingerprint of(X509Certificate[] chain) throws CertificateEncodingException {
+			MessageDigest sha256 = SHA_256.get();
+			for (X509Certificate certificate : chain) {
+				sha256.update(certificate.getEncoded());
+			}
+			return new ChainFingerprint(sha256.digest());
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (!(o instanceof ChainFingerprint)) {
+				return false;
+			}
+			return Arrays.equals(sha256, ((ChainFingerprint) o).sha256);
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+	}
+
+	private static final class Outcome {
+		private final boolean valid;
+		private final long earliestNotAfter;
+		/**
+		 * The parameters the chain was validated with, the outcome is obsolete once the CRLs are reloaded
+		 */
+		private final PKIXParameters parameters;
+		private final boolean cacheable;
+
+		Outcome(boolean valid, long earliestNotAfter, PKIXParameters parameters, boolean cacheable) {
+			this.valid = valid;
+			this.earliestNotAfter = earliestNotAfter;
+			this.parameters = parameters;
+			this.cacheable = cacheable;
+		}
+	}
+
+	private static final class LoadedCrls {
+		private final List<CRL> crls;
+		private final String version;
+
+		LoadedCrls(List<CRL> crls, String version) {
+			this.crls = crls;
+			this.version = version;
+		}
+	}
+
+	private static final class FileVersion {
+		private final long lastModified;
+		private final long size;
+
+		FileVersion(long lastModified, long size) {
+			this.lastModified = lastModified;
+			this.size = size;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof FileVersion)) {
+				return false;
+			}
+			FileVersion that = (FileVersion) o;
+			return lastModified == that.lastModified && size == that.size;
+		}
+
+		@Override
+		public int hashCode() {
+			return Long.hashCode(lastModified) * 31 + Long.hashCode(size);
+		}
+	}
+
+	private static class ValidUntilNotAfterOrTtl implements Expiry<ChainFingerprint, Outcome> {
+
+		private final long ttlNanos;
+		private final long negativeTtlNanos;
+
+		ValidUntilNotAfterOrTtl(long ttlNanos, long negativeTtlNanos) {
+			this.ttlNanos = ttlNanos;
+			this.negativeTtlNanos = negativeTtlNanos;
+		}
+
+		@Override
+		public long expireAfterCreate(ChainFingerprint chain, Outcome outcome, long currentTime) {
+			if (!outcome.valid) {
+				return negativeTtlNanos;
+			}
+			long untilNotAfter = TimeUnit.MILLISECONDS.toNanos(outcome.earliestNotAfter - System.currentTimeMillis());
+			return Math.max(0, Math.min(ttlNanos, untilNotAfter));
+		}
+
+		@Override
+		public long expireAfterUpdate(ChainFingerprint chain, Outcome outcome, long currentTime, long currentDuration) {
+			return expireAfterCreate(chain, outcome, currentTime);
+		}
+
+		@Override
+		public long expireAfterRead(ChainFingerprint chain, Outcome outcome, long currentTime, long currentDuration) {
+			return currentDuration;
+		}
+	}
+
+	public static class Builder {
+		private Set<TrustAnchor> trustAnchors;
+		private Set<X509Certificate> trustedCertificates;
+		private List<Path> crlFiles = Collections.emptyList();
+		private Duration crlReloadInterval = Duration.ofMinutes(5);
+		private long maximumSize = 10_000;
+		private Duration ttl = Duration.ofHours(1);
+		private Duration negativeTtl = Duration.ofMinutes(1);
+
+		/**
+		 * The CAs of the trust store are the trust anchors
+		 */
+		public Builder trustStore(KeyStore trustStore) throws KeyStoreException {
+			Set<X509Certificate> certificates = new HashSet<>();
+			for (String alias : Collections.list(trustStore.aliases())) {
+				if (trustStore.getCertificate(alias) instanceof X509Certificate) {
+					certificates.add((X509Certificate) trustStore.getCertificate(alias));
+				}
+			}
+			Set<TrustAnchor> anchors = new HashSet<>();
+			for (X509Certificate certificate : certificates) {
+				anchors.add(new TrustAnchor(certificate, null));
+			}
+			this.trustedCertificates = Collections.unmodifiableSet(certificates);
+			this.trustAnchors = Collections.unmodifiableSet(anchors);
+			return this;
+		}
+
+		/**
+		 * The CRL files, in PEM or DER. By default, the certificates are not checked for revocation.
+		 */
+		public Builder crlFiles(List<Path> crlFiles) {
+			this.crlFiles = List.copyOf(crlFiles);
+			return this;
+		}
+
+		/**
+		 * How often we check if the CRL files changed
+		 */
+		public Builder crlReloadInterval(Duration crlReloadInterval) {
+			this.crlReloadInterval = crlReloadInterval;
+			return this;
+		}
+
+		public Builder maximumSize(long maximumSize) {
+			this.maximumSize = maximumSize;
+			return this;
+		}
+
+		/**
+		 * The maximum time an outcome stays in memory, even if the certificates of a valid chain are still valid
+		 */
+		public Builder ttl(Duration ttl) {
+			this.ttl = ttl;
+			return this;
+		}
+
+		/**
+		 * How long an invalid chain is remembered. It's short: the chain may be accepted once its CA is trusted.
+		 */
+		public Builder negativeTtl(Duration negativeTtl) {
+			this.negativeTtl = negativeTtl;
+			return this;
+		}
+
+		public CertificateChainValidator build() {
+			if (trustAnchors == null) {
+				throw new IllegalArgumentException("The trust store is mandatory");
+			}
+			if (trustAnchors.isEmpty()) {
+				throw new IllegalArgumentException("The trust store has no certificate");
+			}
+			if (!crlFiles.isEmpty() && (crlReloadInterval.isNegative() || crlReloadInterval.isZero())) {
+				throw new IllegalArgumentException("The CRL reload interval must be positive: " + crlReloadInterval);
+			}
+			return new CertificateChainValidator(this);
+		}
+	}
+}
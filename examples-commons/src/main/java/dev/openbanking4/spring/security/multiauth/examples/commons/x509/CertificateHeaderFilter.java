@@ -0,0 +1,89 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.examples.commons.x509;
+
+import dev.openbanking4.spring.security.multiauth.examples.commons.ratelimit.RateLimitFilter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+
+/**
+ * Exposes the certificate chain forwarded by the gateway in a header as the servlet client certificate attribute,
+ * so the X509 collector gets the chain from the {@link CertificateChainCache} instead of parsing the header itself.
+ *
+ * Only the header is trusted: a certificate from a TLS connection made directly to the app is hidden. A header that
+ * can't be parsed is charged to the failure limits of the {@link RateLimitFilter}.
+ */
+@Slf4j
+public class CertificateHeaderFilter extends OncePerRequestFilter {
+
+	public static final String CERTIFICATES_ATTRIBUTE = "javax.servlet.request.X509Certificate";
+
+	private final String headerName;
+	private final CertificateChainCache certificateChainCache;
+
+	public CertificateHeaderFilter(String headerName, CertificateChainCache certificateChainCache) {
+		this.headerName = headerName;
+		this.certificateChainCache = certificateChainCache;
+	}
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+			throws ServletException, IOException {
+		X509Certificate[] chain = null;
+		String headerValue = request.getHeader(headerName);
+		if (headerValue != null && !headerValue.isEmpty()) {
+			try {
+				chain = certificateChainCache.parse(headerValue);
+			} catch (CertificateException e) {
+				log.debug("Couldn't parse the certificate chain from header '{}'", headerName, e);
+				RateLimitFilter.chargeFailure(request);
+			}
+		}
+		filterChain.doFilter(new CertificateChainRequest(request, chain), response);
+	}
+
+	private static class CertificateChainRequest extends HttpServletRequestWrapper {
+
+		private final X509Certificate[] chain;
+
+		CertificateChainRequest(HttpServletRequest request, X509Certificate[] chain) {
+			super(request);
+			this.chain = chain;
+		}
+
+		@Override
+		public Object getAttribute(String name) {
+			if (CERTIFICATES_ATTRIBUTE.equals(name)) {
+				return chain;
+			}
+			return super.getAttribute(name);
+		}
+	}
+}
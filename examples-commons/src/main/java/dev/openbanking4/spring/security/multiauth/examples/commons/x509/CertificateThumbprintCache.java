@@ -0,0 +1,135 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.examples.commons.x509;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.nimbusds.jose.util.Base64URL;
+
+import javax.security.auth.x500.X500Principal;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Computes the SHA-256 thumbprint of client certificates, as used by the 'x5t#S256' confirmation claim of
+ * certificate-bound access tokens (RFC 8705), and remembers it for the certificates we already saw.
+ *
+ * Entries are keyed by issuer and serial number, which identify a certificate for a given CA. On a hit, we still check
+ * that the cached certificate is the same one, so a certificate re-using the issuer and serial of another one can't
+ * get its thumbprint.
+ */
+public class CertificateThumbprintCache {
+
+	private static final ThreadLocal<MessageDigest> SHA_256 = ThreadLocal.withInitial(() -> {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is not supported by this JVM", e);
+		}
+	});
+
+	private final Cache<CertificateId, Thumbprint> cache;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	public CertificateThumbprintCache(long maximumSize) {
+		this.cache = Caffeine.newBuilder()
+				.maximumSize(maximumSize)
+				.build();
+	}
+
+	/**
+	 * @return the SHA-256 of the DER encoding of the certificate. The array is shared, it must not be modified.
+	 */
+	public byte[] sha256Thumbprint(X509Certificate certificate) throws CertificateEncodingException {
+		CertificateId id = new CertificateId(certificate);
+		Thumbprint thumbprint = cache.getIfPresent(id);
+		if (thumbprint != null && thumbprint.certificate.equals(certificate)) {
+			hits.increment();
+			return thumbprint.sha256;
+		}
+		misses.increment();
+		byte[] sha256 = SHA_256.get().digest(certificate.getEncoded());
+		cache.put(id, new Thumbprint(certificate, sha256));
+		return sha256;
+	}
+
+	/**
+	 * Compare the 'x5t#S256' claim with the thumbprint of the certificate, in constant time
+	 * @param x5tS256 the base64url-encoded SHA-256 thumbprint from the access token
+	 * @param sha256Thumbprint the thumbprint of the client certificate
+	 */
+	public static boolean matches(String x5tS256, byte[] sha256Thumbprint) {
+		return MessageDigest.isEqual(new Base64URL(x5tS256).decode(), sha256Thumbprint);
+	}
+
+	public long hitCount() {
+		return hits.sum();
+	}
+
+	public long missCount() {
+		return misses.sum();
+	}
+
+	private static class CertificateId {
+		private final X500Principal issuer;
+		private final BigInteger serialNumber;
+		private final int hashCode;
+
+		CertificateId(X509Certificate certificate) {
+			this.issuer = certificate.getIssuerX500Principal();
+			this.serialNumber = certificate.getSerialNumber();
+			this.hashCode = Objects.hash(issuer, serialNumber);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (!(o instanceof CertificateId)) {
+				return false;
+			}
+			CertificateId that = (CertificateId) o;
+			return serialNumber.equals(that.serialNumber) && issuer.equals(that.issuer);
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+	}
+
+	private static class Thumbprint {
+		private final X509Certificate certificate;
+		private final byte[] sha256;
+
+		Thumbprint(X509Certificate certificate, byte[] sha256) {
+			this.certificate = certificate;
+			this.sha256 = sha256;
+		}
+	}
+}
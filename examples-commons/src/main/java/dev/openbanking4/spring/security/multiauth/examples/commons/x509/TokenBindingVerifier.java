@@ -0,0 +1,73 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.examples.commons.x509;
+
+import com.nimbusds.jose.util.Base64URL;
+import com.nimbusds.jwt.JWT;
+import net.minidev.json.JSONObject;
+import org.springframework.security.authentication.BadCredentialsException;
+
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.text.ParseException;
+
+/**
+ * Verifies the token binding of certificate-bound access tokens (RFC 8705): the 'x5t#S256' of the 'cnf' claim must be
+ * the thumbprint of the client certificate of the request. An access token without 'cnf' claim is not bound.
+ */
+public class TokenBindingVerifier {
+
+	private final CertificateThumbprintCache thumbprintCache;
+
+	public TokenBindingVerifier(CertificateThumbprintCache thumbprintCache) {
+		this.thumbprintCache = thumbprintCache;
+	}
+
+	/**
+	 * @param clientCertificateChain the certificate chain the request was authenticated with, or null
+	 * @throws BadCredentialsException if the access token is bound to another certificate, or if the request wasn't
+	 * authenticated with a certificate
+	 */
+	public void verify(JWT accessToken, X509Certificate[] clientCertificateChain) throws ParseException {
+		JSONObject cnf = accessToken.getJWTClaimsSet().getJSONObjectClaim("cnf");
+		if (cnf != null) {
+			// We need to verify the token binding
+			String certificateThumbprint = cnf.getAsString("x5t#S256");
+			if (certificateThumbprint == null) {
+				throw new BadCredentialsException("Claim 'x5t#S256' is not defined but cnf present. Access token format is invalid.");
+			}
+			if (clientCertificateChain == null || clientCertificateChain.length == 0) {
+				throw new BadCredentialsException("Request not authenticated with a client cert");
+			}
+			byte[] clientCertThumbprint;
+			try {
+				clientCertThumbprint = thumbprintCache.sha256Thumbprint(clientCertificateChain[0]);
+			} catch (CertificateEncodingException e) {
+				throw new RuntimeException("Can't compute thumbprint of client certificate", e);
+			}
+			if (!CertificateThumbprintCache.matches(certificateThumbprint, clientCertThumbprint)) {
+				throw new BadCredentialsException("The thumbprint from the client certificate '"
+						+ Base64URL.encode(clientCertThumbprint) + "' doesn't match the one specify in the access token '"
+						+ certificateThumbprint + "'");
+			}
+		}
+	}
+}
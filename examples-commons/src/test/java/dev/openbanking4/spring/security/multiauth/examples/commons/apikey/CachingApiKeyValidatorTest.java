@@ -0,0 +1,181 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.examples.commons.apikey;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CachingApiKeyValidatorTest {
+
+    private final ExecutorService clients = Executors.newFixedThreadPool(16);
+
+    @After
+    public void tearDown() {
+        clients.shutdownNow();
+    }
+
+    @Test
+    public void testValidKeyIsRemembered() {
+        StubApiKeyValidatorService service = new StubApiKeyValidatorService(0);
+        CachingApiKeyValidator<String> validator = CachingApiKeyValidator.<String>builder()
+                .validatorService(service)
+                .build();
+
+        for (int i = 0; i < 100; i++) {
+            assertThat(validator.validate("valid-bob")).isEqualTo("user-bob");
+        }
+
+        assertThat(service.callCount()).isEqualTo(1);
+        assertThat(validator.hitCount()).isEqualTo(99);
+        assertThat(validator.missCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testInvalidKeyIsRememberedForTheNegativeTtl() throws Exception {
+        StubApiKeyValidatorService service = new StubApiKeyValidatorService(0);
+        CachingApiKeyValidator<String> validator = CachingApiKeyValidator.<String>builder()
+                .validatorService(service)
+                .negativeTtl(Duration.ofMillis(200))
+                .build();
+
+        for (int i = 0; i < 100; i++) {
+            assertThat(validator.validate("invalid")).isNull();
+        }
+        assertThat(service.callCount()).isEqualTo(1);
+
+        Thread.sleep(300);
+        assertThat(validator.validate("invalid")).isNull();
+        assertThat(service.callCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void testConcurrentRequestsForTheSameKeyShareOneCall() throws Exception {
+        StubApiKeyValidatorService service = new StubApiKeyValidatorService(100);
+        CachingApiKeyValidator<String> validator = CachingApiKeyValidator.<String>builder()
+                .validatorService(service)
+                .build();
+        CountDownLatch start = new CountDownLatch(1);
+
+        List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            results.add(clients.submit(() -> {
+                start.await();
+                return validator.validate("valid-bob");
+            }));
+        }
+        start.countDown();
+
+        for (Future<String> result : results) {
+            assertThat(result.get()).isEqualTo("user-bob");
+        }
+        assertThat(service.callCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testKeysAreValidatedInBatches() throws Exception {
+        StubApiKeyValidatorService service = new StubApiKeyValidatorService(10);
+        try (CachingApiKeyValidator<String> validator = CachingApiKeyValidator.<String>builder()
+                .validatorService(service)
+                .batching(8, Duration.ofMillis(50))
+                .build()) {
+            CountDownLatch start = new CountDownLatch(1);
+
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                String apiKey = (i % 2 == 0 ? "valid-" : "invalid-") + i;
+                results.add(clients.submit(() -> {
+                    start.await();
+                    return validator.validate(apiKey);
+                }));
+            }
+            start.countDown();
+
+            for (int i = 0; i < 16; i++) {
+                assertThat(results.get(i).get()).isEqualTo(i % 2 == 0 ? "user-" + i : null);
+            }
+            assertThat(service.callCount()).isLessThan(16);
+            assertThat(service.calls().stream().mapToInt(Set::size).sum()).isEqualTo(16);
+            assertThat(service.calls()).allMatch(batch -> batch.size() <= 8);
+        }
+    }
+
+    @Test
+    public void testNoMapFromTheServiceMeansInvalidKeys() throws Exception {
+        try (CachingApiKeyValidator<String> validator = CachingApiKeyValidator.<String>builder()
+                .validatorService(apiKeys -> null)
+                .batching(8, Duration.ofMillis(5))
+                .build()) {
+            assertThat(validator.validate("valid-bob")).isNull();
+            assertThat(validator.validateAsync("valid-alice").get(1, TimeUnit.SECONDS)).isEmpty();
+        }
+    }
+
+    /**
+     * Mixed traffic from 50 regular clients and a flood of invalid keys, against a service with a 5ms latency
+     */
+    @Test
+    public void testLoadReducesServiceCalls() throws Exception {
+        StubApiKeyValidatorService service = new StubApiKeyValidatorService(5);
+        try (CachingApiKeyValidator<String> validator = CachingApiKeyValidator.<String>builder()
+                .validatorService(service)
+                .batching(32, Duration.ofMillis(2))
+                .build()) {
+            int threads = 16;
+            int requestsPerThread = 2_000;
+
+            List<Future<?>> results = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                results.add(clients.submit(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for (int i = 0; i < requestsPerThread; i++) {
+                        if (random.nextInt(10) < 8) {
+                            int client = random.nextInt(50);
+                            assertThat(validator.validate("valid-" + client)).isEqualTo("user-" + client);
+                        } else {
+                            assertThat(validator.validate("invalid-" + random.nextInt(200))).isNull();
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get(1, TimeUnit.MINUTES);
+            }
+
+            // At most one call per distinct key, fewer with batching
+            assertThat(service.callCount()).isLessThanOrEqualTo(250);
+            assertThat(validator.getServiceCallCount()).isEqualTo(service.callCount());
+        }
+    }
+}
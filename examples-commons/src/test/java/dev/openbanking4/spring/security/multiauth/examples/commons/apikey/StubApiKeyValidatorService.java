@@ -0,0 +1,63 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.examples.commons.apikey;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A local API key validator service: the keys starting with 'valid-' belong to the user with the same name.
+ * It records the batches it receives and answers after a fixed latency, like a remote service would.
+ */
+class StubApiKeyValidatorService implements ApiKeyValidatorService<String> {
+
+    private final long latencyMs;
+    private final List<Set<String>> calls = new CopyOnWriteArrayList<>();
+
+    StubApiKeyValidatorService(long latencyMs) {
+        this.latencyMs = latencyMs;
+    }
+
+    @Override
+    public Map<String, String> validate(Set<String> apiKeys) throws InterruptedException {
+        calls.add(Set.copyOf(apiKeys));
+        Thread.sleep(latencyMs);
+        Map<String, String> users = new HashMap<>();
+        for (String apiKey : apiKeys) {
+            if (apiKey.startsWith("valid-")) {
+                users.put(apiKey, "user-" + apiKey.substring("valid-".length()));
+            }
+        }
+        return users;
+    }
+
+    int callCount() {
+        return calls.size();
+    }
+
+    List<Set<String>> calls() {
+        return new ArrayList<>(calls);
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.examples.commons.authorities;
+
+import net.minidev.json.JSONArray;
+import org.junit.Test;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.userdetails.User;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class AuthoritySetInternerTest {
+
+    private final AuthoritySetInterner interner = new AuthoritySetInterner(1000);
+
+    @Test
+    public void testSameGroupsGiveTheSameSet() {
+        JSONArray groups = new JSONArray();
+        groups.addAll(Arrays.asList("admin", "clubFalafelKing"));
+
+        Set<GrantedAuthority> first = interner.fromNames(groups);
+        Set<GrantedAuthority> second = interner.fromNames(List.of("admin", "clubFalafelKing"));
+
+        assertThat(second).isSameAs(first);
+        assertThat(first).containsExactlyInAnyOrder(new SimpleGrantedAuthority("admin"),
+                new SimpleGrantedAuthority("clubFalafelKing"));
+        assertThat(interner.hitCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testGroupsAreCanonicalised() {
+        Set<GrantedAuthority> set = interner.fromNames(List.of("admin", "clubFalafelKing"));
+
+        assertThat(interner.fromNames(List.of("clubFalafelKing", "admin", "admin"))).isSameAs(set);
+    }
+
+    @Test
+    public void testEntriesThatArentStringsAreIgnored() {
+        JSONArray groups = new JSONArray();
+        groups.addAll(Arrays.asList("admin", null, 42, new JSONArray()));
+
+        assertThat(interner.fromNames(groups)).containsExactly(new SimpleGrantedAuthority("admin"));
+        assertThat(interner.fromNames(null)).isEmpty();
+    }
+
+    @Test
+    public void testSetIsEqualToAPlainSetAndImmutable() {
+        Set<GrantedAuthority> set = interner.fromNames(List.of("admin", "clubFalafelKing"));
+        Set<GrantedAuthority> plainSet = Stream.of("admin", "clubFalafelKing")
+                .map(SimpleGrantedAuthority::new).collect(Collectors.toSet());
+
+        assertThat(set).isEqualTo(plainSet);
+        assertThat(set.hashCode()).isEqualTo(plainSet.hashCode());
+        assertThatThrownBy(() -> set.add(new SimpleGrantedAuthority("root")))
+                .isInstanceOf(UnsupportedOperationException.class);
+    }
+
+    @Test
+    public void testAuthoritiesAreSharedBetweenSets() {
+        GrantedAuthority admin1 = find(interner.fromNames(List.of("admin", "clubFalafelKing")), "admin");
+        GrantedAuthority admin2 = find(interner.fromNames(List.of("admin")), "admin");
+
+        assertThat(admin2).isSameAs(admin1);
+    }
+
+    @Test
+    public void testInternedSetIsReturnedAsItIs() {
+        Set<GrantedAuthority> set = interner.fromNames(List.of("admin", "clubFalafelKing"));
+
+        assertThat(interner.of(set)).isSameAs(set);
+    }
+
+    @Test
+    public void testUserAuthoritiesAreInterned() {
+        User bob = new User("bob", "", List.of(new SimpleGrantedAuthority("repo-42")));
+
+        Set<GrantedAuthority> first = interner.of(bob.getAuthorities());
+        Set<GrantedAuthority> second = interner.of(bob.getAuthorities());
+
+        assertThat(second).isSameAs(first).containsExactly(new SimpleGrantedAuthority("repo-42"));
+        assertThat(interner.fromNames(List.of("repo-42"))).isSameAs(first);
+    }
+
+    private static GrantedAuthority find(Set<GrantedAuthority> set, String name) {
+        return set.stream().filter(a -> a.getAuthority().equals(name)).findFirst().orElseThrow();
+    }
+}
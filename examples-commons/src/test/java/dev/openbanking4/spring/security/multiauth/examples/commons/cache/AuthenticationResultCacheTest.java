@@ -0,0 +1,274 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.examples.commons.cache;
+
+import dev.openbanking4.spring.security.multiauth.configurers.collectors.AuthCollector;
+import dev.openbanking4.spring.security.multiauth.examples.commons.dispatch.RequestSignal;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.authority.AuthorityUtils;
+
+import javax.servlet.http.HttpServletRequest;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class AuthenticationResultCacheTest {
+
+    private final MutableClock clock = new MutableClock();
+    private final AtomicInteger collectorCalls = new AtomicInteger();
+
+    @Test
+    public void testSameCredentialsAreCollectedOnce() {
+        AuthCollector collector = newCache(null).cached(new ApiKeyCollector(), CredentialExpiry.none());
+
+        for (int i = 0; i < 10; i++) {
+            assertThat(collector.collectAuthentication(request("key-1")).getName()).isEqualTo("user-key-1");
+        }
+        assertThat(collector.collectAuthentication(request("key-2")).getName()).isEqualTo("user-key-2");
+
+        assertThat(collectorCalls.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void testRequestsWithoutCredentialsAreNotCached() {
+        AuthCollector collector = newCache(null).cached(new ApiKeyCollector(), CredentialExpiry.none());
+
+        assertThat(collector.collectAuthentication(new MockHttpServletRequest())).isNull();
+        assertThat(collector.collectAuthentication(new MockHttpServletRequest())).isNull();
+
+        assertThat(collectorCalls.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void testFailuresAreNotCached() {
+        AuthCollector collector = newCache(null).cached(new ApiKeyCollector(), CredentialExpiry.none());
+
+        assertThatThrownBy(() -> collector.collectAuthentication(request("revoked")))
+                .isInstanceOf(BadCredentialsException.class);
+        assertThatThrownBy(() -> collector.collectAuthentication(request("revoked")))
+                .isInstanceOf(BadCredentialsException.class);
+
+        assertThat(collectorCalls.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void testEntriesExpireWithTheCredential() {
+        AuthCollector collector = newCache(null).cached(new ApiKeyCollector(),
+                request -> clock.instant().plus(Duration.ofMinutes(1)));
+
+        collector.collectAuthentication(request("key-1"));
+        clock.advance(Duration.ofSeconds(59));
+        collector.collectAuthentication(request("key-1"));
+        assertThat(collectorCalls.get()).isEqualTo(1);
+
+        clock.advance(Duration.ofSeconds(2));
+        collector.collectAuthentication(request("key-1"));
+        assertThat(collectorCalls.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void testEntriesExpireAfterTheTtl() {
+        AuthCollector collector = newCache(null).cached(new ApiKeyCollector(), CredentialExpiry.none());
+
+        collector.collectAuthentication(request("key-1"));
+        clock.advance(Duration.ofMinutes(6));
+        collector.collectAuthentication(request("key-1"));
+
+        assertThat(collectorCalls.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void testExpiredCredentialsAreNotCached() {
+        AuthCollector collector = newCache(null).cached(new ApiKeyCollector(),
+                request -> clock.instant().minus(Duration.ofDays(1)));
+
+        collector.collectAuthentication(request("key-1"));
+        collector.collectAuthentication(request("key-1"));
+
+        assertThat(collectorCalls.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void testReplicasShareTheCollectedAuthentications() {
+        InMemorySharedAuthenticationStore sharedStore = new InMemorySharedAuthenticationStore(clock);
+        AuthCollector replica1 = newCache(sharedStore).cached(new ApiKeyCollector(), CredentialExpiry.none());
+        AuthCollector replica2 = newCache(sharedStore).cached(new ApiKeyCollector(), CredentialExpiry.none());
+
+        Authentication fromReplica1 = replica1.collectAuthentication(request("key-1"));
+        Authentication fromReplica2 = replica2.collectAuthentication(request("key-1"));
+
+        assertThat(collectorCalls.get()).isEqualTo(1);
+        assertThat(fromReplica2).isEqualTo(fromReplica1).isNotSameAs(fromReplica1);
+        assertThat(sharedStore.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void testSharedEntriesExpire() {
+        InMemorySharedAuthenticationStore sharedStore = new InMemorySharedAuthenticationStore(clock);
+        AuthCollector replica1 = newCache(sharedStore).cached(new ApiKeyCollector(), CredentialExpiry.none());
+        AuthCollector replica2 = newCache(sharedStore).cached(new ApiKeyCollector(), CredentialExpiry.none());
+
+        replica1.collectAuthentication(request("key-1"));
+        clock.advance(Duration.ofMinutes(6));
+        replica2.collectAuthentication(request("key-1"));
+
+        assertThat(collectorCalls.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void testEntriesAreForgottenWhenTheKeyVersionChanges() {
+        AtomicReference<String> crlVersion = new AtomicReference<>("crl-1");
+        AuthCollector collector = AuthenticationResultCache.builder()
+                .signals(RequestSignal.header("key"))
+                .keyVersion(crlVersion::get)
+                .clock(clock)
+                .build()
+                .cached(new ApiKeyCollector(), CredentialExpiry.none());
+
+        collector.collectAuthentication(request("key-1"));
+        collector.collectAuthentication(request("key-1"));
+        crlVersion.set("crl-2");
+        collector.collectAuthentication(request("key-1"));
+
+        assertThat(collectorCalls.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void testAuthorisationIsCachedForTheSameCredentials() {
+        AuthCollector collector = newCache(null).cached(new ApiKeyCollector(), CredentialExpiry.none());
+        Authentication current = new UsernamePasswordAuthenticationToken("bob", "");
+
+        Authentication first = collector.collectAuthorisation(request("key-1"), current);
+        Authentication second = collector.collectAuthorisation(request("key-1"), current);
+
+        assertThat(second).isSameAs(first);
+        assertThat(collectorCalls.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void testAuthorisationIsNotReplayedForAnotherAuthentication() {
+        AuthCollector collector = newCache(null).cached(new ApiKeyCollector(), CredentialExpiry.none());
+
+        Authentication asBob = collector.collectAuthorisation(request("key-1"),
+                new UsernamePasswordAuthenticationToken("bob", ""));
+        Authentication asAlice = collector.collectAuthorisation(request("key-1"),
+                new UsernamePasswordAuthenticationToken("alice", ""));
+        Authentication asAnonymous = collector.collectAuthorisation(request("key-1"),
+                new AnonymousAuthenticationToken("key", "anonymousUser",
+                        AuthorityUtils.createAuthorityList("ROLE_ANONYMOUS")));
+
+        assertThat(asBob.getPrincipal()).isEqualTo("bob");
+        assertThat(asAlice.getPrincipal()).isEqualTo("alice");
+        assertThat(asAnonymous.getPrincipal()).isEqualTo("anonymousUser");
+        assertThat(collectorCalls.get()).isEqualTo(3);
+    }
+
+    @Test
+    public void testAuthorisationIsNotCachedForCredentialsThatCantBeToldApart() {
+        AuthCollector collector = newCache(null).cached(new ApiKeyCollector(), CredentialExpiry.none());
+        Authentication current = new UsernamePasswordAuthenticationToken("bob", new Object());
+
+        collector.collectAuthorisation(request("key-1"), current);
+        collector.collectAuthorisation(request("key-1"), current);
+
+        assertThat(collectorCalls.get()).isEqualTo(2);
+    }
+
+    private AuthenticationResultCache newCache(SharedAuthenticationStore sharedStore) {
+        return AuthenticationResultCache.builder()
+                .signals(RequestSignal.header("key"))
+                .ttl(Duration.ofMinutes(5))
+                .sharedStore(sharedStore)
+                .clock(clock)
+                .build();
+    }
+
+    private static MockHttpServletRequest request(String apiKey) {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.addHeader("key", apiKey);
+        return request;
+    }
+
+    private class ApiKeyCollector implements AuthCollector {
+
+        @Override
+        public String collectorName() {
+            return "API-Key";
+        }
+
+        @Override
+        public Authentication collectAuthentication(HttpServletRequest request) {
+            collectorCalls.incrementAndGet();
+            String apiKey = request.getHeader("key");
+            if (apiKey == null) {
+                return null;
+            }
+            if (apiKey.equals("revoked")) {
+                throw new BadCredentialsException("Invalid API key");
+            }
+            return new UsernamePasswordAuthenticationToken("user-" + apiKey, "", Collections.emptyList());
+        }
+
+        @Override
+        public Authentication collectAuthorisation(HttpServletRequest request, Authentication currentAuthentication) {
+            collectorCalls.incrementAndGet();
+            return new UsernamePasswordAuthenticationToken(currentAuthentication.getPrincipal(), "",
+                    Collections.emptyList());
+        }
+    }
+
+    private static class MutableClock extends Clock {
+
+        private Instant now = Instant.parse("2019-11-20T10:00:00Z");
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
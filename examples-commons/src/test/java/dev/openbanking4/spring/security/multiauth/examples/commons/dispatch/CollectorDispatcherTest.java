@@ -0,0 +1,159 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.examples.commons.dispatch;
+
+import com.nimbusds.jose.util.Base64URL;
+import dev.openbanking4.spring.security.multiauth.configurers.collectors.AuthCollector;
+import dev.openbanking4.spring.security.multiauth.configurers.collectors.AuthenticationCollector;
+import dev.openbanking4.spring.security.multiauth.examples.commons.x509.CertificateThumbprintCache;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.Authentication;
+
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class CollectorDispatcherTest {
+
+    private final CollectorDispatcher dispatcher = new CollectorDispatcher();
+    private final List<String> calls = new ArrayList<>();
+
+    private final AuthCollector cookieCollector =
+            dispatcher.when(RequestSignal.cookie("SSO"), new RecordingCollector("Cookie-SSO"));
+    private final AuthCollector apiKeyCollector =
+            dispatcher.when(RequestSignal.header("key"), new RecordingCollector("API-Key"));
+
+    @Test
+    public void testOnlyTheCollectorsWithTheirSignalAreCalled() {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.addHeader("key", "1NiIsInR5cCI6Ik");
+
+        assertThat(cookieCollector.collectAuthentication(request)).isNull();
+        assertThat(apiKeyCollector.collectAuthentication(request).getName()).isEqualTo("API-Key");
+
+        assertThat(calls).containsExactly("API-Key");
+    }
+
+    @Test
+    public void testNoCredentialsSkipsEveryDispatchedCollector() {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        Authentication anonymous = new TestingAuthenticationToken("anonymous", "");
+
+        assertThat(cookieCollector.collectAuthentication(request)).isNull();
+        assertThat(apiKeyCollector.collectAuthentication(request)).isNull();
+        assertThat(cookieCollector.collectAuthorisation(request, anonymous)).isSameAs(anonymous);
+        assertThat(apiKeyCollector.collectAuthorisation(request, anonymous)).isSameAs(anonymous);
+
+        assertThat(calls).isEmpty();
+    }
+
+    @Test
+    public void testEveryPresentSignalRunsItsCollector() {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setCookies(new Cookie("SSO", "token"));
+        request.addHeader("key", "1NiIsInR5cCI6Ik");
+
+        cookieCollector.collectAuthentication(request);
+        apiKeyCollector.collectAuthentication(request);
+
+        assertThat(calls).containsExactly("Cookie-SSO", "API-Key");
+    }
+
+    @Test
+    public void testPlanIsSharedByRequestsWithTheSameSignals() {
+        MockHttpServletRequest request1 = new MockHttpServletRequest();
+        request1.setCookies(new Cookie("SSO", "token1"), new Cookie("other", "value"));
+        MockHttpServletRequest request2 = new MockHttpServletRequest();
+        request2.setCookies(new Cookie("SSO", "token2"));
+
+        assertThat(dispatcher.plan(request1)).isSameAs(dispatcher.plan(request2));
+    }
+
+    @Test
+    public void testClientCertificateSignal() {
+        AuthenticationCollector x509Collector = dispatcher.whenAuthentication(RequestSignal.clientCertificate(),
+                new RecordingCollector("x509-cert"));
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setAttribute("javax.servlet.request.X509Certificate", new X509Certificate[0]);
+
+        assertThat(x509Collector.collectAuthentication(request).getName()).isEqualTo("x509-cert");
+    }
+
+    @Test
+    public void testClientCertificateSignalIsItsThumbprint() throws Exception {
+        X509Certificate certificate;
+        try (InputStream in = Files.newInputStream(Paths.get("..", "certificates", "clients", "k-alice.crt"))) {
+            certificate = (X509Certificate) CertificateFactory.getInstance("X.509").generateCertificate(in);
+        }
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setAttribute("javax.servlet.request.X509Certificate", new X509Certificate[] { certificate });
+        String thumbprint = Base64URL.encode(new CertificateThumbprintCache(10).sha256Thumbprint(certificate)).toString();
+
+        assertThat(RequestSignal.clientCertificate().value(request)).isEqualTo(thumbprint);
+        assertThat(RequestSignal.clientCertificate(new CertificateThumbprintCache(10)).value(request))
+                .isEqualTo(thumbprint);
+    }
+
+    @Test
+    public void testCollectorsCantBeAddedOnceServing() {
+        cookieCollector.collectAuthentication(new MockHttpServletRequest());
+
+        assertThatThrownBy(() -> dispatcher.when(RequestSignal.header("Authorization"), new RecordingCollector("late")))
+                .isInstanceOf(IllegalStateException.class);
+    }
+
+    private class RecordingCollector implements AuthCollector {
+
+        private final String name;
+
+        RecordingCollector(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String collectorName() {
+            return name;
+        }
+
+        @Override
+        public Authentication collectAuthentication(HttpServletRequest request) {
+            calls.add(name);
+            return new TestingAuthenticationToken(name, "");
+        }
+
+        @Override
+        public Authentication collectAuthorisation(HttpServletRequest req, Authentication currentAuthentication) {
+            calls.add(name);
+            return currentAuthentication;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.examples.commons.json;
+
+import dev.openbanking4.spring.security.multiauth.examples.commons.authorities.AuthoritySetInterner;
+import org.junit.Test;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.userdetails.User;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PrincipalJsonWriterTest {
+
+    private final AuthoritySetInterner interner = new AuthoritySetInterner(100);
+    private final PrincipalJsonWriter writer = new PrincipalJsonWriter(interner, 100);
+
+    @Test
+    public void testOnlyUsernameAndAuthoritiesAreWritten() {
+        String json = toJson(user("toto", "secret", "admin", "clubFalafelKing"));
+
+        assertThat(json).isEqualTo("{\"username\":\"toto\",\"authorities\":"
+                + "[{\"authority\":\"admin\"},{\"authority\":\"clubFalafelKing\"}]}");
+        assertThat(json).doesNotContain("secret", "password", "enabled", "accountNonExpired");
+    }
+
+    @Test
+    public void testAuthoritiesAreRenderedOncePerSet() {
+        String first = toJson(user("alice", "", "SCOPE_payments", "SCOPE_accounts"));
+        String second = toJson(user("bob", "", "SCOPE_accounts", "SCOPE_payments"));
+
+        assertThat(first).endsWith("\"authorities\":[{\"authority\":\"SCOPE_accounts\"},"
+                + "{\"authority\":\"SCOPE_payments\"}]}");
+        assertThat(second).startsWith("{\"username\":\"bob\",").endsWith(first.substring(first.indexOf(",")));
+        assertThat(writer.missCount()).isEqualTo(1);
+        assertThat(writer.hitCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testAuthoritiesOfTheSameAuthenticationAreFoundByIdentity() {
+        Authentication bob = user("bob", "", "SCOPE_accounts", "SCOPE_payments");
+        toJson(bob);
+        long internerMisses = interner.missCount();
+
+        toJson(bob);
+
+        assertThat(interner.missCount()).isEqualTo(internerMisses);
+        assertThat(writer.hitCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testPrincipalWhichIsNotUserDetails() {
+        Authentication anonymous = new AnonymousAuthenticationToken("key", "anonymousUser",
+                AuthorityUtils.createAuthorityList("ROLE_ANONYMOUS"));
+
+        assertThat(toJson(anonymous))
+                .isEqualTo("{\"username\":\"anonymousUser\",\"authorities\":[{\"authority\":\"ROLE_ANONYMOUS\"}]}");
+    }
+
+    @Test
+    public void testNoAuthorities() {
+        assertThat(toJson(user("bob", ""))).isEqualTo("{\"username\":\"bob\",\"authorities\":[]}");
+    }
+
+    @Test
+    public void testValuesAreEscaped() {
+        String json = toJson(user("\"bob\"\n", "", "repo\\42"));
+
+        assertThat(json).isEqualTo("{\"username\":\"\\\"bob\\\"\\n\",\"authorities\":[{\"authority\":\"repo\\\\42\"}]}");
+    }
+
+    @Test
+    public void testOutputStreamIsLeftOpen() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream() {
+            @Override
+            public void close() {
+                throw new AssertionError("The response stream must not be closed");
+            }
+        };
+
+        writer.write(user("bob", "", "repo-42"), out);
+        out.write('\n');
+
+        assertThat(out.toString(StandardCharsets.UTF_8)).endsWith("}\n");
+    }
+
+    private String toJson(Authentication authentication) {
+        return new String(writer.toJson(authentication), StandardCharsets.UTF_8);
+    }
+
+    private static Authentication user(String username, String password, String... authorities) {
+        List<GrantedAuthority> grantedAuthorities = AuthorityUtils.createAuthorityList(authorities);
+        User user = new User(username, password, grantedAuthorities);
+        return new UsernamePasswordAuthenticationToken(user, null, grantedAuthorities);
+    }
+}
@@ -0,0 +1,186 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.examples.commons.jwt;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.JWSObject;
+import com.nimbusds.jose.Payload;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class JWKSKeySourceTest {
+
+    private final AtomicReference<JWKSet> publishedJwkSet = new AtomicReference<>();
+    private final AtomicInteger jwkSetDownloads = new AtomicInteger();
+    private final AtomicReference<CountDownLatch> slowDown = new AtomicReference<>(new CountDownLatch(0));
+    private final ExecutorService clients = Executors.newFixedThreadPool(8);
+
+    private HttpServer authorisationServer;
+    private RSAKey key1;
+    private RSAKey key2;
+
+    @Before
+    public void setUp() throws Exception {
+        key1 = new RSAKeyGenerator(2048).keyID("key-1").generate();
+        key2 = new RSAKeyGenerator(2048).keyID("key-2").generate();
+        publishedJwkSet.set(new JWKSet(key1.toPublicJWK()));
+
+        authorisationServer = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        authorisationServer.setExecutor(Executors.newCachedThreadPool());
+        authorisationServer.createContext("/jwk_uri", exchange -> {
+            jwkSetDownloads.incrementAndGet();
+            try {
+                slowDown.get().await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            byte[] body = publishedJwkSet.get().toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        authorisationServer.start();
+    }
+
+    @After
+    public void tearDown() {
+        clients.shutdownNow();
+        authorisationServer.stop(0);
+    }
+
+    @Test
+    public void testKnownKidIsServedFromMemory() throws Exception {
+        try (JWKSKeySource source = newSource(Duration.ofMinutes(5)).start()) {
+            for (int i = 0; i < 100; i++) {
+                assertThat(source.verify(sign(key1))).isTrue();
+            }
+            assertThat(jwkSetDownloads.get()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    public void testConcurrentMissesOnUnknownKidShareOneRefresh() throws Exception {
+        try (JWKSKeySource source = newSource(Duration.ofMinutes(5)).start()) {
+            publishedJwkSet.set(new JWKSet(List.of(key1.toPublicJWK(), key2.toPublicJWK())));
+            slowDown.set(new CountDownLatch(1));
+            JWSObject signedWithKey2 = sign(key2);
+
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                results.add(clients.submit(() -> source.verify(JWSObject.parse(signedWithKey2.serialize()))));
+            }
+            Thread.sleep(200);
+            slowDown.get().countDown();
+
+            for (Future<Boolean> result : results) {
+                assertThat(result.get()).isTrue();
+            }
+            assertThat(jwkSetDownloads.get()).isEqualTo(2);
+        }
+    }
+
+    @Test
+    public void testCurrentKeysAreServedWhileRefreshInFlight() throws Exception {
+        try (JWKSKeySource source = newSource(Duration.ofMinutes(5)).start()) {
+            slowDown.set(new CountDownLatch(1));
+            source.refresh();
+
+            long start = System.nanoTime();
+            assertThat(source.verify(sign(key1))).isTrue();
+            assertThat(System.nanoTime() - start).isLessThan(TimeUnit.SECONDS.toNanos(1));
+
+            slowDown.get().countDown();
+        }
+    }
+
+    @Test
+    public void testKeysAreRefreshedOnSchedule() throws Exception {
+        try (JWKSKeySource source = newSource(Duration.ofMillis(100)).start()) {
+            publishedJwkSet.set(new JWKSet(key2.toPublicJWK()));
+            long deadline = System.currentTimeMillis() + 5000;
+            while (source.getRefreshCount() < 2 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            int downloads = jwkSetDownloads.get();
+
+            assertThat(source.verify(sign(key2))).isTrue();
+            assertThatThrownBy(() -> source.verify(sign(key1))).isInstanceOf(JOSEException.class);
+            assertThat(downloads).isGreaterThanOrEqualTo(2);
+        }
+    }
+
+    @Test
+    public void testOnDemandRefreshIsRateLimited() throws Exception {
+        try (JWKSKeySource source = newSource(Duration.ofMinutes(5)).start()) {
+            RSAKey unknownKey = new RSAKeyGenerator(2048).keyID("unknown").generate();
+
+            assertThatThrownBy(() -> source.verify(sign(unknownKey))).isInstanceOf(JOSEException.class);
+            assertThatThrownBy(() -> source.verify(sign(unknownKey))).isInstanceOf(JOSEException.class);
+
+            assertThat(jwkSetDownloads.get()).isEqualTo(2);
+        }
+    }
+
+    private JWKSKeySource newSource(Duration refreshInterval) throws Exception {
+        return JWKSKeySource.builder()
+                .jwkSetUrl(new URL("http://localhost:" + authorisationServer.getAddress().getPort() + "/jwk_uri"))
+                .refreshInterval(refreshInterval)
+                .minTimeBetweenOnDemandRefresh(Duration.ofMinutes(1))
+                .unknownKidTimeout(Duration.ofSeconds(5))
+                .readTimeout(Duration.ofSeconds(10))
+                .build();
+    }
+
+    private static JWSObject sign(RSAKey key) throws JOSEException {
+        JWSObject jwsObject = new JWSObject(new JWSHeader.Builder(JWSAlgorithm.RS256).keyID(key.getKeyID()).build(),
+                new Payload("{\"scope\":[\"accounts\"]}"));
+        jwsObject.sign(new RSASSASigner(key));
+        return jwsObject;
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.examples.commons.jwt;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.JWSObject;
+import com.nimbusds.jose.Payload;
+import com.nimbusds.jose.crypto.MACSigner;
+import com.nimbusds.jose.crypto.MACVerifier;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class JWSVerifierRegistryTest {
+
+    private static final String SECRET = "Qt5y2isMydGwVuREoIomK9Ei70EoFQKH0GpcbtJ4";
+    private static final String NEW_SECRET = "c2VjcmV0LWZvci10aGUtbmV4dC1rZXktcm90YXRpb24";
+
+    @Test
+    public void testVerifyWithDefaultVerifierForAlgorithm() throws Exception {
+        JWSVerifierRegistry registry = JWSVerifierRegistry.hmac(JWSAlgorithm.HS256, SECRET);
+
+        assertThat(registry.verify(sign(new JWSHeader(JWSAlgorithm.HS256), SECRET))).isTrue();
+        assertThat(registry.verify(sign(new JWSHeader(JWSAlgorithm.HS256), NEW_SECRET))).isFalse();
+    }
+
+    @Test
+    public void testUnknownKidIsRejected() throws Exception {
+        JWSVerifierRegistry registry = JWSVerifierRegistry.hmac(JWSAlgorithm.HS256, SECRET);
+        JWSObject jwsObject = sign(new JWSHeader.Builder(JWSAlgorithm.HS256).keyID("unknown").build(), SECRET);
+
+        assertThatThrownBy(() -> registry.verify(jwsObject)).isInstanceOf(JOSEException.class);
+    }
+
+    @Test
+    public void testRotationWhileVerifyingConcurrently() throws Exception {
+        JWSVerifierRegistry registry = new JWSVerifierRegistry(JWSVerifierRegistry.KeySet.builder()
+                .verifier("key-1", new MACVerifier(SECRET))
+                .build());
+        JWSObject signedWithKey1 = sign(new JWSHeader.Builder(JWSAlgorithm.HS256).keyID("key-1").build(), SECRET);
+        JWSObject signedWithKey2 = sign(new JWSHeader.Builder(JWSAlgorithm.HS256).keyID("key-2").build(), NEW_SECRET);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            Callable<Boolean> verifyKey1 = () -> registry.verify(JWSObject.parse(signedWithKey1.serialize()));
+            for (int i = 0; i < 1000; i++) {
+                results.add(executor.submit(verifyKey1));
+                if (i == 500) {
+                    registry.rotate(JWSVerifierRegistry.KeySet.builder()
+                            .verifier("key-1", new MACVerifier(SECRET))
+                            .verifier("key-2", new MACVerifier(NEW_SECRET))
+                            .build());
+                }
+            }
+            for (Future<Boolean> result : results) {
+                assertThat(result.get()).isTrue();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertThat(registry.verify(signedWithKey2)).isTrue();
+    }
+
+    private static JWSObject sign(JWSHeader header, String secret) throws JOSEException {
+        JWSObject jwsObject = new JWSObject(header, new Payload("{\"sub\":\"toto\"}"));
+        jwsObject.sign(new MACSigner(secret));
+        return jwsObject;
+    }
+}
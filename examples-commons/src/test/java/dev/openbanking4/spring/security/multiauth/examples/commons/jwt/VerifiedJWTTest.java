@@ -0,0 +1,98 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.examples.commons.jwt;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.MACSigner;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import org.junit.Test;
+
+import java.text.ParseException;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class VerifiedJWTTest {
+
+    private static final String SECRET = "Qt5y2isMydGwVuREoIomK9Ei70EoFQKH0GpcbtJ4";
+    private static final String OTHER_SECRET = "c2VjcmV0LWZvci10aGUtbmV4dC1rZXktcm90YXRpb24";
+
+    private final JWSVerifierRegistry registry;
+
+    public VerifiedJWTTest() throws JOSEException {
+        registry = JWSVerifierRegistry.hmac(JWSAlgorithm.HS256, SECRET);
+    }
+
+    @Test
+    public void testClaimsAreDecodedOnFirstAccessOnly() throws Exception {
+        VerifiedJWT jwt = VerifiedJWT.verify(sign(SECRET), registry);
+
+        assertThat(jwt.isClaimsSetDecoded()).isFalse();
+        JWTClaimsSet claims = jwt.getJWTClaimsSet();
+
+        assertThat(jwt.isClaimsSetDecoded()).isTrue();
+        assertThat(claims.getSubject()).isEqualTo("alice");
+        assertThat(claims.getStringListClaim("group")).containsExactly("admin", "clubFalafelKing");
+        assertThat(jwt.getJWTClaimsSet()).isSameAs(claims);
+    }
+
+    @Test
+    public void testSameTokenAsTheParser() throws Exception {
+        String tokenSerialised = sign(SECRET);
+        SignedJWT parsed = SignedJWT.parse(tokenSerialised);
+
+        VerifiedJWT jwt = VerifiedJWT.verify(tokenSerialised, registry);
+
+        assertThat(jwt.getHeader().getAlgorithm()).isEqualTo(JWSAlgorithm.HS256);
+        assertThat(jwt.getParsedString()).isEqualTo(tokenSerialised);
+        assertThat(jwt.serialize()).isEqualTo(tokenSerialised);
+        assertThat(jwt.getParsedParts()).containsExactly(parsed.getParsedParts());
+        assertThat(jwt.getJWTClaimsSet().toJSONObject()).isEqualTo(parsed.getJWTClaimsSet().toJSONObject());
+    }
+
+    @Test
+    public void testInvalidSignatureIsRejected() throws Exception {
+        String tokenSerialised = sign(OTHER_SECRET);
+
+        assertThatThrownBy(() -> VerifiedJWT.verify(tokenSerialised, registry))
+                .isInstanceOf(JOSEException.class)
+                .hasMessageContaining("Invalid signature");
+    }
+
+    @Test
+    public void testNotAJwsIsRejected() {
+        assertThatThrownBy(() -> VerifiedJWT.verify("not-a-token", registry))
+                .isInstanceOf(ParseException.class);
+    }
+
+    private static String sign(String secret) throws JOSEException {
+        SignedJWT jwt = new SignedJWT(new JWSHeader(JWSAlgorithm.HS256), new JWTClaimsSet.Builder()
+                .subject("alice")
+                .claim("group", List.of("admin", "clubFalafelKing"))
+                .build());
+        jwt.sign(new MACSigner(secret));
+        return jwt.serialize();
+    }
+}
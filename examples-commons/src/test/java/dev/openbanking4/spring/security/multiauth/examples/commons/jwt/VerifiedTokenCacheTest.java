@@ -0,0 +1,106 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.examples.commons.jwt;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.JWSObject;
+import com.nimbusds.jose.crypto.MACSigner;
+import com.nimbusds.jose.crypto.MACVerifier;
+import com.nimbusds.jwt.JWT;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.JWTParser;
+import com.nimbusds.jwt.SignedJWT;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class VerifiedTokenCacheTest {
+
+    private static final String SECRET = "Qt5y2isMydGwVuREoIomK9Ei70EoFQKH0GpcbtJ4";
+
+    private final AtomicInteger verifications = new AtomicInteger();
+
+    private final VerifiedTokenCache.TokenVerifier countingVerifier = tokenSerialised -> {
+        verifications.incrementAndGet();
+        JWSObject jwsObject = JWSObject.parse(tokenSerialised);
+        if (!jwsObject.verify(new MACVerifier(SECRET))) {
+            throw new JOSEException("Invalid signature");
+        }
+        return JWTParser.parse(tokenSerialised);
+    };
+
+    @Test
+    public void testSignatureIsVerifiedOncePerDistinctToken() throws Exception {
+        VerifiedTokenCache cache = new VerifiedTokenCache(100, Duration.ofMinutes(5));
+        String toto = sign(new JWTClaimsSet.Builder().subject("toto").build());
+        String bob = sign(new JWTClaimsSet.Builder().subject("bob").build());
+
+        for (int i = 0; i < 10; i++) {
+            assertThat(cache.getOrVerify(toto, countingVerifier).getJWTClaimsSet().getSubject()).isEqualTo("toto");
+            assertThat(cache.getOrVerify(bob, countingVerifier).getJWTClaimsSet().getSubject()).isEqualTo("bob");
+        }
+
+        assertThat(verifications.get()).isEqualTo(2);
+        assertThat(cache.missCount()).isEqualTo(2);
+        assertThat(cache.hitCount()).isEqualTo(18);
+    }
+
+    @Test
+    public void testInvalidTokenIsNotCached() throws Exception {
+        VerifiedTokenCache cache = new VerifiedTokenCache(100, Duration.ofMinutes(5));
+        String token = sign(new JWTClaimsSet.Builder().subject("toto").build());
+        String tampered = token.substring(0, token.length() - 2) + "AA";
+
+        assertThatThrownBy(() -> cache.getOrVerify(tampered, countingVerifier)).isInstanceOf(JOSEException.class);
+        assertThatThrownBy(() -> cache.getOrVerify(tampered, countingVerifier)).isInstanceOf(JOSEException.class);
+
+        assertThat(verifications.get()).isEqualTo(2);
+        assertThat(cache.estimatedSize()).isZero();
+    }
+
+    @Test
+    public void testExpiredTokenIsVerifiedAgain() throws Exception {
+        VerifiedTokenCache cache = new VerifiedTokenCache(100, Duration.ofMinutes(5));
+        String token = sign(new JWTClaimsSet.Builder()
+                .subject("toto")
+                .expirationTime(new Date(System.currentTimeMillis() - 1000))
+                .build());
+
+        JWT first = cache.getOrVerify(token, countingVerifier);
+        JWT second = cache.getOrVerify(token, countingVerifier);
+
+        assertThat(first.getJWTClaimsSet().getSubject()).isEqualTo(second.getJWTClaimsSet().getSubject());
+        assertThat(verifications.get()).isEqualTo(2);
+    }
+
+    private static String sign(JWTClaimsSet claimsSet) throws JOSEException {
+        SignedJWT signedJWT = new SignedJWT(new JWSHeader(JWSAlgorithm.HS256), claimsSet);
+        signedJWT.sign(new MACSigner(SECRET));
+        return signedJWT.serialize();
+    }
+}
@@ -0,0 +1,151 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.examples.commons.metrics;
+
+import dev.openbanking4.spring.security.multiauth.configurers.collectors.AuthCollector;
+import dev.openbanking4.spring.security.multiauth.configurers.collectors.AuthorizationCollector;
+import dev.openbanking4.spring.security.multiauth.examples.commons.dispatch.CollectorDispatcher;
+import dev.openbanking4.spring.security.multiauth.examples.commons.dispatch.RequestSignal;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.Authentication;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class MeteredCollectorTest {
+
+    private final MeterRegistry registry = new SimpleMeterRegistry();
+    private final Authentication bob = new TestingAuthenticationToken("bob", "");
+
+    @Test
+    public void testAuthenticationOutcomesAreTimedPerCollector() {
+        AtomicReference<Authentication> result = new AtomicReference<>(bob);
+        MeteredCollector collector = MeteredCollector.ofAuthentication(authCollector("API-Key", result), registry);
+
+        assertThat(collector.collectAuthentication(null)).isSameAs(bob);
+        assertThat(collector.collectAuthentication(null)).isSameAs(bob);
+        result.set(null);
+        assertThat(collector.collectAuthentication(null)).isNull();
+
+        assertThat(count("API-Key", "authentication", "success")).isEqualTo(2);
+        assertThat(count("API-Key", "authentication", "skip")).isEqualTo(1);
+        assertThat(count("API-Key", "authentication", "failure")).isEqualTo(0);
+    }
+
+    @Test
+    public void testFailuresAreCountedAndRethrown() {
+        MeteredCollector collector = MeteredCollector.ofAuthorization(new AuthorizationCollector() {
+            @Override
+            public String collectorName() {
+                return "stateless-access-token";
+            }
+
+            @Override
+            public Authentication collectAuthorisation(HttpServletRequest req, Authentication currentAuthentication) {
+                throw new BadCredentialsException("Invalid signature for the access token");
+            }
+        }, registry);
+
+        assertThatThrownBy(() -> collector.collectAuthorisation(null, bob))
+                .isInstanceOf(BadCredentialsException.class);
+
+        assertThat(count("stateless-access-token", "authorisation", "failure")).isEqualTo(1);
+    }
+
+    @Test
+    public void testAuthorisationReturningTheCurrentAuthenticationIsASkip() {
+        Authentication bobWithScopes = new TestingAuthenticationToken("bob", "", "accounts");
+        AtomicReference<Authentication> result = new AtomicReference<>(bob);
+        MeteredCollector collector = MeteredCollector.of(authCollector("Cookie-SSO", result), registry);
+
+        assertThat(collector.collectAuthorisation(null, bob)).isSameAs(bob);
+        result.set(bobWithScopes);
+        assertThat(collector.collectAuthorisation(null, bob)).isSameAs(bobWithScopes);
+
+        assertThat(count("Cookie-SSO", "authorisation", "skip")).isEqualTo(1);
+        assertThat(count("Cookie-SSO", "authorisation", "success")).isEqualTo(1);
+        assertThat(registry.find(MeteredCollector.METER_NAME).tag("phase", "authentication").timers()).hasSize(4);
+    }
+
+    @Test
+    public void testCredentialThatCameBackWithoutAuthenticationIsRejected() {
+        CollectorDispatcher dispatcher = new CollectorDispatcher();
+        MeteredCollector collector = MeteredCollector.of(dispatcher.when(RequestSignal.header("key"),
+                authCollector("API-Key", new AtomicReference<>())), registry);
+        MockHttpServletRequest withKey = new MockHttpServletRequest();
+        withKey.addHeader("key", "an-invalid-key");
+
+        assertThat(collector.collectAuthentication(withKey)).isNull();
+        assertThat(collector.collectAuthentication(new MockHttpServletRequest())).isNull();
+        assertThat(collector.collectAuthorisation(withKey, bob)).isNull();
+
+        assertThat(count("API-Key", "authentication", "rejected")).isEqualTo(1);
+        assertThat(count("API-Key", "authentication", "skip")).isEqualTo(1);
+        assertThat(count("API-Key", "authorisation", "rejected")).isEqualTo(1);
+    }
+
+    @Test
+    public void testCacheHitRatioIsTaggedByCollector() {
+        long[] hitsAndMisses = {3, 1};
+        CollectorCacheMetrics.monitor(registry, "x509-cert", "certificate-chains", hitsAndMisses, c -> c[0], c -> c[1]);
+
+        assertThat(registry.get(MeteredCollector.METER_NAME + ".cache.hit.ratio").tag("collectorName", "x509-cert")
+                .gauge().value()).isEqualTo(0.75);
+        assertThat(registry.get(MeteredCollector.METER_NAME + ".cache.misses").tag("cache", "certificate-chains")
+                .functionCounter().count()).isEqualTo(1);
+    }
+
+    private long count(String collectorName, String phase, String outcome) {
+        return registry.get(MeteredCollector.METER_NAME)
+                .tag("collectorName", collectorName)
+                .tag("phase", phase)
+                .tag("outcome", outcome)
+                .timer()
+                .count();
+    }
+
+    private static AuthCollector authCollector(String name, AtomicReference<Authentication> result) {
+        return new AuthCollector() {
+            @Override
+            public String collectorName() {
+                return name;
+            }
+
+            @Override
+            public Authentication collectAuthentication(HttpServletRequest request) {
+                return result.get();
+            }
+
+            @Override
+            public Authentication collectAuthorisation(HttpServletRequest req, Authentication currentAuthentication) {
+                return result.get();
+            }
+        };
+    }
+}
@@ -0,0 +1,269 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.examples.commons.ratelimit;
+
+import dev.openbanking4.spring.security.multiauth.configurers.collectors.AuthenticationCollector;
+import dev.openbanking4.spring.security.multiauth.examples.commons.x509.CertificateChainCache;
+import dev.openbanking4.spring.security.multiauth.examples.commons.x509.CertificateHeaderFilter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.core.Authentication;
+
+import javax.servlet.FilterChain;
+import javax.servlet.http.HttpServletRequest;
+import java.io.ByteArrayInputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.cert.CertificateFactory;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RateLimitFilterTest {
+
+    private static final int THREADS = 8;
+    private static final int REQUESTS_PER_THREAD = 2_000;
+
+    private final ExecutorService clients = Executors.newFixedThreadPool(THREADS);
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final LongAdder parsedChains = new LongAdder();
+    /**
+     * Stands for the collectors: the chain of the 'x-cert' header is parsed for every request that gets through
+     */
+    private final FilterChain collectors = (request, response) -> {
+        try {
+            String pem = ((MockHttpServletRequest) request).getHeader("x-cert");
+            CertificateFactory.getInstance("X.509")
+                    .generateCertificates(new ByteArrayInputStream(pem.getBytes(StandardCharsets.US_ASCII)));
+            parsedChains.increment();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    };
+
+    @After
+    public void tearDown() {
+        clients.shutdownNow();
+    }
+
+    @Test
+    public void testKeyOverItsBudgetIsRejectedBeforeTheCollectors() throws Exception {
+        RateLimitFilter filter = RateLimitFilter.builder()
+                .limit("x-cert", RequestKeys.headerFingerprint("x-cert"), 1, 2)
+                .build();
+
+        assertThat(send(filter, request(alicePem())).getStatus()).isEqualTo(200);
+        assertThat(send(filter, request(alicePem())).getStatus()).isEqualTo(200);
+        assertThat(send(filter, request(alicePem())).getStatus()).isEqualTo(429);
+
+        assertThat(parsedChains.sum()).isEqualTo(2);
+        assertThat(filter.limiter("x-cert").rejectedCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testRequestWithoutTheKeyIsNotLimited() throws Exception {
+        RateLimitFilter filter = RateLimitFilter.builder()
+                .limit("api-key", RequestKeys.headerFingerprint("key"), 1, 1)
+                .build();
+
+        for (int i = 0; i < 10; i++) {
+            assertThat(send(filter, request(alicePem())).getStatus()).isEqualTo(200);
+        }
+        assertThat(filter.limiter("api-key").size()).isZero();
+    }
+
+    @Test
+    public void testDistinctInvalidCredentialsFromOneClientAreRejected() throws Exception {
+        RateLimitFilter filter = RateLimitFilter.builder()
+                .limit("api-key", RequestKeys.headerFingerprint("key"), 100, 200)
+                .failureLimit("client-ip-failures", RequestKeys.clientIp(), 1, 5)
+                .build();
+        AtomicInteger verifiedKeys = new AtomicInteger();
+        AuthenticationCollector apiKeyCollector = RateLimitFilter.chargingAuthenticationFailures(
+                new AuthenticationCollector() {
+                    @Override
+                    public String collectorName() {
+                        return "API-Key";
+                    }
+
+                    @Override
+                    public Authentication collectAuthentication(HttpServletRequest request) {
+                        verifiedKeys.incrementAndGet();
+                        return null;
+                    }
+                });
+        FilterChain chain = (request, response) -> apiKeyCollector.collectAuthentication((HttpServletRequest) request);
+
+        int rejected = 0;
+        for (int i = 0; i < 20; i++) {
+            MockHttpServletRequest request = new MockHttpServletRequest("GET", "/whoAmI");
+            request.setRemoteAddr("203.0.113.7");
+            request.addHeader("key", "invalid-key-" + i);
+            MockHttpServletResponse response = new MockHttpServletResponse();
+            filter.doFilter(request, response, chain);
+            if (response.getStatus() == 429) {
+                rejected++;
+            }
+        }
+
+        assertThat(rejected).isEqualTo(15);
+        assertThat(verifiedKeys.get()).isEqualTo(5);
+        MockHttpServletRequest otherClient = new MockHttpServletRequest("GET", "/whoAmI");
+        otherClient.setRemoteAddr("203.0.113.8");
+        otherClient.addHeader("key", "invalid-key-0");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(otherClient, response, chain);
+        assertThat(response.getStatus()).isEqualTo(200);
+    }
+
+    @Test
+    public void testUnparseableCertificateHeadersAreCharged() throws Exception {
+        RateLimitFilter filter = RateLimitFilter.builder()
+                .failureLimit("client-ip-failures", RequestKeys.clientIp(), 1, 3)
+                .build();
+        CertificateHeaderFilter certificateHeaderFilter = new CertificateHeaderFilter("x-cert",
+                new CertificateChainCache(100, Duration.ofHours(1), certificate -> "client"));
+        FilterChain chain = (request, response) -> certificateHeaderFilter.doFilter(request, response,
+                (req, res) -> { });
+
+        List<Integer> statuses = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            MockHttpServletResponse response = new MockHttpServletResponse();
+            filter.doFilter(request("not a certificate " + i), response, chain);
+            statuses.add(response.getStatus());
+        }
+
+        assertThat(statuses).containsExactly(200, 200, 200, 429, 429);
+    }
+
+    @Test
+    public void testLimitWithoutRateIsNotAdded() {
+        RateLimitFilter filter = RateLimitFilter.builder()
+                .limit("client-ip", RequestKeys.clientIp(), 0, 0)
+                .build();
+
+        assertThat(filter.limiter("client-ip")).isNull();
+    }
+
+    @Test
+    public void testMetricsAreRegistered() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        RateLimitFilter filter = RateLimitFilter.builder()
+                .limit("x-cert", RequestKeys.headerFingerprint("x-cert"), 1, 1)
+                .meterRegistry(registry)
+                .build();
+
+        send(filter, request(alicePem()));
+        send(filter, request(alicePem()));
+
+        assertThat(registry.get("ratelimit.requests").tag("limiter", "x-cert").tag("outcome", "allowed")
+                .functionCounter().count()).isEqualTo(1);
+        assertThat(registry.get("ratelimit.requests").tag("limiter", "x-cert").tag("outcome", "rejected")
+                .functionCounter().count()).isEqualTo(1);
+        assertThat(registry.get("ratelimit.buckets").gauge().value()).isEqualTo(1);
+    }
+
+    @Test
+    public void testRejectedRequestsCostLessCpuUnderConcurrentLoad() throws Exception {
+        String pem = alicePem();
+        // Warm up both paths, so the JIT doesn't count in the measured runs
+        load(RateLimitFilter.builder().build(), pem);
+        load(limitedFilter(), pem);
+
+        parsedChains.reset();
+        long unlimitedCpu = load(RateLimitFilter.builder().build(), pem);
+        long unlimitedParses = parsedChains.sumThenReset();
+
+        RateLimitFilter filter = limitedFilter();
+        long limitedCpu = load(filter, pem);
+        long limitedParses = parsedChains.sum();
+
+        int requests = THREADS * REQUESTS_PER_THREAD;
+        assertThat(unlimitedParses).isEqualTo(requests);
+        // The burst, and the tokens refilled while the load ran
+        assertThat(limitedParses).isLessThan(200);
+        assertThat(filter.limiter("x-cert").rejectedCount()).isEqualTo(requests - limitedParses);
+        assertThat(limitedCpu / requests).isLessThan(unlimitedCpu / requests / 2);
+    }
+
+    /**
+     * Sends the same certificate chain from all the threads
+     * @return the CPU time of all the threads, in nanoseconds
+     */
+    private long load(RateLimitFilter filter, String pem) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Long>> results = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            results.add(clients.submit(() -> {
+                start.await();
+                MockHttpServletRequest request = request(pem);
+                long cpuStart = threads.getCurrentThreadCpuTime();
+                for (int i = 0; i < REQUESTS_PER_THREAD; i++) {
+                    send(filter, request);
+                }
+                return threads.getCurrentThreadCpuTime() - cpuStart;
+            }));
+        }
+        start.countDown();
+        long cpu = 0;
+        for (Future<Long> result : results) {
+            cpu += result.get();
+        }
+        return cpu;
+    }
+
+    private static RateLimitFilter limitedFilter() {
+        return RateLimitFilter.builder()
+                .limit("x-cert", RequestKeys.headerFingerprint("x-cert"), 10, 20)
+                .build();
+    }
+
+    private MockHttpServletResponse send(RateLimitFilter filter, MockHttpServletRequest request) throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(request, response, collectors);
+        return response;
+    }
+
+    private static MockHttpServletRequest request(String pem) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/whoAmI");
+        request.addHeader("x-cert", pem);
+        return request;
+    }
+
+    private static String alicePem() throws Exception {
+        return new String(Files.readAllBytes(Paths.get("..", "certificates", "clients", "k-alice.crt")),
+                StandardCharsets.US_ASCII);
+    }
+}
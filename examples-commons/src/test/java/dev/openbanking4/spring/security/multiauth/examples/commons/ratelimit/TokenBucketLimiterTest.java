@@ -0,0 +1,202 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.examples.commons.ratelimit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class TokenBucketLimiterTest {
+
+    private static final int THREADS = 8;
+
+    private final AtomicLong now = new AtomicLong();
+    private final ExecutorService clients = Executors.newFixedThreadPool(THREADS);
+
+    @After
+    public void tearDown() {
+        clients.shutdownNow();
+    }
+
+    @Test
+    public void testBurstThenRate() {
+        TokenBucketLimiter<String> limiter = newLimiter(10, 5, 100);
+
+        for (int i = 0; i < 5; i++) {
+            assertThat(limiter.tryAcquire("alice")).isTrue();
+        }
+        assertThat(limiter.tryAcquire("alice")).isFalse();
+
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(100));
+        assertThat(limiter.tryAcquire("alice")).isTrue();
+        assertThat(limiter.tryAcquire("alice")).isFalse();
+        assertThat(limiter.allowedCount()).isEqualTo(6);
+        assertThat(limiter.rejectedCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void testEachKeyHasItsOwnBucket() {
+        TokenBucketLimiter<String> limiter = newLimiter(10, 1, 100);
+
+        assertThat(limiter.tryAcquire("alice")).isTrue();
+        assertThat(limiter.tryAcquire("alice")).isFalse();
+        assertThat(limiter.tryAcquire("bob")).isTrue();
+    }
+
+    @Test
+    public void testBudgetChargedAfterTheFact() {
+        TokenBucketLimiter<String> limiter = newLimiter(10, 3, 100);
+
+        for (int i = 0; i < 3; i++) {
+            assertThat(limiter.hasToken("alice")).isTrue();
+            limiter.take("alice");
+        }
+        assertThat(limiter.hasToken("alice")).isFalse();
+        limiter.take("alice");
+        assertThat(limiter.hasToken("bob")).isTrue();
+
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(100));
+        assertThat(limiter.hasToken("alice")).isTrue();
+        assertThat(limiter.allowedCount()).isEqualTo(5);
+        assertThat(limiter.rejectedCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testConcurrentRequestsNeverTakeMoreThanTheBurst() throws Exception {
+        TokenBucketLimiter<String> limiter = newLimiter(10, 1_000, 100);
+        CountDownLatch start = new CountDownLatch(1);
+
+        List<Future<Integer>> results = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            results.add(clients.submit(() -> {
+                start.await();
+                int allowed = 0;
+                for (int i = 0; i < 10_000; i++) {
+                    if (limiter.tryAcquire("alice")) {
+                        allowed++;
+                    }
+                }
+                return allowed;
+            }));
+        }
+        start.countDown();
+
+        int allowed = 0;
+        for (Future<Integer> result : results) {
+            allowed += result.get();
+        }
+        assertThat(allowed).isEqualTo(1_000);
+        assertThat(limiter.rejectedCount()).isEqualTo(THREADS * 10_000 - 1_000);
+    }
+
+    @Test
+    public void testIdleBucketsAreEvictedToMakeRoom() {
+        TokenBucketLimiter<String> limiter = newLimiter(10, 1, 4);
+        for (String key : List.of("a", "b", "c", "d")) {
+            assertThat(limiter.tryAcquire(key)).isTrue();
+        }
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(100));
+        assertThat(limiter.tryAcquire("d")).isTrue();
+
+        assertThat(limiter.tryAcquire("e")).isTrue();
+
+        assertThat(limiter.evictionCount()).isEqualTo(3);
+        assertThat(limiter.size()).isEqualTo(2);
+        assertThat(limiter.tryAcquire("d")).isFalse();
+    }
+
+    @Test
+    public void testFloodOfNewKeysDoesNotResetAThrottledKey() {
+        TokenBucketLimiter<String> limiter = newLimiter(10, 1, 2);
+        assertThat(limiter.tryAcquire("abuser")).isTrue();
+        assertThat(limiter.tryAcquire("abuser")).isFalse();
+
+        int allowed = 0;
+        for (int i = 0; i < 1_000; i++) {
+            if (limiter.tryAcquire("garbage-" + i)) {
+                allowed++;
+            }
+        }
+
+        assertThat(limiter.size()).isEqualTo(2);
+        assertThat(limiter.tryAcquire("abuser")).isFalse();
+        // One new key gets the free slot, one the token of the overflow bucket
+        assertThat(allowed).isEqualTo(2);
+    }
+
+    @Test
+    public void testConcurrentFloodOfNewKeysStaysBounded() throws Exception {
+        TokenBucketLimiter<String> limiter = TokenBucketLimiter.builder()
+                .rate(10, Duration.ofSeconds(1))
+                .maximumSize(1_000)
+                .stripes(16)
+                .build();
+        CountDownLatch start = new CountDownLatch(1);
+
+        List<Future<?>> results = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            int thread = t;
+            results.add(clients.submit(() -> {
+                start.await();
+                for (int i = 0; i < 50_000; i++) {
+                    limiter.tryAcquire(thread + "-" + i);
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> result : results) {
+            result.get();
+        }
+
+        // A stripe can go over its share by the requests adding a key at the same time
+        assertThat(limiter.size()).isLessThanOrEqualTo(1_000 + 16 * THREADS);
+        assertThat(limiter.rejectedCount()).isGreaterThan(0);
+    }
+
+    @Test
+    public void testRateIsMandatory() {
+        assertThatThrownBy(() -> TokenBucketLimiter.builder().burst(10).build())
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private TokenBucketLimiter<String> newLimiter(int permitsPerSecond, int burst, long maximumSize) {
+        return TokenBucketLimiter.builder()
+                .rate(permitsPerSecond, Duration.ofSeconds(1))
+                .burst(burst)
+                .maximumSize(maximumSize)
+                .stripes(1)
+                .ticker(now::get)
+                .build();
+    }
+}
@@ -0,0 +1,54 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.examples.commons.threads;
+
+import org.junit.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.Assume.assumeTrue;
+
+public class VirtualThreadsTomcatCustomizerTest {
+
+    @Test
+    public void testTasksRunOnVirtualThreads() throws Exception {
+        assumeTrue("Virtual threads need Java 21", Runtime.version().feature() >= 21);
+
+        ExecutorService executor = VirtualThreadsTomcatCustomizer.newVirtualThreadPerTaskExecutor();
+        Object isVirtual = executor.submit(() -> Thread.class.getMethod("isVirtual").invoke(Thread.currentThread()))
+                .get(5, TimeUnit.SECONDS);
+        executor.shutdown();
+
+        assertThat(isVirtual).isEqualTo(true);
+    }
+
+    @Test
+    public void testOlderJvmIsReportedClearly() {
+        assumeTrue(Runtime.version().feature() < 21);
+
+        assertThatThrownBy(VirtualThreadsTomcatCustomizer::newVirtualThreadPerTaskExecutor)
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("Java 21");
+    }
+}
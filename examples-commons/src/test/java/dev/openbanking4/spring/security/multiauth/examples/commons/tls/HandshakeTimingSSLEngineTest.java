@@ -0,0 +1,175 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.examples.commons.tls;
+
+import org.junit.Test;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Handshakes between in-memory engines: whether a handshake was resumed is read from the server hello, whatever the
+ * clocks say
+ */
+public class HandshakeTimingSSLEngineTest {
+
+    private static final Path SERVER_KEYSTORE = Paths.get("..", "certificates", "server", "keystore.jks");
+    private static final char[] PASSWORD = "changeit".toCharArray();
+
+    private final TlsHandshakeMetrics metrics = new TlsHandshakeMetrics();
+
+    @Test
+    public void testTls13SessionTicketIsAResumedHandshake() throws Exception {
+        SSLContext server = serverContext();
+        SSLContext client = clientContext();
+
+        handshake(client, server, "TLSv1.3");
+        handshake(client, server, "TLSv1.3");
+        handshake(client, server, "TLSv1.3");
+
+        assertThat(metrics.getFullHandshakeCount()).isEqualTo(1);
+        assertThat(metrics.getResumedHandshakeCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void testTls12SessionIsAResumedHandshake() throws Exception {
+        SSLContext server = serverContext();
+        SSLContext client = clientContext();
+
+        handshake(client, server, "TLSv1.2");
+        handshake(client, server, "TLSv1.2");
+
+        assertThat(metrics.getFullHandshakeCount()).isEqualTo(1);
+        assertThat(metrics.getResumedHandshakeCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testNewClientsAreFullHandshakes() throws Exception {
+        SSLContext server = serverContext();
+
+        handshake(clientContext(), server, "TLSv1.3");
+        handshake(clientContext(), server, "TLSv1.3");
+        handshake(clientContext(), server, "TLSv1.2");
+
+        assertThat(metrics.getFullHandshakeCount()).isEqualTo(3);
+        assertThat(metrics.getResumedHandshakeCount()).isEqualTo(0);
+    }
+
+    private void handshake(SSLContext clientContext, SSLContext serverContext, String protocol) throws Exception {
+        SSLEngine client = clientContext.createSSLEngine("localhost", 443);
+        client.setUseClientMode(true);
+        client.setEnabledProtocols(new String[] {protocol});
+        SSLEngine server = new HandshakeTimingSSLEngine(serverContext.createSSLEngine(), metrics);
+        server.setUseClientMode(false);
+
+        ByteBuffer toServer = ByteBuffer.allocate(client.getSession().getPacketBufferSize());
+        ByteBuffer toClient = ByteBuffer.allocate(server.getSession().getPacketBufferSize());
+        client.beginHandshake();
+        server.beginHandshake();
+        // A few more rounds once both are done, for the session ticket of TLS 1.3 sent after the handshake
+        int extraRounds = 3;
+        for (int round = 0; round < 100 && extraRounds > 0; round++) {
+            pump(client, toServer, server);
+            pump(server, toClient, client);
+            if (client.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING
+                    && server.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING) {
+                extraRounds--;
+            }
+        }
+        assertThat(extraRounds).isZero();
+    }
+
+    /**
+     * Wraps what the sender has to send, and unwraps it in the receiver
+     */
+    private static void pump(SSLEngine sender, ByteBuffer network, SSLEngine receiver) throws Exception {
+        ByteBuffer empty = ByteBuffer.allocate(0);
+        ByteBuffer application = ByteBuffer.allocate(receiver.getSession().getApplicationBufferSize());
+        SSLEngineResult result;
+        do {
+            result = sender.wrap(empty, network);
+            runDelegatedTasks(sender);
+        } while (result.bytesProduced() > 0 && result.getStatus() == SSLEngineResult.Status.OK);
+        network.flip();
+        while (network.hasRemaining()) {
+            result = receiver.unwrap(network, application);
+            runDelegatedTasks(receiver);
+            if (result.bytesConsumed() == 0) {
+                break;
+            }
+        }
+        network.compact();
+    }
+
+    private static void runDelegatedTasks(SSLEngine engine) {
+        Runnable task;
+        while ((task = engine.getDelegatedTask()) != null) {
+            task.run();
+        }
+    }
+
+    private static SSLContext serverContext() throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("JKS");
+        try (InputStream in = Files.newInputStream(SERVER_KEYSTORE)) {
+            keyStore.load(in, PASSWORD);
+        }
+        KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagerFactory.init(keyStore, PASSWORD);
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(keyManagerFactory.getKeyManagers(), null, null);
+        return sslContext;
+    }
+
+    /**
+     * The server certificate of the examples may be expired, the clients trust it anyway
+     */
+    private static SSLContext clientContext() throws Exception {
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(null, new TrustManager[] {new X509TrustManager() {
+            @Override
+            public void checkClientTrusted(X509Certificate[] chain, String authType) {
+            }
+
+            @Override
+            public void checkServerTrusted(X509Certificate[] chain, String authType) {
+            }
+
+            @Override
+            public X509Certificate[] getAcceptedIssuers() {
+                return new X509Certificate[0];
+            }
+        }}, null);
+        return sslContext;
+    }
+}
@@ -0,0 +1,243 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.examples.commons.tls;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.server.Ssl;
+import org.springframework.boot.web.server.WebServer;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Full and resumed handshakes of a Tomcat configured like example2, with clients issued by the example CA
+ */
+public class TlsTuningCustomizerTest {
+
+    private static final Path CERTIFICATES = Paths.get("..", "certificates");
+    private static final char[] PASSWORD = "changeit".toCharArray();
+    private static final String CA_ALIAS = "spring-security-multi-auth-example-ca";
+
+    private final TlsHandshakeMetrics metrics = TlsHandshakeMetrics.get();
+    private WebServer server;
+
+    @Before
+    public void setUp() {
+        Ssl ssl = new Ssl();
+        ssl.setClientAuth(Ssl.ClientAuth.WANT);
+        ssl.setKeyStore(CERTIFICATES.resolve("server").resolve("keystore.jks").toUri().toString());
+        ssl.setKeyStorePassword("changeit");
+        ssl.setKeyAlias("server.openbanking4.dev");
+        ssl.setTrustStore(CERTIFICATES.resolve("global").resolve("truststore.jks").toUri().toString());
+        ssl.setTrustStorePassword("changeit");
+
+        TomcatServletWebServerFactory factory = new TomcatServletWebServerFactory(0);
+        factory.setSsl(ssl);
+        new TlsTuningCustomizer(TlsTuningCustomizer.Engine.JSSE, 1000, Duration.ofMinutes(5), true)
+                .customize(factory);
+        server = factory.getWebServer(servletContext -> servletContext.addServlet("ok", new HttpServlet() {
+            @Override
+            protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+                response.getWriter().write("ok");
+            }
+        }).addMapping("/"));
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Test
+    public void testClientReusingItsSessionResumesIt() throws Exception {
+        SSLContext client = clientContext(issuedByExampleCa("tls-client"));
+        long full = metrics.getFullHandshakeCount();
+        long resumed = metrics.getResumedHandshakeCount();
+
+        for (int i = 0; i < 10; i++) {
+            get(client);
+        }
+
+        assertThat(metrics.getFullHandshakeCount() - full).isEqualTo(1);
+        assertThat(metrics.getResumedHandshakeCount() - resumed).isEqualTo(9);
+    }
+
+    @Test
+    public void testNewClientSessionIsAFullHandshake() throws Exception {
+        KeyStore keyStore = issuedByExampleCa("tls-client");
+        long full = metrics.getFullHandshakeCount();
+        long resumed = metrics.getResumedHandshakeCount();
+
+        for (int i = 0; i < 10; i++) {
+            get(clientContext(keyStore));
+        }
+
+        assertThat(metrics.getFullHandshakeCount() - full).isEqualTo(10);
+        assertThat(metrics.getResumedHandshakeCount() - resumed).isEqualTo(0);
+    }
+
+    @Test
+    public void testHandshakesAreTimedByType() throws Exception {
+        KeyStore keyStore = issuedByExampleCa("tls-client");
+        SSLContext reused = clientContext(keyStore);
+        get(reused);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        metrics.bindTo(registry);
+        long fullCount = metrics.getFullHandshakeCount();
+        long fullNanos = metrics.getFullHandshakeNanos();
+        long resumedCount = metrics.getResumedHandshakeCount();
+        long resumedNanos = metrics.getResumedHandshakeNanos();
+
+        for (int i = 0; i < 10; i++) {
+            get(reused);
+            get(clientContext(keyStore));
+        }
+
+        // Only the counts: how long a handshake takes depends on the machine, see the README to compare them
+        assertThat(metrics.getFullHandshakeCount() - fullCount).isEqualTo(10);
+        assertThat(metrics.getResumedHandshakeCount() - resumedCount).isEqualTo(10);
+        assertThat(metrics.getFullHandshakeNanos()).isGreaterThan(fullNanos);
+        assertThat(metrics.getResumedHandshakeNanos()).isGreaterThan(resumedNanos);
+        assertThat(registry.get("tls.handshakes").tag("type", "resumed").functionTimer().count())
+                .isEqualTo(metrics.getResumedHandshakeCount());
+        assertThat(registry.get("tls.handshakes").tag("type", "full").functionTimer().count())
+                .isEqualTo(metrics.getFullHandshakeCount());
+    }
+
+    @Test
+    public void testClientWithoutCommonCipherSuiteIsAFailedHandshake() throws Exception {
+        SSLContext client = clientContext(issuedByExampleCa("tls-client"));
+        long failed = metrics.getFailedHandshakeCount();
+
+        // The server key is an RSA key, it can't do ECDSA
+        assertThatThrownBy(() -> get(client, "TLS_ECDHE_ECDSA_WITH_AES_128_GCM_SHA256"))
+                .isInstanceOf(SSLException.class);
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (metrics.getFailedHandshakeCount() == failed && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(metrics.getFailedHandshakeCount() - failed).isEqualTo(1);
+    }
+
+    private void get(SSLContext client, String... cipherSuites) throws IOException {
+        try (SSLSocket socket = (SSLSocket) client.getSocketFactory().createSocket("localhost", server.getPort())) {
+            if (cipherSuites.length > 0) {
+                socket.setEnabledProtocols(new String[] {"TLSv1.2"});
+                socket.setEnabledCipherSuites(cipherSuites);
+            }
+            OutputStream out = socket.getOutputStream();
+            out.write("GET / HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            String response = new String(socket.getInputStream().readAllBytes(), StandardCharsets.US_ASCII);
+            assertThat(response).startsWith("HTTP/1.1 200").endsWith("ok");
+        }
+    }
+
+    /**
+     * The server certificate of the examples may be expired, the clients trust it anyway
+     */
+    private static SSLContext clientContext(KeyStore keyStore) throws Exception {
+        KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagerFactory.init(keyStore, PASSWORD);
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(keyManagerFactory.getKeyManagers(), new TrustManager[] {new X509TrustManager() {
+            @Override
+            public void checkClientTrusted(X509Certificate[] chain, String authType) {
+            }
+
+            @Override
+            public void checkServerTrusted(X509Certificate[] chain, String authType) {
+            }
+
+            @Override
+            public X509Certificate[] getAcceptedIssuers() {
+                return new X509Certificate[0];
+            }
+        }}, null);
+        return sslContext;
+    }
+
+    /**
+     * A client certificate valid for the next hour, issued with the key of the example CA
+     */
+    private static KeyStore issuedByExampleCa(String cn) throws Exception {
+        KeyStore ca = KeyStore.getInstance("PKCS12");
+        try (InputStream in = Files.newInputStream(CERTIFICATES.resolve("global").resolve("ca.p12"))) {
+            ca.load(in, PASSWORD);
+        }
+        X509Certificate caCertificate = (X509Certificate) ca.getCertificate(CA_ALIAS);
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        KeyPair keyPair = generator.generateKeyPair();
+        Instant now = Instant.now();
+        X509Certificate certificate = new JcaX509CertificateConverter().getCertificate(
+                new JcaX509v3CertificateBuilder(X500Name.getInstance(caCertificate.getSubjectX500Principal().getEncoded()),
+                        BigInteger.valueOf(now.toEpochMilli()), Date.from(now.minus(Duration.ofMinutes(1))),
+                        Date.from(now.plus(Duration.ofHours(1))),
+                        new X500Name("CN=" + cn + ",OU=Spring-security-multi-auth-example,O=OpenBanking4.dev"),
+                        keyPair.getPublic())
+                        .build(new JcaContentSignerBuilder("SHA256withRSA")
+                                .build((PrivateKey) ca.getKey(CA_ALIAS, PASSWORD))));
+
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        keyStore.load(null, null);
+        keyStore.setKeyEntry(cn, keyPair.getPrivate(), PASSWORD, new Certificate[] {certificate, caCertificate});
+        return keyStore;
+    }
+}
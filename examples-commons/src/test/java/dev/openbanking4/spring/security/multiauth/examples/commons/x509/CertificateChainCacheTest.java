@@ -0,0 +1,112 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.examples.commons.x509;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Test;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class CertificateChainCacheTest {
+
+    private final AtomicInteger usernameExtractions = new AtomicInteger();
+
+    private final CertificateChainCache cache = new CertificateChainCache(100, Duration.ofHours(1), certificate -> {
+        usernameExtractions.incrementAndGet();
+        return certificate.getSubjectX500Principal().getName();
+    });
+
+    @Test
+    public void testChainIsParsedOncePerHeaderValue() throws Exception {
+        String pem = TestCertificates.toPem(TestCertificates.selfSigned("alice", Duration.ofDays(1)));
+
+        X509Certificate[] first = cache.parse(pem);
+        X509Certificate[] second = cache.parse(new String(pem));
+
+        assertThat(second).isSameAs(first);
+        assertThat(cache.missCount()).isEqualTo(1);
+        assertThat(cache.hitCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testUrlEncodedHeader() throws Exception {
+        X509Certificate certificate = TestCertificates.selfSigned("alice", Duration.ofDays(1));
+        String pem = TestCertificates.toPem(certificate);
+
+        // Like nginx $ssl_client_escaped_cert, spaces are percent-encoded
+        X509Certificate[] chain = cache.parse(URLEncoder.encode(pem, StandardCharsets.UTF_8).replace("+", "%20"));
+
+        assertThat(chain).containsExactly(certificate);
+    }
+
+    @Test
+    public void testUsernameIsExtractedOncePerCertificate() throws Exception {
+        String pem = TestCertificates.toPem(TestCertificates.selfSigned("alice", Duration.ofDays(1)));
+
+        for (int i = 0; i < 10; i++) {
+            assertThat(cache.username(cache.parse(pem))).contains("CN=alice");
+        }
+
+        assertThat(usernameExtractions.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void testExpiredCertificateIsNotKept() throws Exception {
+        String pem = TestCertificates.toPem(TestCertificates.selfSigned("alice", Duration.ofMinutes(-1)));
+
+        cache.parse(pem);
+        cache.parse(pem);
+
+        assertThat(cache.missCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void testHeaderWithoutCertificateIsRejected() {
+        for (String headerValue : new String[] {"", "  ", "-----BEGIN PUBLIC KEY-----\nAAAA\n-----END PUBLIC KEY-----\n"}) {
+            assertThatThrownBy(() -> cache.parse(headerValue)).isInstanceOf(CertificateException.class);
+        }
+        assertThatThrownBy(() -> cache.parse("")).isInstanceOf(CertificateException.class);
+
+        assertThat(cache.hitCount()).isZero();
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        cache.bindTo(registry);
+        String pem = TestCertificates.toPem(TestCertificates.selfSigned("alice", Duration.ofDays(1)));
+
+        for (int i = 0; i < 4; i++) {
+            cache.parse(pem);
+        }
+
+        assertThat(registry.get("x509.chain.cache.hit.ratio").gauge().value()).isEqualTo(0.75);
+        assertThat(registry.get("x509.chain.parse").functionTimer().count()).isEqualTo(1);
+    }
+}
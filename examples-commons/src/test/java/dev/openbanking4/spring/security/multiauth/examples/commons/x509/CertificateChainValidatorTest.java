@@ -0,0 +1,240 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.examples.commons.x509;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.KeyStore;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class CertificateChainValidatorTest {
+
+    private KeyStore trustStore;
+    private Path crlFile;
+
+    @Before
+    public void setUp() throws Exception {
+        trustStore = TestCertificates.load(TestCertificates.CERTIFICATES.resolve("global").resolve("truststore.jks"));
+        crlFile = Files.createTempFile("example-ca", ".crl");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(crlFile);
+    }
+
+    @Test
+    public void testChainIssuedByTrustedCaIsValid() throws Exception {
+        X509Certificate client = TestCertificates.issuedByExampleCa("client", Duration.ofHours(1));
+
+        try (CertificateChainValidator validator = newValidator(List.of()).start()) {
+            assertThat(validator.isValid(new X509Certificate[] {client})).isTrue();
+            // The example CA is expired, but the validity of a trust anchor is not checked
+            assertThat(validator.isValid(new X509Certificate[] {client, TestCertificates.exampleCa()})).isTrue();
+        }
+    }
+
+    @Test
+    public void testSelfSignedExpiredCertificateOfAliceIsInvalid() throws Exception {
+        KeyStore alice = TestCertificates.load(TestCertificates.CERTIFICATES.resolve("clients").resolve("b-alice.p12"));
+        X509Certificate aliceCertificate = (X509Certificate) alice.getCertificate(alice.aliases().nextElement());
+
+        try (CertificateChainValidator validator = newValidator(List.of()).start()) {
+            assertThat(validator.isValid(new X509Certificate[] {aliceCertificate})).isFalse();
+        }
+    }
+
+    @Test
+    public void testUntrustedOrExpiredCertificatesAreInvalid() throws Exception {
+        try (CertificateChainValidator validator = newValidator(List.of()).start()) {
+            assertThat(validator.isValid(new X509Certificate[] {
+                    TestCertificates.selfSigned("untrusted", Duration.ofHours(1))})).isFalse();
+            assertThat(validator.isValid(new X509Certificate[] {
+                    TestCertificates.issuedByExampleCa("expired", Duration.ofMinutes(-1))})).isFalse();
+            assertThat(validator.isValid(new X509Certificate[0])).isFalse();
+            assertThat(validator.isValid(null)).isFalse();
+        }
+    }
+
+    @Test
+    public void testOutcomesAreCachedPerChainFingerprint() throws Exception {
+        X509Certificate client = TestCertificates.issuedByExampleCa("client", Duration.ofHours(1));
+        X509Certificate untrusted = TestCertificates.selfSigned("untrusted", Duration.ofHours(1));
+        X509Certificate sameClient = reparse(client);
+
+        try (CertificateChainValidator validator = newValidator(List.of()).start()) {
+            for (int i = 0; i < 10; i++) {
+                assertThat(validator.isValid(new X509Certificate[] {client})).isTrue();
+                assertThat(validator.isValid(new X509Certificate[] {untrusted})).isFalse();
+            }
+            assertThat(validator.isValid(new X509Certificate[] {sameClient})).isTrue();
+
+            assertThat(validator.missCount()).isEqualTo(2);
+            assertThat(validator.hitCount()).isEqualTo(19);
+        }
+    }
+
+    @Test
+    public void testInvalidChainsAreKeptForTheNegativeTtl() throws Exception {
+        X509Certificate[] untrusted = {TestCertificates.selfSigned("untrusted", Duration.ofHours(1))};
+
+        try (CertificateChainValidator validator = newValidatorBuilder(List.of())
+                .negativeTtl(Duration.ofMillis(100))
+                .build()
+                .start()) {
+            assertThat(validator.isValid(untrusted)).isFalse();
+            assertThat(validator.isValid(untrusted)).isFalse();
+            assertThat(validator.hitCount()).isEqualTo(1);
+
+            Thread.sleep(200);
+            assertThat(validator.isValid(untrusted)).isFalse();
+            assertThat(validator.missCount()).isEqualTo(2);
+        }
+    }
+
+    @Test
+    public void testChainsNotYetValidAreNotKept() throws Exception {
+        Instant now = Instant.now();
+        X509Certificate[] notYetValid = {TestCertificates.issuedByExampleCa("client", now.plus(Duration.ofHours(1)),
+                now.plus(Duration.ofDays(1)))};
+
+        try (CertificateChainValidator validator = newValidator(List.of()).start()) {
+            assertThat(validator.isValid(notYetValid)).isFalse();
+            assertThat(validator.isValid(notYetValid)).isFalse();
+
+            assertThat(validator.missCount()).isEqualTo(2);
+        }
+    }
+
+    @Test
+    public void testRevokedCertificateIsInvalidOnceTheCrlIsReloaded() throws Exception {
+        X509Certificate client = TestCertificates.issuedByExampleCa("client", Duration.ofHours(1));
+        X509Certificate other = TestCertificates.issuedByExampleCa("other", Duration.ofHours(1));
+        writeCrl(TestCertificates.exampleCaCrl(), 1);
+
+        try (CertificateChainValidator validator = newValidator(List.of(crlFile)).start()) {
+            assertThat(validator.isValid(new X509Certificate[] {client})).isTrue();
+            assertThat(validator.reloadCrlsIfChanged()).isFalse();
+
+            writeCrl(TestCertificates.exampleCaCrl(client), 2);
+            assertThat(validator.reloadCrlsIfChanged()).isTrue();
+
+            assertThat(validator.isValid(new X509Certificate[] {client})).isFalse();
+            assertThat(validator.isValid(new X509Certificate[] {other})).isTrue();
+        }
+    }
+
+    @Test
+    public void testCrlVersionChangesWithTheCrls() throws Exception {
+        writeCrl(TestCertificates.exampleCaCrl(), 1);
+
+        try (CertificateChainValidator validator = newValidator(List.of(crlFile)).start();
+             CertificateChainValidator replica = newValidator(List.of(crlFile)).start()) {
+            String version = validator.getCrlVersion();
+            assertThat(replica.getCrlVersion()).isEqualTo(version);
+
+            writeCrl(TestCertificates.exampleCaCrl(TestCertificates.issuedByExampleCa("client", Duration.ofHours(1))), 2);
+            assertThat(validator.reloadCrlsIfChanged()).isTrue();
+
+            assertThat(validator.getCrlVersion()).isNotEqualTo(version);
+        }
+    }
+
+    @Test
+    public void testCrlsAreReloadedInTheBackground() throws Exception {
+        X509Certificate client = TestCertificates.issuedByExampleCa("client", Duration.ofHours(1));
+        writeCrl(TestCertificates.exampleCaCrl(), 1);
+
+        try (CertificateChainValidator validator = newValidatorBuilder(List.of(crlFile))
+                .crlReloadInterval(Duration.ofMillis(50))
+                .build()
+                .start()) {
+            assertThat(validator.isValid(new X509Certificate[] {client})).isTrue();
+
+            writeCrl(TestCertificates.exampleCaCrl(client), 2);
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (validator.getCrlLoadCount() < 2 && System.nanoTime() < deadline) {
+                Thread.sleep(20);
+            }
+
+            assertThat(validator.isValid(new X509Certificate[] {client})).isFalse();
+        }
+    }
+
+    @Test
+    public void testUnreadableCrlKeepsTheCurrentOnes() throws Exception {
+        X509Certificate client = TestCertificates.issuedByExampleCa("client", Duration.ofHours(1));
+        writeCrl(TestCertificates.exampleCaCrl(client), 1);
+
+        try (CertificateChainValidator validator = newValidator(List.of(crlFile)).start()) {
+            Files.write(crlFile, new byte[] {1, 2, 3});
+            Files.setLastModifiedTime(crlFile, FileTime.fromMillis(2000));
+
+            assertThat(validator.reloadCrlsIfChanged()).isFalse();
+            assertThat(validator.isValid(new X509Certificate[] {client})).isFalse();
+        }
+    }
+
+    @Test
+    public void testTrustStoreIsMandatory() {
+        assertThatThrownBy(() -> CertificateChainValidator.builder().build())
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private CertificateChainValidator newValidator(List<Path> crlFiles) throws Exception {
+        return newValidatorBuilder(crlFiles).build();
+    }
+
+    private CertificateChainValidator.Builder newValidatorBuilder(List<Path> crlFiles) throws Exception {
+        return CertificateChainValidator.builder()
+                .trustStore(trustStore)
+                .crlFiles(crlFiles)
+                .crlReloadInterval(Duration.ofMinutes(5));
+    }
+
+    /**
+     * The modification time is set, as two writes can happen within the resolution of the file system clock
+     */
+    private void writeCrl(X509CRL crl, long version) throws Exception {
+        Files.write(crlFile, crl.getEncoded());
+        Files.setLastModifiedTime(crlFile, FileTime.fromMillis(version * 1000));
+    }
+
+    private static X509Certificate reparse(X509Certificate certificate) throws Exception {
+        return (X509Certificate) CertificateFactory.getInstance("X.509")
+                .generateCertificate(new ByteArrayInputStream(certificate.getEncoded()));
+    }
+}
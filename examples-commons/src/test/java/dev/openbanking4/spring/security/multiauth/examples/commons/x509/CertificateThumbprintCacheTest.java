@@ -0,0 +1,88 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.examples.commons.x509;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CertificateThumbprintCacheTest {
+
+    private static final String ALICE_X5T_S256 = "3QIdpHeZFWm36ycY9hdB9_vdCyvq0lZqk9I-l8Zus3Y";
+
+    private String aliceCertificate = "-----BEGIN CERTIFICATE-----\n" +
+            "MIIDvzCCAqegAwIBAgIEcBt91TANBgkqhkiG9w0BAQsFADCBhjELMAkGA1UEBhMC\n" +
+            "R0IxDTALBgNVBAgTBEF2b24xEDAOBgNVBAcTB0JyaXN0b2wxGTAXBgNVBAoTEE9w\n" +
+            "ZW5CYW5raW5nNC5kZXYxKzApBgNVBAsTIlNwcmluZy1zZWN1cml0eS1tdWx0aS1h\n" +
+            "dXRoLWV4YW1wbGUxDjAMBgNVBAMTBWFsaWNlMB4XDTE5MTIwMTE1NTIxM1oXDTIy\n" +
+            "MDMwNTE1NTIxM1owgYYxCzAJBgNVBAYTAkdCMQ0wCwYDVQQIEwRBdm9uMRAwDgYD\n" +
+            "VQQHEwdCcmlzdG9sMRkwFwYDVQQKExBPcGVuQmFua2luZzQuZGV2MSswKQYDVQQL\n" +
+            "EyJTcHJpbmctc2VjdXJpdHktbXVsdGktYXV0aC1leGFtcGxlMQ4wDAYDVQQDEwVh\n" +
+            "bGljZTCCASIwDQYJKoZIhvcNAQEBBQADggEPADCCAQoCggEBALZ/4eeNOvY8PFkr\n" +
+            "2LgrAB9pU0W3MtPXBuOpsKtPLpByWwxN8Ki5fRktzpCxMDtT7QJ9A0TrWuZ2J5R0\n" +
+            "44iILfRLz+SfcClnimM5nH3iSd4DiBt5ve/VwdlNqzoqf/xCCBC4i4ygES9LLr9G\n" +
+            "Ia+04Bkij6lFjqnKLumXg1U+g/TZnUVOlTu7HTYEBaFtHJCl44bk2zPGCsdkbKGy\n" +
+            "u08txPv50aCcgwb0VMA+IHY5KF2xbXh4UeOq7gRJkGTZNPJft3Ow8ROWz0VdvdGu\n" +
+            "anznaamUxiAawQrujRxUXgQUQlC2EpAruknsP9Hg5198BA1sgpMn9Jwgg1TOLuuW\n" +
+            "lYjeptkCAwEAAaMzMDEwHQYDVR0OBBYEFEgjYMV2dhr9Tn/U9zjvxGh7gNuPMBAG\n" +
+            "A1UdEQQJMAeCBWFsaWNlMA0GCSqGSIb3DQEBCwUAA4IBAQAjrLOmdYV0bJgYVx8A\n" +
+            "n/wXl2+1Skq7rrqAufxYJRW2cSa6RiY11S+QOIEPC052bQdZo26BSUAPxxfVeNR0\n" +
+            "GPoIFl1BECdE/GHZdKtkfOqAvBJqSyNuVRdYC6ePhrEI/9Q3zIW2LDqhRfJuPgdV\n" +
+            "znCG3xw+LgZeb4Y1+7Lvd6PGxJOsdvP1mRInoH36fI+A/+lRfTsdb35QuRYX8Xdk\n" +
+            "VnFs9ugu9adXM4W5NHbQZXzeM76MARfusezpdF011dFX3C45jArRUwjXwt/w8G7/\n" +
+            "ps1KMmHkhQ1MzxLRAiqtTWkWqnwxUMI8vxgLpyLLZNFMuJPESuhs3QOjqAj0A31v\n" +
+            "SiCd\n" +
+            "-----END CERTIFICATE-----\n";
+
+    @Test
+    public void testThumbprintIsTheBase64UrlSha256() throws Exception {
+        CertificateThumbprintCache cache = new CertificateThumbprintCache(100);
+
+        byte[] thumbprint = cache.sha256Thumbprint(parse(aliceCertificate));
+
+        assertThat(CertificateThumbprintCache.matches(ALICE_X5T_S256, thumbprint)).isTrue();
+        // The SHA-1 hex thumbprint is not what RFC 8705 defines for 'x5t#S256'
+        assertThat(CertificateThumbprintCache.matches("c1c4f050f1e1bedec987ceb4ab98e2c83e6653f5", thumbprint)).isFalse();
+    }
+
+    @Test
+    public void testThumbprintIsComputedOncePerCertificate() throws Exception {
+        CertificateThumbprintCache cache = new CertificateThumbprintCache(100);
+
+        for (int i = 0; i < 10; i++) {
+            // A new certificate instance for each request, like when it is parsed from the header
+            cache.sha256Thumbprint(parse(aliceCertificate));
+        }
+
+        assertThat(cache.missCount()).isEqualTo(1);
+        assertThat(cache.hitCount()).isEqualTo(9);
+    }
+
+    private static X509Certificate parse(String pem) throws Exception {
+        return (X509Certificate) CertificateFactory.getInstance("X.509")
+                .generateCertificate(new ByteArrayInputStream(pem.getBytes(StandardCharsets.US_ASCII)));
+    }
+}
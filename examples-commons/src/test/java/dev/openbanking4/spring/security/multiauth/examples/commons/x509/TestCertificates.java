@@ -0,0 +1,138 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.examples.commons.x509;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.cert.X509v2CRLBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509CRLConverter;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.openssl.jcajce.JcaPEMWriter;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Self-signed certificates for the tests, as the example certificates may be expired, and certificates issued with
+ * the key of the example CA of the 'certificates' folder
+ */
+final class TestCertificates {
+
+    static final Path CERTIFICATES = Paths.get("..", "certificates");
+
+    private static final char[] PASSWORD = "changeit".toCharArray();
+    private static final String CA_ALIAS = "spring-security-multi-auth-example-ca";
+    private static final KeyPair KEY_PAIR = generateKeyPair();
+    private static final AtomicLong SERIAL_NUMBERS = new AtomicLong(System.currentTimeMillis() << 8);
+
+    private TestCertificates() {
+    }
+
+    static X509Certificate selfSigned(String cn, Duration validity) throws Exception {
+        X500Name name = new X500Name("CN=" + cn + ",OU=Spring-security-multi-auth-example,O=OpenBanking4.dev");
+        Instant now = Instant.now();
+        JcaX509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(name,
+                BigInteger.valueOf(now.toEpochMilli()), Date.from(now.minus(Duration.ofMinutes(1))),
+                Date.from(now.plus(validity)), name, KEY_PAIR.getPublic());
+        return new JcaX509CertificateConverter().getCertificate(
+                builder.build(new JcaContentSignerBuilder("SHA256withRSA").build(KEY_PAIR.getPrivate())));
+    }
+
+    static X509Certificate issuedByExampleCa(String cn, Duration validity) throws Exception {
+        Instant now = Instant.now();
+        return issuedByExampleCa(cn, now.minus(Duration.ofMinutes(1)), now.plus(validity));
+    }
+
+    static X509Certificate issuedByExampleCa(String cn, Instant notBefore, Instant notAfter) throws Exception {
+        KeyStore ca = load(CERTIFICATES.resolve("global").resolve("ca.p12"));
+        X509Certificate caCertificate = (X509Certificate) ca.getCertificate(CA_ALIAS);
+        JcaX509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(caCertificate,
+                BigInteger.valueOf(SERIAL_NUMBERS.incrementAndGet()), Date.from(notBefore), Date.from(notAfter),
+                new X500Name("CN=" + cn + ",OU=Spring-security-multi-auth-example,O=OpenBanking4.dev"),
+                KEY_PAIR.getPublic());
+        return new JcaX509CertificateConverter().getCertificate(
+                builder.build(new JcaContentSignerBuilder("SHA256withRSA").build((PrivateKey) ca.getKey(CA_ALIAS, PASSWORD))));
+    }
+
+    static X509Certificate exampleCa() throws Exception {
+        return (X509Certificate) load(CERTIFICATES.resolve("global").resolve("ca.p12")).getCertificate(CA_ALIAS);
+    }
+
+    /**
+     * A CRL of the example CA, valid for a day
+     */
+    static X509CRL exampleCaCrl(X509Certificate... revoked) throws Exception {
+        KeyStore ca = load(CERTIFICATES.resolve("global").resolve("ca.p12"));
+        X509Certificate caCertificate = (X509Certificate) ca.getCertificate(CA_ALIAS);
+        Instant now = Instant.now();
+        X509v2CRLBuilder builder = new X509v2CRLBuilder(
+                X500Name.getInstance(caCertificate.getSubjectX500Principal().getEncoded()),
+                Date.from(now.minus(Duration.ofMinutes(1))));
+        builder.setNextUpdate(Date.from(now.plus(Duration.ofDays(1))));
+        for (X509Certificate certificate : revoked) {
+            builder.addCRLEntry(certificate.getSerialNumber(), Date.from(now), CRLReason.keyCompromise);
+        }
+        return new JcaX509CRLConverter().getCRL(
+                builder.build(new JcaContentSignerBuilder("SHA256withRSA").build((PrivateKey) ca.getKey(CA_ALIAS, PASSWORD))));
+    }
+
+    static KeyStore load(Path keyStore) throws Exception {
+        KeyStore loaded = KeyStore.getInstance("PKCS12");
+        try (InputStream in = Files.newInputStream(keyStore)) {
+            loaded.load(in, PASSWORD);
+        }
+        return loaded;
+    }
+
+    static String toPem(X509Certificate certificate) throws Exception {
+        StringWriter pem = new StringWriter();
+        try (JcaPEMWriter writer = new JcaPEMWriter(pem)) {
+            writer.writeObject(certificate);
+        }
+        return pem.toString();
+    }
+
+    private static KeyPair generateKeyPair() {
+        try {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+            generator.initialize(2048);
+            return generator.generateKeyPair();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.examples.commons.x509;
+
+import com.nimbusds.jose.util.Base64URL;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.PlainJWT;
+import net.minidev.json.JSONObject;
+import org.junit.Test;
+import org.springframework.security.authentication.BadCredentialsException;
+
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThatCode;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class TokenBindingVerifierTest {
+
+    private final CertificateThumbprintCache thumbprintCache = new CertificateThumbprintCache(100);
+    private final TokenBindingVerifier verifier = new TokenBindingVerifier(thumbprintCache);
+
+    @Test
+    public void testTokenBoundToTheClientCertificate() throws Exception {
+        X509Certificate alice = TestCertificates.selfSigned("alice", Duration.ofDays(1));
+
+        PlainJWT accessToken = boundTo(thumbprint(alice));
+
+        assertThatCode(() -> verifier.verify(accessToken, new X509Certificate[] {alice})).doesNotThrowAnyException();
+    }
+
+    @Test
+    public void testTokenBoundToAnotherCertificate() throws Exception {
+        X509Certificate alice = TestCertificates.selfSigned("alice", Duration.ofDays(1));
+        X509Certificate bob = TestCertificates.selfSigned("bob", Duration.ofDays(1));
+
+        PlainJWT accessToken = boundTo(thumbprint(alice));
+
+        assertThatThrownBy(() -> verifier.verify(accessToken, new X509Certificate[] {bob}))
+                .isInstanceOf(BadCredentialsException.class);
+    }
+
+    @Test
+    public void testBoundTokenWithoutClientCertificate() throws Exception {
+        X509Certificate alice = TestCertificates.selfSigned("alice", Duration.ofDays(1));
+
+        PlainJWT accessToken = boundTo(thumbprint(alice));
+
+        assertThatThrownBy(() -> verifier.verify(accessToken, null))
+                .isInstanceOf(BadCredentialsException.class)
+                .hasMessageContaining("client cert");
+    }
+
+    @Test
+    public void testTokenWithoutCnfIsNotBound() {
+        PlainJWT accessToken = new PlainJWT(new JWTClaimsSet.Builder().claim("scope", List.of("accounts")).build());
+
+        assertThatCode(() -> verifier.verify(accessToken, null)).doesNotThrowAnyException();
+    }
+
+    @Test
+    public void testCnfWithoutThumbprintIsInvalid() {
+        PlainJWT accessToken = new PlainJWT(new JWTClaimsSet.Builder().claim("cnf", new JSONObject()).build());
+
+        assertThatThrownBy(() -> verifier.verify(accessToken, null))
+                .isInstanceOf(BadCredentialsException.class)
+                .hasMessageContaining("x5t#S256");
+    }
+
+    private String thumbprint(X509Certificate certificate) throws Exception {
+        return Base64URL.encode(thumbprintCache.sha256Thumbprint(certificate)).toString();
+    }
+
+    private static PlainJWT boundTo(String x5tS256) {
+        JSONObject cnf = new JSONObject();
+        cnf.put("x5t#S256", x5tS256);
+        return new PlainJWT(new JWTClaimsSet.Builder()
+                .claim("scope", List.of("accounts"))
+                .claim("cnf", cnf)
+                .build());
+    }
+}
@@ -0,0 +1,25 @@
+#!/usr/bin/env bash
+#
+# Compares the servlet examples (Tomcat) with the reactive example (Netty) at high concurrency, for each kind of
+# credential: throughput, p99 latency, errors and the peak number of threads of the app.
+#
+#   mvn clean install
+#   ./load-test/compare-servlet-and-reactive.sh
+#
+# See lib.sh for the settings.
+
+set -euo pipefail
+
+cd "$(dirname "$0")/.."
+source load-test/lib.sh
+
+print_header
+run example1 "$EXAMPLE1" 8443 anonymous
+run example3 "$EXAMPLE3" 10443 anonymous
+run example1 "$EXAMPLE1" 8443 cookie
+run example3 "$EXAMPLE3" 10443 cookie
+run example1 "$EXAMPLE1" 8443 api-key
+run example3 "$EXAMPLE3" 10443 api-key
+run example2 "$EXAMPLE2" 9443 cert-and-token
+run example3 "$EXAMPLE3" 10443 cert-and-token
+echo "The wrk reports and the logs of the apps are in $OUTPUT"
@@ -0,0 +1,26 @@
+#!/usr/bin/env bash
+#
+# Compares the servlet examples running on the Tomcat thread pool with the same examples running on virtual threads,
+# with a slow API key validator service (50ms by default): throughput, p99 latency, errors and the peak number of
+# threads of the app.
+#
+# The 'java' on the path must be Java 21 or later.
+#
+#   mvn clean install
+#   ./load-test/compare-virtual-threads.sh
+#
+# See lib.sh for the settings.
+
+set -euo pipefail
+
+cd "$(dirname "$0")/.."
+source load-test/lib.sh
+
+print_header
+run example1-platform "$EXAMPLE1" 8443 api-key
+run example1-virtual "$EXAMPLE1" 8443 api-key --virtual-threads.enabled=true
+run example1-platform "$EXAMPLE1" 8443 cookie
+run example1-virtual "$EXAMPLE1" 8443 cookie --virtual-threads.enabled=true
+run example2-platform "$EXAMPLE2" 9443 cert-and-token
+run example2-virtual "$EXAMPLE2" 9443 cert-and-token --virtual-threads.enabled=true
+echo "The wrk reports and the logs of the apps are in $OUTPUT"
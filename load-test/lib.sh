@@ -0,0 +1,91 @@
+#!/usr/bin/env bash
+#
+# Functions shared by the load test scripts. Requires wrk (https://github.com/wg/wrk) and Linux (the threads are read
+# from /proc).
+#
+# Settings, from the environment:
+#   CONNECTIONS      concurrent connections (default 1000)
+#   DURATION         duration of each run (default 30s)
+#   WRK_THREADS      wrk threads (default 4)
+#   API_KEY_LATENCY  latency of the mocked API key validator service (default 50ms)
+
+CONNECTIONS=${CONNECTIONS:-1000}
+DURATION=${DURATION:-30s}
+WRK_THREADS=${WRK_THREADS:-4}
+API_KEY_LATENCY=${API_KEY_LATENCY:-50ms}
+OUTPUT=load-test/target
+mkdir -p "$OUTPUT"
+
+EXAMPLE1=$(ls example1-cookie-and-api-token/target/spring-security-multi-auth-examples-example1-*-exec.jar | head -1)
+EXAMPLE2=$(ls example2-client-cert-and-access-token/target/spring-security-multi-auth-examples-example2-*-exec.jar | head -1)
+EXAMPLE3=$(ls example3-reactive/target/spring-security-multi-auth-examples-example3-*-exec.jar | head -1)
+
+# A client certificate issued by the example CA, with its bound access token, per connection
+WRK_CLIENTS="$OUTPUT/wrk-clients.txt"
+java -cp load-test/target/load-test.jar dev.openbanking4.spring.security.multiauth.loadtest.WrkClients \
+    certificates "$CONNECTIONS" "$WRK_CLIENTS"
+
+wait_for_app() {
+    local port=$1
+    for _ in $(seq 1 60); do
+        if curl -ksf "https://localhost:$port/whoAmI" > /dev/null; then
+            return 0
+        fi
+        sleep 1
+    done
+    echo "The app on port $port didn't start" >&2
+    return 1
+}
+
+sample_threads() {
+    local pid=$1 max=0 threads
+    while kill -0 "$pid" 2> /dev/null; do
+        threads=$(awk '/^Threads:/ { print $2 }' "/proc/$pid/status" 2> /dev/null || echo 0)
+        if [ "${threads:-0}" -gt "$max" ]; then
+            max=$threads
+            echo "$max" > "$OUTPUT/max-threads"
+        fi
+        sleep 0.5
+    done
+}
+
+print_header() {
+    echo "$CONNECTIONS connections for $DURATION, API key validator latency $API_KEY_LATENCY"
+    printf "%-16s %-20s %12s %10s %8s %8s\n" "scenario" "app" "requests/s" "p99" "errors" "threads"
+}
+
+# run <label> <jar> <port> <scenario> [app arguments...]
+run() {
+    local label=$1 jar=$2 port=$3 scenario=$4
+    shift 4
+    local report="$OUTPUT/$label-$scenario.txt"
+
+    # wrk replays the same credentials as fast as it can, from one address: the rate limits would reject them
+    java -jar "$jar" --api-key.simulated-latency="$API_KEY_LATENCY" --logging.level.dev.openbanking4=INFO \
+        --rate-limit.api-key.requests-per-second=0 --rate-limit.client-cert.requests-per-second=0 \
+        --rate-limit.client-ip-failures.per-second=0 "$@" \
+        > "$OUTPUT/$label-$scenario.log" 2>&1 &
+    local pid=$!
+    wait_for_app "$port"
+
+    # Warm up the JIT and the caches
+    wrk -t2 -c50 -d10s -s load-test/whoami.lua "https://localhost:$port/whoAmI" -- "$scenario" "$WRK_CLIENTS" \
+        > /dev/null
+
+    echo 0 > "$OUTPUT/max-threads"
+    sample_threads "$pid" &
+    local sampler=$!
+    wrk -t"$WRK_THREADS" -c"$CONNECTIONS" -d"$DURATION" --latency -s load-test/whoami.lua \
+        "https://localhost:$port/whoAmI" -- "$scenario" "$WRK_CLIENTS" > "$report"
+    kill "$pid"
+    wait "$pid" 2> /dev/null || true
+    wait "$sampler" 2> /dev/null || true
+
+    local rps p99 non2xx socketErrors
+    rps=$(awk '/^Requests\/sec:/ { print $2 }' "$report")
+    p99=$(awk '$1 == "99%" { print $2 }' "$report")
+    non2xx=$(awk -F': ' '/Non-2xx or 3xx responses/ { print $2 }' "$report")
+    socketErrors=$(awk '/Socket errors/ { gsub(",", ""); print $4 + $6 + $8 + $10 }' "$report")
+    printf "%-16s %-20s %12s %10s %8s %8s\n" "$scenario" "$label" "$rps" "$p99" \
+        "$(( ${non2xx:-0} + ${socketErrors:-0} ))" "$(cat "$OUTPUT/max-threads")"
+}
@@ -0,0 +1,214 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.loadtest;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.MACSigner;
+import com.nimbusds.jose.util.Base64URL;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import net.minidev.json.JSONObject;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.openssl.jcajce.JcaPEMWriter;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.math.BigInteger;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * The credentials sent by the load test: an SSO cookie and an API key per user, and a certificate with a bound access
+ * token per client.
+ *
+ * The client certificates are issued by the CA of the 'certificates' folder. The client certificates of that folder,
+ * and the CA itself, are expired: the examples don't cache what they parse from an expired certificate, so we issue
+ * certificates valid for a day to measure the usual case.
+ */
+class Credentials {
+
+	/**
+	 * The secret the examples verify the SSO cookies and the access tokens with
+	 */
+	static final String HMAC_SECRET = "Qt5y2isMydGwVuREoIomK9Ei70EoFQKH0GpcbtJ4";
+	private static final String CA_ALIAS = "spring-security-multi-auth-example-ca";
+	private static final char[] CA_PASSWORD = "changeit".toCharArray();
+	/**
+	 * The users share a few sets of groups, like in a real directory
+	 */
+	private static final List<List<String>> GROUPS = List.of(
+			List.of("admin", "clubFalafelKing"),
+			List.of("clubFalafelKing"),
+			List.of("readers"),
+			List.of("readers", "writers"));
+
+	private final String[] ssoCookies;
+	private final String[] apiKeys;
+	private final List<Client> clients;
+
+	private Credentials(String[] ssoCookies, String[] apiKeys, List<Client> clients) {
+		this.ssoCookies = ssoCookies;
+		this.apiKeys = apiKeys;
+		this.clients = clients;
+	}
+
+	/**
+	 * @param certificates the 'certificates' folder, with the CA in 'global/ca.p12'
+	 */
+	static Credentials create(Path certificates, int users, int clients) throws Exception {
+		Instant now = Instant.now();
+		Date expiry = Date.from(now.plus(Duration.ofDays(1)));
+
+		String[] ssoCookies = new String[users];
+		String[] apiKeys = new String[users];
+		for (int i = 0; i < users; i++) {
+			ssoCookies[i] = sign(new JWTClaimsSet.Builder()
+					.subject(username(i))
+					.claim("group", GROUPS.get(i % GROUPS.size()))
+					.expirationTime(expiry)
+					.build());
+			apiKeys[i] = "load-test-key-" + i;
+		}
+
+		KeyStore ca = KeyStore.getInstance("PKCS12");
+		try (InputStream in = Files.newInputStream(certificates.resolve("global").resolve("ca.p12"))) {
+			ca.load(in, CA_PASSWORD);
+		}
+		X500Name issuer = X500Name.getInstance(
+				((X509Certificate) ca.getCertificate(CA_ALIAS)).getSubjectX500Principal().getEncoded());
+		ContentSigner caSigner = new JcaContentSignerBuilder("SHA256withRSA")
+				.build((PrivateKey) ca.getKey(CA_ALIAS, CA_PASSWORD));
+		KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+		generator.initialize(2048);
+		// The apps never see the private key, the clients can share one
+		KeyPair keyPair = generator.generateKeyPair();
+
+		List<Client> issued = new ArrayList<>(clients);
+		for (int i = 0; i < clients; i++) {
+			String username = "load-test-client-" + i;
+			X509Certificate certificate = new JcaX509CertificateConverter().getCertificate(
+					new JcaX509v3CertificateBuilder(issuer,
+							BigInteger.valueOf(now.toEpochMilli()).shiftLeft(16).add(BigInteger.valueOf(i)),
+							Date.from(now.minus(Duration.ofMinutes(1))), expiry,
+							new X500Name("CN=" + username + ",OU=Spring-security-multi-auth-example,O=OpenBanking4.dev"),
+							keyPair.getPublic())
+							.build(caSigner));
+			issued.add(new Client(username, certificateHeader(certificate), accessTokenBoundTo(certificate, expiry)));
+		}
+		return new Credentials(ssoCookies, apiKeys, issued);
+	}
+
+	static String username(int user) {
+		return "load-test-user-" + user;
+	}
+
+	int getUserCount() {
+		return ssoCookies.length;
+	}
+
+	String getSsoCookie(int user) {
+		return ssoCookies[user];
+	}
+
+	String getApiKey(int user) {
+		return apiKeys[user];
+	}
+
+	int getClientCount() {
+		return clients.size();
+	}
+
+	Client getClient(int client) {
+		return clients.get(client);
+	}
+
+	/**
+	 * The PEM of the certificate, URL encoded like nginx '$ssl_client_escaped_cert'
+	 */
+	private static String certificateHeader(X509Certificate certificate) throws Exception {
+		StringWriter pem = new StringWriter();
+		try (JcaPEMWriter writer = new JcaPEMWriter(pem)) {
+			writer.writeObject(certificate);
+		}
+		return URLEncoder.encode(pem.toString(), StandardCharsets.UTF_8).replace("+", "%20");
+	}
+
+	private static String accessTokenBoundTo(X509Certificate certificate, Date expiry) throws Exception {
+		JSONObject cnf = new JSONObject();
+		cnf.put("x5t#S256", Base64URL.encode(MessageDigest.getInstance("SHA-256").digest(certificate.getEncoded()))
+				.toString());
+		return sign(new JWTClaimsSet.Builder()
+				.claim("scope", List.of("accounts", "payments"))
+				.claim("cnf", cnf)
+				.expirationTime(expiry)
+				.build());
+	}
+
+	private static String sign(JWTClaimsSet claims) throws JOSEException {
+		SignedJWT jwt = new SignedJWT(new JWSHeader(JWSAlgorithm.HS256), claims);
+		jwt.sign(new MACSigner(HMAC_SECRET));
+		return jwt.serialize();
+	}
+
+	static class Client {
+
+		private final String username;
+		private final String certificateHeader;
+		private final String accessToken;
+
+		Client(String username, String certificateHeader, String accessToken) {
+			this.username = username;
+			this.certificateHeader = certificateHeader;
+			this.accessToken = accessToken;
+		}
+
+		String getUsername() {
+			return username;
+		}
+
+		String getCertificateHeader() {
+			return certificateHeader;
+		}
+
+		String getAccessToken() {
+			return accessToken;
+		}
+	}
+}
@@ -0,0 +1,49 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.loadtest;
+
+/**
+ * The apps under test
+ */
+enum Example {
+
+	EXAMPLE1("example1", "spring-security-multi-auth-examples-example1-cookie-and-api-token-exec.jar"),
+	EXAMPLE2("example2", "spring-security-multi-auth-examples-example2-client-certs-and-access-token-exec.jar");
+
+	private final String name;
+	private final String jarName;
+
+	Example(String name, String jarName) {
+		this.name = name;
+		this.jarName = jarName;
+	}
+
+	String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the name of the executable jar, as copied to the apps folder by the build
+	 */
+	String getJarName() {
+		return jarName;
+	}
+}
@@ -0,0 +1,141 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.loadtest;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An app under test: started from its executable jar in its own JVM on a random port, or already running.
+ */
+class ExampleApp implements AutoCloseable {
+
+	private static final Duration STARTUP_TIMEOUT = Duration.ofMinutes(2);
+
+	private final Example example;
+	private final URI baseUrl;
+	private final Process process;
+
+	private ExampleApp(Example example, URI baseUrl, Process process) {
+		this.example = example;
+		this.baseUrl = baseUrl;
+		this.process = process;
+	}
+
+	static ExampleApp running(Example example, URI baseUrl) {
+		return new ExampleApp(example, baseUrl, null);
+	}
+
+	/**
+	 * Start the app and wait until it's healthy. Its logs go to '<example>.log', next to the results.
+	 */
+	static ExampleApp start(Example example, LoadTestSettings settings, HttpClient client) throws Exception {
+		Path jar = settings.getApps().resolve(example.getJarName());
+		if (!Files.isRegularFile(jar)) {
+			throw new IllegalStateException("Can't find " + jar + ", build the examples with 'mvn package' first");
+		}
+		int port = freePort();
+		List<String> command = new ArrayList<>();
+		command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+		if (!settings.getAppJvmOptions().isBlank()) {
+			command.addAll(Arrays.asList(settings.getAppJvmOptions().trim().split("\\s+")));
+		}
+		command.add("-jar");
+		command.add(jar.toString());
+		command.add("--server.port=" + port);
+		command.add("--api-key.simulated-latency=" + settings.getApiKeyLatency().toMillis() + "ms");
+		// The examples log each request at trace level, which would be what we measure
+		command.add("--logging.level.dev.openbanking4=WARN");
+		// The load replays the same credentials as fast as it can, from one address: the rate limits would reject them
+		command.add("--rate-limit.api-key.requests-per-second=0");
+		command.add("--rate-limit.client-cert.requests-per-second=0");
+		command.add("--rate-limit.client-ip-failures.per-second=0");
+
+		Path log = settings.getResults().toAbsolutePath().getParent().resolve(example.getName() + ".log");
+		Files.createDirectories(log.getParent());
+		Process process = new ProcessBuilder(command)
+				.redirectErrorStream(true)
+				.redirectOutput(log.toFile())
+				.start();
+		ExampleApp app = new ExampleApp(example, URI.create("https://localhost:" + port), process);
+		try {
+			app.awaitHealthy(client);
+		} catch (Exception e) {
+			app.close();
+			throw e;
+		}
+		return app;
+	}
+
+	URI getBaseUrl() {
+		return baseUrl;
+	}
+
+	@Override
+	public void close() throws InterruptedException {
+		if (process == null) {
+			return;
+		}
+		process.destroy();
+		if (!process.waitFor(10, TimeUnit.SECONDS)) {
+			process.destroyForcibly();
+		}
+	}
+
+	private void awaitHealthy(HttpClient client) throws InterruptedException {
+		HttpRequest health = HttpRequest.newBuilder(baseUrl.resolve("/actuator/health"))
+				.timeout(Duration.ofSeconds(2))
+				.build();
+		long deadline = System.nanoTime() + STARTUP_TIMEOUT.toNanos();
+		while (System.nanoTime() < deadline) {
+			if (!process.isAlive()) {
+				throw new IllegalStateException(example.getName() + " exited with code " + process.exitValue());
+			}
+			try {
+				if (client.send(health, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+					return;
+				}
+			} catch (IOException e) {
+				// Not listening yet
+			}
+			Thread.sleep(500);
+		}
+		throw new IllegalStateException(example.getName() + " didn't start in " + STARTUP_TIMEOUT.toSeconds() + "s");
+	}
+
+	private static int freePort() throws IOException {
+		try (ServerSocket socket = new ServerSocket(0)) {
+			return socket.getLocalPort();
+		}
+	}
+}
@@ -0,0 +1,175 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.loadtest;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sends the '/whoAmI' requests from a fixed number of workers, each waiting for its response before sending the next
+ * request.
+ *
+ * Without target rate, a worker sends its next request as soon as it got the response. With a target rate, the
+ * requests are scheduled at a fixed interval, and the latency is measured from the time the request should have been
+ * sent: a slow response delays the next requests, and their latency counts that delay, instead of hiding it.
+ */
+class LoadGenerator {
+
+	private final LoadTestSettings settings;
+	private final Credentials credentials;
+	private final HttpClient client;
+	private final Map<Example, URI> baseUrls;
+
+	LoadGenerator(LoadTestSettings settings, Credentials credentials, HttpClient client, Map<Example, URI> baseUrls) {
+		this.settings = settings;
+		this.credentials = credentials;
+		this.client = client;
+		this.baseUrls = baseUrls;
+	}
+
+	/**
+	 * @return the results of each scenario that was picked at least once, and of all of them under 'all'
+	 */
+	LoadTestResults run(Duration duration) throws InterruptedException {
+		Map<Scenario, ScenarioRecorder> recorders = new EnumMap<>(Scenario.class);
+		for (Scenario scenario : Scenario.values()) {
+			recorders.put(scenario, new ScenarioRecorder());
+		}
+		int concurrency = settings.getConcurrency();
+		long intervalNanos = settings.getRate() > 0
+				? TimeUnit.SECONDS.toNanos(concurrency) / settings.getRate()
+				: 0;
+		long start = System.nanoTime();
+		long end = start + duration.toNanos();
+		CountDownLatch done = new CountDownLatch(concurrency);
+		for (int i = 0; i < concurrency; i++) {
+			// Spread the first requests over the first interval
+			long firstRequest = start + intervalNanos * i / concurrency;
+			Random random = new Random(i);
+			Thread worker = new Thread(() -> {
+				try {
+					work(random, recorders, firstRequest, intervalNanos, end);
+				} finally {
+					done.countDown();
+				}
+			}, "load-test-" + i);
+			worker.setDaemon(true);
+			worker.start();
+		}
+		done.await();
+		long elapsedNanos = System.nanoTime() - start;
+
+		Map<String, ScenarioResult> results = new LinkedHashMap<>();
+		Histogram allLatencies = new Histogram(3);
+		Map<String, Long> allErrors = new TreeMap<>();
+		recorders.forEach((scenario, recorder) -> {
+			if (recorder.requests.sum() > 0) {
+				Histogram latencies = recorder.latencies.getIntervalHistogram();
+				Map<String, Long> errors = recorder.errorCounts();
+				results.put(scenario.getName(), ScenarioResult.of(latencies, errors, elapsedNanos));
+				allLatencies.add(latencies);
+				errors.forEach((error, count) -> allErrors.merge(error, count, Long::sum));
+			}
+		});
+		results.put(LoadTestResults.ALL, ScenarioResult.of(allLatencies, allErrors, elapsedNanos));
+		return new LoadTestResults(results);
+	}
+
+	private void work(Random random, Map<Scenario, ScenarioRecorder> recorders, long firstRequest, long intervalNanos,
+					  long end) {
+		long intendedStart = firstRequest;
+		while (true) {
+			if (intervalNanos > 0) {
+				long wait = intendedStart - System.nanoTime();
+				if (wait > 0) {
+					LockSupport.parkNanos(wait);
+				}
+			} else {
+				intendedStart = System.nanoTime();
+			}
+			if (intendedStart >= end || Thread.currentThread().isInterrupted()) {
+				return;
+			}
+			Scenario scenario = settings.getMix().next(random);
+			Request request = scenario.next(credentials, random);
+			String error;
+			try {
+				HttpResponse<String> response = client.send(
+						request.toHttpRequest(baseUrls.get(request.getExample()), settings.getRequestTimeout()),
+						HttpResponse.BodyHandlers.ofString());
+				if (response.statusCode() != 200) {
+					error = "HTTP " + response.statusCode();
+				} else if (!request.isExpectedUser(response.body())) {
+					error = "unexpected user";
+				} else {
+					error = null;
+				}
+			} catch (IOException e) {
+				error = e.getClass().getSimpleName();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+			recorders.get(scenario).record(System.nanoTime() - intendedStart, error);
+			intendedStart += intervalNanos;
+		}
+	}
+
+	/**
+	 * The latencies and errors of a scenario, recorded by all the workers
+	 */
+	private static class ScenarioRecorder {
+
+		private final Recorder latencies = new Recorder(3);
+		private final LongAdder requests = new LongAdder();
+		private final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+
+		void record(long latencyNanos, String error) {
+			latencies.recordValue(latencyNanos);
+			requests.increment();
+			if (error != null) {
+				errors.computeIfAbsent(error, e -> new LongAdder()).increment();
+			}
+		}
+
+		Map<String, Long> errorCounts() {
+			Map<String, Long> counts = new TreeMap<>();
+			errors.forEach((error, count) -> counts.put(error, count.sum()));
+			return counts;
+		}
+	}
+}
@@ -0,0 +1,154 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.loadtest;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Starts example1 and example2 on random ports, sends them a mix of '/whoAmI' requests with each kind of credential,
+ * and reports the throughput, latency percentiles and errors of each scenario.
+ *
+ * The results are saved as JSON. Pass the results of a previous run as '--baseline' to compare with it: the exit code
+ * is 1 if a scenario is worse than the baseline.
+ *
+ *   mvn clean package
+ *   java -jar load-test/target/load-test.jar --duration=60s --concurrency=128
+ *
+ * Run it from the root of the repository, see {@link LoadTestSettings#USAGE} for the arguments.
+ */
+public final class LoadTest {
+
+	private LoadTest() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		LoadTestSettings settings;
+		try {
+			if (args.length == 1 && args[0].equals("--help")) {
+				System.out.println(LoadTestSettings.USAGE);
+				return;
+			}
+			settings = LoadTestSettings.parse(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println(LoadTestSettings.USAGE);
+			System.exit(2);
+			return;
+		}
+		System.exit(run(settings) ? 0 : 1);
+	}
+
+	/**
+	 * @return false if the results are worse than the baseline
+	 */
+	static boolean run(LoadTestSettings settings) throws Exception {
+		// The apps use the self-signed certificate of the examples, issued for another host name
+		System.setProperty("jdk.internal.httpclient.disableHostnameVerification", "true");
+		HttpClient client = HttpClient.newBuilder()
+				.version(HttpClient.Version.HTTP_1_1)
+				.sslContext(trustAll())
+				.connectTimeout(Duration.ofSeconds(5))
+				.build();
+
+		System.out.println("Issuing " + settings.getClients() + " client certificates and " + settings.getUsers()
+				+ " SSO cookies");
+		Credentials credentials = Credentials.create(settings.getCertificates(), settings.getUsers(),
+				settings.getClients());
+
+		List<ExampleApp> apps = new ArrayList<>();
+		try {
+			Map<Example, URI> baseUrls = new EnumMap<>(Example.class);
+			for (Example example : Example.values()) {
+				if (!settings.getMix().uses(example)) {
+					continue;
+				}
+				URI url = example == Example.EXAMPLE1 ? settings.getExample1Url() : settings.getExample2Url();
+				ExampleApp app = url != null
+						? ExampleApp.running(example, url)
+						: ExampleApp.start(example, settings, client);
+				apps.add(app);
+				baseUrls.put(example, app.getBaseUrl());
+				System.out.println(example.getName() + " on " + app.getBaseUrl());
+			}
+
+			LoadGenerator generator = new LoadGenerator(settings, credentials, client, baseUrls);
+			System.out.println("Warming up for " + settings.getWarmup().toSeconds() + "s");
+			generator.run(settings.getWarmup());
+			System.out.println(settings.getConcurrency() + " concurrent requests for "
+					+ settings.getDuration().toSeconds() + "s"
+					+ (settings.getRate() > 0 ? " at " + settings.getRate() + " requests/s" : "")
+					+ ", mix " + settings.getMix());
+			LoadTestResults results = generator.run(settings.getDuration());
+			results.print(System.out);
+			results.write(settings.getResults(), settings);
+			System.out.println("Results saved to " + settings.getResults());
+
+			if (settings.getBaseline() == null) {
+				return true;
+			}
+			List<String> regressions = results.regressionsFrom(LoadTestResults.read(settings.getBaseline()),
+					settings.getTolerance());
+			if (regressions.isEmpty()) {
+				System.out.println("No regression from the baseline " + settings.getBaseline());
+				return true;
+			}
+			System.out.println("Worse than the baseline " + settings.getBaseline() + ":");
+			regressions.forEach(regression -> System.out.println("  " + regression));
+			return false;
+		} finally {
+			for (ExampleApp app : apps) {
+				app.close();
+			}
+		}
+	}
+
+	/**
+	 * The apps are ours, on localhost: we don't need to check their certificate
+	 */
+	private static SSLContext trustAll() throws Exception {
+		SSLContext sslContext = SSLContext.getInstance("TLS");
+		sslContext.init(null, new TrustManager[] {new X509TrustManager() {
+			@Override
+			public void checkClientTrusted(X509Certificate[] chain, String authType) {
+			}
+
+			@Override
+			public void checkServerTrusted(X509Certificate[] chain, String authType) {
+			}
+
+			@Override
+			public X509Certificate[] getAcceptedIssuers() {
+				return new X509Certificate[0];
+			}
+		}}, null);
+		return sslContext;
+	}
+}
@@ -0,0 +1,155 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The results of a run, by scenario. They are saved as JSON, so a later run can be compared with them.
+ */
+class LoadTestResults {
+
+	/**
+	 * The results of all the scenarios together
+	 */
+	static final String ALL = "all";
+
+	private static final ObjectMapper MAPPER = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+	/**
+	 * Error rates up to this much above the baseline are noise
+	 */
+	private static final double ERROR_RATE_MARGIN = 0.001;
+
+	private final Map<String, ScenarioResult> scenarios;
+
+	LoadTestResults(Map<String, ScenarioResult> scenarios) {
+		this.scenarios = scenarios;
+	}
+
+	Map<String, ScenarioResult> getScenarios() {
+		return scenarios;
+	}
+
+	void print(PrintStream out) {
+		out.printf("%-16s %10s %12s %8s %9s %9s %9s %9s %9s%n", "scenario", "requests", "requests/s", "errors",
+				"p50 (ms)", "p90", "p99", "p99.9", "max");
+		scenarios.forEach((name, result) -> out.printf("%-16s %10d %12.1f %7.2f%% %9.2f %9.2f %9.2f %9.2f %9.2f%n",
+				name, result.getRequests(), result.getThroughput(), result.getErrorRate() * 100, result.getP50(),
+				result.getP90(), result.getP99(), result.getP999(), result.getMax()));
+		scenarios.forEach((name, result) -> result.getErrors().forEach((error, count) ->
+				out.printf("%-16s %10d x %s%n", name, count, error)));
+	}
+
+	/**
+	 * Compare these results with the ones of a previous run. A scenario is worse if its throughput is lower or its p99
+	 * higher than the baseline by more than the tolerance, or if its error rate is higher.
+	 * @param tolerance like 0.2 for 20%
+	 * @return what is worse than the baseline, empty if nothing
+	 */
+	List<String> regressionsFrom(LoadTestResults baseline, double tolerance) {
+		List<String> regressions = new ArrayList<>();
+		baseline.scenarios.forEach((name, expected) -> {
+			ScenarioResult actual = scenarios.get(name);
+			if (actual == null) {
+				regressions.add(name + ": not run");
+				return;
+			}
+			if (actual.getThroughput() < expected.getThroughput() * (1 - tolerance)) {
+				regressions.add(String.format("%s: %.1f requests/s, the baseline is %.1f", name, actual.getThroughput(),
+						expected.getThroughput()));
+			}
+			if (actual.getP99() > expected.getP99() * (1 + tolerance)) {
+				regressions.add(String.format("%s: p99 of %.2fms, the baseline is %.2fms", name, actual.getP99(),
+						expected.getP99()));
+			}
+			if (actual.getErrorRate() > expected.getErrorRate() + ERROR_RATE_MARGIN) {
+				regressions.add(String.format("%s: %.2f%% errors, the baseline is %.2f%%", name,
+						actual.getErrorRate() * 100, expected.getErrorRate() * 100));
+			}
+		});
+		return regressions;
+	}
+
+	/**
+	 * @param settings saved with the results, to know how they were measured
+	 */
+	void write(Path file, LoadTestSettings settings) throws IOException {
+		ObjectNode root = MAPPER.createObjectNode();
+		ObjectNode run = root.putObject("settings");
+		run.put("duration", settings.getDuration().toString());
+		run.put("concurrency", settings.getConcurrency());
+		run.put("rate", settings.getRate());
+		run.put("mix", settings.getMix().toString());
+		run.put("users", settings.getUsers());
+		run.put("clients", settings.getClients());
+		run.put("apiKeyLatency", settings.getApiKeyLatency().toString());
+		ObjectNode results = root.putObject("scenarios");
+		scenarios.forEach((name, result) -> {
+			ObjectNode scenario = results.putObject(name);
+			scenario.put("requests", result.getRequests());
+			scenario.put("throughput", result.getThroughput());
+			scenario.put("p50", result.getP50());
+			scenario.put("p90", result.getP90());
+			scenario.put("p99", result.getP99());
+			scenario.put("p999", result.getP999());
+			scenario.put("max", result.getMax());
+			ObjectNode errors = scenario.putObject("errors");
+			result.getErrors().forEach(errors::put);
+		});
+		if (file.toAbsolutePath().getParent() != null) {
+			Files.createDirectories(file.toAbsolutePath().getParent());
+		}
+		MAPPER.writeValue(file.toFile(), root);
+	}
+
+	static LoadTestResults read(Path file) throws IOException {
+		JsonNode root = MAPPER.readTree(file.toFile());
+		Map<String, ScenarioResult> scenarios = new LinkedHashMap<>();
+		Iterator<Map.Entry<String, JsonNode>> fields = root.path("scenarios").fields();
+		while (fields.hasNext()) {
+			Map.Entry<String, JsonNode> field = fields.next();
+			JsonNode scenario = field.getValue();
+			Map<String, Long> errors = new TreeMap<>();
+			scenario.path("errors").fields().forEachRemaining(error -> errors.put(error.getKey(),
+					error.getValue().asLong()));
+			scenarios.put(field.getKey(), new ScenarioResult(scenario.path("requests").asLong(), errors,
+					scenario.path("throughput").asDouble(), scenario.path("p50").asDouble(),
+					scenario.path("p90").asDouble(), scenario.path("p99").asDouble(),
+					scenario.path("p999").asDouble(), scenario.path("max").asDouble()));
+		}
+		return new LoadTestResults(scenarios);
+	}
+}
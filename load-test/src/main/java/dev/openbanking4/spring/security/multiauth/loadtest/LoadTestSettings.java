@@ -0,0 +1,190 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.loadtest;
+
+import org.springframework.boot.convert.DurationStyle;
+
+import java.net.URI;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The settings of a load test run, from the '--name=value' command line arguments. The paths are relative to the root
+ * of the repository.
+ */
+class LoadTestSettings {
+
+	static final String USAGE = String.join("\n",
+			"java -jar load-test/target/load-test.jar [--name=value...]",
+			"  --duration=30s              how long the measured run lasts",
+			"  --warmup=10s                run before the measured one, to warm up the JIT and the caches",
+			"  --concurrency=64            concurrent requests",
+			"  --rate=0                    requests per second, 0 to send them as fast as the apps answer",
+			"  --mix=" + TrafficMix.DEFAULT,
+			"                              weight of each scenario",
+			"  --users=1000                distinct SSO cookies and API keys",
+			"  --clients=20                distinct client certificates, issued by the CA of the certificates folder",
+			"  --request-timeout=10s",
+			"  --api-key-latency=50ms      latency of the mocked API key validator service",
+			"  --app-jvm-options=          JVM options of the apps, space separated",
+			"  --example1-url=             test an example1 that is already running instead of starting it",
+			"  --example2-url=             test an example2 that is already running instead of starting it",
+			"  --apps=load-test/target/apps",
+			"  --certificates=certificates",
+			"  --results=load-test/target/load-test-results.json",
+			"  --baseline=                 results of a previous run: fail if this run is worse",
+			"  --tolerance=0.2             how much worse than the baseline is still fine");
+
+	private Duration duration = Duration.ofSeconds(30);
+	private Duration warmup = Duration.ofSeconds(10);
+	private int concurrency = 64;
+	private int rate = 0;
+	private TrafficMix mix = TrafficMix.parse(TrafficMix.DEFAULT);
+	private int users = 1000;
+	private int clients = 20;
+	private Duration requestTimeout = Duration.ofSeconds(10);
+	private Duration apiKeyLatency = Duration.ofMillis(50);
+	private String appJvmOptions = "";
+	private URI example1Url;
+	private URI example2Url;
+	private Path apps = Paths.get("load-test", "target", "apps");
+	private Path certificates = Paths.get("certificates");
+	private Path results = Paths.get("load-test", "target", "load-test-results.json");
+	private Path baseline;
+	private double tolerance = 0.2;
+
+	/**
+	 * @throws IllegalArgumentException if an argument is unknown or invalid
+	 */
+	static LoadTestSettings parse(String... args) {
+		Map<String, String> values = new HashMap<>();
+		for (String arg : args) {
+			int equals = arg.indexOf('=');
+			if (!arg.startsWith("--") || equals < 0) {
+				throw new IllegalArgumentException("Expected '--name=value', got '" + arg + "'");
+			}
+			values.put(arg.substring(2, equals), arg.substring(equals + 1));
+		}
+		LoadTestSettings settings = new LoadTestSettings();
+		for (Map.Entry<String, String> entry : values.entrySet()) {
+			settings.set(entry.getKey(), entry.getValue());
+		}
+		if (settings.concurrency < 1 || settings.users < 1 || settings.clients < 1 || settings.rate < 0) {
+			throw new IllegalArgumentException("The concurrency, users and clients must be positive, the rate can't be "
+					+ "negative");
+		}
+		return settings;
+	}
+
+	private void set(String name, String value) {
+		switch (name) {
+			case "duration": duration = DurationStyle.detectAndParse(value); break;
+			case "warmup": warmup = DurationStyle.detectAndParse(value); break;
+			case "concurrency": concurrency = Integer.parseInt(value); break;
+			case "rate": rate = Integer.parseInt(value); break;
+			case "mix": mix = TrafficMix.parse(value); break;
+			case "users": users = Integer.parseInt(value); break;
+			case "clients": clients = Integer.parseInt(value); break;
+			case "request-timeout": requestTimeout = DurationStyle.detectAndParse(value); break;
+			case "api-key-latency": apiKeyLatency = DurationStyle.detectAndParse(value); break;
+			case "app-jvm-options": appJvmOptions = value; break;
+			case "example1-url": example1Url = value.isEmpty() ? null : URI.create(value); break;
+			case "example2-url": example2Url = value.isEmpty() ? null : URI.create(value); break;
+			case "apps": apps = Paths.get(value); break;
+			case "certificates": certificates = Paths.get(value); break;
+			case "results": results = Paths.get(value); break;
+			case "baseline": baseline = value.isEmpty() ? null : Paths.get(value); break;
+			case "tolerance": tolerance = Double.parseDouble(value); break;
+			default: throw new IllegalArgumentException("Unknown argument '--" + name + "'");
+		}
+	}
+
+	Duration getDuration() {
+		return duration;
+	}
+
+	Duration getWarmup() {
+		return warmup;
+	}
+
+	int getConcurrency() {
+		return concurrency;
+	}
+
+	int getRate() {
+		return rate;
+	}
+
+	TrafficMix getMix() {
+		return mix;
+	}
+
+	int getUsers() {
+		return users;
+	}
+
+	int getClients() {
+		return clients;
+	}
+
+	Duration getRequestTimeout() {
+		return requestTimeout;
+	}
+
+	Duration getApiKeyLatency() {
+		return apiKeyLatency;
+	}
+
+	String getAppJvmOptions() {
+		return appJvmOptions;
+	}
+
+	URI getExample1Url() {
+		return example1Url;
+	}
+
+	URI getExample2Url() {
+		return example2Url;
+	}
+
+	Path getApps() {
+		return apps;
+	}
+
+	Path getCertificates() {
+		return certificates;
+	}
+
+	Path getResults() {
+		return results;
+	}
+
+	Path getBaseline() {
+		return baseline;
+	}
+
+	double getTolerance() {
+		return tolerance;
+	}
+}
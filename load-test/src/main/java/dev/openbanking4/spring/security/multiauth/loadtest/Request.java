@@ -0,0 +1,69 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.loadtest;
+
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A '/whoAmI' request, and the user the app must answer with
+ */
+class Request {
+
+	private final Example example;
+	private final String expectedUsername;
+	private final List<String> headers = new ArrayList<>(4);
+
+	Request(Example example, String expectedUsername) {
+		this.example = example;
+		this.expectedUsername = expectedUsername;
+	}
+
+	Request header(String name, String value) {
+		headers.add(name);
+		headers.add(value);
+		return this;
+	}
+
+	Example getExample() {
+		return example;
+	}
+
+	HttpRequest toHttpRequest(URI baseUrl, Duration timeout) {
+		HttpRequest.Builder builder = HttpRequest.newBuilder(baseUrl.resolve("/whoAmI"))
+				.timeout(timeout)
+				.GET();
+		if (!headers.isEmpty()) {
+			builder.headers(headers.toArray(new String[0]));
+		}
+		return builder.build();
+	}
+
+	/**
+	 * The apps answer with the principal in JSON, serialised without spaces
+	 */
+	boolean isExpectedUser(String responseBody) {
+		return responseBody.contains("\"username\":\"" + expectedUsername + "\"");
+	}
+}
@@ -0,0 +1,116 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.loadtest;
+
+import java.util.EnumSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * The kinds of '/whoAmI' requests, one per credential the examples accept. Each request is sent to an app that accepts
+ * its credential, and is only a success if the app recognised the expected user.
+ */
+enum Scenario {
+
+	/**
+	 * No credential, to either app
+	 */
+	ANONYMOUS("anonymous", EnumSet.of(Example.EXAMPLE1, Example.EXAMPLE2)) {
+		@Override
+		Request next(Credentials credentials, Random random) {
+			return new Request(random.nextBoolean() ? Example.EXAMPLE1 : Example.EXAMPLE2, "anonymous");
+		}
+	},
+	/**
+	 * The 'SSO' cookie of one of the users, to example1
+	 */
+	COOKIE("cookie", EnumSet.of(Example.EXAMPLE1)) {
+		@Override
+		Request next(Credentials credentials, Random random) {
+			int user = random.nextInt(credentials.getUserCount());
+			return new Request(Example.EXAMPLE1, Credentials.username(user))
+					.header("Cookie", "SSO=" + credentials.getSsoCookie(user));
+		}
+	},
+	/**
+	 * The API key of one of the users, to example1. The mocked API key validator service maps all the keys to 'bob'.
+	 */
+	API_KEY("api-key", EnumSet.of(Example.EXAMPLE1)) {
+		@Override
+		Request next(Credentials credentials, Random random) {
+			return new Request(Example.EXAMPLE1, "bob")
+					.header("key", credentials.getApiKey(random.nextInt(credentials.getUserCount())));
+		}
+	},
+	/**
+	 * The certificate of one of the clients, forwarded in the 'x-cert' header like the gateway does, to example2
+	 */
+	CLIENT_CERT("client-cert", EnumSet.of(Example.EXAMPLE2)) {
+		@Override
+		Request next(Credentials credentials, Random random) {
+			Credentials.Client client = credentials.getClient(random.nextInt(credentials.getClientCount()));
+			return new Request(Example.EXAMPLE2, client.getUsername())
+					.header("x-cert", client.getCertificateHeader());
+		}
+	},
+	/**
+	 * The certificate of one of the clients, with an access token bound to it, to example2
+	 */
+	CERT_AND_TOKEN("cert-and-token", EnumSet.of(Example.EXAMPLE2)) {
+		@Override
+		Request next(Credentials credentials, Random random) {
+			Credentials.Client client = credentials.getClient(random.nextInt(credentials.getClientCount()));
+			return new Request(Example.EXAMPLE2, client.getUsername())
+					.header("x-cert", client.getCertificateHeader())
+					.header("Authorization", "Bearer " + client.getAccessToken());
+		}
+	};
+
+	private final String name;
+	private final Set<Example> examples;
+
+	Scenario(String name, Set<Example> examples) {
+		this.name = name;
+		this.examples = examples;
+	}
+
+	abstract Request next(Credentials credentials, Random random);
+
+	String getName() {
+		return name;
+	}
+
+	Set<Example> getExamples() {
+		return examples;
+	}
+
+	/**
+	 * @throws IllegalArgumentException if no scenario has this name
+	 */
+	static Scenario of(String name) {
+		for (Scenario scenario : values()) {
+			if (scenario.name.equals(name)) {
+				return scenario;
+			}
+		}
+		throw new IllegalArgumentException("Unknown scenario '" + name + "'");
+	}
+}
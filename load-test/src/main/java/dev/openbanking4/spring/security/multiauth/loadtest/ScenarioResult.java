@@ -0,0 +1,114 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.loadtest;
+
+import org.HdrHistogram.Histogram;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The throughput, latency percentiles and errors of a scenario. The latencies are in milliseconds.
+ */
+class ScenarioResult {
+
+	private final long requests;
+	private final Map<String, Long> errors;
+	private final double throughput;
+	private final double p50;
+	private final double p90;
+	private final double p99;
+	private final double p999;
+	private final double max;
+
+	ScenarioResult(long requests, Map<String, Long> errors, double throughput, double p50, double p90, double p99,
+				   double p999, double max) {
+		this.requests = requests;
+		this.errors = errors;
+		this.throughput = throughput;
+		this.p50 = p50;
+		this.p90 = p90;
+		this.p99 = p99;
+		this.p999 = p999;
+		this.max = max;
+	}
+
+	/**
+	 * @param latencies in nanoseconds
+	 */
+	static ScenarioResult of(Histogram latencies, Map<String, Long> errors, long elapsedNanos) {
+		return new ScenarioResult(latencies.getTotalCount(), errors,
+				latencies.getTotalCount() * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos,
+				millis(latencies.getValueAtPercentile(50)), millis(latencies.getValueAtPercentile(90)),
+				millis(latencies.getValueAtPercentile(99)), millis(latencies.getValueAtPercentile(99.9)),
+				millis(latencies.getMaxValue()));
+	}
+
+	long getRequests() {
+		return requests;
+	}
+
+	/**
+	 * @return the number of failed requests by cause: an HTTP status, 'unexpected user' or an exception
+	 */
+	Map<String, Long> getErrors() {
+		return errors;
+	}
+
+	long getErrorCount() {
+		return errors.values().stream().mapToLong(Long::longValue).sum();
+	}
+
+	double getErrorRate() {
+		return requests == 0 ? 0 : (double) getErrorCount() / requests;
+	}
+
+	/**
+	 * @return requests per second
+	 */
+	double getThroughput() {
+		return throughput;
+	}
+
+	double getP50() {
+		return p50;
+	}
+
+	double getP90() {
+		return p90;
+	}
+
+	double getP99() {
+		return p99;
+	}
+
+	double getP999() {
+		return p999;
+	}
+
+	double getMax() {
+		return max;
+	}
+
+	private static double millis(long nanos) {
+		return nanos / 1_000_000.0;
+	}
+}
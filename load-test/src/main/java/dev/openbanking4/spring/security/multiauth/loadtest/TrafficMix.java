@@ -0,0 +1,99 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.loadtest;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * How often each scenario is picked, like 'cookie=30,api-key=20'. A scenario that is not listed is never picked.
+ */
+class TrafficMix {
+
+	static final String DEFAULT = "anonymous=10,cookie=30,api-key=20,client-cert=10,cert-and-token=30";
+
+	private final Scenario[] scenarios;
+	private final int[] cumulativeWeights;
+	private final Map<Scenario, Integer> weights;
+
+	private TrafficMix(Map<Scenario, Integer> weights) {
+		this.weights = weights;
+		this.scenarios = weights.keySet().toArray(new Scenario[0]);
+		this.cumulativeWeights = new int[scenarios.length];
+		int total = 0;
+		for (int i = 0; i < scenarios.length; i++) {
+			total += weights.get(scenarios[i]);
+			cumulativeWeights[i] = total;
+		}
+	}
+
+	/**
+	 * @throws IllegalArgumentException if a scenario is unknown, or no scenario has a positive weight
+	 */
+	static TrafficMix parse(String mix) {
+		Map<Scenario, Integer> weights = new EnumMap<>(Scenario.class);
+		for (String entry : mix.split(",")) {
+			String[] nameAndWeight = entry.trim().split("=");
+			if (nameAndWeight.length != 2) {
+				throw new IllegalArgumentException("Expected 'scenario=weight', got '" + entry + "'");
+			}
+			int weight = Integer.parseInt(nameAndWeight[1].trim());
+			if (weight < 0) {
+				throw new IllegalArgumentException("The weight of '" + nameAndWeight[0] + "' can't be negative");
+			}
+			if (weight > 0) {
+				weights.put(Scenario.of(nameAndWeight[0].trim()), weight);
+			}
+		}
+		if (weights.isEmpty()) {
+			throw new IllegalArgumentException("The mix '" + mix + "' doesn't have any scenario");
+		}
+		return new TrafficMix(weights);
+	}
+
+	Scenario next(Random random) {
+		int pick = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+		for (int i = 0; i < scenarios.length; i++) {
+			if (pick < cumulativeWeights[i]) {
+				return scenarios[i];
+			}
+		}
+		throw new IllegalStateException("Unreachable");
+	}
+
+	boolean uses(Example example) {
+		for (Scenario scenario : scenarios) {
+			if (scenario.getExamples().contains(example)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder mix = new StringBuilder();
+		weights.forEach((scenario, weight) -> mix.append(mix.length() == 0 ? "" : ",").append(scenario.getName())
+				.append('=').append(weight));
+		return mix.toString();
+	}
+}
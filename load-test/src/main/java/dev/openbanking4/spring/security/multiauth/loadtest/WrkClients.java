@@ -0,0 +1,63 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.loadtest;
+
+import java.io.BufferedWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Writes the client certificates and bound access tokens read by 'load-test/whoami.lua', one client per line: the
+ * URL encoded certificate, a space and the access token. The certificates are issued like the ones of the load test,
+ * so the wrk scripts send certificates the examples trust, spread over as many clients as connections.
+ *
+ *   java -cp load-test/target/load-test.jar dev.openbanking4.spring.security.multiauth.loadtest.WrkClients \
+ *       certificates 1000 load-test/target/wrk-clients.txt
+ */
+public final class WrkClients {
+
+	private static final String USAGE = "WrkClients <certificates folder> <clients> <output file>";
+
+	private WrkClients() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length != 3) {
+			System.err.println(USAGE);
+			System.exit(2);
+			return;
+		}
+		Path output = Paths.get(args[2]);
+		Credentials credentials = Credentials.create(Paths.get(args[0]), 1, Integer.parseInt(args[1]));
+		Files.createDirectories(output.toAbsolutePath().getParent());
+		try (BufferedWriter writer = Files.newBufferedWriter(output, StandardCharsets.US_ASCII)) {
+			for (int i = 0; i < credentials.getClientCount(); i++) {
+				Credentials.Client client = credentials.getClient(i);
+				writer.write(client.getCertificateHeader());
+				writer.write(' ');
+				writer.write(client.getAccessToken());
+				writer.newLine();
+			}
+		}
+	}
+}
@@ -0,0 +1,104 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.loadtest;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LoadTestResultsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testResultsAreReadBackAsSaved() throws Exception {
+        LoadTestResults results = results(
+                result("cookie", 1000, 2.5, Map.of("HTTP 500", 3L)),
+                result("api-key", 500, 4.0, Map.of()));
+        Path file = folder.getRoot().toPath().resolve("results.json");
+
+        results.write(file, LoadTestSettings.parse());
+        LoadTestResults read = LoadTestResults.read(file);
+
+        assertThat(read.getScenarios()).containsOnlyKeys("cookie", "api-key");
+        ScenarioResult cookie = read.getScenarios().get("cookie");
+        assertThat(cookie.getThroughput()).isEqualTo(1000);
+        assertThat(cookie.getP99()).isEqualTo(2.5);
+        assertThat(cookie.getErrors()).containsEntry("HTTP 500", 3L);
+        assertThat(cookie.getErrorRate()).isEqualTo(3.0 / 1000);
+    }
+
+    @Test
+    public void testWithinToleranceIsNotARegression() {
+        LoadTestResults baseline = results(result("cookie", 1000, 2.0, Map.of()));
+        LoadTestResults run = results(result("cookie", 850, 2.3, Map.of()));
+
+        assertThat(run.regressionsFrom(baseline, 0.2)).isEmpty();
+    }
+
+    @Test
+    public void testLowerThroughputHigherLatencyAndErrorsAreRegressions() {
+        LoadTestResults baseline = results(
+                result("cookie", 1000, 2.0, Map.of()),
+                result("api-key", 1000, 2.0, Map.of()),
+                result("client-cert", 1000, 2.0, Map.of()));
+        LoadTestResults run = results(
+                result("cookie", 700, 2.0, Map.of()),
+                result("api-key", 1000, 3.0, Map.of()),
+                result("client-cert", 1000, 2.0, Map.of("HttpTimeoutException", 50L)));
+
+        assertThat(run.regressionsFrom(baseline, 0.2)).hasSize(3)
+                .anyMatch(regression -> regression.startsWith("cookie: 700.0 requests/s"))
+                .anyMatch(regression -> regression.startsWith("api-key: p99 of 3.00ms"))
+                .anyMatch(regression -> regression.startsWith("client-cert: 5.00% errors"));
+    }
+
+    @Test
+    public void testScenarioMissingFromTheRunIsARegression() {
+        LoadTestResults baseline = results(result("cookie", 1000, 2.0, Map.of()));
+        LoadTestResults run = results(result("api-key", 1000, 2.0, Map.of()));
+
+        assertThat(run.regressionsFrom(baseline, 0.2)).containsExactly("cookie: not run");
+    }
+
+    @SafeVarargs
+    private static LoadTestResults results(Map.Entry<String, ScenarioResult>... scenarios) {
+        Map<String, ScenarioResult> results = new LinkedHashMap<>();
+        for (Map.Entry<String, ScenarioResult> scenario : scenarios) {
+            results.put(scenario.getKey(), scenario.getValue());
+        }
+        return new LoadTestResults(results);
+    }
+
+    private static Map.Entry<String, ScenarioResult> result(String scenario, double throughput, double p99,
+                                                            Map<String, Long> errors) {
+        long requests = (long) throughput;
+        return Map.entry(scenario, new ScenarioResult(requests, errors, throughput, p99 / 2, p99 / 1.5, p99, p99 * 2,
+                p99 * 3));
+    }
+}
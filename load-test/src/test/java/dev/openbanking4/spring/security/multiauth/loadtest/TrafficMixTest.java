@@ -0,0 +1,61 @@
+/**
+ * Copyright 2019 Quentin Castel.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package dev.openbanking4.spring.security.multiauth.loadtest;
+
+import org.junit.Test;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class TrafficMixTest {
+
+    @Test
+    public void testScenariosArePickedByWeight() {
+        TrafficMix mix = TrafficMix.parse("cookie=75,api-key=25,anonymous=0");
+        Map<Scenario, Integer> picks = new EnumMap<>(Scenario.class);
+        Random random = new Random(42);
+
+        for (int i = 0; i < 100_000; i++) {
+            picks.merge(mix.next(random), 1, Integer::sum);
+        }
+
+        assertThat(picks).containsOnlyKeys(Scenario.COOKIE, Scenario.API_KEY);
+        assertThat(picks.get(Scenario.COOKIE)).isBetween(74_000, 76_000);
+        assertThat(mix.uses(Example.EXAMPLE1)).isTrue();
+        assertThat(mix.uses(Example.EXAMPLE2)).isFalse();
+        assertThat(mix).hasToString("cookie=75,api-key=25");
+    }
+
+    @Test
+    public void testInvalidMixesAreRejected() {
+        assertThatThrownBy(() -> TrafficMix.parse("cookie=10,password=5"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("password");
+        assertThatThrownBy(() -> TrafficMix.parse("cookie=0"))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> TrafficMix.parse("cookie"))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,82 @@
+#!/usr/bin/env bash
+#
+# Creates the CDS archive of each servlet example, with the classes loaded by a training run: the startup, then a few
+# seconds of requests with every kind of credential, sent by the load test driver. The requests load the classes that
+# are only used once the app serves traffic: the JWT parsing and verification of nimbus-jose-jwt, the certificate
+# parsing of BouncyCastle, the collectors of the multi-auth starter, and what they load by reflection. Each example also
+# gets a TLS handshake with a client certificate, for the JSSE classes of the client authentication. The training fails
+# if a collector of the example never authenticated a request, as its classes would be missing from the archive.
+#
+# The archive is a dynamic archive, the 'java' on the path must be Java 13 or later, and the same JVM must run the
+# examples with the archive.
+#
+#   mvn clean package -Pappcds
+#   ./startup/create-appcds-archives.sh
+#   java -XX:SharedArchiveFile=example1-cookie-and-api-token/target/appcds/app.jsa \
+#       -jar example1-cookie-and-api-token/target/appcds/*-appcds.jar
+#
+# Settings, from the environment:
+#   TRAINING_DURATION  how long the requests are sent (default 10s)
+
+set -euo pipefail
+
+cd "$(dirname "$0")/.."
+source startup/lib.sh
+
+TRAINING_DURATION=${TRAINING_DURATION:-10s}
+
+require_java_13
+
+# require_collectors <port> <collector name>...: fails if one of the collectors never succeeded
+require_collectors() {
+    local port=$1 collector count
+    shift
+    for collector in "$@"; do
+        count=$(curl -ksf "https://localhost:$port/actuator/prometheus" \
+            | awk -v name="collectorName=\"$collector\"" \
+                'index($0, "multiauth_collector_seconds_count{") == 1 && index($0, name) && /outcome="success"/ { sum += $NF }
+                 END { print sum + 0 }')
+        if [ "${count%%.*}" -eq 0 ]; then
+            echo "The training run never went through the collector $collector" >&2
+            return 1
+        fi
+    done
+}
+
+# train <module> <example url option> <mix> <collector name>...
+train() {
+    local module=$1 urlOption=$2 mix=$3
+    shift 3
+    local port archive pid
+    port=$(free_port)
+    archive=$(appcds_archive "$module")
+    rm -f "$archive"
+
+    java -XX:ArchiveClassesAtExit="$archive" -jar "$(appcds_jar "$module")" --server.port="$port" \
+        --logging.level.dev.openbanking4=WARN > "$OUTPUT/$module-training.log" 2>&1 &
+    pid=$!
+    wait_for_health "$port" "$pid"
+
+    curl -ksf "https://localhost:$port/whoAmI" > /dev/null
+    curl -ksf --cert certificates/clients/k-alice.crt --key certificates/clients/k-alice.key \
+        "https://localhost:$port/whoAmI" > /dev/null
+    java -jar load-test/target/load-test.jar --"$urlOption"="https://localhost:$port" --mix="$mix" \
+        --warmup=0s --duration="$TRAINING_DURATION" --concurrency=8 --results="$OUTPUT/$module-training.json" \
+        > "$OUTPUT/$module-training-requests.log" 2>&1
+    if ! require_collectors "$port" "$@"; then
+        stop "$pid"
+        exit 1
+    fi
+    stop "$pid"
+
+    if [ ! -f "$archive" ]; then
+        echo "No archive was created for $module, see $OUTPUT/$module-training.log" >&2
+        exit 1
+    fi
+    echo "$archive: $(du -h "$archive" | cut -f1)"
+}
+
+train example1-cookie-and-api-token example1-url cookie=50,api-key=50 \
+    Cookie-SSO API-Key StaticUser-anonymous
+train example2-client-cert-and-access-token example2-url client-cert=50,cert-and-token=50 \
+    x509-cert stateless-access-token StaticUser-anonymous
@@ -0,0 +1,58 @@
+#!/usr/bin/env bash
+#
+# Functions shared by the startup scripts. Requires curl and Linux (the memory is read from /proc).
+#
+# The examples must be built with the 'appcds' profile:
+#   mvn clean package -Pappcds
+
+EXAMPLES=(example1-cookie-and-api-token example2-client-cert-and-access-token)
+OUTPUT=startup/target
+mkdir -p "$OUTPUT"
+
+require_java_13() {
+    local feature
+    feature=$(java -XshowSettings:properties -version 2>&1 | awk -F'= ' '/java.specification.version/ { print $2 }')
+    if [ "${feature%%.*}" -lt 13 ]; then
+        echo "The CDS archives of the examples are dynamic archives, they need Java 13 or later, this JVM is $feature" >&2
+        exit 2
+    fi
+}
+
+exec_jar() {
+    ls "$1"/target/spring-security-multi-auth-examples-*-exec.jar | head -1
+}
+
+appcds_jar() {
+    ls "$1"/target/appcds/spring-security-multi-auth-examples-*-appcds.jar | head -1
+}
+
+appcds_archive() {
+    echo "$1/target/appcds/app.jsa"
+}
+
+free_port() {
+    python3 -c 'import socket; s = socket.socket(); s.bind(("", 0)); print(s.getsockname()[1]); s.close()'
+}
+
+# wait_for_health <port> <pid>: fails if the app exits or isn't healthy within a minute
+wait_for_health() {
+    local port=$1 pid=$2
+    for _ in $(seq 1 1200); do
+        if curl -ksf "https://localhost:$port/actuator/health" > /dev/null 2>&1; then
+            return 0
+        fi
+        if ! kill -0 "$pid" 2> /dev/null; then
+            echo "The app on port $port exited" >&2
+            return 1
+        fi
+        sleep 0.05
+    done
+    echo "The app on port $port didn't start" >&2
+    return 1
+}
+
+# stop <pid>: the JVM exits normally, which is when a dynamic CDS archive is written
+stop() {
+    kill -TERM "$1"
+    wait "$1" 2> /dev/null || true
+}
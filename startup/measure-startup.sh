@@ -0,0 +1,66 @@
+#!/usr/bin/env bash
+#
+# Measures the startup of the servlet examples, from the executable jar, from the plain jar and its dependencies, and
+# from the plain jar with the CDS archive of startup/create-appcds-archives.sh:
+# - the time from the start of the JVM to the first healthy answer of '/actuator/health', the median of the runs
+# - the startup time reported by Spring Boot, the median of the runs
+# - the resident memory (RSS) of the JVM once healthy, the median of the runs
+#
+#   mvn clean package -Pappcds
+#   ./startup/create-appcds-archives.sh
+#   ./startup/measure-startup.sh
+#
+# Settings, from the environment:
+#   RUNS      how many times each app is started (default 5)
+#   JVM_OPTS  JVM options added to every run, for example '-Xmx512m'
+
+set -euo pipefail
+
+cd "$(dirname "$0")/.."
+source startup/lib.sh
+
+RUNS=${RUNS:-5}
+JVM_OPTS=${JVM_OPTS:-}
+
+median() {
+    sort -n | awk '{ values[NR] = $1 } END { print (NR % 2) ? values[(NR + 1) / 2] : (values[NR / 2] + values[NR / 2 + 1]) / 2 }'
+}
+
+# measure <module> <label> <java arguments...>
+measure() {
+    local module=$1 label=$2
+    shift 2
+    local port pid start healthyAt log
+    local -a times springTimes rss
+    for run in $(seq 1 "$RUNS"); do
+        port=$(free_port)
+        log="$OUTPUT/$module-$label-$run.log"
+        start=$(date +%s%N)
+        # shellcheck disable=SC2086
+        java $JVM_OPTS "$@" --server.port="$port" --logging.level.dev.openbanking4=WARN > "$log" 2>&1 &
+        pid=$!
+        wait_for_health "$port" "$pid"
+        healthyAt=$(date +%s%N)
+        times+=($(( (healthyAt - start) / 1000000 )))
+        springTimes+=("$(sed -n 's/.* Started .* in \([0-9.]*\) seconds.*/\1/p' "$log" | head -1)")
+        rss+=($(( $(awk '/^VmRSS:/ { print $2 }' "/proc/$pid/status") / 1024 )))
+        stop "$pid"
+    done
+    printf "%-40s %-10s %12s %12s %10s\n" "$module" "$label" \
+        "$(printf '%s\n' "${times[@]}" | median)" \
+        "$(printf '%s\n' "${springTimes[@]}" | median)" \
+        "$(printf '%s\n' "${rss[@]}" | median)"
+}
+
+echo "Median of $RUNS runs, $(java -version 2>&1 | head -1)"
+printf "%-40s %-10s %12s %12s %10s\n" "example" "mode" "healthy (ms)" "spring (s)" "RSS (MB)"
+for module in "${EXAMPLES[@]}"; do
+    measure "$module" exec-jar -jar "$(exec_jar "$module")"
+    measure "$module" plain-jar -jar "$(appcds_jar "$module")"
+    if [ -f "$(appcds_archive "$module")" ]; then
+        measure "$module" appcds -XX:SharedArchiveFile="$(appcds_archive "$module")" -jar "$(appcds_jar "$module")"
+    else
+        echo "No CDS archive for $module, run ./startup/create-appcds-archives.sh first" >&2
+    fi
+done
+echo "The logs of the apps are in $OUTPUT"